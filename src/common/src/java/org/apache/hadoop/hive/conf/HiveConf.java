@@ -258,6 +258,9 @@ public class HiveConf extends Configuration {
     HIVEALIAS("hive.alias", ""),
     HIVEMAPSIDEAGGREGATE("hive.map.aggr", "true"),
     HIVEGROUPBYSKEW("hive.groupby.skewindata", "false"),
+    HIVEGROUPBYSKEWADAPTIVE("hive.groupby.skewindata.adaptive", false),
+    HIVEGROUPBYSKEWSAMPLEROWS("hive.groupby.skewindata.sample.rows", 100000L),
+    HIVEGROUPBYSKEWHEAVYFRACTION("hive.groupby.skewindata.heavy.fraction", (float) 0.01),
     HIVEJOINEMITINTERVAL("hive.join.emit.interval", 1000),
     HIVEJOINCACHESIZE("hive.join.cache.size", 25000),
     HIVEMAPJOINBUCKETCACHESIZE("hive.mapjoin.bucket.cache.size", 100),
@@ -268,6 +271,18 @@ public class HiveConf extends Configuration {
     HIVEMAPJOINFOLLOWEDBYMAPAGGRHASHMEMORY("hive.mapjoin.followby.map.aggr.hash.percentmemory", (float) 0.3),
     HIVEMAPAGGRMEMORYTHRESHOLD("hive.map.aggr.hash.force.flush.memory.threshold", (float) 0.9),
     HIVEMAPAGGRHASHMINREDUCTION("hive.map.aggr.hash.min.reduction", (float) 0.5),
+    HIVEMAPAGGRHASHSPILL("hive.map.aggr.hash.spill", false),
+    HIVEMAPAGGRHASHSPILLPARTITIONS("hive.map.aggr.hash.spill.partitions", 16),
+    HIVEMAPAGGRHASHFLAT("hive.map.aggr.hash.flat", true),
+    HIVEVECTORIZATIONENABLED("hive.vectorized.execution.enabled", false),
+    HIVEEXPRCOMPILE("hive.exec.expression.compile", false),
+    HIVEEXPRCSE("hive.exec.expression.cse", true),
+    HIVEFILTERREORDER("hive.exec.filter.reorder", false),
+    HIVEFILTERREORDERINTERVAL("hive.exec.filter.reorder.interval", 10000),
+    HIVEREDUCEKEYLAZY("hive.exec.reducer.key.lazy", true),
+    HIVEREDUCESINKDEDUP("hive.exec.reducesink.dedup", false),
+    HIVEREDUCESINKDEDUPBUFFER("hive.exec.reducesink.dedup.buffer.size", 8388608),
+    HIVEREDUCESINKKEYHASH("hive.exec.reducesink.key.hash", false),
 
     // for hive udtf operator
     HIVEUDTFAUTOPROGRESS("hive.udtf.auto.progress", false),
@@ -278,6 +293,16 @@ public class HiveConf extends Configuration {
     HIVEQUERYRESULTFILEFORMAT("hive.query.result.fileformat", "TextFile"),
     HIVECHECKFILEFORMAT("hive.fileformat.check", true),
 
+    // RCFile extensions, off by default since older readers cannot open the
+    // files written with them
+    HIVERCFILECOLUMNSTATS("hive.io.rcfile.column.stats", false),
+    HIVERCFILECOLUMNENCODING("hive.io.rcfile.column.encoding", false),
+    HIVERCFILEROWGROUPINDEX("hive.io.rcfile.rowgroup.index", false),
+    HIVERCFILEROWGROUPSKIP("hive.io.rcfile.rowgroup.skip", true),
+    HIVERCFILEROWGROUPSPLIT("hive.io.rcfile.rowgroup.split", false),
+    HIVERCFILEREADAHEAD("hive.io.rcfile.readahead.rowgroups", 0),
+    HIVERCFILECOMPRESSTHREADS("hive.io.rcfile.compress.threads", 1),
+
     //Location of Hive run time structured log file
     HIVEHISTORYFILELOC("hive.querylog.location", "/tmp/" + System.getProperty("user.name")),
 
@@ -324,6 +349,14 @@ public class HiveConf extends Configuration {
     HIVEHASHTABLEFOLLOWBYGBYMAXMEMORYUSAGE("hive.mapjoin.followby.gby.localtask.max.memory.usage", (float) 0.55),
     HIVEHASHTABLEMAXMEMORYUSAGE("hive.mapjoin.localtask.max.memory.usage", (float) 0.90),
     HIVEHASHTABLESCALE("hive.mapjoin.check.memory.rows", (long)100000),
+    HIVEHASHTABLECOMPACTFORMAT("hive.mapjoin.hashtable.compact", true),
+    HIVEMAPJOINMAPPEDHASHTABLE("hive.mapjoin.hashtable.mmap", false),
+    HIVEMAPJOINLONGKEYHASHTABLE("hive.mapjoin.hashtable.longkey", true),
+    HIVEMAPJOINHYBRID("hive.mapjoin.hybrid", true),
+    HIVEMAPJOINHYBRIDPARTITIONS("hive.mapjoin.hybrid.partitions", 16),
+    HIVEMAPJOINBLOOMFILTER("hive.mapjoin.bloomfilter", true),
+    HIVEMAPJOINBLOOMFILTERFPP("hive.mapjoin.bloomfilter.fpp", (float) 0.05),
+    HIVEMAPJOINHASHTABLECACHE("hive.mapjoin.hashtable.cache", true),
 
     HIVEDEBUGLOCALTASK("hive.debug.localtask",false),
 
@@ -348,6 +381,7 @@ public class HiveConf extends Configuration {
     HIVEOPTBUCKETMAPJOIN("hive.optimize.bucketmapjoin", false), // optimize bucket map join
     HIVEOPTSORTMERGEBUCKETMAPJOIN("hive.optimize.bucketmapjoin.sortedmerge", false), // try to use sorted merge bucket map join
     HIVEOPTREDUCEDEDUPLICATION("hive.optimize.reducededuplication", true),
+    HIVEOPTCONSTANTFOLDING("hive.optimize.constant.folding", false), // fold constant expressions
 
     // Statistics
     HIVESTATSAUTOGATHER("hive.stats.autogather", true),
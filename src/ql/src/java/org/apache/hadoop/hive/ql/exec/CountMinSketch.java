@@ -0,0 +1,86 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.Random;
+
+/**
+ * CountMinSketch estimates the frequencies of the hash codes of a stream in a
+ * fixed space: depth rows of width counters, each row indexed by a different
+ * hash of the hash code. An estimate is never below the true count, and is
+ * above it by at most 2 / width of the total count with a probability of
+ * 1 - 1 / 2^depth.
+ */
+public class CountMinSketch {
+
+  private final int depth;
+  private final int widthBits;
+  private final long[] counts;
+  private final int[] multipliers;
+
+  /**
+   * @param depth
+   *          the number of rows
+   * @param width
+   *          the number of counters of a row, rounded up to a power of 2
+   */
+  public CountMinSketch(int depth, int width) {
+    this.depth = depth;
+    int bits = 1;
+    while ((1 << bits) < width) {
+      bits++;
+    }
+    widthBits = bits;
+    counts = new long[depth << widthBits];
+    // odd multipliers for a multiply-shift hash per row, fixed so that the
+    // estimates are deterministic
+    multipliers = new int[depth];
+    Random random = new Random(0x5ca1ab1e);
+    for (int i = 0; i < depth; i++) {
+      multipliers[i] = random.nextInt() | 1;
+    }
+  }
+
+  private int index(int row, int hashCode) {
+    return (row << widthBits) + ((hashCode * multipliers[row]) >>> (32 - widthBits));
+  }
+
+  /**
+   * Counts one occurrence of the hash code.
+   *
+   * @return the estimated count of the hash code, this one included
+   */
+  public long add(int hashCode) {
+    long estimate = Long.MAX_VALUE;
+    for (int i = 0; i < depth; i++) {
+      estimate = Math.min(estimate, ++counts[index(i, hashCode)]);
+    }
+    return estimate;
+  }
+
+  /**
+   * Returns the estimated count of the hash code.
+   */
+  public long estimate(int hashCode) {
+    long estimate = Long.MAX_VALUE;
+    for (int i = 0; i < depth; i++) {
+      estimate = Math.min(estimate, counts[index(i, hashCode)]);
+    }
+    return estimate;
+  }
+}
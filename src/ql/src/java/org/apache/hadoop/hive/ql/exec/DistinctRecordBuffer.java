@@ -0,0 +1,179 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hive.ql.io.HiveKey;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+
+/**
+ * DistinctRecordBuffer collects the serialized records of a reduce sink, and
+ * emits each distinct record once when it is flushed. The records are sorted
+ * on their bytes like the shuffle would sort them, so that the duplicates are
+ * next to each other.
+ */
+public class DistinctRecordBuffer implements IndexedSortable {
+
+  private static final int KEY_START = 0;
+  private static final int KEY_LENGTH = 1;
+  private static final int VALUE_LENGTH = 2;
+  private static final int HASH_CODE = 3;
+  private static final int RECORD_INFO = 4;
+
+  private final int capacity;
+
+  /**
+   * The bytes of the records, each key followed by its value.
+   */
+  private byte[] data;
+  private int used;
+
+  /**
+   * The start and lengths of the key and value, and the hash code of each
+   * record.
+   */
+  private int[] records;
+  private int numRecords;
+
+  /**
+   * The records in sorted order.
+   */
+  private int[] order;
+
+  private final HiveKey key = new HiveKey();
+  private final BytesWritable value = new BytesWritable();
+
+  public DistinctRecordBuffer(int capacity) {
+    this.capacity = capacity;
+    data = new byte[Math.min(capacity, 64 * 1024)];
+    records = new int[1024 * RECORD_INFO];
+  }
+
+  /**
+   * Adds a record to the buffer.
+   *
+   * @return false if the buffer is full and must be flushed first
+   */
+  public boolean add(HiveKey k, BytesWritable v) {
+    int keyLength = k.getLength();
+    int valueLength = v.getLength();
+    int length = keyLength + valueLength;
+    if (used + length > capacity && numRecords > 0) {
+      return false;
+    }
+    if (used + length > data.length) {
+      byte[] newData = new byte[Math.max(used + length, Math.min(capacity,
+          data.length * 2))];
+      System.arraycopy(data, 0, newData, 0, used);
+      data = newData;
+    }
+    if ((numRecords + 1) * RECORD_INFO > records.length) {
+      int[] newRecords = new int[records.length * 2];
+      System.arraycopy(records, 0, newRecords, 0, numRecords * RECORD_INFO);
+      records = newRecords;
+    }
+    int info = numRecords * RECORD_INFO;
+    records[info + KEY_START] = used;
+    records[info + KEY_LENGTH] = keyLength;
+    records[info + VALUE_LENGTH] = valueLength;
+    records[info + HASH_CODE] = k.hashCode();
+    System.arraycopy(k.get(), 0, data, used, keyLength);
+    System.arraycopy(v.get(), 0, data, used + keyLength, valueLength);
+    used += length;
+    numRecords++;
+    return true;
+  }
+
+  public int getNumRecords() {
+    return numRecords;
+  }
+
+  /**
+   * Emits the distinct records of the buffer, and empties it.
+   *
+   * @return the number of records emitted
+   */
+  public int flush(OutputCollector<HiveKey, BytesWritable> out)
+      throws IOException {
+    if (order == null || order.length < numRecords) {
+      order = new int[records.length / RECORD_INFO];
+    }
+    for (int i = 0; i < numRecords; i++) {
+      order[i] = i;
+    }
+    new QuickSort().sort(this, 0, numRecords);
+
+    int emitted = 0;
+    for (int i = 0; i < numRecords; i++) {
+      if (i > 0 && compareRecords(order[i - 1], order[i]) == 0) {
+        continue;
+      }
+      int info = order[i] * RECORD_INFO;
+      int keyStart = records[info + KEY_START];
+      int keyLength = records[info + KEY_LENGTH];
+      key.set(data, keyStart, keyLength);
+      key.setHashCode(records[info + HASH_CODE]);
+      value.set(data, keyStart + keyLength, records[info + VALUE_LENGTH]);
+      out.collect(key, value);
+      emitted++;
+    }
+    used = 0;
+    numRecords = 0;
+    return emitted;
+  }
+
+  private int compareRecords(int r1, int r2) {
+    int info1 = r1 * RECORD_INFO;
+    int info2 = r2 * RECORD_INFO;
+    int keyStart1 = records[info1 + KEY_START];
+    int keyStart2 = records[info2 + KEY_START];
+    int keyLength1 = records[info1 + KEY_LENGTH];
+    int keyLength2 = records[info2 + KEY_LENGTH];
+    int c = WritableComparator.compareBytes(data, keyStart1, keyLength1, data,
+        keyStart2, keyLength2);
+    if (c != 0) {
+      return c;
+    }
+    c = WritableComparator.compareBytes(data, keyStart1 + keyLength1,
+        records[info1 + VALUE_LENGTH], data, keyStart2 + keyLength2,
+        records[info2 + VALUE_LENGTH]);
+    if (c != 0) {
+      return c;
+    }
+    int hashCode1 = records[info1 + HASH_CODE];
+    int hashCode2 = records[info2 + HASH_CODE];
+    return hashCode1 < hashCode2 ? -1 : (hashCode1 == hashCode2 ? 0 : 1);
+  }
+
+  @Override
+  public int compare(int i, int j) {
+    return compareRecords(order[i], order[j]);
+  }
+
+  @Override
+  public void swap(int i, int j) {
+    int tmp = order[i];
+    order[i] = order[j];
+    order[j] = tmp;
+  }
+}
@@ -556,6 +556,12 @@ public class ExecDriver extends Task<MapredWork> implements Serializable {
     // it
     String auxJars = HiveConf.getVar(job, HiveConf.ConfVars.HIVEAUXJARS);
     String addedJars = HiveConf.getVar(job, HiveConf.ConfVars.HIVEADDEDJARS);
+    // the UDF invokers and the expression compiler generate classes with asm,
+    // which is not bundled into hive-exec
+    String asmJar = ExprNodeCompiler.getAsmJar();
+    if (asmJar != null) {
+      auxJars = StringUtils.isNotBlank(auxJars) ? auxJars + "," + asmJar : asmJar;
+    }
     if (StringUtils.isNotBlank(auxJars) || StringUtils.isNotBlank(addedJars)) {
       String allJars = StringUtils.isNotBlank(auxJars) ? (StringUtils.isNotBlank(addedJars) ? addedJars
           + "," + auxJars
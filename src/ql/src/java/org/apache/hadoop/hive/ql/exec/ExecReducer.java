@@ -27,6 +27,7 @@ import java.util.Iterator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.exec.ExecMapper.reportStats;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.MapredWork;
@@ -38,6 +39,7 @@ import org.apache.hadoop.hive.serde2.SerDeUtils;
 import org.apache.hadoop.hive.serde2.io.ByteWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.mapred.JobConf;
@@ -72,6 +74,8 @@ public class ExecReducer extends MapReduceBase implements Reducer {
 
   // TODO: move to DynamicSerDe when it's ready
   private Deserializer inputKeyDeserializer;
+  // the key of the current group, if it is deserialized lazily
+  private LazyReduceKey lazyKey;
   // Input value serde needs to be an array to support different SerDe
   // for different tags
   private final SerDe[] inputValueDeserializer = new SerDe[Byte.MAX_VALUE];
@@ -121,6 +125,12 @@ public class ExecReducer extends MapReduceBase implements Reducer {
           .getDeserializerClass(), null);
       inputKeyDeserializer.initialize(null, keyTableDesc.getProperties());
       keyObjectInspector = inputKeyDeserializer.getObjectInspector();
+      if (HiveConf.getBoolVar(job, HiveConf.ConfVars.HIVEREDUCEKEYLAZY)
+          && keyObjectInspector instanceof StructObjectInspector) {
+        lazyKey = new LazyReduceKey(inputKeyDeserializer, keyTableDesc);
+        keyObjectInspector = new LazyReduceKey.KeyObjectInspector(
+            (StructObjectInspector) keyObjectInspector);
+      }
       valueTableDesc = new TableDesc[gWork.getTagToValueDesc().size()];
       for (int tag = 0; tag < gWork.getTagToValueDesc().size(); tag++) {
         // We should initialize the SerDe with the TypeInfo when available.
@@ -197,17 +207,22 @@ public class ExecReducer extends MapReduceBase implements Reducer {
           reducer.endGroup();
         }
 
-        try {
-          keyObject = inputKeyDeserializer.deserialize(keyWritable);
-        } catch (Exception e) {
-          throw new HiveException(
-              "Hive Runtime Error: Unable to deserialize reduce input key from "
-              + Utilities.formatBinaryString(keyWritable.get(), 0,
-              keyWritable.getSize()) + " with properties "
-              + keyTableDesc.getProperties(), e);
-        }
-
         groupKey.set(keyWritable.get(), 0, keyWritable.getSize());
+        if (lazyKey != null) {
+          // deserialized from groupKey if an operator reads it
+          lazyKey.set(groupKey);
+          keyObject = lazyKey;
+        } else {
+          try {
+            keyObject = inputKeyDeserializer.deserialize(keyWritable);
+          } catch (Exception e) {
+            throw new HiveException(
+                "Hive Runtime Error: Unable to deserialize reduce input key from "
+                + Utilities.formatBinaryString(keyWritable.get(), 0,
+                keyWritable.getSize()) + " with properties "
+                + keyTableDesc.getProperties(), e);
+          }
+        }
         l4j.trace("Start Group");
         reducer.startGroup();
         reducer.setGroupKeyObject(keyObject);
@@ -0,0 +1,65 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+/**
+ * Evaluates an expression with the class ExprNodeCompiler generates for it,
+ * or with the usual evaluator if it cannot be compiled.
+ */
+public class ExprNodeCompiledEvaluator extends ExprNodeEvaluator {
+
+  private static final Log LOG = LogFactory.getLog(ExprNodeCompiledEvaluator.class.getName());
+
+  private final ExprNodeDesc expr;
+  private transient ExprNodeCompiler.CompiledExpression compiled;
+  private transient ExprNodeEvaluator evaluator;
+
+  public ExprNodeCompiledEvaluator(ExprNodeDesc expr) {
+    this.expr = expr;
+  }
+
+  @Override
+  public ObjectInspector initialize(ObjectInspector rowInspector) throws HiveException {
+    try {
+      compiled = ExprNodeCompiler.compile(expr, rowInspector);
+    } catch (LinkageError e) {
+      // the generated class is rejected, or asm is not on the classpath
+      LOG.warn("Cannot compile " + expr.getExprString(), e);
+    }
+    if (compiled != null) {
+      return compiled.getOutputObjectInspector();
+    }
+    evaluator = ExprNodeEvaluatorFactory.get(expr);
+    return evaluator.initialize(rowInspector);
+  }
+
+  @Override
+  public Object evaluate(Object row) throws HiveException {
+    return compiled != null ? compiled.evaluate(row) : evaluator.evaluate(row);
+  }
+
+  public boolean isCompiled() {
+    return compiled != null;
+  }
+}
@@ -0,0 +1,1164 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.lang.reflect.Constructor;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.udf.UDFOPDivide;
+import org.apache.hadoop.hive.ql.udf.UDFOPMinus;
+import org.apache.hadoop.hive.ql.udf.UDFOPMultiply;
+import org.apache.hadoop.hive.ql.udf.UDFOPPlus;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFBridge;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPAnd;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNot;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNotEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNotNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPOr;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.shims.HadoopShims;
+import org.apache.hadoop.hive.shims.ShimLoader;
+import org.apache.hadoop.io.Text;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Compiles an expression tree into a generated class, whose evaluate() reads
+ * the columns with the primitive getters of their ObjectInspectors and
+ * computes the arithmetic, the comparisons and the boolean operators on
+ * primitive values, instead of going through the GenericUDFs, their
+ * DeferredObjects and the conversions of GenericUDFBridge for every row.
+ *
+ * The parts of the tree which cannot be compiled (other functions, nested
+ * fields, strings compared as java Strings...) are evaluated by the usual
+ * ExprNodeEvaluators, called from the generated code. The semantics are the
+ * ones of the GenericUDFs: nulls propagate through the arithmetic and the
+ * comparisons, and and/or use three valued logic and only evaluate their
+ * second argument when the first one does not decide the result.
+ *
+ * The generated classes only depend on the shape and the types of the tree,
+ * the ObjectInspectors, fields and constants are passed to their
+ * constructor: they are cached by that signature and shared by the
+ * expressions which only differ by their constants or columns.
+ */
+public final class ExprNodeCompiler {
+
+  private static final Log LOG = LogFactory.getLog(ExprNodeCompiler.class.getName());
+
+  /**
+   * The base class of the generated expressions.
+   */
+  public abstract static class CompiledExpression {
+
+    private static final HadoopShims SHIMS = ShimLoader.getHadoopShims();
+
+    private ObjectInspector outputObjectInspector;
+
+    public abstract Object evaluate(Object row) throws HiveException;
+
+    public ObjectInspector getOutputObjectInspector() {
+      return outputObjectInspector;
+    }
+
+    /**
+     * Compares strings like GenericUDFBaseCompare does.
+     */
+    public static int compareText(Text a, Text b) {
+      return SHIMS.compareText(a, b);
+    }
+  }
+
+  private static final String BASE_CLASS = CompiledExpression.class.getName().replace('.', '/');
+  private static final String PACKAGE = "org/apache/hadoop/hive/ql/exec/compiled/";
+
+  private static final GeneratedClassLoader LOADER = new GeneratedClassLoader();
+  private static final Map<String, Constructor<?>> CLASSES = new HashMap<String, Constructor<?>>();
+
+  private static class GeneratedClassLoader extends ClassLoader {
+    GeneratedClassLoader() {
+      super(ExprNodeCompiler.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  private ExprNodeCompiler() {
+  }
+
+  /**
+   * Compiles an expression.
+   *
+   * @return the compiled expression, or null if the expression is not worth
+   *         compiling: only functions whose result is a primitive other than
+   *         a string are
+   */
+  public static CompiledExpression compile(ExprNodeDesc expr, ObjectInspector rowInspector)
+      throws HiveException {
+    Node root = new Planner(rowInspector).plan(expr);
+    if (root == null || root instanceof Leaf || root instanceof Constant
+        || root.category == null || root.category == PrimitiveCategory.STRING) {
+      return null;
+    }
+    StringBuilder signature = new StringBuilder();
+    signature.append(root.category).append(':');
+    root.signature(signature);
+
+    Generator generator = new Generator();
+    Constructor<?> constructor;
+    synchronized (CLASSES) {
+      constructor = CLASSES.get(signature.toString());
+      if (constructor == null) {
+        String className = PACKAGE + "Expression" + CLASSES.size();
+        byte[] bytes = generator.generate(className, root);
+        try {
+          constructor = LOADER.define(className.replace('/', '.'), bytes).getConstructor(
+              Object[].class);
+        } catch (NoSuchMethodException e) {
+          throw new HiveException(e);
+        }
+        CLASSES.put(signature.toString(), constructor);
+        LOG.info("Compiled " + expr.getExprString() + " into " + className + ": " + signature);
+      } else {
+        // only collect the arguments of the constructor
+        generator.generate(null, root);
+      }
+    }
+    CompiledExpression compiled;
+    try {
+      compiled = (CompiledExpression) constructor.newInstance(
+          new Object[] {generator.args.toArray()});
+    } catch (Exception e) {
+      throw new HiveException("Cannot instantiate the compiled " + expr.getExprString(), e);
+    }
+    compiled.outputObjectInspector = PrimitiveObjectInspectorFactory
+        .getPrimitiveWritableObjectInspector(root.category);
+    return compiled;
+  }
+
+  /**
+   * The number of classes generated by this JVM.
+   */
+  public static int getNumClasses() {
+    synchronized (CLASSES) {
+      return CLASSES.size();
+    }
+  }
+
+  /**
+   * The URL of the jar asm is loaded from, which has to be shipped to the
+   * tasks since asm is not bundled into hive-exec, or null if asm is not
+   * loaded from a jar.
+   */
+  public static String getAsmJar() {
+    CodeSource source = ClassWriter.class.getProtectionDomain().getCodeSource();
+    if (source == null || source.getLocation() == null) {
+      return null;
+    }
+    String location = source.getLocation().toString();
+    return location.endsWith(".jar") ? location : null;
+  }
+
+  private static enum Arithmetic {
+    ADD(Opcodes.IADD), SUBTRACT(Opcodes.ISUB), MULTIPLY(Opcodes.IMUL), DIVIDE(Opcodes.IDIV);
+
+    // the int opcode, the long/float/double ones follow it
+    private final int opcode;
+
+    Arithmetic(int opcode) {
+      this.opcode = opcode;
+    }
+  }
+
+  private static enum Comparison {
+    EQUAL(Opcodes.IFEQ), NOT_EQUAL(Opcodes.IFNE), LESS(Opcodes.IFLT),
+    LESS_EQUAL(Opcodes.IFLE), GREATER(Opcodes.IFGT), GREATER_EQUAL(Opcodes.IFGE);
+
+    // the jump taken when the sign of the comparison satisfies it
+    private final int opcode;
+
+    Comparison(int opcode) {
+      this.opcode = opcode;
+    }
+  }
+
+  /**
+   * The JVM types the values are held in.
+   */
+  private static enum Kind {
+    INT("I", Opcodes.ILOAD, Opcodes.ISTORE),
+    LONG("J", Opcodes.LLOAD, Opcodes.LSTORE),
+    FLOAT("F", Opcodes.FLOAD, Opcodes.FSTORE),
+    DOUBLE("D", Opcodes.DLOAD, Opcodes.DSTORE),
+    OBJECT("Ljava/lang/Object;", Opcodes.ALOAD, Opcodes.ASTORE);
+
+    private final String descriptor;
+    private final int load;
+    private final int store;
+
+    Kind(String descriptor, int load, int store) {
+      this.descriptor = descriptor;
+      this.load = load;
+      this.store = store;
+    }
+
+    int size() {
+      return this == LONG || this == DOUBLE ? 2 : 1;
+    }
+
+    static Kind of(PrimitiveCategory category) {
+      if (category == null) {
+        return OBJECT;
+      }
+      switch (category) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+        return INT;
+      case LONG:
+        return LONG;
+      case FLOAT:
+        return FLOAT;
+      case DOUBLE:
+        return DOUBLE;
+      default:
+        return OBJECT;
+      }
+    }
+  }
+
+  // the numeric types, from the narrowest to the widest
+  private static final List<PrimitiveCategory> NUMERIC = new ArrayList<PrimitiveCategory>();
+  static {
+    NUMERIC.add(PrimitiveCategory.BYTE);
+    NUMERIC.add(PrimitiveCategory.SHORT);
+    NUMERIC.add(PrimitiveCategory.INT);
+    NUMERIC.add(PrimitiveCategory.LONG);
+    NUMERIC.add(PrimitiveCategory.FLOAT);
+    NUMERIC.add(PrimitiveCategory.DOUBLE);
+  }
+
+  /**
+   * A node of the expression tree, which computes a null flag and a value
+   * into two local variables of the generated method.
+   */
+  private abstract static class Node {
+    // the type of the value, null if it is an object which is only checked
+    // for null
+    PrimitiveCategory category;
+    int nullLocal;
+    int valueLocal;
+
+    Node(PrimitiveCategory category) {
+      this.category = category;
+    }
+
+    Kind kind() {
+      return Kind.of(category);
+    }
+
+    abstract void signature(StringBuilder sb);
+
+    /**
+     * Generates the code storing the null flag and the value of the node.
+     */
+    abstract void generate(Generator g);
+  }
+
+  /**
+   * A value read from an object: a column of the row, or the result of an
+   * evaluator.
+   */
+  private static class Leaf extends Node {
+    final StructObjectInspector rowInspector;
+    final StructField field;
+    final ExprNodeEvaluator evaluator;
+    final ObjectInspector oi;
+
+    Leaf(StructObjectInspector rowInspector, StructField field, ExprNodeEvaluator evaluator,
+        ObjectInspector oi) {
+      super(getCategory(oi));
+      this.rowInspector = rowInspector;
+      this.field = field;
+      this.evaluator = evaluator;
+      this.oi = oi;
+    }
+
+    boolean isJavaString() {
+      return category == PrimitiveCategory.STRING && !((PrimitiveObjectInspector) oi)
+          .preferWritable();
+    }
+
+    @Override
+    void signature(StringBuilder sb) {
+      sb.append(field != null ? "col(" : "eval(").append(category).append(')');
+    }
+
+    @Override
+    void generate(Generator g) {
+      MethodVisitor mv = g.mv;
+      if (field != null) {
+        g.loadArg(rowInspector, StructObjectInspector.class);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        g.loadArg(field, StructField.class);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, internalName(StructObjectInspector.class),
+            "getStructFieldData", "(Ljava/lang/Object;" + descriptor(StructField.class)
+            + ")Ljava/lang/Object;");
+      } else {
+        g.loadArg(evaluator, ExprNodeEvaluator.class);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, internalName(ExprNodeEvaluator.class),
+            "evaluate", "(Ljava/lang/Object;)Ljava/lang/Object;");
+      }
+      int object = g.newLocal(Kind.OBJECT);
+      mv.visitVarInsn(Opcodes.ASTORE, object);
+      g.allocate(this);
+      Label notNull = new Label();
+      Label end = new Label();
+      mv.visitVarInsn(Opcodes.ALOAD, object);
+      mv.visitJumpInsn(Opcodes.IFNONNULL, notNull);
+      g.storeNull(this);
+      mv.visitJumpInsn(Opcodes.GOTO, end);
+      mv.visitLabel(notNull);
+      mv.visitInsn(Opcodes.ICONST_0);
+      mv.visitVarInsn(Opcodes.ISTORE, nullLocal);
+      if (category == null) {
+        mv.visitVarInsn(Opcodes.ALOAD, object);
+      } else {
+        Class<?> getter = getGetterClass(category);
+        g.loadArg(oi, getter);
+        mv.visitVarInsn(Opcodes.ALOAD, object);
+        if (category == PrimitiveCategory.STRING) {
+          mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, internalName(getter),
+              "getPrimitiveWritableObject", "(Ljava/lang/Object;)" + descriptor(Text.class));
+        } else {
+          mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, internalName(getter), "get",
+              "(Ljava/lang/Object;)" + getPrimitiveDescriptor(category));
+        }
+      }
+      mv.visitVarInsn(kind().store, valueLocal);
+      mv.visitLabel(end);
+    }
+  }
+
+  private static class Constant extends Node {
+    final Object value;
+
+    Constant(PrimitiveCategory category, Object value) {
+      super(category);
+      this.value = value;
+    }
+
+    @Override
+    void signature(StringBuilder sb) {
+      sb.append(value == null ? "null(" : "const(").append(category).append(')');
+    }
+
+    @Override
+    void generate(Generator g) {
+      MethodVisitor mv = g.mv;
+      g.allocate(this);
+      if (value == null) {
+        g.storeNull(this);
+        return;
+      }
+      mv.visitInsn(Opcodes.ICONST_0);
+      mv.visitVarInsn(Opcodes.ISTORE, nullLocal);
+      switch (kind()) {
+      case INT:
+        g.loadArg(value instanceof Boolean ? (((Boolean) value) ? 1 : 0)
+            : ((Number) value).intValue(), int.class);
+        break;
+      case LONG:
+        g.loadArg(((Number) value).longValue(), long.class);
+        break;
+      case FLOAT:
+        g.loadArg(((Number) value).floatValue(), float.class);
+        break;
+      case DOUBLE:
+        g.loadArg(((Number) value).doubleValue(), double.class);
+        break;
+      default:
+        g.loadArg(new Text(value.toString()), Text.class);
+        break;
+      }
+      mv.visitVarInsn(kind().store, valueLocal);
+    }
+  }
+
+  /**
+   * UDFOPPlus, UDFOPMinus, UDFOPMultiply and UDFOPDivide: both arguments
+   * are converted to the type of the result, like GenericUDFBridge does.
+   */
+  private static class ArithmeticNode extends Node {
+    final Arithmetic op;
+    final Node left;
+    final Node right;
+
+    ArithmeticNode(PrimitiveCategory category, Arithmetic op, Node left, Node right) {
+      super(category);
+      this.op = op;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    void signature(StringBuilder sb) {
+      sb.append(op).append('(').append(category).append(';');
+      left.signature(sb);
+      sb.append(',');
+      right.signature(sb);
+      sb.append(')');
+    }
+
+    @Override
+    void generate(Generator g) {
+      MethodVisitor mv = g.mv;
+      // GenericUDFBridge evaluates all its arguments
+      left.generate(g);
+      right.generate(g);
+      g.allocate(this);
+      mv.visitVarInsn(Opcodes.ILOAD, left.nullLocal);
+      mv.visitVarInsn(Opcodes.ILOAD, right.nullLocal);
+      mv.visitInsn(Opcodes.IOR);
+      mv.visitVarInsn(Opcodes.ISTORE, nullLocal);
+      // the values of null arguments are 0, the result is not used
+      Kind kind = kind();
+      g.load(left, kind);
+      g.load(right, kind);
+      mv.visitInsn(op.opcode + kind.ordinal());
+      if (category == PrimitiveCategory.BYTE) {
+        mv.visitInsn(Opcodes.I2B);
+      } else if (category == PrimitiveCategory.SHORT) {
+        mv.visitInsn(Opcodes.I2S);
+      }
+      mv.visitVarInsn(kind.store, valueLocal);
+    }
+  }
+
+  /**
+   * The comparisons of GenericUDFBaseCompare. The second argument is only
+   * evaluated if the first one is not null.
+   */
+  private static class CompareNode extends Node {
+    final Comparison op;
+    // the type both arguments are compared as: LONG for the integral and
+    // boolean types, FLOAT, DOUBLE or STRING
+    final PrimitiveCategory compareType;
+    final Node left;
+    final Node right;
+
+    CompareNode(Comparison op, PrimitiveCategory compareType, Node left, Node right) {
+      super(PrimitiveCategory.BOOLEAN);
+      this.op = op;
+      this.compareType = compareType;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    void signature(StringBuilder sb) {
+      sb.append(op).append('(').append(compareType).append(';');
+      left.signature(sb);
+      sb.append(',');
+      right.signature(sb);
+      sb.append(')');
+    }
+
+    @Override
+    void generate(Generator g) {
+      MethodVisitor mv = g.mv;
+      g.allocate(this);
+      Label isNull = new Label();
+      Label isTrue = new Label();
+      Label store = new Label();
+      Label end = new Label();
+      left.generate(g);
+      mv.visitVarInsn(Opcodes.ILOAD, left.nullLocal);
+      mv.visitJumpInsn(Opcodes.IFNE, isNull);
+      right.generate(g);
+      mv.visitVarInsn(Opcodes.ILOAD, right.nullLocal);
+      mv.visitJumpInsn(Opcodes.IFNE, isNull);
+      switch (compareType) {
+      case LONG:
+        g.load(left, Kind.LONG);
+        g.load(right, Kind.LONG);
+        mv.visitInsn(Opcodes.LCMP);
+        break;
+      case FLOAT:
+        g.load(left, Kind.FLOAT);
+        g.load(right, Kind.FLOAT);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "compare", "(FF)I");
+        break;
+      case DOUBLE:
+        g.load(left, Kind.DOUBLE);
+        g.load(right, Kind.DOUBLE);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "compare", "(DD)I");
+        break;
+      default:
+        mv.visitVarInsn(Opcodes.ALOAD, left.valueLocal);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, internalName(Text.class));
+        mv.visitVarInsn(Opcodes.ALOAD, right.valueLocal);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, internalName(Text.class));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE_CLASS, "compareText", "("
+            + descriptor(Text.class) + descriptor(Text.class) + ")I");
+        break;
+      }
+      mv.visitJumpInsn(op.opcode, isTrue);
+      mv.visitInsn(Opcodes.ICONST_0);
+      mv.visitJumpInsn(Opcodes.GOTO, store);
+      mv.visitLabel(isTrue);
+      mv.visitInsn(Opcodes.ICONST_1);
+      mv.visitLabel(store);
+      mv.visitVarInsn(Opcodes.ISTORE, valueLocal);
+      mv.visitInsn(Opcodes.ICONST_0);
+      mv.visitVarInsn(Opcodes.ISTORE, nullLocal);
+      mv.visitJumpInsn(Opcodes.GOTO, end);
+      mv.visitLabel(isNull);
+      g.storeNull(this);
+      mv.visitLabel(end);
+    }
+  }
+
+  /**
+   * GenericUDFOPAnd and GenericUDFOPOr: the second argument is only
+   * evaluated when the first one is null or does not decide the result.
+   */
+  private static class LogicNode extends Node {
+    final boolean and;
+    final Node left;
+    final Node right;
+
+    LogicNode(boolean and, Node left, Node right) {
+      super(PrimitiveCategory.BOOLEAN);
+      this.and = and;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    void signature(StringBuilder sb) {
+      sb.append(and ? "AND(" : "OR(");
+      left.signature(sb);
+      sb.append(',');
+      right.signature(sb);
+      sb.append(')');
+    }
+
+    @Override
+    void generate(Generator g) {
+      MethodVisitor mv = g.mv;
+      g.allocate(this);
+      // and is decided by a false argument, or by a true one
+      int decisive = and ? Opcodes.IFEQ : Opcodes.IFNE;
+      Label decided = new Label();
+      Label end = new Label();
+      Label leftNull = new Label();
+      left.generate(g);
+      mv.visitVarInsn(Opcodes.ILOAD, left.nullLocal);
+      mv.visitJumpInsn(Opcodes.IFNE, leftNull);
+      mv.visitVarInsn(Opcodes.ILOAD, left.valueLocal);
+      mv.visitJumpInsn(decisive, decided);
+      mv.visitLabel(leftNull);
+      right.generate(g);
+      Label isNull = new Label();
+      mv.visitVarInsn(Opcodes.ILOAD, right.nullLocal);
+      mv.visitJumpInsn(Opcodes.IFNE, isNull);
+      mv.visitVarInsn(Opcodes.ILOAD, right.valueLocal);
+      mv.visitJumpInsn(decisive, decided);
+      // neither argument decides the result: it is the other value if
+      // neither is null
+      mv.visitVarInsn(Opcodes.ILOAD, left.nullLocal);
+      mv.visitJumpInsn(Opcodes.IFNE, isNull);
+      mv.visitInsn(and ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+      mv.visitVarInsn(Opcodes.ISTORE, valueLocal);
+      mv.visitInsn(Opcodes.ICONST_0);
+      mv.visitVarInsn(Opcodes.ISTORE, nullLocal);
+      mv.visitJumpInsn(Opcodes.GOTO, end);
+      mv.visitLabel(isNull);
+      g.storeNull(this);
+      mv.visitJumpInsn(Opcodes.GOTO, end);
+      mv.visitLabel(decided);
+      mv.visitInsn(and ? Opcodes.ICONST_0 : Opcodes.ICONST_1);
+      mv.visitVarInsn(Opcodes.ISTORE, valueLocal);
+      mv.visitInsn(Opcodes.ICONST_0);
+      mv.visitVarInsn(Opcodes.ISTORE, nullLocal);
+      mv.visitLabel(end);
+    }
+  }
+
+  /**
+   * GenericUDFOPNot, GenericUDFOPNull and GenericUDFOPNotNull.
+   */
+  private static class UnaryNode extends Node {
+    // NOT, NULL or NOT_NULL
+    final String op;
+    final Node child;
+
+    UnaryNode(String op, Node child) {
+      super(PrimitiveCategory.BOOLEAN);
+      this.op = op;
+      this.child = child;
+    }
+
+    @Override
+    void signature(StringBuilder sb) {
+      sb.append(op).append('(');
+      child.signature(sb);
+      sb.append(')');
+    }
+
+    @Override
+    void generate(Generator g) {
+      MethodVisitor mv = g.mv;
+      child.generate(g);
+      g.allocate(this);
+      if (op.equals("NOT")) {
+        // the value of a null child is 0, the result is not used
+        mv.visitVarInsn(Opcodes.ILOAD, child.nullLocal);
+        mv.visitVarInsn(Opcodes.ISTORE, nullLocal);
+        mv.visitVarInsn(Opcodes.ILOAD, child.valueLocal);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IXOR);
+      } else {
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, nullLocal);
+        mv.visitVarInsn(Opcodes.ILOAD, child.nullLocal);
+        if (op.equals("NOT_NULL")) {
+          mv.visitInsn(Opcodes.ICONST_1);
+          mv.visitInsn(Opcodes.IXOR);
+        }
+      }
+      mv.visitVarInsn(Opcodes.ISTORE, valueLocal);
+    }
+  }
+
+  /**
+   * Builds the tree of nodes of an expression.
+   */
+  private static class Planner {
+    private final ObjectInspector rowInspector;
+
+    Planner(ObjectInspector rowInspector) {
+      this.rowInspector = rowInspector;
+    }
+
+    /**
+     * @return the node computing the expression, or null if it can only be
+     *         evaluated by its ExprNodeEvaluator
+     */
+    Node plan(ExprNodeDesc expr) throws HiveException {
+      if (expr instanceof ExprNodeColumnDesc) {
+        String column = ((ExprNodeColumnDesc) expr).getColumn();
+        if (column.indexOf('.') >= 0 || column.indexOf(':') >= 0
+            || !(rowInspector instanceof StructObjectInspector)) {
+          return null;
+        }
+        StructObjectInspector soi = (StructObjectInspector) rowInspector;
+        StructField field = soi.getStructFieldRef(column);
+        return new Leaf(soi, field, null, field.getFieldObjectInspector());
+      }
+      if (expr instanceof ExprNodeConstantDesc) {
+        PrimitiveCategory category = getCategory(expr.getTypeInfo());
+        if (category == null) {
+          return null;
+        }
+        return new Constant(category, ((ExprNodeConstantDesc) expr).getValue());
+      }
+      if (!(expr instanceof ExprNodeGenericFuncDesc)) {
+        return null;
+      }
+      GenericUDF udf = ((ExprNodeGenericFuncDesc) expr).getGenericUDF();
+      List<ExprNodeDesc> children = expr.getChildren();
+      if (udf instanceof GenericUDFBridge) {
+        Arithmetic op = getArithmetic(((GenericUDFBridge) udf).getUdfClass());
+        PrimitiveCategory category = getCategory(expr.getTypeInfo());
+        if (op == null || children.size() != 2 || !NUMERIC.contains(category)
+            || op == Arithmetic.DIVIDE && category != PrimitiveCategory.DOUBLE) {
+          return null;
+        }
+        Node left = planChild(children.get(0));
+        Node right = planChild(children.get(1));
+        // the arguments are converted to the type of the result
+        if (!isWidening(left.category, category) || !isWidening(right.category, category)) {
+          return null;
+        }
+        return new ArithmeticNode(category, op, left, right);
+      }
+      Comparison cmp = getComparison(udf);
+      if (cmp != null) {
+        if (children.size() != 2) {
+          return null;
+        }
+        Node left = planChild(children.get(0));
+        Node right = planChild(children.get(1));
+        PrimitiveCategory compareType = getCompareType(left, right);
+        return compareType == null ? null : new CompareNode(cmp, compareType, left, right);
+      }
+      if (udf instanceof GenericUDFOPAnd || udf instanceof GenericUDFOPOr) {
+        if (children.size() != 2) {
+          return null;
+        }
+        Node left = planChild(children.get(0));
+        Node right = planChild(children.get(1));
+        if (left.category != PrimitiveCategory.BOOLEAN
+            || right.category != PrimitiveCategory.BOOLEAN) {
+          return null;
+        }
+        return new LogicNode(udf instanceof GenericUDFOPAnd, left, right);
+      }
+      if (udf instanceof GenericUDFOPNot) {
+        Node child = planChild(children.get(0));
+        return child.category == PrimitiveCategory.BOOLEAN ? new UnaryNode("NOT", child) : null;
+      }
+      if (udf instanceof GenericUDFOPNull || udf instanceof GenericUDFOPNotNull) {
+        return new UnaryNode(udf instanceof GenericUDFOPNull ? "NULL" : "NOT_NULL",
+            planChild(children.get(0)));
+      }
+      return null;
+    }
+
+    /**
+     * The node of an argument, which reads the result of its evaluator if it
+     * cannot be compiled.
+     */
+    private Node planChild(ExprNodeDesc expr) throws HiveException {
+      Node node = plan(expr);
+      if (node == null) {
+        ExprNodeEvaluator evaluator = ExprNodeEvaluatorFactory.get(expr);
+        node = new Leaf(null, null, evaluator, evaluator.initialize(rowInspector));
+      }
+      return node;
+    }
+  }
+
+  private static PrimitiveCategory getCategory(ObjectInspector oi) {
+    if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
+    }
+    return getSupported(((PrimitiveObjectInspector) oi).getPrimitiveCategory());
+  }
+
+  private static PrimitiveCategory getCategory(TypeInfo type) {
+    if (type.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
+    }
+    return getSupported(((PrimitiveTypeInfo) type).getPrimitiveCategory());
+  }
+
+  private static PrimitiveCategory getSupported(PrimitiveCategory category) {
+    return category == PrimitiveCategory.BOOLEAN || category == PrimitiveCategory.STRING
+        || NUMERIC.contains(category) ? category : null;
+  }
+
+  private static boolean isWidening(PrimitiveCategory from, PrimitiveCategory to) {
+    return NUMERIC.contains(from) && NUMERIC.indexOf(from) <= NUMERIC.indexOf(to);
+  }
+
+  /**
+   * The type GenericUDFBaseCompare compares the arguments as: arguments of
+   * different types are compared as doubles.
+   *
+   * @return the type, or null if the comparison is not compiled
+   */
+  private static PrimitiveCategory getCompareType(Node left, Node right) {
+    PrimitiveCategory c0 = left.category;
+    PrimitiveCategory c1 = right.category;
+    if (c0 == null || c1 == null) {
+      return null;
+    }
+    if (c0 == PrimitiveCategory.STRING && c1 == PrimitiveCategory.STRING) {
+      // strings held by java objects are compared as Strings
+      boolean javaStrings = (left instanceof Leaf && ((Leaf) left).isJavaString())
+          && (right instanceof Leaf && ((Leaf) right).isJavaString());
+      return javaStrings ? null : PrimitiveCategory.STRING;
+    }
+    if (c0 == c1) {
+      return c0 == PrimitiveCategory.FLOAT || c0 == PrimitiveCategory.DOUBLE ? c0
+          : PrimitiveCategory.LONG;
+    }
+    if (NUMERIC.contains(c0) && NUMERIC.contains(c1)) {
+      return PrimitiveCategory.DOUBLE;
+    }
+    return null;
+  }
+
+  private static Arithmetic getArithmetic(Class<?> udfClass) {
+    if (udfClass == UDFOPPlus.class) {
+      return Arithmetic.ADD;
+    } else if (udfClass == UDFOPMinus.class) {
+      return Arithmetic.SUBTRACT;
+    } else if (udfClass == UDFOPMultiply.class) {
+      return Arithmetic.MULTIPLY;
+    } else if (udfClass == UDFOPDivide.class) {
+      return Arithmetic.DIVIDE;
+    }
+    return null;
+  }
+
+  private static Comparison getComparison(GenericUDF udf) {
+    if (udf instanceof GenericUDFOPEqual) {
+      return Comparison.EQUAL;
+    } else if (udf instanceof GenericUDFOPNotEqual) {
+      return Comparison.NOT_EQUAL;
+    } else if (udf instanceof GenericUDFOPLessThan) {
+      return Comparison.LESS;
+    } else if (udf instanceof GenericUDFOPEqualOrLessThan) {
+      return Comparison.LESS_EQUAL;
+    } else if (udf instanceof GenericUDFOPGreaterThan) {
+      return Comparison.GREATER;
+    } else if (udf instanceof GenericUDFOPEqualOrGreaterThan) {
+      return Comparison.GREATER_EQUAL;
+    }
+    return null;
+  }
+
+  private static Class<?> getGetterClass(PrimitiveCategory category) {
+    switch (category) {
+    case BOOLEAN:
+      return BooleanObjectInspector.class;
+    case BYTE:
+      return ByteObjectInspector.class;
+    case SHORT:
+      return ShortObjectInspector.class;
+    case INT:
+      return IntObjectInspector.class;
+    case LONG:
+      return LongObjectInspector.class;
+    case FLOAT:
+      return FloatObjectInspector.class;
+    case DOUBLE:
+      return DoubleObjectInspector.class;
+    default:
+      return StringObjectInspector.class;
+    }
+  }
+
+  private static String getPrimitiveDescriptor(PrimitiveCategory category) {
+    switch (category) {
+    case BOOLEAN:
+      return "Z";
+    case BYTE:
+      return "B";
+    case SHORT:
+      return "S";
+    case INT:
+      return "I";
+    case LONG:
+      return "J";
+    case FLOAT:
+      return "F";
+    default:
+      return "D";
+    }
+  }
+
+  private static String internalName(Class<?> c) {
+    return c.getName().replace('.', '/');
+  }
+
+  private static String descriptor(Class<?> c) {
+    if (c == int.class) {
+      return "I";
+    } else if (c == long.class) {
+      return "J";
+    } else if (c == float.class) {
+      return "F";
+    } else if (c == double.class) {
+      return "D";
+    }
+    return "L" + internalName(c) + ";";
+  }
+
+  /**
+   * Generates the class of an expression, and collects the arguments of its
+   * constructor: each of them is stored in a final field of the class.
+   */
+  private static class Generator {
+    final List<Object> args = new ArrayList<Object>();
+    final List<Class<?>> argClasses = new ArrayList<Class<?>>();
+    String className;
+    MethodVisitor mv;
+    int nextLocal;
+
+    /**
+     * @param className
+     *          the name of the class, or null to only collect the arguments
+     */
+    byte[] generate(String className, Node root) {
+      this.className = className;
+      ClassWriter cw = null;
+      if (className == null) {
+        mv = new NullMethodVisitor();
+      } else {
+        cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+            className, null, BASE_CLASS, null);
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "evaluate",
+            "(Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+      }
+      // this and the row
+      nextLocal = 2;
+      root.generate(this);
+
+      // the result, in the writable object of its type
+      Class<?> writable = PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+          root.category).getPrimitiveWritableClass();
+      Label notNull = new Label();
+      mv.visitVarInsn(Opcodes.ILOAD, root.nullLocal);
+      mv.visitJumpInsn(Opcodes.IFEQ, notNull);
+      mv.visitInsn(Opcodes.ACONST_NULL);
+      mv.visitInsn(Opcodes.ARETURN);
+      mv.visitLabel(notNull);
+      Object result;
+      try {
+        result = writable.newInstance();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      loadArg(result, writable);
+      mv.visitVarInsn(root.kind().load, root.valueLocal);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, internalName(writable), "set", "("
+          + getPrimitiveDescriptor(root.category) + ")V");
+      loadArg(result, writable);
+      mv.visitInsn(Opcodes.ARETURN);
+      if (cw == null) {
+        return null;
+      }
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+
+      generateFields(cw);
+      cw.visitEnd();
+      return cw.toByteArray();
+    }
+
+    private void generateFields(ClassWriter cw) {
+      MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V",
+          null, null);
+      init.visitCode();
+      init.visitVarInsn(Opcodes.ALOAD, 0);
+      init.visitMethodInsn(Opcodes.INVOKESPECIAL, BASE_CLASS, "<init>", "()V");
+      for (int i = 0; i < args.size(); i++) {
+        Class<?> c = argClasses.get(i);
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "f" + i, descriptor(c), null,
+            null).visitEnd();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitVarInsn(Opcodes.ALOAD, 1);
+        init.visitLdcInsn(i);
+        init.visitInsn(Opcodes.AALOAD);
+        if (c.isPrimitive()) {
+          init.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Number");
+          init.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Number", c.getName() + "Value",
+              "()" + descriptor(c));
+        } else {
+          init.visitTypeInsn(Opcodes.CHECKCAST, internalName(c));
+        }
+        init.visitFieldInsn(Opcodes.PUTFIELD, className, "f" + i, descriptor(c));
+      }
+      init.visitInsn(Opcodes.RETURN);
+      init.visitMaxs(0, 0);
+      init.visitEnd();
+    }
+
+    /**
+     * Pushes an argument of the constructor, stored in a field.
+     */
+    void loadArg(Object arg, Class<?> c) {
+      int i = args.size();
+      args.add(arg);
+      argClasses.add(c);
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitFieldInsn(Opcodes.GETFIELD, className, "f" + i, descriptor(c));
+    }
+
+    int newLocal(Kind kind) {
+      int local = nextLocal;
+      nextLocal += kind.size();
+      return local;
+    }
+
+    void allocate(Node node) {
+      node.nullLocal = newLocal(Kind.INT);
+      node.valueLocal = newLocal(node.kind());
+    }
+
+    /**
+     * Sets the node to null. The value is set too, so that it is defined on
+     * all paths for the verifier.
+     */
+    void storeNull(Node node) {
+      mv.visitInsn(Opcodes.ICONST_1);
+      mv.visitVarInsn(Opcodes.ISTORE, node.nullLocal);
+      switch (node.kind()) {
+      case INT:
+        mv.visitInsn(Opcodes.ICONST_0);
+        break;
+      case LONG:
+        mv.visitInsn(Opcodes.LCONST_0);
+        break;
+      case FLOAT:
+        mv.visitInsn(Opcodes.FCONST_0);
+        break;
+      case DOUBLE:
+        mv.visitInsn(Opcodes.DCONST_0);
+        break;
+      default:
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        break;
+      }
+      mv.visitVarInsn(node.kind().store, node.valueLocal);
+    }
+
+    /**
+     * Pushes the value of a numeric or boolean node, converted to kind.
+     */
+    void load(Node node, Kind kind) {
+      Kind from = node.kind();
+      mv.visitVarInsn(from.load, node.valueLocal);
+      if (from == kind) {
+        return;
+      }
+      // I2L, I2F, I2D, L2I, L2F, L2D, F2I, F2L, F2D, D2I, D2L, D2F follow
+      // each other
+      int opcode = Opcodes.I2L + from.ordinal() * 3 + kind.ordinal()
+          - (kind.ordinal() > from.ordinal() ? 1 : 0);
+      mv.visitInsn(opcode);
+    }
+  }
+
+  /**
+   * Ignores the code, when the class is already generated.
+   */
+  private static class NullMethodVisitor implements MethodVisitor {
+    public org.objectweb.asm.AnnotationVisitor visitAnnotationDefault() {
+      return null;
+    }
+
+    public org.objectweb.asm.AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+      return null;
+    }
+
+    public org.objectweb.asm.AnnotationVisitor visitParameterAnnotation(int parameter,
+        String desc, boolean visible) {
+      return null;
+    }
+
+    public void visitAttribute(org.objectweb.asm.Attribute attr) {
+    }
+
+    public void visitCode() {
+    }
+
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+    }
+
+    public void visitInsn(int opcode) {
+    }
+
+    public void visitIntInsn(int opcode, int operand) {
+    }
+
+    public void visitVarInsn(int opcode, int var) {
+    }
+
+    public void visitTypeInsn(int opcode, String type) {
+    }
+
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+    }
+
+    public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+    }
+
+    public void visitJumpInsn(int opcode, Label label) {
+    }
+
+    public void visitLabel(Label label) {
+    }
+
+    public void visitLdcInsn(Object cst) {
+    }
+
+    public void visitIincInsn(int var, int increment) {
+    }
+
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label[] labels) {
+    }
+
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+    }
+
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+    }
+
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+    }
+
+    public void visitLocalVariable(String name, String desc, String signature, Label start,
+        Label end, int index) {
+    }
+
+    public void visitLineNumber(int line, Label label) {
+    }
+
+    public void visitMaxs(int maxStack, int maxLocals) {
+    }
+
+    public void visitEnd() {
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+/**
+ * Creates the evaluators of the expressions of an operator, so that the
+ * deterministic function calls which appear several times in them, like
+ * f(x) in "select f(x), f(x) + 1 where f(x) > 0", are evaluated once per row:
+ * they share an evaluator which remembers its result until the operator
+ * moves to the next row with newRow().
+ *
+ * The shared calls are still evaluated lazily, when an expression first
+ * needs them, so the short circuits of and, or, case... are kept.
+ */
+public class ExprNodeEvaluatorCache {
+
+  /**
+   * The evaluator of a shared expression.
+   */
+  private class CachedEvaluator extends ExprNodeEvaluator {
+    private final ExprNodeEvaluator evaluator;
+    private transient ObjectInspector outputOI;
+    private transient long evaluatedRow = -1;
+    private transient Object result;
+
+    CachedEvaluator(ExprNodeEvaluator evaluator) {
+      this.evaluator = evaluator;
+    }
+
+    @Override
+    public ObjectInspector initialize(ObjectInspector rowInspector) throws HiveException {
+      // initialized by every expression containing it
+      if (outputOI == null) {
+        outputOI = evaluator.initialize(rowInspector);
+      }
+      return outputOI;
+    }
+
+    @Override
+    public Object evaluate(Object row) throws HiveException {
+      if (evaluatedRow != rowNumber) {
+        result = evaluator.evaluate(row);
+        evaluatedRow = rowNumber;
+      }
+      return result;
+    }
+  }
+
+  // the expressions which appear more than once, and their evaluators
+  private final List<ExprNodeDesc> shared = new ArrayList<ExprNodeDesc>();
+  private final List<CachedEvaluator> sharedEvaluators = new ArrayList<CachedEvaluator>();
+  private long rowNumber;
+
+  public ExprNodeEvaluatorCache(List<ExprNodeDesc> exprs) {
+    List<ExprNodeDesc> seen = new ArrayList<ExprNodeDesc>();
+    for (ExprNodeDesc expr : exprs) {
+      collectShared(expr, seen);
+    }
+    for (int i = 0; i < shared.size(); i++) {
+      sharedEvaluators.add(null);
+    }
+  }
+
+  /**
+   * Finds the deterministic function calls which appear more than once.
+   *
+   * @return whether the expression is deterministic
+   */
+  private boolean collectShared(ExprNodeDesc expr, List<ExprNodeDesc> seen) {
+    if (!(expr instanceof ExprNodeGenericFuncDesc)) {
+      return true;
+    }
+    if (indexOf(shared, expr) >= 0) {
+      return true;
+    }
+    if (indexOf(seen, expr) >= 0) {
+      // its arguments are evaluated by the shared evaluator
+      shared.add(expr);
+      return true;
+    }
+    boolean deterministic = FunctionRegistry.isDeterministic(((ExprNodeGenericFuncDesc) expr)
+        .getGenericUDF());
+    for (ExprNodeDesc child : expr.getChildren()) {
+      deterministic &= collectShared(child, seen);
+    }
+    // rand() > 0.5 must be evaluated by each of its occurrences
+    if (deterministic) {
+      seen.add(expr);
+    }
+    return deterministic;
+  }
+
+  private static int indexOf(List<ExprNodeDesc> exprs, ExprNodeDesc expr) {
+    for (int i = 0; i < exprs.size(); i++) {
+      if (exprs.get(i).isSame(expr)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The evaluator of one of the expressions, or of one of their
+   * subexpressions.
+   */
+  public ExprNodeEvaluator get(ExprNodeDesc expr) {
+    int i = expr instanceof ExprNodeGenericFuncDesc ? indexOf(shared, expr) : -1;
+    if (i < 0) {
+      return create(expr);
+    }
+    CachedEvaluator evaluator = sharedEvaluators.get(i);
+    if (evaluator == null) {
+      evaluator = new CachedEvaluator(create(expr));
+      sharedEvaluators.set(i, evaluator);
+    }
+    return evaluator;
+  }
+
+  private ExprNodeEvaluator create(ExprNodeDesc expr) {
+    if (expr instanceof ExprNodeGenericFuncDesc) {
+      return new ExprNodeGenericFuncEvaluator((ExprNodeGenericFuncDesc) expr, this);
+    }
+    return ExprNodeEvaluatorFactory.get(expr);
+  }
+
+  /**
+   * Forgets the results of the previous row. It must be called before the
+   * expressions are evaluated on a new row.
+   */
+  public void newRow() {
+    rowNumber++;
+  }
+
+  /**
+   * The number of expressions evaluated once per row for all their
+   * occurrences.
+   */
+  public int getNumShared() {
+    return shared.size();
+  }
+}
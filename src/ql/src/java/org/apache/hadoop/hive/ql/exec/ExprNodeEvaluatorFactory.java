@@ -17,6 +17,10 @@
 
 package org.apache.hadoop.hive.ql.exec;
 
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
@@ -58,4 +62,32 @@ public final class ExprNodeEvaluatorFactory {
     throw new RuntimeException(
         "Cannot find ExprNodeEvaluator for the exprNodeDesc = " + desc);
   }
+
+  /**
+   * The evaluator of an expression evaluated for every row: its functions
+   * are compiled into bytecode if hive.exec.expression.compile is set.
+   */
+  public static ExprNodeEvaluator get(ExprNodeDesc desc, Configuration conf) {
+    if (desc instanceof ExprNodeGenericFuncDesc
+        && HiveConf.getBoolVar(conf, HiveConf.ConfVars.HIVEEXPRCOMPILE)) {
+      return new ExprNodeCompiledEvaluator(desc);
+    }
+    return get(desc);
+  }
+
+  /**
+   * The cache creating the evaluators of expressions evaluated on the same
+   * rows, so that their common subexpressions are evaluated once per row.
+   *
+   * @return the cache, or null if hive.exec.expression.cse is not set, if the
+   *         expressions are compiled or if they have no common subexpression
+   */
+  public static ExprNodeEvaluatorCache getCache(List<ExprNodeDesc> descs, Configuration conf) {
+    if (!HiveConf.getBoolVar(conf, HiveConf.ConfVars.HIVEEXPRCSE)
+        || HiveConf.getBoolVar(conf, HiveConf.ConfVars.HIVEEXPRCOMPILE)) {
+      return null;
+    }
+    ExprNodeEvaluatorCache cache = new ExprNodeEvaluatorCache(descs);
+    return cache.getNumShared() > 0 ? cache : null;
+  }
 }
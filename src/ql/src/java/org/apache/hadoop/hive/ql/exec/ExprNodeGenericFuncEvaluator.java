@@ -20,6 +20,7 @@ package org.apache.hadoop.hive.ql.exec;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -57,10 +58,20 @@ public class ExprNodeGenericFuncEvaluator extends ExprNodeEvaluator {
   };
 
   public ExprNodeGenericFuncEvaluator(ExprNodeGenericFuncDesc expr) {
+    this(expr, null);
+  }
+
+  /**
+   * @param cache
+   *          the cache creating the evaluators of the arguments, null to
+   *          create them with ExprNodeEvaluatorFactory
+   */
+  public ExprNodeGenericFuncEvaluator(ExprNodeGenericFuncDesc expr, ExprNodeEvaluatorCache cache) {
     this.expr = expr;
     children = new ExprNodeEvaluator[expr.getChildExprs().size()];
     for (int i = 0; i < children.length; i++) {
-      children[i] = ExprNodeEvaluatorFactory.get(expr.getChildExprs().get(i));
+      ExprNodeDesc child = expr.getChildExprs().get(i);
+      children[i] = cache == null ? ExprNodeEvaluatorFactory.get(child) : cache.get(child);
     }
     deferredChildren = new DeferredExprObject[expr.getChildExprs().size()];
     for (int i = 0; i < deferredChildren.length; i++) {
@@ -18,10 +18,19 @@
 package org.apache.hadoop.hive.ql.exec;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
 import org.apache.hadoop.hive.ql.plan.FilterDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -41,19 +50,40 @@ public class FilterOperator extends Operator<FilterDesc> implements
    *
    */
   public static enum Counter {
-    FILTERED, PASSED
+    FILTERED, PASSED, REORDERED
   }
 
+  // the rows are timed one in TIMED_ROWS
+  private static final int TIMED_ROWS = 16;
+
   private final transient LongWritable filtered_count, passed_count;
+  private final transient LongWritable reordered_count;
   private transient ExprNodeEvaluator conditionEvaluator;
+  private transient ExprNodeEvaluatorCache evaluatorCache;
   private transient PrimitiveObjectInspector conditionInspector;
   private transient int consecutiveFails;
+  private transient VectorExpression vectorFilter;
   transient int heartbeatInterval;
 
+  // the conjuncts of the predicate, when they are evaluated in the order of
+  // their costs and pass rates
+  private transient ExprNodeEvaluator[] conjuncts;
+  private transient PrimitiveObjectInspector[] conjunctInspectors;
+  private transient int[] conjunctOrder;
+  // the statistics of the conjuncts since the start, the older rows count
+  // less and less
+  private transient double[] conjunctEvaluated;
+  private transient double[] conjunctPassed;
+  private transient double[] conjunctTimed;
+  private transient double[] conjunctNanos;
+  private transient int reorderInterval;
+  private transient int rowsSinceReorder;
+
   public FilterOperator() {
     super();
     filtered_count = new LongWritable();
     passed_count = new LongWritable();
+    reordered_count = new LongWritable();
     consecutiveFails = 0;
   }
 
@@ -62,27 +92,212 @@ public class FilterOperator extends Operator<FilterDesc> implements
     try {
       heartbeatInterval = HiveConf.getIntVar(hconf,
           HiveConf.ConfVars.HIVESENDHEARTBEAT);
-      conditionEvaluator = ExprNodeEvaluatorFactory.get(conf.getPredicate());
+      List<ExprNodeDesc> conjunctDescs = new ArrayList<ExprNodeDesc>();
+      if (HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEFILTERREORDER)
+          && !getConjuncts(conf.getPredicate(), conjunctDescs)) {
+        conjunctDescs.clear();
+      }
+      if (conjunctDescs.size() > 1) {
+        initializeConjuncts(conjunctDescs, hconf);
+      } else {
+        evaluatorCache = ExprNodeEvaluatorFactory.getCache(
+            Collections.singletonList(conf.getPredicate()), hconf);
+        conditionEvaluator = evaluatorCache != null ? evaluatorCache.get(conf.getPredicate())
+            : ExprNodeEvaluatorFactory.get(conf.getPredicate(), hconf);
+      }
       statsMap.put(Counter.FILTERED, filtered_count);
       statsMap.put(Counter.PASSED, passed_count);
       conditionInspector = null;
     } catch (Throwable e) {
       throw new HiveException(e);
     }
+    if (vectorizationContext != null) {
+      vectorFilter = vectorizationContext.getFilterExpression(conf.getPredicate());
+      if (vectorFilter != null) {
+        vectorized = true;
+        outputVectorizationContext = vectorizationContext;
+      } else {
+        LOG.info("Cannot vectorize the predicate " + conf.getPredicate().getExprString());
+      }
+    }
     initializeChildren(hconf);
   }
 
+  /**
+   * Splits a predicate into its conjuncts.
+   *
+   * @return false if one of them is not deterministic: the conjuncts are then
+   *         evaluated in the order of the query
+   */
+  private static boolean getConjuncts(ExprNodeDesc predicate, List<ExprNodeDesc> conjuncts) {
+    if (FunctionRegistry.isOpAnd(predicate)) {
+      for (ExprNodeDesc child : predicate.getChildren()) {
+        if (!getConjuncts(child, conjuncts)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    conjuncts.add(predicate);
+    return isDeterministic(predicate);
+  }
+
+  private static boolean isDeterministic(ExprNodeDesc expr) {
+    if (expr instanceof ExprNodeGenericFuncDesc
+        && !FunctionRegistry.isDeterministic(((ExprNodeGenericFuncDesc) expr).getGenericUDF())) {
+      return false;
+    }
+    if (expr.getChildren() != null) {
+      for (ExprNodeDesc child : expr.getChildren()) {
+        if (!isDeterministic(child)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private void initializeConjuncts(List<ExprNodeDesc> conjunctDescs, Configuration hconf) {
+    int n = conjunctDescs.size();
+    evaluatorCache = ExprNodeEvaluatorFactory.getCache(conjunctDescs, hconf);
+    conjuncts = new ExprNodeEvaluator[n];
+    for (int i = 0; i < n; i++) {
+      conjuncts[i] = evaluatorCache != null ? evaluatorCache.get(conjunctDescs.get(i))
+          : ExprNodeEvaluatorFactory.get(conjunctDescs.get(i), hconf);
+    }
+    conjunctInspectors = null;
+    conjunctOrder = new int[n];
+    for (int i = 0; i < n; i++) {
+      conjunctOrder[i] = i;
+    }
+    conjunctEvaluated = new double[n];
+    conjunctPassed = new double[n];
+    conjunctTimed = new double[n];
+    conjunctNanos = new double[n];
+    reorderInterval = HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEFILTERREORDERINTERVAL);
+    rowsSinceReorder = 0;
+    statsMap.put(Counter.REORDERED, reordered_count);
+  }
+
+  /**
+   * Evaluates the conjuncts until one of them is not true, and collects
+   * their statistics.
+   */
+  private boolean evaluateConjuncts(Object row, ObjectInspector rowInspector)
+      throws HiveException {
+    if (conjunctInspectors == null) {
+      conjunctInspectors = new PrimitiveObjectInspector[conjuncts.length];
+      for (int i = 0; i < conjuncts.length; i++) {
+        conjunctInspectors[i] = (PrimitiveObjectInspector) conjuncts[i].initialize(rowInspector);
+      }
+    }
+    boolean timed = rowsSinceReorder % TIMED_ROWS == 0;
+    boolean passed = true;
+    for (int k = 0; k < conjunctOrder.length && passed; k++) {
+      int i = conjunctOrder[k];
+      long start = timed ? System.nanoTime() : 0;
+      Object condition = conjuncts[i].evaluate(row);
+      passed = Boolean.TRUE.equals(conjunctInspectors[i].getPrimitiveJavaObject(condition));
+      if (timed) {
+        conjunctNanos[i] += System.nanoTime() - start;
+        conjunctTimed[i]++;
+      }
+      conjunctEvaluated[i]++;
+      if (passed) {
+        conjunctPassed[i]++;
+      }
+    }
+    if (++rowsSinceReorder >= reorderInterval) {
+      reorderConjuncts();
+    }
+    return passed;
+  }
+
+  /**
+   * Orders the conjuncts by increasing cost per row they filter out: it
+   * minimizes the expected cost of a row if the conjuncts are independent.
+   */
+  private void reorderConjuncts() {
+    final double[] rank = new double[conjuncts.length];
+    for (int i = 0; i < conjuncts.length; i++) {
+      double filtered = conjunctEvaluated[i] - conjunctPassed[i];
+      if (conjunctTimed[i] == 0 || filtered <= 0) {
+        // never evaluated yet, or never filters anything out
+        rank[i] = Double.MAX_VALUE;
+      } else {
+        double cost = conjunctNanos[i] / conjunctTimed[i];
+        rank[i] = cost * conjunctEvaluated[i] / filtered;
+      }
+      // the recent rows count more
+      conjunctEvaluated[i] /= 2;
+      conjunctPassed[i] /= 2;
+      conjunctTimed[i] /= 2;
+      conjunctNanos[i] /= 2;
+    }
+    Integer[] order = new Integer[conjuncts.length];
+    for (int k = 0; k < order.length; k++) {
+      order[k] = conjunctOrder[k];
+    }
+    // stable: the conjuncts of equal ranks keep their order
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(rank[a], rank[b]);
+      }
+    });
+    boolean changed = false;
+    for (int k = 0; k < order.length; k++) {
+      changed |= conjunctOrder[k] != order[k];
+      conjunctOrder[k] = order[k];
+    }
+    if (changed) {
+      reordered_count.set(reordered_count.get() + 1);
+      if (LOG.isDebugEnabled()) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < order.length; k++) {
+          sb.append(k == 0 ? "" : ", ").append(conjunctOrder[k]).append(" (rank ").append(
+              rank[conjunctOrder[k]]).append(')');
+        }
+        LOG.debug(id + " evaluates the conjuncts in the order " + sb);
+      }
+    }
+    rowsSinceReorder = 0;
+  }
+
+  /**
+   * The order in which the conjuncts are evaluated, by their indexes in the
+   * predicate, or null if the predicate is not split.
+   */
+  int[] getConjunctOrder() {
+    return conjunctOrder;
+  }
+
   @Override
   public void processOp(Object row, int tag) throws HiveException {
     ObjectInspector rowInspector = inputObjInspectors[tag];
+    if (conjuncts != null) {
+      if (evaluatorCache != null) {
+        evaluatorCache.newRow();
+      }
+      processCondition(row, rowInspector, evaluateConjuncts(row, rowInspector));
+      return;
+    }
     if (conditionInspector == null) {
       conditionInspector = (PrimitiveObjectInspector) conditionEvaluator
           .initialize(rowInspector);
     }
+    if (evaluatorCache != null) {
+      evaluatorCache.newRow();
+    }
     Object condition = conditionEvaluator.evaluate(row);
     Boolean ret = (Boolean) conditionInspector
         .getPrimitiveJavaObject(condition);
-    if (Boolean.TRUE.equals(ret)) {
+    processCondition(row, rowInspector, Boolean.TRUE.equals(ret));
+  }
+
+  private void processCondition(Object row, ObjectInspector rowInspector, boolean ret)
+      throws HiveException {
+    if (ret) {
       forward(row, rowInspector);
       passed_count.set(passed_count.get() + 1);
       consecutiveFails = 0;
@@ -98,6 +313,36 @@ public class FilterOperator extends Operator<FilterDesc> implements
     }
   }
 
+  @Override
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    int size = batch.size;
+    vectorFilter.evaluate(batch);
+    passed_count.set(passed_count.get() + batch.size);
+    filtered_count.set(filtered_count.get() + size - batch.size);
+    if (batch.size > 0) {
+      consecutiveFails = 0;
+      forwardBatch(batch);
+    } else {
+      consecutiveFails += size;
+      if (consecutiveFails >= heartbeatInterval && reporter != null) {
+        reporter.progress();
+        consecutiveFails = 0;
+      }
+    }
+  }
+
+  @Override
+  protected void closeOp(boolean abort) throws HiveException {
+    if (conjuncts != null) {
+      StringBuilder sb = new StringBuilder();
+      for (int k = 0; k < conjunctOrder.length; k++) {
+        sb.append(k == 0 ? "" : ", ").append(conjunctOrder[k]);
+      }
+      LOG.info(id + " evaluated the conjuncts in the order " + sb + " at the end, after "
+          + reordered_count.get() + " changes");
+    }
+  }
+
   /**
    * @return the name of the operator
    */
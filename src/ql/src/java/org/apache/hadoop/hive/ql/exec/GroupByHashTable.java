@@ -0,0 +1,543 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinHashTableFile;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFCount.GenericUDAFCountEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFMax.GenericUDAFMaxEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFMin.GenericUDAFMinEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum.GenericUDAFSumDouble;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum.GenericUDAFSumLong;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardStructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Hash aggregation table of GroupByOperator for primitive grouping keys and
+ * count, sum, min and max of numbers, which covers most map side
+ * aggregations.
+ *
+ * The keys are serialized with BinarySortableSerDe into a byte arena, and
+ * located by open addressing on their bytes, so a row of an existing group
+ * allocates nothing and a new group does not copy the key objects. Groups are
+ * numbered in insertion order, and the state of each aggregation is kept in
+ * primitive arrays indexed by group.
+ */
+public class GroupByHashTable {
+
+  private static final float LOAD_FACTOR = 0.5f;
+  private static final int INITIAL_GROUPS = 1024;
+
+  private final BinarySortableSerDe keySerDe;
+  private final StandardStructObjectInspector keyObjectInspector;
+  private final Aggregator[] aggregators;
+
+  // the keys of group g are arena[keyOffsets[g], keyOffsets[g + 1])
+  private byte[] arena = new byte[16 * INITIAL_GROUPS];
+  private int arenaLength;
+  private int[] keyOffsets = new int[INITIAL_GROUPS + 1];
+  private int[] keyHashes = new int[INITIAL_GROUPS];
+  private int numGroups;
+
+  // group + 1 of each slot, 0 for an empty slot
+  private int[] slots = new int[(int) (INITIAL_GROUPS / LOAD_FACTOR)];
+
+  private boolean newGroup;
+  private final BytesWritable keyBytes = new BytesWritable();
+  private final Object[] outputRow;
+
+  /**
+   * @param keyObjectInspector
+   *          the ObjectInspector of the key columns of the rows
+   * @param aggregators
+   *          the aggregations, see getAggregator
+   */
+  public GroupByHashTable(StandardStructObjectInspector keyObjectInspector,
+      Aggregator[] aggregators) throws HiveException {
+    this.keyObjectInspector = keyObjectInspector;
+    this.aggregators = aggregators;
+    List<ObjectInspector> keyOIs = new ArrayList<ObjectInspector>();
+    StringBuilder columns = new StringBuilder();
+    StringBuilder columnTypes = new StringBuilder();
+    for (int i = 0; i < keyObjectInspector.getAllStructFieldRefs().size(); i++) {
+      ObjectInspector oi = keyObjectInspector.getAllStructFieldRefs().get(i)
+          .getFieldObjectInspector();
+      keyOIs.add(oi);
+      columns.append(i == 0 ? "" : ",").append("_col" + i);
+      columnTypes.append(i == 0 ? "" : ",").append(
+          TypeInfoUtils.getTypeInfoFromObjectInspector(oi).getTypeName());
+    }
+    keySerDe = new BinarySortableSerDe();
+    try {
+      keySerDe.initialize(null, Utilities.makeProperties(Constants.LIST_COLUMNS, columns
+          .toString(), Constants.LIST_COLUMN_TYPES, columnTypes.toString()));
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+    for (Aggregator aggregator : aggregators) {
+      aggregator.ensureCapacity(INITIAL_GROUPS);
+    }
+    outputRow = new Object[keyOIs.size() + aggregators.length];
+  }
+
+  /**
+   * Whether the keys can be serialized with BinarySortableSerDe and compared
+   * on their bytes.
+   */
+  public static boolean isSupported(ObjectInspector[] keyObjectInspectors) {
+    for (ObjectInspector oi : keyObjectInspectors) {
+      if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the group of the key, adding a group if the key is new.
+   *
+   * @param keys
+   *          the values of the keys, inspected by the key ObjectInspector
+   */
+  public int getGroup(Object[] keys) throws HiveException {
+    BytesWritable bytes;
+    try {
+      bytes = (BytesWritable) keySerDe.serialize(keys, keyObjectInspector);
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+    byte[] key = bytes.getBytes();
+    int length = bytes.getLength();
+    int hash = MapJoinHashTableFile.hashBytes(key, 0, length);
+    int mask = slots.length - 1;
+    newGroup = false;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int group = slots[slot] - 1;
+      if (group < 0) {
+        newGroup = true;
+        group = addGroup(key, length, hash);
+        slots[slot] = group + 1;
+        if (numGroups > slots.length * LOAD_FACTOR) {
+          rehash();
+        }
+        return group;
+      }
+      if (keyHashes[group] == hash && equals(group, key, length)) {
+        return group;
+      }
+    }
+  }
+
+  /**
+   * Whether the last call to getGroup added a group.
+   */
+  public boolean isNewGroup() {
+    return newGroup;
+  }
+
+  private boolean equals(int group, byte[] key, int length) {
+    int offset = keyOffsets[group];
+    if (keyOffsets[group + 1] - offset != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (arena[offset + i] != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int addGroup(byte[] key, int length, int hash) {
+    int group = numGroups++;
+    if (group + 1 >= keyOffsets.length) {
+      int capacity = keyOffsets.length * 2;
+      keyOffsets = Arrays.copyOf(keyOffsets, capacity + 1);
+      keyHashes = Arrays.copyOf(keyHashes, capacity);
+      for (Aggregator aggregator : aggregators) {
+        aggregator.ensureCapacity(capacity);
+      }
+    }
+    if (arenaLength + length > arena.length) {
+      arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + length));
+    }
+    System.arraycopy(key, 0, arena, arenaLength, length);
+    arenaLength += length;
+    keyOffsets[group + 1] = arenaLength;
+    keyHashes[group] = hash;
+    for (Aggregator aggregator : aggregators) {
+      aggregator.reset(group);
+    }
+    return group;
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    int mask = slots.length - 1;
+    for (int group = 0; group < numGroups; group++) {
+      int slot = keyHashes[group] & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = group + 1;
+    }
+  }
+
+  /**
+   * Aggregate the parameters of the aggregation into the group.
+   */
+  public void aggregate(int group, int aggregation, Object[] parameters) throws HiveException {
+    aggregators[aggregation].aggregate(group, parameters);
+  }
+
+  public int size() {
+    return numGroups;
+  }
+
+  public int getHashCode(int group) {
+    return keyHashes[group];
+  }
+
+  /**
+   * Returns the keys and aggregation results of the group, laid out like the
+   * output of GroupByOperator. The row and its objects are reused.
+   */
+  public Object[] getOutputRow(int group) throws HiveException {
+    List<?> keys;
+    try {
+      keyBytes.set(arena, keyOffsets[group], keyOffsets[group + 1] - keyOffsets[group]);
+      keys = (List<?>) keySerDe.deserialize(keyBytes);
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      outputRow[i] = keys.get(i);
+    }
+    for (int i = 0; i < aggregators.length; i++) {
+      outputRow[keys.size() + i] = aggregators[i].evaluate(group);
+    }
+    return outputRow;
+  }
+
+  /**
+   * Returns the heap retained by the table.
+   */
+  public long getMemory() {
+    long size = arena.length + 4L * (keyOffsets.length + keyHashes.length + slots.length);
+    for (Aggregator aggregator : aggregators) {
+      size += aggregator.getMemory();
+    }
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(slots, 0);
+    arenaLength = 0;
+    numGroups = 0;
+  }
+
+  /**
+   * Returns the aggregator for the evaluator of the aggregation, or null if
+   * it cannot be flattened: only the raw rows of count, and of sum, min and
+   * max of numbers, are supported.
+   */
+  public static Aggregator getAggregator(AggregationDesc aggr, GenericUDAFEvaluator evaluator,
+      ObjectInspector[] parameterOIs) {
+    if (aggr.getDistinct() || (aggr.getMode() != GenericUDAFEvaluator.Mode.PARTIAL1
+        && aggr.getMode() != GenericUDAFEvaluator.Mode.COMPLETE)) {
+      return null;
+    }
+    if (evaluator instanceof GenericUDAFCountEvaluator) {
+      return new CountAggregator();
+    }
+    if (parameterOIs.length != 1
+        || parameterOIs[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
+    }
+    PrimitiveObjectInspector oi = (PrimitiveObjectInspector) parameterOIs[0];
+    boolean integral;
+    switch (oi.getPrimitiveCategory()) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      integral = true;
+      break;
+    case FLOAT:
+    case DOUBLE:
+      integral = false;
+      break;
+    default:
+      return null;
+    }
+    if (evaluator instanceof GenericUDAFSumLong && integral) {
+      return new SumLongAggregator(oi);
+    } else if (evaluator instanceof GenericUDAFSumDouble && !integral) {
+      return new SumDoubleAggregator(oi);
+    } else if (evaluator instanceof GenericUDAFMaxEvaluator) {
+      return new MinMaxAggregator(oi, integral, true);
+    } else if (evaluator instanceof GenericUDAFMinEvaluator) {
+      return new MinMaxAggregator(oi, integral, false);
+    }
+    return null;
+  }
+
+  /**
+   * The state of an aggregation for all the groups. The results are the
+   * objects the evaluator they replace returns.
+   */
+  public abstract static class Aggregator {
+    // groups with a non null value, when the result of no value is null
+    protected boolean[] hasValue = new boolean[0];
+
+    void ensureCapacity(int capacity) {
+      hasValue = Arrays.copyOf(hasValue, capacity);
+    }
+
+    void reset(int group) {
+      hasValue[group] = false;
+    }
+
+    abstract void aggregate(int group, Object[] parameters) throws HiveException;
+
+    abstract Object evaluate(int group);
+
+    long getMemory() {
+      return hasValue.length;
+    }
+  }
+
+  static class CountAggregator extends Aggregator {
+    private long[] counts = new long[0];
+    private final LongWritable result = new LongWritable();
+
+    @Override
+    void ensureCapacity(int capacity) {
+      counts = Arrays.copyOf(counts, capacity);
+    }
+
+    @Override
+    void reset(int group) {
+      counts[group] = 0;
+    }
+
+    @Override
+    void aggregate(int group, Object[] parameters) {
+      for (Object parameter : parameters) {
+        if (parameter == null) {
+          return;
+        }
+      }
+      counts[group]++;
+    }
+
+    @Override
+    Object evaluate(int group) {
+      result.set(counts[group]);
+      return result;
+    }
+
+    @Override
+    long getMemory() {
+      return 8L * counts.length;
+    }
+  }
+
+  static class SumLongAggregator extends Aggregator {
+    private final PrimitiveObjectInspector inputOI;
+    private long[] sums = new long[0];
+    private final LongWritable result = new LongWritable();
+
+    SumLongAggregator(PrimitiveObjectInspector inputOI) {
+      this.inputOI = inputOI;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      super.ensureCapacity(capacity);
+      sums = Arrays.copyOf(sums, capacity);
+    }
+
+    @Override
+    void reset(int group) {
+      super.reset(group);
+      sums[group] = 0;
+    }
+
+    @Override
+    void aggregate(int group, Object[] parameters) {
+      if (parameters[0] != null) {
+        hasValue[group] = true;
+        sums[group] += PrimitiveObjectInspectorUtils.getLong(parameters[0], inputOI);
+      }
+    }
+
+    @Override
+    Object evaluate(int group) {
+      if (!hasValue[group]) {
+        return null;
+      }
+      result.set(sums[group]);
+      return result;
+    }
+
+    @Override
+    long getMemory() {
+      return super.getMemory() + 8L * sums.length;
+    }
+  }
+
+  static class SumDoubleAggregator extends Aggregator {
+    private final PrimitiveObjectInspector inputOI;
+    private double[] sums = new double[0];
+    private final DoubleWritable result = new DoubleWritable();
+
+    SumDoubleAggregator(PrimitiveObjectInspector inputOI) {
+      this.inputOI = inputOI;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      super.ensureCapacity(capacity);
+      sums = Arrays.copyOf(sums, capacity);
+    }
+
+    @Override
+    void reset(int group) {
+      super.reset(group);
+      sums[group] = 0;
+    }
+
+    @Override
+    void aggregate(int group, Object[] parameters) {
+      if (parameters[0] != null) {
+        hasValue[group] = true;
+        sums[group] += PrimitiveObjectInspectorUtils.getDouble(parameters[0], inputOI);
+      }
+    }
+
+    @Override
+    Object evaluate(int group) {
+      if (!hasValue[group]) {
+        return null;
+      }
+      result.set(sums[group]);
+      return result;
+    }
+
+    @Override
+    long getMemory() {
+      return super.getMemory() + 8L * sums.length;
+    }
+  }
+
+  /**
+   * Min or max of a number, kept as a long or a double. The result is the
+   * java object of the input type, like GenericUDAFMax and GenericUDAFMin
+   * return.
+   */
+  static class MinMaxAggregator extends Aggregator {
+    private final PrimitiveObjectInspector inputOI;
+    private final PrimitiveCategory category;
+    private final boolean integral;
+    private final boolean max;
+    private long[] longs = new long[0];
+    private double[] doubles = new double[0];
+
+    MinMaxAggregator(PrimitiveObjectInspector inputOI, boolean integral, boolean max) {
+      this.inputOI = inputOI;
+      category = inputOI.getPrimitiveCategory();
+      this.integral = integral;
+      this.max = max;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      super.ensureCapacity(capacity);
+      if (integral) {
+        longs = Arrays.copyOf(longs, capacity);
+      } else {
+        doubles = Arrays.copyOf(doubles, capacity);
+      }
+    }
+
+    @Override
+    void aggregate(int group, Object[] parameters) {
+      Object parameter = parameters[0];
+      if (parameter == null) {
+        return;
+      }
+      if (integral) {
+        long v = PrimitiveObjectInspectorUtils.getLong(parameter, inputOI);
+        if (!hasValue[group] || (max ? v > longs[group] : v < longs[group])) {
+          longs[group] = v;
+        }
+      } else {
+        double v = PrimitiveObjectInspectorUtils.getDouble(parameter, inputOI);
+        // the order of Double.compare, like ObjectInspectorUtils.compare
+        int r = Double.compare(v, doubles[group]);
+        if (!hasValue[group] || (max ? r > 0 : r < 0)) {
+          doubles[group] = v;
+        }
+      }
+      hasValue[group] = true;
+    }
+
+    @Override
+    Object evaluate(int group) {
+      if (!hasValue[group]) {
+        return null;
+      }
+      switch (category) {
+      case BYTE:
+        return Byte.valueOf((byte) longs[group]);
+      case SHORT:
+        return Short.valueOf((short) longs[group]);
+      case INT:
+        return Integer.valueOf((int) longs[group]);
+      case LONG:
+        return Long.valueOf(longs[group]);
+      case FLOAT:
+        return Float.valueOf((float) doubles[group]);
+      default:
+        return Double.valueOf(doubles[group]);
+      }
+    }
+
+    @Override
+    long getMemory() {
+      return super.getMemory() + 8L * (longs.length + doubles.length);
+    }
+  }
+}
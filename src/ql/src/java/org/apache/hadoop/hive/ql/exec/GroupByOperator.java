@@ -17,6 +17,14 @@
 
 package org.apache.hadoop.hive.ql.exec;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
@@ -28,12 +36,16 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.OpParseContext;
 import org.apache.hadoop.hive.ql.plan.AggregationDesc;
@@ -41,10 +53,14 @@ import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
 import org.apache.hadoop.hive.ql.plan.GroupByDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
-import org.apache.hadoop.hive.serde2.lazy.LazyPrimitive;
-import org.apache.hadoop.hive.serde2.lazy.objectinspector.primitive.LazyStringObjectInspector;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.EstimableAggregationBuffer;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
@@ -53,11 +69,10 @@ import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.UnionObject;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
-import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
-import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * GroupBy operator implementation.
@@ -109,6 +124,19 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
   // Used by hash-based GroupBy: Mode = HASH, PARTIALS
   protected transient HashMap<KeyWrapper, AggregationBuffer[]> hashAggregations;
 
+  // Used by hash-based GroupBy instead of hashAggregations when the keys are
+  // primitive and all the aggregations have a GroupByHashTable.Aggregator
+  protected transient GroupByHashTable flatHashAggregations;
+  transient Object[] flatKeys;
+  transient Object[][] flatParameters;
+
+  // the keys and the parameters of the aggregations computed on the batches,
+  // see processBatchOp
+  private transient VectorExpression[] keyVectorExpressions;
+  private transient int[] keyVectorColumns;
+  private transient VectorExpression[][] parameterVectorExpressions;
+  private transient int[][] parameterVectorColumns;
+
   // Used by hash distinct aggregations when hashGrpKeyNotRedKey is true
   protected transient HashSet<KeyWrapper> keysCurrentGroup;
 
@@ -123,6 +151,11 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
   // The data is sprayed by 'b' and the reducer is grouping it by 'a'
   transient boolean groupKeyIsNotReduceKey;
   transient boolean firstRowInGroup;
+  // The operator is the root of the reducer and its keys are the reduction
+  // keys: the keys change exactly when a new group starts, they do not need
+  // to be compared for every row
+  transient boolean groupKeyIsReduceKey;
+  transient boolean groupsStarted;
   transient long numRowsInput;
   transient long numRowsHashTbl;
   transient int groupbyMapAggrInterval;
@@ -138,40 +171,37 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
   private long maxMemory;
   private float memoryThreshold;
 
-  /**
-   * This is used to store the position and field names for variable length
-   * fields.
-   **/
-  class varLenFields {
-    int aggrPos;
-    List<Field> fields;
-
-    varLenFields(int aggrPos, List<Field> fields) {
-      this.aggrPos = aggrPos;
-      this.fields = fields;
-    }
-
-    int getAggrPos() {
-      return aggrPos;
-    }
-
-    List<Field> getFields() {
-      return fields;
-    }
-  };
-
-  // for these positions, some variable primitive type (String) is used, so size
-  // cannot be estimated. sample it at runtime.
-  transient List<Integer> keyPositionsSize;
-
-  // for these positions, some variable primitive type (String) is used for the
-  // aggregation classes
-  transient List<varLenFields> aggrPositions;
-
-  transient int fixedRowSize;
+  // Spilling hash aggregation: when the hash table is full, its entries are
+  // written to local disk by hash partition instead of being forwarded, and
+  // each partition is merged in memory at close. Each entry is written as its
+  // length and its LazyBinary bytes, and a length of -1 ends the file.
+  private static final int SPILL_END = -1;
+  transient boolean spillHashAggr;
+  transient int numSpillPartitions;
+  transient DataOutputStream[] spillStreams;
+  transient File[] spillFiles;
+  transient long numSpilledEntries;
+  transient LazyBinarySerDe spillSerDe;
+  // evaluators merging the partial aggregations read back from disk
+  transient GenericUDAFEvaluator[] mergeEvaluators;
+
+  // Memory used by hashAggregations: the keys are measured when they are
+  // inserted, the aggregation buffers which implement
+  // EstimableAggregationBuffer are sampled as they grow after that, and the
+  // other buffers have the fixed size of their fields.
+  transient ObjectSizeEstimator keySizeEstimator;
+  transient long keysMemory;
+  transient long fixedEntrySize;
+  transient boolean[] estimableAggregations;
+  transient long estimableEntrySize;
+  transient int numRowsSinceEstimate;
+  // uniform sample of the inserted entries (reservoir sampling)
+  transient AggregationBuffer[][] sampledEntries;
+  transient long numEntriesInserted;
+  transient Random sampleRandom;
+  // false when some aggregation buffers have fields of unknown size
+  transient boolean exactEntrySize;
   transient long maxHashTblMemory;
-  transient int totalVariableSize;
-  transient int numEntriesVarSize;
   transient int numEntriesHashTable;
   transient int countAfterReport;
   transient int heartbeatInterval;
@@ -330,8 +360,6 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       hashAggregations = new HashMap<KeyWrapper, AggregationBuffer[]>(256);
       aggregations = newAggregations();
       hashAggr = true;
-      keyPositionsSize = new ArrayList<Integer>();
-      aggrPositions = new ArrayList<varLenFields>();
       groupbyMapAggrInterval = HiveConf.getIntVar(hconf,
           HiveConf.ConfVars.HIVEGROUPBYMAPINTERVAL);
 
@@ -367,6 +395,7 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
         .getStandardStructObjectInspector(fieldNames, objectInspectors);
 
     keyWrapperFactory = new KeyWrapperFactory(keyFields, keyObjectInspectors, currentKeyObjectInspectors);
+    groupKeyIsReduceKey = !hashAggr && isReduceKey(conf.getKeys());
 
     newKeys = keyWrapperFactory.getKeyWrapper();
 
@@ -376,6 +405,17 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     // is not known, estimate that based on the number of entries
     if (hashAggr) {
       computeMaxEntriesHashAggr(hconf);
+      if (HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPAGGRHASHSPILL)) {
+        numSpillPartitions = Math.max(1, HiveConf.getIntVar(hconf,
+            HiveConf.ConfVars.HIVEMAPAGGRHASHSPILLPARTITIONS));
+        spillHashAggr = initializeSpill();
+      }
+      if (HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPAGGRHASHFLAT)) {
+        flatHashAggregations = newFlatHashTable();
+      }
+      if (flatHashAggregations != null && vectorizationContext != null) {
+        initializeVectorExpressions();
+      }
     }
     memoryMXBean = ManagementFactory.getMemoryMXBean();
     maxMemory = memoryMXBean.getHeapMemoryUsage().getMax();
@@ -383,11 +423,104 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     initializeChildren(hconf);
   }
 
+  /**
+   * Prepare the serde of the spilled entries and the evaluators merging them.
+   * The partial aggregations of DISTINCT aggregations cannot be merged (the
+   * distinct values are only known to the reducer), and neither can those of
+   * functions which are not registered in this JVM.
+   *
+   * @return whether the hash table can be spilled
+   */
+  private boolean initializeSpill() throws HiveException {
+    if (groupKeyIsNotReduceKey || unionExprEval != null) {
+      return false;
+    }
+    ArrayList<AggregationDesc> aggrs = conf.getAggregators();
+    for (int i = 0; i < aggrs.size(); i++) {
+      if (aggrs.get(i).getDistinct()) {
+        return false;
+      }
+    }
+
+    StringBuilder columns = new StringBuilder();
+    StringBuilder columnTypes = new StringBuilder();
+    for (int i = 0; i < fieldNames.size(); i++) {
+      columns.append(i == 0 ? "" : ",").append(fieldNames.get(i));
+      columnTypes.append(i == 0 ? "" : ",").append(
+          TypeInfoUtils.getTypeInfoFromObjectInspector(objectInspectors.get(i)).getTypeName());
+    }
+    StructObjectInspector spillObjectInspector;
+    try {
+      spillSerDe = new LazyBinarySerDe();
+      spillSerDe.initialize(null, Utilities.makeProperties(Constants.LIST_COLUMNS, columns
+          .toString(), Constants.LIST_COLUMN_TYPES, columnTypes.toString()));
+      spillObjectInspector = (StructObjectInspector) spillSerDe.getObjectInspector();
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+
+    List<? extends StructField> spillFields = spillObjectInspector.getAllStructFieldRefs();
+    mergeEvaluators = new GenericUDAFEvaluator[aggrs.size()];
+    for (int i = 0; i < aggrs.size(); i++) {
+      AggregationDesc aggr = aggrs.get(i);
+      ArrayList<TypeInfo> parameterTypes = new ArrayList<TypeInfo>();
+      for (ExprNodeDesc parameter : aggr.getParameters()) {
+        parameterTypes.add(parameter.getTypeInfo());
+      }
+      try {
+        mergeEvaluators[i] = FunctionRegistry.getGenericUDAFEvaluator(aggr.getGenericUDAFName(),
+            parameterTypes, false, parameterTypes.isEmpty());
+      } catch (SemanticException e) {
+        mergeEvaluators[i] = null;
+      }
+      if (mergeEvaluators[i] == null) {
+        LOG.info("Cannot spill the hash table, " + aggr.getGenericUDAFName()
+            + " is not a registered aggregation");
+        return false;
+      }
+      ObjectInspector partialObjectInspector = objectInspectors.get(keyFields.length + i);
+      ObjectInspector mergedObjectInspector = mergeEvaluators[i].init(
+          GenericUDAFEvaluator.Mode.PARTIAL2, new ObjectInspector[] {spillFields.get(
+          keyFields.length + i).getFieldObjectInspector()});
+      if (!TypeInfoUtils.getTypeInfoFromObjectInspector(mergedObjectInspector).equals(
+          TypeInfoUtils.getTypeInfoFromObjectInspector(partialObjectInspector))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the flat hash table for the keys and aggregations, or null if some
+   * of them are not supported.
+   */
+  private GroupByHashTable newFlatHashTable() throws HiveException {
+    if (groupKeyIsNotReduceKey || unionExprEval != null
+        || !GroupByHashTable.isSupported(keyObjectInspectors)) {
+      return null;
+    }
+    ArrayList<AggregationDesc> aggrs = conf.getAggregators();
+    GroupByHashTable.Aggregator[] aggregators = new GroupByHashTable.Aggregator[aggrs.size()];
+    flatParameters = new Object[aggrs.size()][];
+    for (int i = 0; i < aggregators.length; i++) {
+      aggregators[i] = GroupByHashTable.getAggregator(aggrs.get(i), aggregationEvaluators[i],
+          aggregationParameterObjectInspectors[i]);
+      if (aggregators[i] == null) {
+        return null;
+      }
+      flatParameters[i] = new Object[aggregationParameterFields[i].length];
+    }
+    flatKeys = new Object[keyFields.length];
+    return new GroupByHashTable((StandardStructObjectInspector) newKeyObjectInspector,
+        aggregators);
+  }
+
   /**
    * Estimate the number of entries in map-side hash table. The user can specify
    * the total amount of memory to be used by the map-side hash. By default, all
-   * available memory is used. The size of each row is estimated, rather
-   * crudely, and the number of entries are figure out based on that.
+   * available memory is used. The part of the size of each entry which does
+   * not depend on the values is computed here, the rest is measured at
+   * runtime.
    *
    * @return number of entries that can fit in hash table - useful for map-side
    *         aggregation only
@@ -398,135 +531,151 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     estimateRowSize();
   }
 
-  private static final int javaObjectOverHead = 64;
-  private static final int javaHashEntryOverHead = 64;
-  private static final int javaSizePrimitiveType = 16;
+  // the sample of entries whose estimable aggregation buffers are measured
+  private static final int NUMENTRIESSAMPLE = 100;
   private static final int javaSizeUnknownType = 256;
 
   /**
-   * The size of the element at position 'pos' is returned, if possible. If the
-   * datatype is of variable length, STRING, a list of such key positions is
-   * maintained, and the size for such positions is then actually calculated at
-   * runtime.
-   *
-   * @param pos
-   *          the position of the key
-   * @param c
-   *          the type of the key
-   * @return the size of this datatype
-   **/
-  private int getSize(int pos, PrimitiveCategory category) {
-    switch (category) {
-    case VOID:
-    case BOOLEAN:
-    case BYTE:
-    case SHORT:
-    case INT:
-    case LONG:
-    case FLOAT:
-    case DOUBLE:
-      return javaSizePrimitiveType;
-    case STRING:
-      keyPositionsSize.add(new Integer(pos));
-      return javaObjectOverHead;
-    default:
-      return javaSizeUnknownType;
+   * Size of a field of an aggregation buffer, or -1 if it is not known.
+   */
+  private static long getSize(Class<?> c) {
+    if (c == boolean.class || c == byte.class) {
+      return 1;
+    } else if (c == short.class || c == char.class) {
+      return 2;
+    } else if (c == int.class || c == float.class) {
+      return 4;
+    } else if (c == long.class || c == double.class) {
+      return 8;
+    } else if (c == Boolean.class || c == Byte.class) {
+      return ObjectSizeEstimator.REFERENCE + ObjectSizeEstimator.object(1);
+    } else if (c == Short.class) {
+      return ObjectSizeEstimator.REFERENCE + ObjectSizeEstimator.object(2);
+    } else if (c == Integer.class || c == Float.class) {
+      return ObjectSizeEstimator.REFERENCE + ObjectSizeEstimator.object(4);
+    } else if (c == Long.class || c == Double.class) {
+      return ObjectSizeEstimator.REFERENCE + ObjectSizeEstimator.object(8);
     }
+    return -1;
   }
 
   /**
-   * The size of the element at position 'pos' is returned, if possible. If the
-   * field is of variable length, STRING, a list of such field names for the
-   * field position is maintained, and the size for such positions is then
-   * actually calculated at runtime.
-   *
-   * @param pos
-   *          the position of the key
-   * @param c
-   *          the type of the key
-   * @param f
-   *          the field to be added
-   * @return the size of this datatype
+   * Compute the size of the parts of the hash table entries which do not
+   * depend on the values: the hash map entry, the key wrapper and the
+   * aggregation buffers which are not estimable.
    **/
-  private int getSize(int pos, Class<?> c, Field f) {
-    if (c.isPrimitive()
-        || c.isInstance(new Boolean(true))
-        || c.isInstance(new Byte((byte) 0))
-        || c.isInstance(new Short((short) 0))
-        || c.isInstance(new Integer(0))
-        || c.isInstance(new Long(0))
-        || c.isInstance(new Float(0))
-        || c.isInstance(new Double(0))) {
-      return javaSizePrimitiveType;
-    }
-
-    if (c.isInstance(new String())) {
-      int idx = 0;
-      varLenFields v = null;
-      for (idx = 0; idx < aggrPositions.size(); idx++) {
-        v = aggrPositions.get(idx);
-        if (v.getAggrPos() == pos) {
-          break;
+  private void estimateRowSize() throws HiveException {
+    keySizeEstimator = new ObjectSizeEstimator(Arrays.asList(currentKeyObjectInspectors));
+    fixedEntrySize = ObjectSizeEstimator.HASHMAP_ENTRY
+        + ObjectSizeEstimator.object(4 + 3 * ObjectSizeEstimator.REFERENCE)
+        + ObjectSizeEstimator.array(aggregationEvaluators.length, ObjectSizeEstimator.REFERENCE);
+    exactEntrySize = true;
+
+    estimableAggregations = new boolean[aggregationEvaluators.length];
+    for (int i = 0; i < aggregationEvaluators.length; i++) {
+      AggregationBuffer agg = aggregationEvaluators[i].getNewAggregationBuffer();
+      if (agg instanceof EstimableAggregationBuffer) {
+        estimableAggregations[i] = true;
+        if (sampledEntries == null) {
+          sampledEntries = new AggregationBuffer[NUMENTRIESSAMPLE][];
+          sampleRandom = new Random(11);
         }
+        continue;
       }
-
-      if (idx == aggrPositions.size()) {
-        v = new varLenFields(pos, new ArrayList<Field>());
-        aggrPositions.add(v);
+      int fieldsSize = 0;
+      for (Field f : ObjectInspectorUtils.getDeclaredNonStaticFields(agg.getClass())) {
+        long size = getSize(f.getType());
+        if (size < 0) {
+          // a String, a writable or anything else the buffer points to
+          exactEntrySize = false;
+          size = ObjectSizeEstimator.REFERENCE + javaSizeUnknownType;
+        }
+        fieldsSize += size;
       }
-
-      v.getFields().add(f);
-      return javaObjectOverHead;
+      fixedEntrySize += ObjectSizeEstimator.object(fieldsSize);
     }
-
-    return javaSizeUnknownType;
   }
 
   /**
-   * @param pos
-   *          position of the key
-   * @param typeinfo
-   *          type of the input
-   * @return the size of this datatype
-   **/
-  private int getSize(int pos, TypeInfo typeInfo) {
-    if (typeInfo instanceof PrimitiveTypeInfo) {
-      return getSize(pos, ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory());
+   * Add a new entry of the hash table to the sample of entries whose estimable
+   * aggregation buffers are measured: all the entries inserted have the same
+   * probability to be in the sample, whatever their age.
+   */
+  private void sampleEntry(AggregationBuffer[] aggs) {
+    if (sampledEntries == null) {
+      return;
+    }
+    long n = numEntriesInserted++;
+    if (n < NUMENTRIESSAMPLE) {
+      sampledEntries[(int) n] = aggs;
+    } else {
+      long pos = (long) (sampleRandom.nextDouble() * (n + 1));
+      if (pos < NUMENTRIESSAMPLE) {
+        sampledEntries[(int) pos] = aggs;
+      }
     }
-    return javaSizeUnknownType;
   }
 
   /**
-   * @return the size of each row
-   **/
-  private void estimateRowSize() throws HiveException {
-    // estimate the size of each entry -
-    // a datatype with unknown size (String/Struct etc. - is assumed to be 256
-    // bytes for now).
-    // 64 bytes is the overhead for a reference
-    fixedRowSize = javaHashEntryOverHead;
-
-    ArrayList<ExprNodeDesc> keys = conf.getKeys();
+   * Sample the entries left in the hash table after a partial flush, so that
+   * the sample does not keep the flushed aggregation buffers alive. The
+   * entries are in hash order, which is as good as a random order.
+   */
+  private void resampleEntries() {
+    if (sampledEntries == null) {
+      return;
+    }
+    Arrays.fill(sampledEntries, null);
+    int n = 0;
+    for (AggregationBuffer[] aggs : hashAggregations.values()) {
+      if (n == NUMENTRIESSAMPLE) {
+        break;
+      }
+      sampledEntries[n++] = aggs;
+    }
+    numEntriesInserted = hashAggregations.size();
+  }
 
-    // Go over all the keys and get the size of the fields of fixed length. Keep
-    // track of the variable length keys
-    for (int pos = 0; pos < keys.size(); pos++) {
-      fixedRowSize += getSize(pos, keys.get(pos).getTypeInfo());
+  /**
+   * Average size of the estimable aggregation buffers of the sampled entries.
+   */
+  private long sampleEstimableSize() {
+    if (sampledEntries == null || numEntriesInserted == 0) {
+      return 0;
+    }
+    int numSampled = (int) Math.min(numEntriesInserted, NUMENTRIESSAMPLE);
+    long size = 0;
+    for (int s = 0; s < numSampled; s++) {
+      AggregationBuffer[] aggs = sampledEntries[s];
+      for (int i = 0; i < aggs.length; i++) {
+        if (estimableAggregations[i]) {
+          size += ((EstimableAggregationBuffer) aggs[i]).estimate();
+        }
+      }
     }
+    return size / numSampled;
+  }
 
-    // Go over all the aggregation classes and and get the size of the fields of
-    // fixed length. Keep track of the variable length
-    // fields in these aggregation classes.
-    for (int i = 0; i < aggregationEvaluators.length; i++) {
+  /**
+   * Forget the memory of the entries, once the hash table is emptied.
+   */
+  private void clearHashTableMemory() {
+    keysMemory = 0;
+    estimableEntrySize = 0;
+    numEntriesInserted = 0;
+    if (sampledEntries != null) {
+      Arrays.fill(sampledEntries, null);
+    }
+  }
 
-      fixedRowSize += javaObjectOverHead;
-      Class<? extends AggregationBuffer> agg = aggregationEvaluators[i]
-          .getNewAggregationBuffer().getClass();
-      Field[] fArr = ObjectInspectorUtils.getDeclaredNonStaticFields(agg);
-      for (Field f : fArr) {
-        fixedRowSize += getSize(i, f.getType(), f);
-      }
+  /**
+   * Estimated bytes of heap retained by the map-side hash table.
+   */
+  long getHashTableMemory() {
+    if (hashAggregations == null) {
+      return 0;
     }
+    return keysMemory + hashAggregations.size() * (fixedEntrySize + estimableEntrySize);
   }
 
   protected AggregationBuffer[] newAggregations() throws HiveException {
@@ -673,9 +822,44 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     }
   }
 
+  /**
+   * Whether the keys are the fields of the key of the rows of the reducer,
+   * in their order.
+   */
+  private boolean isReduceKey(List<ExprNodeDesc> keys) {
+    if ((getParentOperators() != null && !getParentOperators().isEmpty())
+        || keys.isEmpty() || !(inputObjInspectors[0] instanceof StructObjectInspector)) {
+      return false;
+    }
+    StructField keyField;
+    try {
+      keyField = ((StructObjectInspector) inputObjInspectors[0]).getStructFieldRef(
+          Utilities.ReduceField.KEY.toString());
+    } catch (RuntimeException e) {
+      return false;
+    }
+    if (!(keyField.getFieldObjectInspector() instanceof StructObjectInspector)) {
+      return false;
+    }
+    List<? extends StructField> keyFields = ((StructObjectInspector) keyField
+        .getFieldObjectInspector()).getAllStructFieldRefs();
+    if (keyFields.size() != keys.size()) {
+      return false;
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      if (!(keys.get(i) instanceof ExprNodeColumnDesc)
+          || !((ExprNodeColumnDesc) keys.get(i)).getColumn().equalsIgnoreCase(
+          Utilities.ReduceField.KEY + "." + keyFields.get(i).getFieldName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public void startGroup() throws HiveException {
     firstRowInGroup = true;
+    groupsStarted = true;
   }
 
   @Override
@@ -689,6 +873,48 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
   public void processOp(Object row, int tag) throws HiveException {
     firstRow = false;
     ObjectInspector rowInspector = inputObjInspectors[tag];
+    checkHashAggr();
+
+    try {
+      countAfterReport++;
+
+      if (hashAggr && flatHashAggregations != null) {
+        processFlatHashAggr(row);
+      } else {
+        if (groupKeyIsReduceKey && groupsStarted && !firstRowInGroup && currentKeys != null) {
+          // same reduce key as the previous row, the keys are not evaluated
+          updateAggregations(aggregations, row, rowInspector, false, false,
+              aggregationsParametersLastInvoke);
+        } else {
+          newKeys.getNewKey(row, rowInspector);
+          if (hashAggr) {
+            newKeys.setHashKey();
+            processHashAggr(row, rowInspector, newKeys);
+          } else {
+            processAggr(row, rowInspector, newKeys);
+          }
+        }
+      }
+
+      firstRowInGroup = false;
+
+      if (countAfterReport != 0 && (countAfterReport % heartbeatInterval) == 0
+          && (reporter != null)) {
+        reporter.progress();
+        countAfterReport = 0;
+      }
+    } catch (HiveException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new HiveException(e);
+    }
+  }
+
+  /**
+   * Count the input rows, and disable hash aggregation if it does not reduce
+   * the number of rows enough.
+   */
+  private void checkHashAggr() throws HiveException {
     // Total number of input rows is needed for hash aggregation only
     if (hashAggr && !groupKeyIsNotReduceKey) {
       numRowsInput++;
@@ -711,29 +937,94 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
         }
       }
     }
+  }
 
-    try {
-      countAfterReport++;
-
-      newKeys.getNewKey(row, rowInspector);
-      if (hashAggr) {
-        newKeys.setHashKey();
-        processHashAggr(row, rowInspector, newKeys);
-      } else {
-        processAggr(row, rowInspector, newKeys);
+  /**
+   * Compile the keys and the parameters of the aggregations, when they are
+   * the writable objects of the columns computed, so that the flat hash
+   * table can aggregate the rows of the batches.
+   */
+  private void initializeVectorExpressions() {
+    VectorExpression[] keyExpressions = new VectorExpression[keyFields.length];
+    int[] keyColumns = new int[keyFields.length];
+    for (int i = 0; i < keyFields.length; i++) {
+      keyExpressions[i] = getVectorExpression(conf.getKeys().get(i), keyObjectInspectors[i]);
+      if (keyExpressions[i] == null) {
+        return;
+      }
+      keyColumns[i] = keyExpressions[i].getOutputColumn();
+    }
+    ArrayList<AggregationDesc> aggrs = conf.getAggregators();
+    VectorExpression[][] parameterExpressions = new VectorExpression[aggrs.size()][];
+    int[][] parameterColumns = new int[aggrs.size()][];
+    for (int i = 0; i < parameterExpressions.length; i++) {
+      ArrayList<ExprNodeDesc> parameters = aggrs.get(i).getParameters();
+      parameterExpressions[i] = new VectorExpression[parameters.size()];
+      parameterColumns[i] = new int[parameters.size()];
+      for (int j = 0; j < parameters.size(); j++) {
+        parameterExpressions[i][j] = getVectorExpression(parameters.get(j),
+            aggregationParameterObjectInspectors[i][j]);
+        if (parameterExpressions[i][j] == null) {
+          return;
+        }
+        parameterColumns[i][j] = parameterExpressions[i][j].getOutputColumn();
       }
+    }
+    keyVectorExpressions = keyExpressions;
+    keyVectorColumns = keyColumns;
+    parameterVectorExpressions = parameterExpressions;
+    parameterVectorColumns = parameterColumns;
+    vectorized = true;
+  }
 
-      firstRowInGroup = false;
+  private VectorExpression getVectorExpression(ExprNodeDesc desc, ObjectInspector oi) {
+    VectorExpression expression = vectorizationContext.getVectorExpression(desc);
+    if (expression == null) {
+      LOG.info("Cannot vectorize " + desc.getExprString());
+      return null;
+    }
+    if (oi != vectorizationContext.getWritableObjectInspector(expression.getOutputColumn())) {
+      LOG.info("Cannot vectorize " + desc.getExprString() + " returning " + oi.getTypeName());
+      return null;
+    }
+    return expression;
+  }
 
-      if (countAfterReport != 0 && (countAfterReport % heartbeatInterval) == 0
-          && (reporter != null)) {
+  @Override
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    firstRow = false;
+    for (VectorExpression expression : keyVectorExpressions) {
+      expression.evaluate(batch);
+    }
+    for (VectorExpression[] expressions : parameterVectorExpressions) {
+      for (VectorExpression expression : expressions) {
+        expression.evaluate(batch);
+      }
+    }
+    ColumnVector[] cols = batch.cols;
+    for (int j = 0; j < batch.size; j++) {
+      int row = batch.selectedInUse ? batch.selected[j] : j;
+      checkHashAggr();
+      if (!hashAggr) {
+        // the hash aggregation was disabled
+        processOp(getBatchRow(batch, row), tag);
+        continue;
+      }
+      countAfterReport++;
+      for (int i = 0; i < keyVectorColumns.length; i++) {
+        flatKeys[i] = cols[keyVectorColumns[i]].getWritableObject(row);
+      }
+      for (int ai = 0; ai < parameterVectorColumns.length; ai++) {
+        Object[] o = flatParameters[ai];
+        for (int pi = 0; pi < o.length; pi++) {
+          o[pi] = cols[parameterVectorColumns[ai][pi]].getWritableObject(row);
+        }
+      }
+      aggregateFlat();
+      if ((countAfterReport % heartbeatInterval) == 0 && (reporter != null)) {
         reporter.progress();
         countAfterReport = 0;
       }
-    } catch (HiveException e) {
-      throw e;
-    } catch (Exception e) {
-      throw new HiveException(e);
     }
   }
 
@@ -749,6 +1040,8 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       KeyWrapper newKeyProber = newKeys.copyKey();
       aggs = newAggregations();
       hashAggregations.put(newKeyProber, aggs);
+      keysMemory += keySizeEstimator.estimate(newKeyProber.getKeyArray());
+      sampleEntry(aggs);
       newEntryForHashAggr = true;
       numRowsHashTbl++; // new entry in the hash table
     }
@@ -775,7 +1068,78 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     // happen at boundaries
     if ((!groupKeyIsNotReduceKey || firstRowInGroup)
         && shouldBeFlushed(newKeys)) {
-      flush(false);
+      if (spillHashAggr) {
+        spill();
+      } else {
+        flush(false);
+      }
+    }
+  }
+
+  private void processFlatHashAggr(Object row) throws HiveException {
+    for (int i = 0; i < keyFields.length; i++) {
+      flatKeys[i] = keyFields[i].evaluate(row);
+    }
+    for (int ai = 0; ai < flatParameters.length; ai++) {
+      Object[] o = flatParameters[ai];
+      for (int pi = 0; pi < o.length; pi++) {
+        o[pi] = aggregationParameterFields[ai][pi].evaluate(row);
+      }
+    }
+    aggregateFlat();
+  }
+
+  /**
+   * Aggregate the row whose keys and parameters are in flatKeys and
+   * flatParameters.
+   */
+  private void aggregateFlat() throws HiveException {
+    int group = flatHashAggregations.getGroup(flatKeys);
+    boolean newGroup = flatHashAggregations.isNewGroup();
+    if (newGroup) {
+      numRowsHashTbl++;
+    }
+    for (int ai = 0; ai < flatParameters.length; ai++) {
+      flatHashAggregations.aggregate(group, ai, flatParameters[ai]);
+    }
+
+    if (newGroup && shouldFlatBeFlushed()) {
+      if (spillHashAggr) {
+        spill();
+      } else {
+        flushFlat(false);
+      }
+    }
+  }
+
+  /**
+   * The flat hash table knows its size, only the memory used by the rest of
+   * the task needs to be checked.
+   */
+  private boolean shouldFlatBeFlushed() {
+    int numEntries = flatHashAggregations.size();
+    if (numEntries % NUMROWSESTIMATESIZE == 0) {
+      float rate = (float) memoryMXBean.getHeapMemoryUsage().getUsed() / (float) maxMemory;
+      if (rate > memoryThreshold) {
+        return true;
+      }
+    }
+    return flatHashAggregations.getMemory() > maxHashTblMemory;
+  }
+
+  /**
+   * Forward all the groups of the flat hash table: entries cannot be removed
+   * from it one by one.
+   */
+  private void flushFlat(boolean complete) throws HiveException {
+    countAfterReport = 0;
+    LOG.warn("Flat hash table flush: #hash table = " + flatHashAggregations.size());
+    for (int group = 0; group < flatHashAggregations.size(); group++) {
+      forward(flatHashAggregations.getOutputRow(group), outputObjInspector);
+    }
+    flatHashAggregations.clear();
+    if (complete) {
+      flatHashAggregations = null;
     }
   }
 
@@ -831,74 +1195,43 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
    **/
   private boolean shouldBeFlushed(KeyWrapper newKeys) {
     int numEntries = hashAggregations.size();
-    long usedMemory;
-    float rate;
-
-    // The fixed size for the aggregation class is already known. Get the
-    // variable portion of the size every NUMROWSESTIMATESIZE rows.
-    if ((numEntriesHashTable == 0) || ((numEntries % NUMROWSESTIMATESIZE) == 0)) {
-      //check how much memory left memory
-      usedMemory = memoryMXBean.getHeapMemoryUsage().getUsed();
-      rate = (float) usedMemory / (float) maxMemory;
-      if(rate > memoryThreshold){
-        return true;
-      }
-      for (Integer pos : keyPositionsSize) {
-        Object key = newKeys.getKeyArray()[pos.intValue()];
-        // Ignore nulls
-        if (key != null) {
-          if (key instanceof LazyPrimitive) {
-              totalVariableSize +=
-                  ((LazyPrimitive<LazyStringObjectInspector, Text>) key).
-                      getWritableObject().getLength();
-          } else if (key instanceof String) {
-            totalVariableSize += ((String) key).length();
-          } else if (key instanceof Text) {
-            totalVariableSize += ((Text) key).getLength();
-          }
-        }
-      }
-
-      AggregationBuffer[] aggs = null;
-      if (aggrPositions.size() > 0) {
-        KeyWrapper newKeyProber = newKeys.copyKey();
-        aggs = hashAggregations.get(newKeyProber);
-      }
 
-      for (varLenFields v : aggrPositions) {
-        int aggrPos = v.getAggrPos();
-        List<Field> fieldsVarLen = v.getFields();
-        AggregationBuffer agg = aggs[aggrPos];
-
-        try {
-          for (Field f : fieldsVarLen) {
-            totalVariableSize += ((String) f.get(agg)).length();
-          }
-        } catch (IllegalAccessException e) {
-          assert false;
+    // The keys are measured as they are inserted. Measure the aggregation
+    // buffers, which grow with the rows of existing entries as well, every
+    // NUMROWSESTIMATESIZE rows.
+    if ((numEntriesHashTable == 0) || (++numRowsSinceEstimate >= NUMROWSESTIMATESIZE)) {
+      numRowsSinceEstimate = 0;
+      if (!exactEntrySize) {
+        // the size of some aggregation buffers is a guess, check how much
+        // memory is left as well
+        long usedMemory = memoryMXBean.getHeapMemoryUsage().getUsed();
+        float rate = (float) usedMemory / (float) maxMemory;
+        if (rate > memoryThreshold) {
+          return true;
         }
       }
-
-      numEntriesVarSize++;
+      estimableEntrySize = sampleEstimableSize();
 
       // Update the number of entries that can fit in the hash table
-      numEntriesHashTable =
-          (int) (maxHashTblMemory / (fixedRowSize + (totalVariableSize / numEntriesVarSize)));
+      long entrySize = fixedEntrySize + estimableEntrySize + keysMemory / Math.max(1, numEntries);
+      numEntriesHashTable = (int) Math.min(Integer.MAX_VALUE, maxHashTblMemory / entrySize);
       LOG.trace("Hash Aggr: #hash table = " + numEntries
-          + " #max in hash table = " + numEntriesHashTable);
+          + " #max in hash table = " + numEntriesHashTable
+          + " memory = " + getHashTableMemory());
     }
 
     // flush if necessary
-    if (numEntries >= numEntriesHashTable) {
-      return true;
-    }
-    return false;
+    return getHashTableMemory() >= maxHashTblMemory;
   }
 
   private void flush(boolean complete) throws HiveException {
 
     countAfterReport = 0;
 
+    if (flatHashAggregations != null) {
+      flushFlat(complete);
+    }
+
     // Currently, the algorithm flushes 10% of the entries - this can be
     // changed in the future
 
@@ -911,6 +1244,7 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       }
       hashAggregations.clear();
       hashAggregations = null;
+      clearHashTableMemory();
       LOG.warn("Hash Table completed flushed");
       return;
     }
@@ -923,13 +1257,198 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     while (iter.hasNext()) {
       Map.Entry<KeyWrapper, AggregationBuffer[]> m = iter.next();
       forward(m.getKey().getKeyArray(), m.getValue());
+      keysMemory -= keySizeEstimator.estimate(m.getKey().getKeyArray());
       iter.remove();
       numDel++;
       if (numDel * 10 >= oldSize) {
         LOG.warn("Hash Table flushed: new size = " + hashAggregations.size());
-        return;
+        break;
       }
     }
+    resampleEntries();
+  }
+
+  /**
+   * Write all the entries of the hash table to the spill files of their
+   * partitions, and empty it.
+   */
+  private void spill() throws HiveException {
+    countAfterReport = 0;
+    if (spillStreams == null) {
+      spillStreams = new DataOutputStream[numSpillPartitions];
+      spillFiles = new File[numSpillPartitions];
+    }
+    if (flatHashAggregations != null) {
+      int size = flatHashAggregations.size();
+      LOG.info("Spilling the flat hash table to local disk: size = " + size);
+      // the partitions are merged in tables of that size
+      numEntriesHashTable = Math.max(numEntriesHashTable, size);
+      for (int group = 0; group < size; group++) {
+        spill(flatHashAggregations.getHashCode(group), flatHashAggregations.getOutputRow(group));
+      }
+      flatHashAggregations.clear();
+    }
+    if (hashAggregations != null && !hashAggregations.isEmpty()) {
+      LOG.info("Spilling the hash table to local disk: size = " + hashAggregations.size());
+      for (Map.Entry<KeyWrapper, AggregationBuffer[]> m : hashAggregations.entrySet()) {
+        spill(m.getKey().hashCode(), getOutputRow(m.getKey().getKeyArray(), m.getValue()));
+      }
+      hashAggregations.clear();
+      clearHashTableMemory();
+    }
+  }
+
+  /**
+   * Append an output row to the spill file of its partition.
+   */
+  private void spill(int hashCode, Object[] row) throws HiveException {
+    int partition = getSpillPartition(hashCode);
+    try {
+      DataOutputStream out = spillStreams[partition];
+      if (out == null) {
+        File file = File.createTempFile("hive-groupby-" + partition, ".tmp");
+        file.deleteOnExit();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        spillStreams[partition] = out;
+        spillFiles[partition] = file;
+      }
+      BytesWritable bytes = (BytesWritable) spillSerDe.serialize(row, outputObjInspector);
+      WritableUtils.writeVInt(out, bytes.getLength());
+      out.write(bytes.getBytes(), 0, bytes.getLength());
+      numSpilledEntries++;
+    } catch (IOException e) {
+      throw new HiveException(e);
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+  }
+
+  private int getSpillPartition(int hashCode) {
+    int h = hashCode;
+    // the in-memory hash table is keyed by the same hash code
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return (h & Integer.MAX_VALUE) % numSpillPartitions;
+  }
+
+  /**
+   * Merge and forward the spilled entries, one partition at a time. If a
+   * partition does not fit in the hash table, the part merged so far is
+   * forwarded and the reducers finish the aggregation.
+   */
+  private void mergeSpilledPartitions() throws HiveException {
+    if ((hashAggregations != null && !hashAggregations.isEmpty())
+        || (flatHashAggregations != null && flatHashAggregations.size() > 0)) {
+      spill();
+    }
+    LOG.info("Merging " + numSpilledEntries + " spilled hash table entries");
+    int maxEntries = Math.max(numEntriesHashTable, NUMROWSESTIMATESIZE);
+    StructObjectInspector spillObjectInspector;
+    try {
+      spillObjectInspector = (StructObjectInspector) spillSerDe.getObjectInspector();
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+    List<? extends StructField> spillFields = spillObjectInspector.getAllStructFieldRefs();
+    HashMap<List<Object>, AggregationBuffer[]> merged = new HashMap<List<Object>, AggregationBuffer[]>();
+    BytesWritable bytes = new BytesWritable();
+    for (int partition = 0; partition < numSpillPartitions; partition++) {
+      if (spillStreams[partition] == null) {
+        continue;
+      }
+      try {
+        WritableUtils.writeVInt(spillStreams[partition], SPILL_END);
+        spillStreams[partition].close();
+        spillStreams[partition] = null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+            spillFiles[partition])));
+        try {
+          int length;
+          while ((length = WritableUtils.readVInt(in)) != SPILL_END) {
+            bytes.setSize(length);
+            in.readFully(bytes.getBytes(), 0, length);
+            Object row = spillSerDe.deserialize(bytes);
+            List<Object> key = new ArrayList<Object>(keyFields.length);
+            for (int i = 0; i < keyFields.length; i++) {
+              key.add(ObjectInspectorUtils.copyToStandardObject(spillObjectInspector
+                  .getStructFieldData(row, spillFields.get(i)), spillFields.get(i)
+                  .getFieldObjectInspector(), ObjectInspectorCopyOption.WRITABLE));
+            }
+            AggregationBuffer[] aggs = merged.get(key);
+            if (aggs == null) {
+              if (merged.size() >= maxEntries) {
+                forwardMerged(merged);
+              }
+              aggs = new AggregationBuffer[mergeEvaluators.length];
+              for (int i = 0; i < aggs.length; i++) {
+                aggs[i] = mergeEvaluators[i].getNewAggregationBuffer();
+              }
+              merged.put(key, aggs);
+            }
+            for (int i = 0; i < aggs.length; i++) {
+              mergeEvaluators[i].merge(aggs[i], spillObjectInspector.getStructFieldData(row,
+                  spillFields.get(keyFields.length + i)));
+            }
+          }
+        } finally {
+          in.close();
+          spillFiles[partition].delete();
+        }
+      } catch (IOException e) {
+        throw new HiveException(e);
+      } catch (SerDeException e) {
+        throw new HiveException(e);
+      }
+      forwardMerged(merged);
+      if (reporter != null) {
+        reporter.progress();
+      }
+    }
+    spillStreams = null;
+    spillFiles = null;
+  }
+
+  private void forwardMerged(HashMap<List<Object>, AggregationBuffer[]> merged)
+      throws HiveException {
+    for (Map.Entry<List<Object>, AggregationBuffer[]> m : merged.entrySet()) {
+      List<Object> keys = m.getKey();
+      AggregationBuffer[] aggs = m.getValue();
+      if (forwardCache == null) {
+        forwardCache = new Object[keys.size() + aggs.length];
+      }
+      for (int i = 0; i < keys.size(); i++) {
+        forwardCache[i] = keys.get(i);
+      }
+      for (int i = 0; i < aggs.length; i++) {
+        forwardCache[keys.size() + i] = mergeEvaluators[i].evaluate(aggs[i]);
+      }
+      forward(forwardCache, outputObjInspector);
+    }
+    merged.clear();
+  }
+
+  /**
+   * Delete the spill files of an aborted task.
+   */
+  private void closeSpillFiles() {
+    if (spillStreams == null) {
+      return;
+    }
+    for (int partition = 0; partition < numSpillPartitions; partition++) {
+      if (spillStreams[partition] != null) {
+        try {
+          spillStreams[partition].close();
+        } catch (IOException e) {
+          LOG.warn("Failed to close the spill file " + spillFiles[partition]);
+        }
+        spillFiles[partition].delete();
+      }
+    }
+    spillStreams = null;
+    spillFiles = null;
   }
 
   transient Object[] forwardCache;
@@ -943,6 +1462,14 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
    */
   protected void forward(Object[] keys, AggregationBuffer[] aggs)
       throws HiveException {
+    forward(getOutputRow(keys, aggs), outputObjInspector);
+  }
+
+  /**
+   * Evaluate the record of keys and aggregation results.
+   */
+  private Object[] getOutputRow(Object[] keys, AggregationBuffer[] aggs)
+      throws HiveException {
     int totalFields = keys.length+ aggs.length;
     if (forwardCache == null) {
       forwardCache = new Object[totalFields];
@@ -954,8 +1481,7 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       forwardCache[keys.length + i] = aggregationEvaluators[i]
           .evaluate(aggs[i]);
     }
-
-    forward(forwardCache, outputObjInspector);
+    return forwardCache;
   }
 
   /**
@@ -993,6 +1519,13 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
           // create dummy keys - size 0
           forward(new Object[0], aggregations);
         } else {
+          if (spillStreams != null) {
+            // merges what is left in the hash table as well
+            mergeSpilledPartitions();
+          }
+          if (flatHashAggregations != null) {
+            flushFlat(true);
+          }
           if (hashAggregations != null) {
             LOG.warn("Begin Hash Table flush at close: size = "
                 + hashAggregations.size());
@@ -1005,6 +1538,7 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
               iter.remove();
             }
             hashAggregations.clear();
+            clearHashTableMemory();
           } else if (aggregations != null) {
             // sort-based aggregations
             if (currentKeys != null) {
@@ -1022,6 +1556,8 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
         e.printStackTrace();
         throw new HiveException(e);
       }
+    } else {
+      closeSpillFiles();
     }
   }
 
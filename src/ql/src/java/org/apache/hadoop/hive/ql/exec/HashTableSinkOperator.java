@@ -17,7 +17,14 @@
 
 package org.apache.hadoop.hive.ql.exec;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -30,17 +37,25 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.common.JavaUtils;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.exec.persistence.AbstractMapJoinKey;
 import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.HashTableMemoryMonitor;
+import org.apache.hadoop.hive.ql.exec.persistence.LongHashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinBloomFilter;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinHashTableFile;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinPartitions;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinRowContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinSizeEstimator;
 import org.apache.hadoop.hive.ql.exec.persistence.RowContainer;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.HashTableSinkDesc;
 import org.apache.hadoop.hive.ql.plan.TableDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
 import org.apache.hadoop.hive.ql.session.SessionState.LogHelper;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -48,7 +63,9 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardStructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.util.ReflectionUtils;
 
 
@@ -57,6 +74,21 @@ public class HashTableSinkOperator extends TerminalOperator<HashTableSinkDesc> i
   private static final long serialVersionUID = 1L;
   private static final Log LOG = LogFactory.getLog(HashTableSinkOperator.class.getName());
 
+  /**
+   * Counter.
+   *
+   */
+  public static enum Counter {
+    ESTIMATED_MEMORY, PEAK_ESTIMATED_MEMORY, MEMORY_CHECKS, LOW_MEMORY_NOTIFICATIONS,
+    SPILLED_PARTITIONS
+  }
+
+  private final transient LongWritable estimatedMemory = new LongWritable();
+  private final transient LongWritable peakEstimatedMemory = new LongWritable();
+  private final transient LongWritable memoryChecks = new LongWritable();
+  private final transient LongWritable lowMemoryNotifications = new LongWritable();
+  private final transient LongWritable spilledPartitions = new LongWritable();
+
   // from abstract map join operator
   /**
    * The expressions for join inputs's join keys.
@@ -117,6 +149,22 @@ public class HashTableSinkOperator extends TerminalOperator<HashTableSinkDesc> i
   protected transient LogHelper console;
   private long hashTableScale;
   private boolean isAbort = false;
+  private boolean compactHashTable;
+
+  // hybrid map join: partitions of the small tables moved to local disk
+  private transient MapJoinPartitions partitions;
+  private transient long[] partitionRows;
+  private transient Map<Byte, DataOutputStream[]> spillStreams;
+  private transient Map<Byte, File[]> spillFiles;
+  private transient long[] partitionMemory;
+
+  // false positive probability of the join key filters, 0 if none
+  private transient float bloomFilterFpp;
+
+  // estimated size of the hashtables
+  private transient HashTableMemoryMonitor memoryMonitor;
+  private transient Map<Byte, MapJoinSizeEstimator> keySizeEstimators;
+  private transient Map<Byte, ObjectSizeEstimator> valueSizeEstimators;
 
   public static class HashTableSinkObjectCtx {
     ObjectInspector standardOI;
@@ -254,16 +302,59 @@ public class HashTableSinkOperator extends TerminalOperator<HashTableSinkDesc> i
     if (hashTableScale <= 0) {
       hashTableScale = 1;
     }
+    compactHashTable = HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEHASHTABLECOMPACTFORMAT);
+
+    boolean longKeys = HiveConf.getBoolVar(hconf,
+        HiveConf.ConfVars.HIVEMAPJOINLONGKEYHASHTABLE);
+
+    // a semi-join filter is only correct if the big table is not preserved
+    bloomFilterFpp = 0;
+    if (noOuterJoin && HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPJOINBLOOMFILTER)) {
+      bloomFilterFpp = HiveConf.getFloatVar(hconf, HiveConf.ConfVars.HIVEMAPJOINBLOOMFILTERFPP);
+    }
+
+    partitions = null;
+    if (HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPJOINHYBRID)) {
+      partitions = new MapJoinPartitions(HiveConf.getIntVar(hconf,
+          HiveConf.ConfVars.HIVEMAPJOINHYBRIDPARTITIONS));
+      partitionRows = new long[partitions.getNumPartitions()];
+      partitionMemory = new long[partitions.getNumPartitions()];
+      spillStreams = new HashMap<Byte, DataOutputStream[]>();
+      spillFiles = new HashMap<Byte, File[]>();
+    }
+
+    memoryMonitor = new HashTableMemoryMonitor(hashTableMaxMemoryUsage);
+    keySizeEstimators = new HashMap<Byte, MapJoinSizeEstimator>();
+    valueSizeEstimators = new HashMap<Byte, ObjectSizeEstimator>();
+    statsMap.put(Counter.ESTIMATED_MEMORY, estimatedMemory);
+    statsMap.put(Counter.PEAK_ESTIMATED_MEMORY, peakEstimatedMemory);
+    statsMap.put(Counter.MEMORY_CHECKS, memoryChecks);
+    statsMap.put(Counter.LOW_MEMORY_NOTIFICATIONS, lowMemoryNotifications);
+    statsMap.put(Counter.SPILLED_PARTITIONS, spilledPartitions);
 
     // initialize the hash tables for other tables
     for (Byte pos : order) {
       if (pos == posBigTableTag) {
         continue;
       }
+      keySizeEstimators.put(pos, new MapJoinSizeEstimator(joinKeysStandardObjectInspectors
+          .get(pos)));
+      valueSizeEstimators.put(pos, new ObjectSizeEstimator(rowContainerStandardObjectInspectors
+          .get(pos)));
+
+      // a single integral join key is kept as a primitive long
+      PrimitiveCategory keyCategory = longKeys ? LongHashMapWrapper.getLongKeyCategory(
+          joinKeysObjectInspectors.get(pos)) : null;
+      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable;
+      if (keyCategory != null) {
+        hashTable = new LongHashMapWrapper(keyCategory, hashTableThreshold,
+            hashTableLoadFactor, hashTableMaxMemoryUsage);
+      } else {
+        hashTable = new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>(
+            hashTableThreshold, hashTableLoadFactor, hashTableMaxMemoryUsage);
+      }
 
-      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>(
-          hashTableThreshold, hashTableLoadFactor, hashTableMaxMemoryUsage);
-
+      hashTable.setMemoryMonitor(memoryMonitor);
       mapJoinTables.put(pos, hashTable);
     }
   }
@@ -326,36 +417,51 @@ public class HashTableSinkOperator extends TerminalOperator<HashTableSinkDesc> i
       HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = mapJoinTables
           .get((byte) tag);
 
+      // rows of a spilled partition go straight to disk
+      int partition = -1;
+      if (partitions != null) {
+        partition = partitions.getPartition(keyMap);
+        partitionRows[partition]++;
+        if (partitions.isSpilled(partition)) {
+          spill((byte) tag, partition, keyMap, newValue(tag, value));
+          return;
+        }
+      }
+
       MapJoinObjectValue o = hashTable.get(keyMap);
       MapJoinRowContainer<Object[]> res = null;
 
       boolean needNewKey = true;
       if (o == null) {
-        res = new MapJoinRowContainer<Object[]>();
-        res.add(value);
-
-        if (metadataValueTag[tag] == -1) {
-          metadataValueTag[tag] = order[tag];
-          setValueMetaData(tag);
-        }
-
         // Construct externalizable objects for key and value
         if (needNewKey) {
-          MapJoinObjectValue valueObj = new MapJoinObjectValue(metadataValueTag[tag], res);
+          MapJoinObjectValue valueObj = newValue(tag, value);
 
           rowNumber++;
           if (rowNumber > hashTableScale && rowNumber % hashTableScale == 0) {
             isAbort = hashTable.isAbort(rowNumber, console);
+            updateCounters();
             if (isAbort) {
-              throw new HiveException("RunOutOfMeomoryUsage");
+              if (partitions == null || !spillPartition()) {
+                throw new HiveException("RunOutOfMeomoryUsage");
+              }
+              if (partitions.isSpilled(partition)) {
+                spill((byte) tag, partition, keyMap, valueObj);
+                return;
+              }
             }
           }
+          account(partition, valueSizeEstimators.get(alias).estimate(value)
+              + MapJoinSizeEstimator.VALUE
+              + hashTable.getEntrySize(keySizeEstimators.get(alias).estimate(keyMap)));
           hashTable.put(keyMap, valueObj);
         }
 
       } else {
         res = o.getObj();
         res.add(value);
+        account(partition, valueSizeEstimators.get(alias).estimate(value)
+            + ObjectSizeEstimator.REFERENCE);
       }
 
 
@@ -365,6 +471,171 @@ public class HashTableSinkOperator extends TerminalOperator<HashTableSinkDesc> i
 
   }
 
+  private void account(int partition, long bytes) {
+    memoryMonitor.add(bytes);
+    if (partition >= 0) {
+      partitionMemory[partition] += bytes;
+    }
+  }
+
+  private void updateCounters() {
+    estimatedMemory.set(memoryMonitor.getEstimatedMemory());
+    peakEstimatedMemory.set(memoryMonitor.getPeakEstimatedMemory());
+    memoryChecks.set(memoryMonitor.getNumChecks());
+    lowMemoryNotifications.set(memoryMonitor.getNumNotifications());
+    spilledPartitions.set(partitions == null ? 0 : partitions.getNumSpilled());
+  }
+
+  private MapJoinObjectValue newValue(int tag, Object[] value) throws SerDeException,
+      HiveException {
+    MapJoinRowContainer<Object[]> res = new MapJoinRowContainer<Object[]>();
+    res.add(value);
+
+    if (metadataValueTag[tag] == -1) {
+      metadataValueTag[tag] = order[tag];
+      setValueMetaData(tag);
+    }
+    return new MapJoinObjectValue(metadataValueTag[tag], res);
+  }
+
+  /**
+   * Move the biggest partition still in memory to disk, for all the small
+   * tables.
+   *
+   * @return false if all the partitions are on disk already
+   */
+  private boolean spillPartition() throws HiveException {
+    int partition = -1;
+    for (int i = 0; i < partitions.getNumPartitions(); i++) {
+      if (!partitions.isSpilled(i)
+          && (partition == -1 || partitionRows[i] > partitionRows[partition])) {
+        partition = i;
+      }
+    }
+    if (partition == -1) {
+      return false;
+    }
+    partitions.setSpilled(partition);
+
+    for (Map.Entry<Byte, HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>> hashTables : mapJoinTables
+        .entrySet()) {
+      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = hashTables.getValue();
+      List<AbstractMapJoinKey> spilledKeys = new ArrayList<AbstractMapJoinKey>();
+      for (Map.Entry<AbstractMapJoinKey, MapJoinObjectValue> entry : hashTable.asMap().entrySet()) {
+        if (partitions.getPartition(entry.getKey()) == partition) {
+          spill(hashTables.getKey(), partition, entry.getKey(), entry.getValue());
+          spilledKeys.add(entry.getKey());
+        }
+      }
+      for (AbstractMapJoinKey key : spilledKeys) {
+        hashTable.remove(key);
+      }
+    }
+    memoryMonitor.add(-partitionMemory[partition]);
+    memoryMonitor.reset();
+    console.printInfo(Utilities.now() + "\tSpilled partition " + partition + " ("
+        + partitionRows[partition] + " rows, " + partitionMemory[partition] + " bytes) of "
+        + partitions.getNumPartitions() + " to local disk");
+    partitionMemory[partition] = 0;
+    return true;
+  }
+
+  /**
+   * Append the entry to the spill file of the partition. The spill file
+   * starts with the key class name, followed by the keys and values written
+   * with their serdes, each entry preceded by true; a key may appear more
+   * than once. The file ends with false.
+   */
+  private void spill(Byte tag, int partition, AbstractMapJoinKey key, MapJoinObjectValue value)
+      throws HiveException {
+    try {
+      DataOutputStream[] streams = spillStreams.get(tag);
+      if (streams == null) {
+        streams = new DataOutputStream[partitions.getNumPartitions()];
+        spillStreams.put(tag, streams);
+        spillFiles.put(tag, new File[partitions.getNumPartitions()]);
+      }
+      DataOutputStream out = streams[partition];
+      if (out == null) {
+        File file = File.createTempFile("hive-hashtable-" + tag + "-" + partition, ".tmp");
+        file.deleteOnExit();
+        LOG.info("Spilling partition " + partition + " of hashtable " + tag + " to " + file);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeUTF(key.getClass().getName());
+        streams[partition] = out;
+        spillFiles.get(tag)[partition] = file;
+      }
+      writeSpilledEntry(out, key, value);
+    } catch (IOException e) {
+      throw new HiveException(e);
+    }
+  }
+
+  static void writeSpilledEntry(DataOutputStream out, AbstractMapJoinKey key,
+      MapJoinObjectValue value) throws IOException {
+    out.writeBoolean(true);
+    key.write(out);
+    value.write(out);
+  }
+
+  /**
+   * Mark the end of the entries and close a spill file.
+   */
+  static void endSpillFile(DataOutputStream out) throws IOException {
+    out.writeBoolean(false);
+    out.close();
+  }
+
+  /**
+   * Read back a spilled partition.
+   */
+  private HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> loadSpilledPartition(Byte tag,
+      int partition) throws IOException, ClassNotFoundException, HiveException {
+    DataOutputStream out = spillStreams.containsKey(tag) ? spillStreams.get(tag)[partition] : null;
+    if (out == null) {
+      return new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    }
+    endSpillFile(out);
+    File file = spillFiles.get(tag)[partition];
+    try {
+      return readSpillFile(file);
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Read the entries of a spill file, merging the rows of the keys spilled
+   * more than once.
+   */
+  static HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> readSpillFile(File file)
+      throws IOException, ClassNotFoundException, HiveException {
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      Class<? extends AbstractMapJoinKey> keyClass = Class.forName(in.readUTF(), true,
+          JavaUtils.getClassLoader()).asSubclass(AbstractMapJoinKey.class);
+      while (in.readBoolean()) {
+        AbstractMapJoinKey key = ReflectionUtils.newInstance(keyClass, null);
+        key.readFields(in);
+        MapJoinObjectValue value = new MapJoinObjectValue();
+        value.readFields(in);
+        MapJoinObjectValue o = hashTable.get(key);
+        if (o == null) {
+          hashTable.put(key, value);
+        } else {
+          for (Object[] row : value.getObj().getList()) {
+            o.getObj().add(row);
+          }
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return hashTable;
+  }
+
   private void setValueMetaData(int tag) throws SerDeException {
     TableDesc valueTableDesc = conf.getValueTblFilteredDescs().get(tag);
     SerDe valueSerDe = (SerDe) ReflectionUtils.newInstance(valueTableDesc.getDeserializerClass(),
@@ -414,19 +685,90 @@ public class HashTableSinkOperator extends TerminalOperator<HashTableSinkDesc> i
           FileSystem fs = path.getFileSystem(hconf);
           File file = new File(path.toUri().getPath());
           fs.create(path);
-          fileLength = hashTable.flushMemoryCacheToPersistent(file);
+          MapJoinBloomFilter bloomFilter = newBloomFilter(hashTable);
+          fileLength = dump(hashTable, file);
           console.printInfo(Utilities.now() + "\tUpload 1 File to: " + tmpURIPath + " File size: "
               + fileLength);
 
           hashTable.close();
+
+          if (partitions != null && partitions.getNumSpilled() > 0) {
+            // one file per spilled partition, loaded by the map join at close
+            for (int i = 0; i < partitions.getNumPartitions(); i++) {
+              if (partitions.isSpilled(i)) {
+                hashTable = loadSpilledPartition(tag, i);
+                addKeys(bloomFilter, hashTable);
+                File partitionFile = MapJoinPartitions.getPartitionFile(file, i);
+                fileLength = dump(hashTable, partitionFile);
+                console.printInfo(Utilities.now() + "\tDump spilled partition " + i
+                    + " into file: " + partitionFile + " File size: " + fileLength);
+                hashTable.close();
+              }
+            }
+            partitions.write(file);
+          }
+          if (bloomFilter != null) {
+            bloomFilter.write(file);
+            console.printInfo(Utilities.now() + "\tDump the join key filter of "
+                + bloomFilter.getNumBits() + " bits into file: " + tmpURIPath);
+          }
         }
       }
 
+      if (memoryMonitor != null) {
+        updateCounters();
+      }
       super.closeOp(abort);
     } catch (Exception e) {
       LOG.error("Generate Hashtable error");
       e.printStackTrace();
+    } finally {
+      // the listener and the threshold are on the MemoryMXBean of the JVM,
+      // which may run other tasks
+      if (memoryMonitor != null) {
+        memoryMonitor.close();
+        memoryMonitor = null;
+      }
+    }
+  }
+
+  /**
+   * Create the join key filter of a table, sized for the keys in memory and
+   * the rows of the spilled partitions, and add the keys in memory.
+   */
+  private MapJoinBloomFilter newBloomFilter(
+      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable) {
+    if (bloomFilterFpp <= 0) {
+      return null;
+    }
+    long expectedEntries = hashTable.size();
+    if (partitions != null) {
+      for (int i = 0; i < partitions.getNumPartitions(); i++) {
+        if (partitions.isSpilled(i)) {
+          expectedEntries += partitionRows[i];
+        }
+      }
+    }
+    MapJoinBloomFilter bloomFilter = new MapJoinBloomFilter(expectedEntries, bloomFilterFpp);
+    addKeys(bloomFilter, hashTable);
+    return bloomFilter;
+  }
+
+  private void addKeys(MapJoinBloomFilter bloomFilter,
+      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable) {
+    if (bloomFilter != null) {
+      for (AbstractMapJoinKey key : hashTable.asMap().keySet()) {
+        bloomFilter.add(key);
+      }
+    }
+  }
+
+  private long dump(HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable, File file)
+      throws IOException {
+    if (compactHashTable) {
+      return MapJoinHashTableFile.write(hashTable.asMap(), file);
     }
+    return hashTable.flushMemoryCacheToPersistent(file);
   }
 
   /**
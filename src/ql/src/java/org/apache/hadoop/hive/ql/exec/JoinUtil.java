@@ -196,6 +196,21 @@ public class JoinUtil {
       }
   }
 
+  /**
+   * Wrap keys which are standard objects already, as returned by computeKeys,
+   * the same way as computeMapJoinKeys.
+   */
+  public static AbstractMapJoinKey getMapJoinKey(List<Object> keys) {
+    int size = keys.size();
+    if (size == 1) {
+      return new MapJoinSingleKey(keys.get(0));
+    } else if (size == 2) {
+      return new MapJoinDoubleKeys(keys.get(0), keys.get(1));
+    } else {
+      return new MapJoinObjectKey(keys.toArray());
+    }
+  }
+
 
 
 
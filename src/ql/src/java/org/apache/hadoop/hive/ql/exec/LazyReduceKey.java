@@ -0,0 +1,122 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.serde2.Deserializer;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * The key of the rows of a reducer, deserialized when an operator reads it.
+ *
+ * ExecReducer deserialized the key of every group, but the operators do not
+ * always read it: a join only reads the values, a group by whose keys are
+ * the reduction keys only reads them in the first row of the groups. The
+ * key is read through the KeyObjectInspector, which deserializes it the
+ * first time one of its fields is read.
+ */
+public class LazyReduceKey {
+
+  private final Deserializer deserializer;
+  private final TableDesc keyTableDesc;
+  private BytesWritable bytes;
+  private Object object;
+  private boolean deserialized;
+
+  public LazyReduceKey(Deserializer deserializer, TableDesc keyTableDesc) {
+    this.deserializer = deserializer;
+    this.keyTableDesc = keyTableDesc;
+  }
+
+  /**
+   * Sets the serialized key, it is not copied.
+   */
+  public void set(BytesWritable bytes) {
+    this.bytes = bytes;
+    deserialized = false;
+  }
+
+  /**
+   * The deserialized key.
+   */
+  public Object getObject() {
+    if (!deserialized) {
+      try {
+        object = deserializer.deserialize(bytes);
+      } catch (Exception e) {
+        throw new RuntimeException(
+            "Hive Runtime Error: Unable to deserialize reduce input key from "
+            + Utilities.formatBinaryString(bytes.get(), 0, bytes.getSize())
+            + " with properties " + keyTableDesc.getProperties(), e);
+      }
+      deserialized = true;
+    }
+    return object;
+  }
+
+  /**
+   * Returns the deserialized key if the object is a LazyReduceKey.
+   */
+  public static Object getObject(Object key) {
+    return key instanceof LazyReduceKey ? ((LazyReduceKey) key).getObject() : key;
+  }
+
+  /**
+   * Inspects the LazyReduceKeys with the ObjectInspector of the deserializer.
+   */
+  public static class KeyObjectInspector extends StructObjectInspector {
+
+    private final StructObjectInspector keyObjectInspector;
+
+    public KeyObjectInspector(StructObjectInspector keyObjectInspector) {
+      this.keyObjectInspector = keyObjectInspector;
+    }
+
+    @Override
+    public List<? extends StructField> getAllStructFieldRefs() {
+      return keyObjectInspector.getAllStructFieldRefs();
+    }
+
+    @Override
+    public StructField getStructFieldRef(String fieldName) {
+      return keyObjectInspector.getStructFieldRef(fieldName);
+    }
+
+    @Override
+    public Object getStructFieldData(Object data, StructField fieldRef) {
+      return keyObjectInspector.getStructFieldData(getObject(data), fieldRef);
+    }
+
+    @Override
+    public List<Object> getStructFieldsDataAsList(Object data) {
+      return keyObjectInspector.getStructFieldsDataAsList(getObject(data));
+    }
+
+    public String getTypeName() {
+      return keyObjectInspector.getTypeName();
+    }
+
+    public Category getCategory() {
+      return Category.STRUCT;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.persistence.AbstractMapJoinKey;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinBloomFilter;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+/**
+ * Semi-join filter installed by an inner MapJoinOperator into the
+ * TableScanOperator of its big table: the rows whose join key is not in the
+ * Bloom filters of all the small tables are dropped before they are
+ * forwarded.
+ *
+ * Only the join key columns of the row are evaluated, so with lazy serdes
+ * (LazyStruct, ColumnarStruct for RCFile) the other columns of the dropped
+ * rows are never deserialized. The filter turns itself off when it does not
+ * drop enough rows to pay for evaluating the keys twice.
+ */
+public class MapJoinKeyFilter {
+
+  private static final Log LOG = LogFactory.getLog(MapJoinKeyFilter.class.getName());
+
+  // decide whether the filter pays off after that many rows
+  private static final long CHECK_ROWS = 100000;
+  private static final double MIN_REJECTED_RATE = 0.1;
+
+  private final List<ExprNodeEvaluator> keyFields;
+  private final List<ObjectInspector> keyFieldsOI;
+  private List<MapJoinBloomFilter> bloomFilters = new ArrayList<MapJoinBloomFilter>();
+
+  private boolean enabled = true;
+  private long numRows;
+  private long numRejected;
+
+  /**
+   * @param keys
+   *          the join keys of the big table
+   * @param rowInspector
+   *          the ObjectInspector of the rows of the table scan
+   */
+  public MapJoinKeyFilter(List<ExprNodeDesc> keys, ObjectInspector rowInspector)
+      throws HiveException {
+    keyFields = new ArrayList<ExprNodeEvaluator>(keys.size());
+    keyFieldsOI = new ArrayList<ObjectInspector>(keys.size());
+    for (ExprNodeDesc key : keys) {
+      ExprNodeEvaluator eval = ExprNodeEvaluatorFactory.get(key);
+      keyFieldsOI.add(eval.initialize(rowInspector));
+      keyFields.add(eval);
+    }
+  }
+
+  /**
+   * Replace the filters, when the small tables are loaded for a new bucket.
+   */
+  public void setBloomFilters(List<MapJoinBloomFilter> bloomFilters) {
+    this.bloomFilters = bloomFilters;
+  }
+
+  public boolean accept(Object row) throws HiveException {
+    if (!enabled || bloomFilters.isEmpty()) {
+      return true;
+    }
+    numRows++;
+    AbstractMapJoinKey key = JoinUtil.computeMapJoinKeys(row, keyFields, keyFieldsOI);
+    boolean accept = !key.hasAnyNulls();
+    for (int i = 0; accept && i < bloomFilters.size(); i++) {
+      accept = bloomFilters.get(i).mightContain(key);
+    }
+    if (!accept) {
+      numRejected++;
+    }
+    if (numRows == CHECK_ROWS && numRejected < numRows * MIN_REJECTED_RATE) {
+      LOG.info("Disabling the join key filter, it rejected " + numRejected + " of " + numRows
+          + " rows");
+      enabled = false;
+    }
+    return accept;
+  }
+
+  public long getNumRows() {
+    return numRows;
+  }
+
+  public long getNumRejected() {
+    return numRejected;
+  }
+}
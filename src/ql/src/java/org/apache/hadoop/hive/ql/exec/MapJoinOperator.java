@@ -17,9 +17,11 @@
 
 package org.apache.hadoop.hive.ql.exec;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -30,18 +32,35 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.exec.HashTableSinkOperator.HashTableSinkObjectCtx;
+import org.apache.hadoop.hive.ql.exec.persistence.AbstractHashMapWrapper;
 import org.apache.hadoop.hive.ql.exec.persistence.AbstractMapJoinKey;
 import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.LongHashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinBloomFilter;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinHashTableFile;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinPartitions;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinRowContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinTableCache;
+import org.apache.hadoop.hive.ql.exec.persistence.MappedHashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.RowContainer;
+import org.apache.hadoop.hive.ql.io.HiveSequenceFileOutputFormat;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
 import org.apache.hadoop.hive.ql.plan.TableDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.util.ReflectionUtils;
 
 /**
@@ -52,7 +71,8 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
   private static final Log LOG = LogFactory.getLog(MapJoinOperator.class.getName());
 
 
-  protected transient Map<Byte, HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>> mapJoinTables;
+  protected transient Map<Byte, AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>>
+      mapJoinTables;
 
   private static final transient String[] FATAL_ERR_MSG = {
       null, // counter value 0 means no error
@@ -64,6 +84,24 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
   transient int[] metadataValueTag;
   transient int maxMapJoinSize;
   private int bigTableAlias;
+  private transient boolean mapHashTable;
+  // share the loaded tables with the next tasks of a reused JVM
+  private transient boolean cacheHashTables;
+  // set when all the join keys are a single integral column
+  private transient boolean longKeys;
+
+  // hybrid map join: the partitions of the small tables the local task left
+  // on disk, and the big table rows deferred for each of them
+  private transient MapJoinPartitions partitions;
+  private transient Map<Byte, File> hashTableFiles;
+  private transient RowContainer<ArrayList<Object>>[] spilledRows;
+  private transient TableDesc spilledRowsDesc;
+  private transient SerDe spilledRowsSerDe;
+  private transient ObjectInspector spilledRowsObjectInspector;
+
+  // semi-join filter of the big table scan, for inner joins
+  private transient MapJoinKeyFilter keyFilter;
+  private transient boolean keyFilterUnsupported;
 
   public MapJoinOperator() {
   }
@@ -78,6 +116,11 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
     super.initializeOp(hconf);
 
     maxMapJoinSize = HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEMAXMAPJOINSIZE);
+    mapHashTable = HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPJOINMAPPEDHASHTABLE);
+    // the local job runner runs in the client, where the cached tables would
+    // outlive the query
+    cacheHashTables = HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPJOINHASHTABLECACHE)
+        && !HiveConf.getVar(hconf, HiveConf.ConfVars.HADOOPJT).equals("local");
 
     metadataValueTag = new int[numAliases];
     for (int pos = 0; pos < numAliases; pos++) {
@@ -87,7 +130,18 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
     metadataKeyTag = -1;
     bigTableAlias = order[posBigTable];
 
-    mapJoinTables = new HashMap<Byte, HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>>();
+    longKeys = !mapHashTable
+        && HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPJOINLONGKEYHASHTABLE);
+    for (Byte alias : order) {
+      if (LongHashMapWrapper.getLongKeyCategory(joinKeysObjectInspectors.get(alias)) == null) {
+        longKeys = false;
+      }
+    }
+
+    mapJoinTables =
+        new HashMap<Byte, AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>>();
+    hashTableFiles = new HashMap<Byte, File>();
+    partitions = null;
     rowContainerMap = new HashMap<Byte, MapJoinRowContainer<ArrayList<Object>>>();
     // initialize the hash tables for other tables
     for (int pos = 0; pos < numAliases; pos++) {
@@ -95,7 +149,7 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
         continue;
       }
 
-      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = newHashTable((byte) pos);
 
       mapJoinTables.put(Byte.valueOf((byte) pos), hashTable);
       MapJoinRowContainer<ArrayList<Object>> rowContainer = new MapJoinRowContainer<ArrayList<Object>>();
@@ -105,6 +159,15 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
 
   }
 
+  private HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> newHashTable(byte pos) {
+    if (longKeys) {
+      PrimitiveCategory keyCategory = LongHashMapWrapper.getLongKeyCategory(
+          joinKeysObjectInspectors.get(order[pos]));
+      return new LongHashMapWrapper(keyCategory);
+    }
+    return new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+  }
+
   @Override
   protected void fatalErrorMessage(StringBuilder errMsg, long counterCode) {
     errMsg.append("Operator " + getOperatorId() + " (id=" + id + "): "
@@ -145,7 +208,7 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
   private void loadHashTable() throws HiveException {
     boolean localMode = HiveConf.getVar(hconf, HiveConf.ConfVars.HADOOPJT).equals("local");
     String baseDir = null;
-    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashtable;
+    AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashtable;
     Byte pos;
 
     String currentInputFile = HiveConf.getVar(hconf, HiveConf.ConfVars.HADOOPMAPFILENAME);
@@ -178,14 +241,36 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
           baseDir = archiveLocalLink.toUri().getPath();
         }
       }
-      for (Map.Entry<Byte, HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>> entry : mapJoinTables
-          .entrySet()) {
+      partitions = null;
+      List<MapJoinBloomFilter> bloomFilters = new ArrayList<MapJoinBloomFilter>();
+      for (Map.Entry<Byte, AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>> entry :
+          mapJoinTables.entrySet()) {
         pos = entry.getKey();
         hashtable = entry.getValue();
         String filePath = Utilities.generatePath(baseDir, pos, currentFileName);
         Path path = new Path(filePath);
         LOG.info("\tLoad back 1 hashtable file from tmp file uri:" + path.toString());
-        hashtable.initilizePersistentHash(path.toUri().getPath());
+        File file = new File(path.toUri().getPath());
+        if (partitions == null) {
+          partitions = MapJoinPartitions.read(file);
+        }
+        // the resident part of partitioned tables is replaced by the spilled
+        // partitions, so it is not shared
+        if (cacheHashTables && partitions == null) {
+          entry.setValue(acquireHashTable(pos, hashtable, file));
+        } else {
+          entry.setValue(loadHashTable(pos, releaseHashTable(pos, hashtable), file));
+        }
+        hashTableFiles.put(pos, file);
+        MapJoinBloomFilter bloomFilter = noOuterJoin ? MapJoinBloomFilter.read(file) : null;
+        if (bloomFilter != null) {
+          bloomFilters.add(bloomFilter);
+        }
+      }
+      setKeyFilter(bloomFilters);
+      if (partitions != null) {
+        LOG.info(partitions.getNumSpilled() + " of " + partitions.getNumPartitions()
+            + " hashtable partitions are spilled");
       }
     } catch (Exception e) {
       LOG.error("Load Distributed Cache Error");
@@ -193,6 +278,110 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
     }
   }
 
+  /**
+   * Hand the join key filters of the small tables to the scan of the big
+   * table.
+   */
+  void setKeyFilter(List<MapJoinBloomFilter> bloomFilters) throws HiveException {
+    if (keyFilter == null) {
+      if (bloomFilters.isEmpty() || keyFilterUnsupported) {
+        return;
+      }
+      TableScanOperator tableScan = getBigTableScan();
+      if (tableScan == null) {
+        keyFilterUnsupported = true;
+        return;
+      }
+      // the keys are by tag, the inputs by position
+      keyFilter = new MapJoinKeyFilter(conf.getKeys().get(order[posBigTable]),
+          inputObjInspectors[posBigTable]);
+      tableScan.addKeyFilter(keyFilter);
+      LOG.info("Filtering the rows of " + tableScan.getOperatorId() + " by join key");
+    }
+    keyFilter.setBloomFilters(bloomFilters);
+  }
+
+  MapJoinKeyFilter getKeyFilter() {
+    return keyFilter;
+  }
+
+  /**
+   * Returns the table scan of the big table if its rows reach this operator
+   * unchanged, through filters at most, and go nowhere else.
+   */
+  private TableScanOperator getBigTableScan() {
+    Operator<? extends Serializable> op = parentOperators.get(posBigTable);
+    while (op.getChildOperators().size() == 1) {
+      if (op instanceof TableScanOperator) {
+        return (TableScanOperator) op;
+      }
+      if (!(op instanceof FilterOperator) || op.getParentOperators() == null
+          || op.getParentOperators().size() != 1) {
+        return null;
+      }
+      op = op.getParentOperators().get(0);
+    }
+    return null;
+  }
+
+  /**
+   * Get the hashtable dumped in file from the tables loaded by the previous
+   * tasks of the JVM, or load it.
+   */
+  private AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> acquireHashTable(
+      final Byte pos, AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashtable,
+      File file)
+      throws Exception {
+    if (!MapJoinTableCache.release(hashtable)) {
+      hashtable.close();
+    }
+    String kind = mapHashTable ? "mmap" : (longKeys ? "long" : "hash");
+    return MapJoinTableCache.acquire(file, kind, new MapJoinTableCache.Loader() {
+      public AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> load(File file)
+          throws Exception {
+        return loadHashTable(pos, newHashTable(pos), file);
+      }
+    });
+  }
+
+  /**
+   * Returns a table that can be loaded in place of hashtable.
+   */
+  private AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> releaseHashTable(Byte pos,
+      AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashtable) {
+    if (MapJoinTableCache.release(hashtable)) {
+      return newHashTable(pos);
+    }
+    return hashtable;
+  }
+
+  /**
+   * Load the hashtable dumped in file.
+   *
+   * @return the table to probe, either hashtable or a replacement
+   */
+  private AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> loadHashTable(Byte pos,
+      AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashtable, File file)
+      throws Exception {
+    if (mapHashTable && MappedHashMapWrapper.canMap(file)) {
+      hashtable.close();
+      return new MappedHashMapWrapper(file);
+    }
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> loaded;
+    if (hashtable instanceof HashMapWrapper) {
+      loaded = (HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>) hashtable;
+    } else {
+      hashtable.close();
+      loaded = newHashTable(pos);
+    }
+    if (MapJoinHashTableFile.isHashTableFile(file)) {
+      MapJoinHashTableFile.load(file, loaded);
+    } else {
+      loaded.initilizePersistentHash(file.getPath());
+    }
+    return loaded;
+  }
+
   // Load the hash table
   @Override
   public void cleanUpInputFileChangedOp() throws HiveException {
@@ -203,6 +392,8 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
         firstRow = false;
       }
 
+      // the spilled partitions belong to the tables of the previous file
+      joinSpilledPartitions();
       loadHashTable();
     } catch (SerDeException e) {
       e.printStackTrace();
@@ -228,53 +419,187 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
         nextSz = joinEmitInterval;
       }
 
-      // compute keys and values as StandardObjects
-      AbstractMapJoinKey key = JoinUtil.computeMapJoinKeys(row, joinKeys.get(alias),
-          joinKeysObjectInspectors.get(alias));
+      // compute keys and values as StandardObjects; a single integral key is
+      // only evaluated to a long
+      AbstractMapJoinKey key = null;
+      long longKey = 0;
+      boolean keyHasNulls;
+      if (partitions != null) {
+        ArrayList<Object> keyFields = JoinUtil.computeKeys(row, joinKeys.get(alias),
+            joinKeysObjectInspectors.get(alias));
+        key = JoinUtil.getMapJoinKey(keyFields);
+        keyHasNulls = key.hasAnyNulls();
+        int partition = partitions.getPartition(key);
+        if (!keyHasNulls && partitions.isSpilled(partition)) {
+          // join the row when the partition is loaded
+          keyFields.addAll(JoinUtil.computeValues(row, joinValues.get(alias),
+              joinValuesObjectInspectors.get(alias), joinFilters.get(alias),
+              joinFilterObjectInspectors.get(alias), noOuterJoin));
+          getSpilledRows(partition).add(keyFields);
+          return;
+        }
+      } else if (longKeys) {
+        Object keyObj = joinKeys.get(alias).get(0).evaluate(row);
+        keyHasNulls = keyObj == null;
+        if (!keyHasNulls) {
+          longKey = PrimitiveObjectInspectorUtils.getLong(keyObj,
+              (PrimitiveObjectInspector) joinKeysObjectInspectors.get(alias).get(0));
+        }
+      } else {
+        key = JoinUtil.computeMapJoinKeys(row, joinKeys.get(alias),
+            joinKeysObjectInspectors.get(alias));
+        keyHasNulls = key.hasAnyNulls();
+      }
       ArrayList<Object> value = JoinUtil.computeValues(row, joinValues.get(alias),
           joinValuesObjectInspectors.get(alias), joinFilters.get(alias), joinFilterObjectInspectors
               .get(alias), noOuterJoin);
 
+      joinObject(key, longKey, keyHasNulls, value, tag);
+    } catch (SerDeException e) {
+      e.printStackTrace();
+      throw new HiveException(e);
+    }
+  }
 
-      // Add the value to the ArrayList
-      storage.get((byte) tag).add(value);
-
-      for (Byte pos : order) {
-        if (pos.intValue() != tag) {
-
-          MapJoinObjectValue o = mapJoinTables.get(pos).get(key);
-          MapJoinRowContainer<ArrayList<Object>> rowContainer = rowContainerMap.get(pos);
+  /**
+   * Probe the small tables with the key of a big table row, and generate the
+   * output records. The key is given as longKey if it is null.
+   */
+  private void joinObject(AbstractMapJoinKey key, long longKey, boolean keyHasNulls,
+      ArrayList<Object> value, int tag) throws HiveException {
+    // Add the value to the ArrayList
+    storage.get((byte) tag).add(value);
+
+    for (Byte pos : order) {
+      if (pos.intValue() != tag) {
+
+        MapJoinObjectValue o = null;
+        if (!keyHasNulls) {
+          if (key == null) {
+            o = ((LongHashMapWrapper) mapJoinTables.get(pos)).get(longKey);
+          } else {
+            o = mapJoinTables.get(pos).get(key);
+          }
+        }
+        MapJoinRowContainer<ArrayList<Object>> rowContainer = rowContainerMap.get(pos);
 
-          // there is no join-value or join-key has all null elements
-          if (o == null || key.hasAnyNulls()) {
-            if (noOuterJoin) {
-              storage.put(pos, emptyList);
-            } else {
-              storage.put(pos, dummyObjVectors[pos.intValue()]);
-            }
+        // there is no join-value or join-key has all null elements
+        if (o == null) {
+          if (noOuterJoin) {
+            storage.put(pos, emptyList);
           } else {
-            rowContainer.reset(o.getObj());
-            storage.put(pos, rowContainer);
+            storage.put(pos, dummyObjVectors[pos.intValue()]);
           }
+        } else {
+          rowContainer.reset(o.getObj());
+          storage.put(pos, rowContainer);
         }
       }
+    }
 
-      // generate the output records
-      checkAndGenObject();
+    // generate the output records
+    checkAndGenObject();
 
-      // done with the row
-      storage.get((byte) tag).clear();
+    // done with the row
+    storage.get((byte) tag).clear();
 
-      for (Byte pos : order) {
-        if (pos.intValue() != tag) {
-          storage.put(pos, null);
-        }
+    for (Byte pos : order) {
+      if (pos.intValue() != tag) {
+        storage.put(pos, null);
       }
+    }
+  }
 
+  @SuppressWarnings("unchecked")
+  private RowContainer<ArrayList<Object>> getSpilledRows(int partition) throws HiveException {
+    if (spilledRows == null) {
+      spilledRows = new RowContainer[partitions.getNumPartitions()];
+    }
+    if (spilledRows[partition] == null) {
+      if (spilledRowsDesc == null) {
+        initSpilledRowsDesc();
+      }
+      // the rows of all the partitions are buffered at the same time
+      RowContainer<ArrayList<Object>> rc = new RowContainer<ArrayList<Object>>(Math.max(1,
+          joinCacheSize / partitions.getNumPartitions()), hconf);
+      rc.setSerDe(spilledRowsSerDe, spilledRowsObjectInspector);
+      rc.setTableDesc(spilledRowsDesc);
+      spilledRows[partition] = rc;
+    }
+    return spilledRows[partition];
+  }
+
+  /**
+   * The deferred big table rows are the key columns followed by the values,
+   * spilled with LazyBinarySerDe like the join spill tables.
+   */
+  private void initSpilledRowsDesc() throws HiveException {
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+    fieldOIs.addAll(joinKeysStandardObjectInspectors.get(order[posBigTable]));
+    fieldOIs.addAll(rowContainerStandardObjectInspectors.get(order[posBigTable]));
+    List<String> fieldNames = new ArrayList<String>(fieldOIs.size());
+    StringBuilder colNames = new StringBuilder();
+    StringBuilder colTypes = new StringBuilder();
+    for (int i = 0; i < fieldOIs.size(); i++) {
+      String colName = "_col" + i;
+      fieldNames.add(colName);
+      colNames.append(i == 0 ? "" : ",").append(colName);
+      colTypes.append(i == 0 ? "" : ",").append(
+          TypeInfoUtils.getTypeInfoFromObjectInspector(fieldOIs.get(i)).getTypeName());
+    }
+    spilledRowsDesc = new TableDesc(LazyBinarySerDe.class, SequenceFileInputFormat.class,
+        HiveSequenceFileOutputFormat.class, Utilities.makeProperties(
+        org.apache.hadoop.hive.serde.Constants.SERIALIZATION_FORMAT, "" + Utilities.ctrlaCode,
+        org.apache.hadoop.hive.serde.Constants.LIST_COLUMNS, colNames.toString(),
+        org.apache.hadoop.hive.serde.Constants.LIST_COLUMN_TYPES, colTypes.toString()));
+    try {
+      spilledRowsSerDe = new LazyBinarySerDe();
+      spilledRowsSerDe.initialize(null, spilledRowsDesc.getProperties());
     } catch (SerDeException e) {
-      e.printStackTrace();
       throw new HiveException(e);
     }
+    spilledRowsObjectInspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+        fieldNames, fieldOIs);
+  }
+
+  /**
+   * Join the deferred big table rows, one spilled partition at a time: the
+   * resident part of the small tables is dropped, and the partition of every
+   * small table is loaded in its place.
+   */
+  private void joinSpilledPartitions() throws HiveException {
+    if (spilledRows == null) {
+      return;
+    }
+    byte tag = (byte) posBigTable;
+    alias = order[tag];
+    int numKeys = joinKeys.get(alias).size();
+    try {
+      for (int partition = 0; partition < spilledRows.length; partition++) {
+        RowContainer<ArrayList<Object>> rows = spilledRows[partition];
+        if (rows == null) {
+          continue;
+        }
+        LOG.info("Join " + rows.size() + " rows of spilled partition " + partition);
+        for (Map.Entry<Byte, AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>> entry :
+            mapJoinTables.entrySet()) {
+          File file = MapJoinPartitions.getPartitionFile(hashTableFiles.get(entry.getKey()),
+              partition);
+          entry.setValue(loadHashTable(entry.getKey(), entry.getValue(), file));
+        }
+        for (ArrayList<Object> row = rows.first(); row != null; row = rows.next()) {
+          AbstractMapJoinKey key = JoinUtil.getMapJoinKey(row.subList(0, numKeys));
+          ArrayList<Object> value = new ArrayList<Object>(row.subList(numKeys, row.size()));
+          joinObject(key, 0, false, value, tag);
+        }
+        rows.clear();
+      }
+    } catch (HiveException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new HiveException(e);
+    }
+    spilledRows = null;
   }
 
   private String getFileName(String path) {
@@ -291,9 +616,21 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
   @Override
   public void closeOp(boolean abort) throws HiveException {
 
+    if (!abort) {
+      joinSpilledPartitions();
+    } else if (spilledRows != null) {
+      for (RowContainer<ArrayList<Object>> rows : spilledRows) {
+        if (rows != null) {
+          rows.clear();
+        }
+      }
+    }
     if (mapJoinTables != null) {
-      for (HashMapWrapper hashTable : mapJoinTables.values()) {
-        hashTable.close();
+      for (AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable : mapJoinTables
+          .values()) {
+        if (!MapJoinTableCache.release(hashTable)) {
+          hashTable.close();
+        }
       }
     }
     super.closeOp(abort);
@@ -32,6 +32,8 @@ import java.util.Properties;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.io.IOContext;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.metadata.VirtualColumn;
@@ -44,6 +46,10 @@ import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
@@ -88,6 +94,11 @@ public class MapOperator extends Operator<MapredWork> implements Serializable {
 
   private ArrayList<Operator<? extends Serializable>> extraChildrenToClose = null;
 
+  // the batch of rows filled when the child is vectorized, and the fields of
+  // the rows copied to it
+  private transient VectorizedRowBatch batch;
+  private transient int[] batchFields;
+
   private static class MapInputPath {
     String path;
     String alias;
@@ -409,6 +420,18 @@ public class MapOperator extends Operator<MapredWork> implements Serializable {
     state = State.INIT;
     List<Operator<? extends Serializable>> children = getChildOperators();
 
+    ObjectInspector batchRowObjectInspector = null;
+    if (HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEVECTORIZATIONENABLED)) {
+      outputVectorizationContext = getVectorizationContext();
+      if (outputVectorizationContext != null) {
+        vectorized = true;
+        children.get(0).vectorizationContext = outputVectorizationContext;
+        // the children receive the rows of the batch as writable objects
+        batchRowObjectInspector = ObjectInspectorUtils.getStandardObjectInspector(
+            rowObjectInspector, ObjectInspectorCopyOption.WRITABLE);
+      }
+    }
+
     for (Entry<MapInputPath, MapOpCtx> entry : opCtxMap.entrySet()) {
       // Add alias, table name, and partitions to hadoop conf so that their
       // children will
@@ -440,9 +463,100 @@ public class MapOperator extends Operator<MapredWork> implements Serializable {
         }
       }
       if (shouldInit) {
-        op.initialize(hconf, new ObjectInspector[] {entry.getValue().getRowObjectInspector()});
+        op.initialize(hconf, new ObjectInspector[] {batchRowObjectInspector != null
+            ? batchRowObjectInspector : entry.getValue().getRowObjectInspector()});
       }
     }
+    if (vectorized) {
+      // all the operators are initialized, the columns they need are known
+      batch = outputVectorizationContext.createBatch();
+      LOG.info("Forwarding the rows by batches of " + batch.getMaxSize());
+    }
+  }
+
+  /**
+   * The rows can be forwarded by batches if they all go to the same
+   * TableScanOperator, without virtual columns, and if the fields it uses
+   * can be vectorized.
+   *
+   * @return the context of the batches, or null if rows must be forwarded one
+   *         by one
+   */
+  private VectorizationContext getVectorizationContext() {
+    List<Operator<? extends Serializable>> children = getChildOperators();
+    if (children.size() != 1 || !(children.get(0) instanceof TableScanOperator)) {
+      return null;
+    }
+    TableScanOperator tsOp = (TableScanOperator) children.get(0);
+    if (hasVC || tsOp.getParentOperators().size() != 1) {
+      return null;
+    }
+    String typeName = rowObjectInspector.getTypeName();
+    for (Entry<MapInputPath, MapOpCtx> entry : opCtxMap.entrySet()) {
+      if (entry.getKey().op != tsOp
+          || !entry.getValue().getRowObjectInspector().getTypeName().equals(typeName)) {
+        return null;
+      }
+    }
+    List<? extends StructField> fields = rowObjectInspector.getAllStructFieldRefs();
+    int numRawFields = opCtxMap.values().iterator().next().rawRowObjectInspector
+        .getAllStructFieldRefs().size();
+    List<Integer> neededColumnIDs = tsOp.getNeededColumnIDs();
+    boolean[] needed = new boolean[fields.size()];
+    List<String> fieldNames = new ArrayList<String>(fields.size());
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(fields.size());
+    int numNeeded = 0;
+    for (int i = 0; i < fields.size(); i++) {
+      StructField field = fields.get(i);
+      // the partition columns are always needed
+      needed[i] = neededColumnIDs == null || i >= numRawFields || neededColumnIDs.contains(i);
+      if (needed[i]) {
+        if (VectorizationContext.getVectorType(field.getFieldObjectInspector()) == null) {
+          LOG.info("Cannot vectorize the column " + field.getFieldName() + " of type "
+              + field.getFieldObjectInspector().getTypeName());
+          return null;
+        }
+        numNeeded++;
+      }
+      fieldNames.add(field.getFieldName());
+      fieldOIs.add(field.getFieldObjectInspector());
+    }
+    batchFields = new int[numNeeded];
+    for (int i = 0, j = 0; i < needed.length; i++) {
+      if (needed[i]) {
+        batchFields[j++] = i;
+      }
+    }
+    return new VectorizationContext(fieldNames, fieldOIs, needed);
+  }
+
+  /**
+   * Copy the needed fields of the row to the batch, and forward the batch
+   * once it is full.
+   */
+  private void addToBatch(Object row) throws HiveException {
+    int r = batch.size;
+    List<? extends StructField> fields = rowObjectInspector.getAllStructFieldRefs();
+    for (int i : batchFields) {
+      StructField field = fields.get(i);
+      Object o = rowObjectInspector.getStructFieldData(row, field);
+      if (o == null) {
+        batch.cols[i].setNull(r);
+      } else {
+        batch.cols[i].setValue(r, o, (PrimitiveObjectInspector) field.getFieldObjectInspector());
+      }
+    }
+    batch.size++;
+    if (batch.isFull()) {
+      flushBatch();
+    }
+  }
+
+  private void flushBatch() throws HiveException {
+    if (batch.size > 0) {
+      forwardBatch(batch);
+      batch.reset();
+    }
   }
 
   /**
@@ -450,6 +564,9 @@ public class MapOperator extends Operator<MapredWork> implements Serializable {
    */
   @Override
   public void closeOp(boolean abort) throws HiveException {
+    if (batch != null && !abort) {
+      flushBatch();
+    }
     if (extraChildrenToClose != null) {
       for (Operator<? extends Serializable> op : extraChildrenToClose) {
         op.close(abort);
@@ -460,6 +577,10 @@ public class MapOperator extends Operator<MapredWork> implements Serializable {
   // Change the serializer etc. since it is a new file, and split can span
   // multiple files/partitions.
   public void cleanUpInputFileChangedOp() throws HiveException {
+    // the rows read from the previous file are processed first
+    if (batch != null) {
+      flushBatch();
+    }
     Path fpath = new Path((new Path(this.getExecContext().getCurrentInputFile()))
                           .toUri().getPath());
 
@@ -520,7 +641,9 @@ public class MapOperator extends Operator<MapredWork> implements Serializable {
     }
 
     try {
-      if (this.hasVC) {
+      if (batch != null) {
+        addToBatch(isPartitioned ? rowWithPart : row);
+      } else if (this.hasVC) {
         forward(this.rowWithPartAndVC, this.rowObjectInspector);
       } else if (!isPartitioned) {
         forward(row, rowObjectInspector);
@@ -46,6 +46,7 @@ import org.apache.hadoop.hive.ql.QueryPlan;
 import org.apache.hadoop.hive.ql.exec.Utilities.StreamPrinter;
 import org.apache.hadoop.hive.ql.exec.persistence.AbstractMapJoinKey;
 import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinHashTableFile;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.FetchWork;
@@ -402,7 +403,12 @@ public class MapredLocalTask extends Task<MapredLocalWork> implements Serializab
     FileSystem fs = path.getFileSystem(job);
     File file = new File(path.toUri().getPath());
     fs.create(path);
-    long fileLength = hashTable.flushMemoryCacheToPersistent(file);
+    long fileLength;
+    if (HiveConf.getBoolVar(job, HiveConf.ConfVars.HIVEHASHTABLECOMPACTFORMAT)) {
+      fileLength = MapJoinHashTableFile.write(hashTable.asMap(), file);
+    } else {
+      fileLength = hashTable.flushMemoryCacheToPersistent(file);
+    }
     console.printInfo(Utilities.now() + "\tUpload 1 File to: " + tmpURIPath + " File size: "
         + fileLength);
     hashTable.close();
@@ -28,6 +28,8 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.lib.Node;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
@@ -208,6 +210,18 @@ public abstract class Operator<T extends Serializable> implements Serializable,
    */
   protected transient Map<String, ExprNodeDesc> colExprMap;
 
+  /**
+   * The columns of the batches the operator receives, set by the parent
+   * before the operator is initialized when the parent forwards batches. The
+   * operator sets vectorized when it initializes if it can process them, see
+   * processBatch, and sets outputVectorizationContext if it forwards batches
+   * in turn.
+   */
+  protected transient VectorizationContext vectorizationContext;
+  protected transient VectorizationContext outputVectorizationContext;
+  protected transient boolean vectorized;
+  private transient Object[] batchRow;
+
   public void setId(String id) {
     this.id = id;
   }
@@ -385,6 +399,10 @@ public abstract class Operator<T extends Serializable> implements Serializable,
     }
     LOG.info("Initializing children of " + id + " " + getName());
     for (int i = 0; i < childOperatorsArray.length; i++) {
+      Operator<? extends Serializable> child = childOperatorsArray[i];
+      // an operator with several parents receives rows from some of them
+      child.vectorizationContext = vectorized
+          && child.getParentOperators().size() == 1 ? outputVectorizationContext : null;
       childOperatorsArray[i].initialize(hconf, outputObjInspector,
           childOperatorsTag[i]);
       if (reporter != null) {
@@ -471,6 +489,58 @@ public abstract class Operator<T extends Serializable> implements Serializable,
     postProcessCounter();
   }
 
+  /**
+   * Process the rows of a batch, forwarded by a parent which runs vectorized.
+   * The operators which cannot process batches process each of the rows
+   * instead.
+   *
+   * @param batch
+   *          the batch, which the operator may modify: the parent restores
+   *          the selected rows if it forwards it to other operators
+   * @param tag
+   *          the tag of the rows
+   */
+  public void processBatch(VectorizedRowBatch batch, int tag) throws HiveException {
+    if (fatalError) {
+      return;
+    }
+    if (!vectorized) {
+      for (int j = 0; j < batch.size && !getDone(); j++) {
+        process(getBatchRow(batch, batch.selectedInUse ? batch.selected[j] : j), tag);
+      }
+      return;
+    }
+    inputRows += batch.size;
+    if (counterNameToEnum != null && inputRows >= 1000) {
+      incrCounter(numInputRowsCntr, inputRows);
+      inputRows = 0;
+    }
+    processBatchOp(batch, tag);
+  }
+
+  /**
+   * Operator specific processing of a batch, for the operators which set
+   * vectorized when they initialize.
+   */
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    throw new HiveException(getName() + " cannot process batches");
+  }
+
+  /**
+   * Returns a row of the batch as writable objects, which are reused for the
+   * next row.
+   */
+  protected Object[] getBatchRow(VectorizedRowBatch batch, int row) {
+    if (batchRow == null || batchRow.length != batch.projectedColumns.length) {
+      batchRow = new Object[batch.projectedColumns.length];
+    }
+    return batch.getRow(row, batchRow);
+  }
+
+  public boolean isVectorized() {
+    return vectorized;
+  }
+
   // If a operator wants to do some work at the beginning of a group
   public void startGroup() throws HiveException {
     LOG.debug("Starting group");
@@ -750,6 +820,52 @@ public abstract class Operator<T extends Serializable> implements Serializable,
     }
   }
 
+  /**
+   * Forward the rows of a batch to the children, with the fields of
+   * outputVectorizationContext.
+   */
+  protected void forwardBatch(VectorizedRowBatch batch) throws HiveException {
+    outputRows += batch.size;
+    if (counterNameToEnum != null && outputRows >= 1000) {
+      incrCounter(numOutputRowsCntr, outputRows);
+      outputRows = 0;
+    }
+    if ((childOperatorsArray == null) || (getDone()) || batch.size == 0) {
+      return;
+    }
+
+    int[] projection = outputVectorizationContext.getProjection();
+    int[] selected = null;
+    int size = batch.size;
+    boolean selectedInUse = batch.selectedInUse;
+    if (childOperatorsArray.length > 1 && selectedInUse) {
+      selected = Arrays.copyOf(batch.selected, size);
+    }
+    int childrenDone = 0;
+    for (int i = 0; i < childOperatorsArray.length; i++) {
+      Operator<? extends Serializable> o = childOperatorsArray[i];
+      if (o.getDone()) {
+        childrenDone++;
+      } else {
+        if (i > 0) {
+          // the previous child may have filtered the rows
+          batch.size = size;
+          batch.selectedInUse = selectedInUse;
+          if (selected != null) {
+            System.arraycopy(selected, 0, batch.selected, 0, size);
+          }
+        }
+        batch.projectedColumns = projection;
+        o.processBatch(batch, childOperatorsTag[i]);
+      }
+    }
+
+    // if all children are done, this operator is also done
+    if (childrenDone == childOperatorsArray.length) {
+      setDone(true);
+    }
+  }
+
   public void resetStats() {
     for (Enum<?> e : statsMap.keySet()) {
       statsMap.get(e).set(0L);
@@ -1211,7 +1327,7 @@ public abstract class Operator<T extends Serializable> implements Serializable,
   }
 
   public Object getGroupKeyObject() {
-    return groupKeyObject;
+    return LazyReduceKey.getObject(groupKeyObject);
   }
 
   /**
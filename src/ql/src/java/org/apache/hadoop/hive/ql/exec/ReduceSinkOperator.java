@@ -34,16 +34,22 @@ import org.apache.hadoop.hive.ql.plan.TableDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.Serializer;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.binarysortable.OutputByteBuffer;
 import org.apache.hadoop.hive.serde2.objectinspector.InspectableObject;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.UnionObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardUnionObjectInspector.StandardUnion;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.util.hash.Hash;
+import org.apache.hadoop.util.hash.MurmurHash;
 
 /**
  * Reduce Sink Operator sends output to the reduce stage.
@@ -80,6 +86,43 @@ public class ReduceSinkOperator extends TerminalOperator<ReduceSinkDesc>
   transient protected int numDistributionKeys;
   transient protected int numDistinctExprs;
 
+  /**
+   * The key serializer when it is a BinarySortableSerDe. The key fields are
+   * then serialized straight into keyBuffer, followed by the tag.
+   */
+  transient BinarySortableSerDe binaryKeySerializer;
+  transient OutputByteBuffer keyBuffer;
+  transient ObjectInspector[] keyFieldObjectInspectors;
+  /**
+   * The number of leading key fields whose serialized bytes are hashed to
+   * partition the rows, or 0 to hash the partition columns.
+   */
+  transient int numHashedKeys;
+  transient Hash keyHash;
+
+  /**
+   * Samples the partition hash codes of the first rows to find the heavy keys,
+   * whose rows are then spread over all the reducers.
+   */
+  transient CountMinSketch keySketch;
+  transient long numSampledRows;
+  transient long maxSampledRows;
+  transient float heavyKeyFraction;
+  transient long heavyKeyThreshold;
+  transient long numSaltedRows;
+  transient Random saltRandom;
+
+  /**
+   * Buffers the records to remove the duplicates before the shuffle, when the
+   * reducer ignores them.
+   */
+  transient DistinctRecordBuffer distinctBuffer;
+  transient OutputCollector<HiveKey, BytesWritable> distinctCollector;
+  transient float minReduction;
+  transient boolean distinctBufferFlushed;
+  transient long numBufferedRows;
+  transient long numRemovedRows;
+
   @Override
   protected void initializeOp(Configuration hconf) throws HiveException {
 
@@ -115,12 +158,46 @@ public class ReduceSinkOperator extends TerminalOperator<ReduceSinkDesc>
           .newInstance();
       keySerializer.initialize(null, keyTableDesc.getProperties());
       keyIsText = keySerializer.getSerializedClass().equals(Text.class);
+      if (keySerializer instanceof BinarySortableSerDe) {
+        binaryKeySerializer = (BinarySortableSerDe) keySerializer;
+        keyBuffer = new OutputByteBuffer();
+        if (conf.isHashSerializedKey()) {
+          numHashedKeys = getNumHashedKeys();
+          keyHash = MurmurHash.getInstance();
+        }
+      }
 
       TableDesc valueTableDesc = conf.getValueSerializeInfo();
       valueSerializer = (Serializer) valueTableDesc.getDeserializerClass()
           .newInstance();
       valueSerializer.initialize(null, valueTableDesc.getProperties());
 
+      if (conf.isRemoveDuplicates()
+          && valueSerializer.getSerializedClass().equals(BytesWritable.class)) {
+        int bufferSize = HiveConf.getIntVar(hconf,
+            HiveConf.ConfVars.HIVEREDUCESINKDEDUPBUFFER);
+        minReduction = HiveConf.getFloatVar(hconf,
+            HiveConf.ConfVars.HIVEMAPAGGRHASHMINREDUCTION);
+        distinctBuffer = new DistinctRecordBuffer(bufferSize);
+        distinctCollector = new OutputCollector<HiveKey, BytesWritable>() {
+          public void collect(HiveKey key, BytesWritable value) throws IOException {
+            emit(key, value);
+          }
+        };
+        LOG.info("Removing duplicate rows with a buffer of " + bufferSize + " bytes");
+      }
+
+      if (conf.isSaltHeavyKeys()) {
+        maxSampledRows = HiveConf.getLongVar(hconf,
+            HiveConf.ConfVars.HIVEGROUPBYSKEWSAMPLEROWS);
+        heavyKeyFraction = HiveConf.getFloatVar(hconf,
+            HiveConf.ConfVars.HIVEGROUPBYSKEWHEAVYFRACTION);
+        keySketch = new CountMinSketch(4, 1024);
+        saltRandom = new Random(12345);
+        LOG.info("Spreading the keys of more than " + heavyKeyFraction
+            + " of the first " + maxSampledRows + " rows");
+      }
+
       firstRow = true;
       initializeChildren(hconf);
     } catch (Exception e) {
@@ -145,6 +222,25 @@ public class ReduceSinkOperator extends TerminalOperator<ReduceSinkDesc>
 
   transient Random random;
 
+  /**
+   * Returns the number of key fields whose serialized bytes can be hashed
+   * instead of the partition columns: the partition columns must be the
+   * leading key columns.
+   */
+  private int getNumHashedKeys() {
+    List<ExprNodeDesc> partitionCols = conf.getPartitionCols();
+    List<ExprNodeDesc> keyCols = conf.getKeyCols();
+    if (partitionCols.isEmpty() || partitionCols.size() > numDistributionKeys) {
+      return 0;
+    }
+    for (int i = 0; i < partitionCols.size(); i++) {
+      if (!partitionCols.get(i).isSame(keyCols.get(i))) {
+        return 0;
+      }
+    }
+    return partitionCols.size();
+  }
+
   /**
    * Initializes array of ExprNodeEvaluator. Adds Union field for distinct
    * column indices for group by.
@@ -203,27 +299,38 @@ public class ReduceSinkOperator extends TerminalOperator<ReduceSinkDesc>
         int keyLen = numDistinctExprs > 0 ? numDistributionKeys + 1 :
           numDistributionKeys;
         cachedKeys = new Object[numKeys][keyLen];
+        for (int i = 0; i < numDistinctExprs; i++) {
+          cachedKeys[i][numDistributionKeys] = new StandardUnion((byte) i,
+              new Object[distinctColIndices.get(i).size()]);
+        }
         cachedValues = new Object[valueEval.length];
+        List<? extends StructField> keyFields = keyObjectInspector.getAllStructFieldRefs();
+        keyFieldObjectInspectors = new ObjectInspector[keyFields.size()];
+        for (int i = 0; i < keyFieldObjectInspectors.length; i++) {
+          keyFieldObjectInspectors[i] = keyFields.get(i).getFieldObjectInspector();
+        }
       }
 
-      // Evaluate the HashCode
+      // Evaluate the HashCode, unless it is computed from the serialized keys
       int keyHashCode = 0;
-      if (partitionEval.length == 0) {
-        // If no partition cols, just distribute the data uniformly to provide
-        // better
-        // load balance. If the requirement is to have a single reducer, we
-        // should set
-        // the number of reducers to 1.
-        // Use a constant seed to make the code deterministic.
-        if (random == null) {
-          random = new Random(12345);
-        }
-        keyHashCode = random.nextInt();
-      } else {
-        for (int i = 0; i < partitionEval.length; i++) {
-          Object o = partitionEval[i].evaluate(row);
-          keyHashCode = keyHashCode * 31
-              + ObjectInspectorUtils.hashCode(o, partitionObjectInspectors[i]);
+      if (numHashedKeys == 0) {
+        if (partitionEval.length == 0) {
+          // If no partition cols, just distribute the data uniformly to provide
+          // better
+          // load balance. If the requirement is to have a single reducer, we
+          // should set
+          // the number of reducers to 1.
+          // Use a constant seed to make the code deterministic.
+          if (random == null) {
+            random = new Random(12345);
+          }
+          keyHashCode = random.nextInt();
+        } else {
+          for (int i = 0; i < partitionEval.length; i++) {
+            Object o = partitionEval[i].evaluate(row);
+            keyHashCode = keyHashCode * 31
+                + ObjectInspectorUtils.hashCode(o, partitionObjectInspectors[i]);
+          }
         }
       }
 
@@ -235,7 +342,7 @@ public class ReduceSinkOperator extends TerminalOperator<ReduceSinkDesc>
       value = valueSerializer.serialize(cachedValues, valueObjectInspector);
 
       // Evaluate the keys
-      Object[] distributionKeys = new Object[numDistributionKeys];
+      Object[] distributionKeys = cachedKeys[0];
       for (int i = 0; i < numDistributionKeys; i++) {
         distributionKeys[i] = keyEval[i].evaluate(row);
       }
@@ -243,23 +350,25 @@ public class ReduceSinkOperator extends TerminalOperator<ReduceSinkDesc>
       if (numDistinctExprs > 0) {
         // with distinct key(s)
         for (int i = 0; i < numDistinctExprs; i++) {
-          System.arraycopy(distributionKeys, 0, cachedKeys[i], 0, numDistributionKeys);
-          Object[] distinctParameters =
-            new Object[distinctColIndices.get(i).size()];
+          if (i > 0) {
+            System.arraycopy(distributionKeys, 0, cachedKeys[i], 0, numDistributionKeys);
+          }
+          Object[] distinctParameters = (Object[]) ((StandardUnion)
+              cachedKeys[i][numDistributionKeys]).getObject();
           for (int j = 0; j < distinctParameters.length; j++) {
             distinctParameters[j] =
               keyEval[distinctColIndices.get(i).get(j)].evaluate(row);
           }
-          cachedKeys[i][numDistributionKeys] =
-              new StandardUnion((byte)i, distinctParameters);
         }
-      } else {
-        // no distinct key
-        System.arraycopy(distributionKeys, 0, cachedKeys[0], 0, numDistributionKeys);
       }
       // Serialize the keys and append the tag
       for (int i = 0; i < cachedKeys.length; i++) {
-        if (keyIsText) {
+        if (keyBuffer != null) {
+          int serializedKeyHashCode = serializeKey(cachedKeys[i]);
+          if (numHashedKeys > 0) {
+            keyHashCode = serializedKeyHashCode;
+          }
+        } else if (keyIsText) {
           Text key = (Text) keySerializer.serialize(cachedKeys[i],
               keyObjectInspector);
           if (tag == -1) {
@@ -283,18 +392,12 @@ public class ReduceSinkOperator extends TerminalOperator<ReduceSinkDesc>
             keyWritable.get()[keyLength] = tagByte[0];
           }
         }
-        keyWritable.setHashCode(keyHashCode);
-        if (out != null) {
-          out.collect(keyWritable, value);
-          // Since this is a terminal operator, update counters explicitly -
-          // forward is not called
-          if (counterNameToEnum != null) {
-            ++outputRows;
-            if (outputRows % 1000 == 0) {
-              incrCounter(numOutputRowsCntr, outputRows);
-              outputRows = 0;
-            }
-          }
+        keyWritable.setHashCode(keySketch == null ? keyHashCode
+            : saltHeavyKey(keyHashCode));
+        if (distinctBuffer != null) {
+          collectDistinct(keyWritable, (BytesWritable) value);
+        } else {
+          emit(keyWritable, value);
         }
       }
     } catch (SerDeException e) {
@@ -304,6 +407,115 @@ public class ReduceSinkOperator extends TerminalOperator<ReduceSinkDesc>
     }
   }
 
+  /**
+   * Serializes the key fields and the tag straight into keyWritable.
+   *
+   * @return the hash of the serialized partition keys if they are hashed
+   */
+  private int serializeKey(Object[] key) {
+    keyBuffer.reset();
+    int hashCode = 0;
+    for (int i = 0; i < key.length; i++) {
+      binaryKeySerializer.serializeField(keyBuffer, i, key[i],
+          keyFieldObjectInspectors[i]);
+      if (i + 1 == numHashedKeys) {
+        hashCode = keyHash.hash(keyBuffer.getData(), keyBuffer.getLength(), 0);
+      }
+    }
+    if (tag != -1) {
+      keyBuffer.write(tagByte[0]);
+    }
+    keyWritable.set(keyBuffer.getData(), 0, keyBuffer.getLength());
+    return hashCode;
+  }
+
+  /**
+   * Samples the partition hash codes of the first rows, then spreads the rows
+   * of the keys that were frequent in the sample over all the reducers. The
+   * group by after this reduce sink only computes partial aggregations, which
+   * a second one merges, so a key may go to several reducers.
+   *
+   * @return the partition hash code of the row
+   */
+  private int saltHeavyKey(int hashCode) {
+    if (numSampledRows < maxSampledRows) {
+      keySketch.add(hashCode);
+      if (++numSampledRows == maxSampledRows) {
+        heavyKeyThreshold = Math.max(1, (long) (numSampledRows * heavyKeyFraction));
+      }
+      return hashCode;
+    }
+    if (keySketch.estimate(hashCode) < heavyKeyThreshold) {
+      return hashCode;
+    }
+    numSaltedRows++;
+    return saltRandom.nextInt();
+  }
+
+  private void emit(HiveKey key, Writable value) throws IOException {
+    if (out != null) {
+      out.collect(key, value);
+      // Since this is a terminal operator, update counters explicitly -
+      // forward is not called
+      if (counterNameToEnum != null) {
+        ++outputRows;
+        if (outputRows % 1000 == 0) {
+          incrCounter(numOutputRowsCntr, outputRows);
+          outputRows = 0;
+        }
+      }
+    }
+  }
+
+  private void collectDistinct(HiveKey key, BytesWritable value) throws IOException {
+    if (!distinctBuffer.add(key, value)) {
+      flushDistinctBuffer();
+      if (distinctBuffer == null) {
+        emit(key, value);
+        return;
+      }
+      distinctBuffer.add(key, value);
+    }
+  }
+
+  /**
+   * Emits the buffered records. The buffer is given up if the first flush did
+   * not remove enough duplicates to pay for the sort.
+   */
+  private void flushDistinctBuffer() throws IOException {
+    int numRecords = distinctBuffer.getNumRecords();
+    int emitted = distinctBuffer.flush(distinctCollector);
+    numBufferedRows += numRecords;
+    numRemovedRows += numRecords - emitted;
+    if (!distinctBufferFlushed) {
+      distinctBufferFlushed = true;
+      if (emitted > numRecords * minReduction) {
+        LOG.info("Disable duplicate removal: " + emitted + " distinct rows in "
+            + numRecords);
+        distinctBuffer = null;
+      }
+    }
+  }
+
+  @Override
+  protected void closeOp(boolean abort) throws HiveException {
+    if (distinctBuffer != null && !abort) {
+      try {
+        flushDistinctBuffer();
+      } catch (IOException e) {
+        throw new HiveException(e);
+      }
+    }
+    if (numBufferedRows > 0) {
+      LOG.info("Removed " + numRemovedRows + " duplicate rows out of "
+          + numBufferedRows);
+    }
+    if (keySketch != null) {
+      LOG.info("Spread " + numSaltedRows + " rows of heavy keys");
+    }
+    super.closeOp(abort);
+  }
+
   /**
    * @return the name of the operator
    */
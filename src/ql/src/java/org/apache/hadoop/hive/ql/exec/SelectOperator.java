@@ -19,12 +19,16 @@ package org.apache.hadoop.hive.ql.exec;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
 import org.apache.hadoop.hive.ql.plan.SelectDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 
 /**
@@ -35,22 +39,30 @@ public class SelectOperator extends Operator<SelectDesc> implements
 
   private static final long serialVersionUID = 1L;
   protected transient ExprNodeEvaluator[] eval;
+  private transient ExprNodeEvaluatorCache evaluatorCache;
 
   transient Object[] output;
+  private transient VectorExpression[] vectorExpressions;
 
   @Override
   protected void initializeOp(Configuration hconf) throws HiveException {
     // Just forward the row as is
     if (conf.isSelStarNoCompute()) {
+      if (vectorizationContext != null) {
+        vectorized = true;
+        outputVectorizationContext = vectorizationContext;
+      }
       initializeChildren(hconf);
       return;
     }
 
     ArrayList<ExprNodeDesc> colList = conf.getColList();
     eval = new ExprNodeEvaluator[colList.size()];
+    evaluatorCache = ExprNodeEvaluatorFactory.getCache(colList, hconf);
     for (int i = 0; i < colList.size(); i++) {
       assert (colList.get(i) != null);
-      eval[i] = ExprNodeEvaluatorFactory.get(colList.get(i));
+      eval[i] = evaluatorCache != null ? evaluatorCache.get(colList.get(i))
+          : ExprNodeEvaluatorFactory.get(colList.get(i), hconf);
     }
 
     output = new Object[eval.length];
@@ -58,9 +70,42 @@ public class SelectOperator extends Operator<SelectDesc> implements
         + ((StructObjectInspector) inputObjInspectors[0]).getTypeName());
     outputObjInspector = initEvaluatorsAndReturnStruct(eval, conf
         .getOutputColumnNames(), inputObjInspectors[0]);
+    if (vectorizationContext != null) {
+      initializeVectorExpressions();
+    }
     initializeChildren(hconf);
   }
 
+  /**
+   * Compile the expressions, if the objects of the output rows are the
+   * writable objects of the columns computed.
+   */
+  private void initializeVectorExpressions() {
+    ArrayList<ExprNodeDesc> colList = conf.getColList();
+    List<? extends StructField> fields = ((StructObjectInspector) outputObjInspector)
+        .getAllStructFieldRefs();
+    VectorExpression[] expressions = new VectorExpression[colList.size()];
+    int[] columns = new int[colList.size()];
+    for (int i = 0; i < expressions.length; i++) {
+      expressions[i] = vectorizationContext.getVectorExpression(colList.get(i));
+      if (expressions[i] == null) {
+        LOG.info("Cannot vectorize " + colList.get(i).getExprString());
+        return;
+      }
+      columns[i] = expressions[i].getOutputColumn();
+      if (fields.get(i).getFieldObjectInspector() != vectorizationContext
+          .getWritableObjectInspector(columns[i])) {
+        LOG.info("Cannot vectorize " + colList.get(i).getExprString() + " returning "
+            + fields.get(i).getFieldObjectInspector().getTypeName());
+        return;
+      }
+    }
+    vectorExpressions = expressions;
+    vectorized = true;
+    outputVectorizationContext = vectorizationContext.project(conf.getOutputColumnNames(),
+        columns);
+  }
+
   @Override
   public void processOp(Object row, int tag) throws HiveException {
 
@@ -70,6 +115,9 @@ public class SelectOperator extends Operator<SelectDesc> implements
       return;
     }
 
+    if (evaluatorCache != null) {
+      evaluatorCache.newRow();
+    }
     for (int i = 0; i < eval.length; i++) {
       try {
         output[i] = eval[i].evaluate(row);
@@ -83,6 +131,16 @@ public class SelectOperator extends Operator<SelectDesc> implements
     forward(output, outputObjInspector);
   }
 
+  @Override
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    if (vectorExpressions != null) {
+      for (VectorExpression expression : vectorExpressions) {
+        expression.evaluate(batch);
+      }
+    }
+    forwardBatch(batch);
+  }
+
   /**
    * @return the name of the operator
    */
@@ -24,6 +24,7 @@ import java.util.List;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.common.FileUtils;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.TableDesc;
 import org.apache.hadoop.hive.ql.plan.TableScanDesc;
@@ -35,6 +36,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapred.JobConf;
 
 /**
@@ -46,6 +48,18 @@ public class TableScanOperator extends Operator<TableScanDesc> implements
     Serializable {
   private static final long serialVersionUID = 1L;
 
+  /**
+   * Counter.
+   *
+   */
+  public static enum Counter {
+    FILTERED_BY_JOIN_KEYS
+  }
+
+  private final transient LongWritable filtered_by_join_keys_count = new LongWritable();
+  // semi-join filters installed by the map joins reading this table
+  private transient List<MapJoinKeyFilter> keyFilters;
+
   protected transient JobConf jc;
   private transient Configuration hconf;
   private transient Stat stat;
@@ -74,9 +88,40 @@ public class TableScanOperator extends Operator<TableScanDesc> implements
     if (conf != null && conf.isGatherStats()) {
       gatherStats(row);
     }
+    if (keyFilters != null) {
+      for (MapJoinKeyFilter keyFilter : keyFilters) {
+        if (!keyFilter.accept(row)) {
+          filtered_by_join_keys_count.set(filtered_by_join_keys_count.get() + 1);
+          return;
+        }
+      }
+    }
     forward(row, inputObjInspectors[tag]);
   }
 
+  @Override
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    if (keyFilters != null || (conf != null && conf.isGatherStats())) {
+      // the join key filters and the statistics work on rows
+      for (int j = 0; j < batch.size; j++) {
+        processOp(getBatchRow(batch, batch.selectedInUse ? batch.selected[j] : j), tag);
+      }
+      return;
+    }
+    forwardBatch(batch);
+  }
+
+  /**
+   * Drop the rows rejected by keyFilter from now on.
+   */
+  public void addKeyFilter(MapJoinKeyFilter keyFilter) {
+    if (keyFilters == null) {
+      keyFilters = new ArrayList<MapJoinKeyFilter>();
+      statsMap.put(Counter.FILTERED_BY_JOIN_KEYS, filtered_by_join_keys_count);
+    }
+    keyFilters.add(keyFilter);
+  }
+
   // Change the table partition for collecting stats
   @Override
   public void cleanUpInputFileChangedOp() throws HiveException {
@@ -129,6 +174,10 @@ public class TableScanOperator extends Operator<TableScanDesc> implements
 
   @Override
   protected void initializeOp(Configuration hconf) throws HiveException {
+    if (vectorizationContext != null) {
+      vectorized = true;
+      outputVectorizationContext = vectorizationContext;
+    }
     initializeChildren(hconf);
     inputFileChanged = false;
 
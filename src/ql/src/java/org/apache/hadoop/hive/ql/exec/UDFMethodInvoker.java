@@ -0,0 +1,279 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Calls the evaluate method of a UDF.
+ *
+ * Method.invoke checks the access and the arguments of every call, and wraps
+ * them for the native accessor until it is inflated. The invokers returned
+ * by get() are generated classes which cast the arguments to the parameter
+ * types of the method, unbox the primitive ones and call it directly: the
+ * JIT can inline the UDF into the caller. They are generated once per method
+ * and shared, they are stateless.
+ *
+ * The invokers are cached by the class loader they are defined in, which is
+ * only reachable from the invokers themselves: the UDF classes and their
+ * loader (the loader of the added jars of a session) can be unloaded when
+ * no operator uses them anymore.
+ *
+ * If the method cannot be called from a generated class (it is not public,
+ * or its class is not visible from the class loader of Hive), or if asm is
+ * not on the classpath of the task, the invoker falls back on reflection.
+ */
+public abstract class UDFMethodInvoker {
+
+  private static final Log LOG = LogFactory.getLog(UDFMethodInvoker.class.getName());
+
+  private static final String PACKAGE = "org/apache/hadoop/hive/ql/exec/invoker/";
+
+  // set when asm is not on the classpath: all the invokers use reflection
+  private static volatile boolean asmMissing;
+
+  // the class loaders of the invokers, by the loader of the UDF classes. An
+  // invoker loader references its parent, it is held weakly so that the key
+  // can be collected.
+  private static final Map<ClassLoader, WeakReference<InvokerClassLoader>> LOADERS =
+      new WeakHashMap<ClassLoader, WeakReference<InvokerClassLoader>>();
+
+  private static class InvokerClassLoader extends ClassLoader {
+    // the invokers defined by this loader
+    final Map<Method, UDFMethodInvoker> invokers = new HashMap<Method, UDFMethodInvoker>();
+
+    InvokerClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Calls the method through reflection.
+   */
+  private static class ReflectionInvoker extends UDFMethodInvoker {
+    ReflectionInvoker(Method method) {
+      super(method);
+    }
+
+    @Override
+    public Object invoke(Object udf, Object[] arguments) throws HiveException {
+      return FunctionRegistry.invoke(method, udf, arguments);
+    }
+
+    @Override
+    protected Object call(Object udf, Object[] arguments) throws Exception {
+      return method.invoke(udf, arguments);
+    }
+  }
+
+  protected final Method method;
+
+  protected UDFMethodInvoker(Method method) {
+    this.method = method;
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  /**
+   * Calls the method on the UDF.
+   *
+   * @param arguments
+   *          the arguments of the method, converted to its parameter types.
+   *          The array can be reused by the next call.
+   */
+  public Object invoke(Object udf, Object[] arguments) throws HiveException {
+    try {
+      return call(udf, arguments);
+    } catch (Exception e) {
+      throw FunctionRegistry.getInvocationException(method, udf, arguments, e);
+    }
+  }
+
+  /**
+   * The generated call of the method.
+   */
+  protected abstract Object call(Object udf, Object[] arguments) throws Exception;
+
+  /**
+   * The invoker of a method.
+   */
+  public static UDFMethodInvoker get(Method method) {
+    Class<?> udfClass = method.getDeclaringClass();
+    if (asmMissing || !Modifier.isPublic(method.getModifiers())
+        || Modifier.isStatic(method.getModifiers())
+        || !Modifier.isPublic(udfClass.getModifiers())) {
+      return new ReflectionInvoker(method);
+    }
+    synchronized (LOADERS) {
+      ClassLoader udfLoader = udfClass.getClassLoader();
+      WeakReference<InvokerClassLoader> ref = LOADERS.get(udfLoader);
+      InvokerClassLoader loader = ref == null ? null : ref.get();
+      if (loader == null) {
+        loader = new InvokerClassLoader(udfLoader);
+        LOADERS.put(udfLoader, new WeakReference<InvokerClassLoader>(loader));
+      }
+      UDFMethodInvoker invoker = loader.invokers.get(method);
+      if (invoker == null) {
+        invoker = generate(loader, method);
+        loader.invokers.put(method, invoker);
+      }
+      return invoker;
+    }
+  }
+
+  /**
+   * The invoker of a method, through reflection.
+   */
+  public static UDFMethodInvoker getReflectionInvoker(Method method) {
+    return new ReflectionInvoker(method);
+  }
+
+  private static UDFMethodInvoker generate(InvokerClassLoader loader, Method method) {
+    try {
+      String className = PACKAGE + "Invoker" + loader.invokers.size();
+      Class<?> invokerClass = loader.define(className.replace('/', '.'), Generator.generate(
+          className, method));
+      return (UDFMethodInvoker) invokerClass.getConstructor(Method.class).newInstance(method);
+    } catch (NoClassDefFoundError e) {
+      if (e.getMessage() == null || !e.getMessage().startsWith("org/objectweb/asm/")) {
+        LOG.warn("Cannot generate the invoker of " + method + ", using reflection", e);
+      } else if (!asmMissing) {
+        LOG.warn("asm is not on the classpath, the UDFs are called through reflection: "
+            + e.getMessage());
+        asmMissing = true;
+      }
+      return new ReflectionInvoker(method);
+    } catch (Throwable e) {
+      // the UDF class or this one is not visible from the loader
+      LOG.warn("Cannot generate the invoker of " + method + ", using reflection", e);
+      return new ReflectionInvoker(method);
+    }
+  }
+
+  /**
+   * Generates the invoker classes. All the references to asm are in this
+   * class, which is only loaded when an invoker is generated.
+   */
+  private static final class Generator {
+
+    private static final String BASE_CLASS = Type.getInternalName(UDFMethodInvoker.class);
+
+    static byte[] generate(String className, Method method) {
+      ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+      cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+          className, null, BASE_CLASS, null);
+
+      String methodDescriptor = Type.getDescriptor(Method.class);
+      MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + methodDescriptor
+          + ")V", null, null);
+      init.visitCode();
+      init.visitVarInsn(Opcodes.ALOAD, 0);
+      init.visitVarInsn(Opcodes.ALOAD, 1);
+      init.visitMethodInsn(Opcodes.INVOKESPECIAL, BASE_CLASS, "<init>", "(" + methodDescriptor
+          + ")V");
+      init.visitInsn(Opcodes.RETURN);
+      init.visitMaxs(0, 0);
+      init.visitEnd();
+
+      MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PROTECTED, "call",
+          "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", null,
+          new String[] {"java/lang/Exception"});
+      mv.visitCode();
+      mv.visitVarInsn(Opcodes.ALOAD, 1);
+      mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(method.getDeclaringClass()));
+      Class<?>[] parameters = method.getParameterTypes();
+      for (int i = 0; i < parameters.length; i++) {
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitLdcInsn(i);
+        mv.visitInsn(Opcodes.AALOAD);
+        unbox(mv, parameters[i]);
+      }
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(method.getDeclaringClass()),
+          method.getName(), Type.getMethodDescriptor(method));
+      box(mv, method.getReturnType());
+      mv.visitInsn(Opcodes.ARETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+
+      cw.visitEnd();
+      return cw.toByteArray();
+    }
+
+    private static Class<?> getBoxClass(Class<?> c) {
+      if (c == boolean.class) {
+        return Boolean.class;
+      } else if (c == byte.class) {
+        return Byte.class;
+      } else if (c == short.class) {
+        return Short.class;
+      } else if (c == char.class) {
+        return Character.class;
+      } else if (c == int.class) {
+        return Integer.class;
+      } else if (c == long.class) {
+        return Long.class;
+      } else if (c == float.class) {
+        return Float.class;
+      } else {
+        return Double.class;
+      }
+    }
+
+    private static void unbox(MethodVisitor mv, Class<?> c) {
+      if (!c.isPrimitive()) {
+        if (c != Object.class) {
+          mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(c));
+        }
+        return;
+      }
+      String box = Type.getInternalName(getBoxClass(c));
+      mv.visitTypeInsn(Opcodes.CHECKCAST, box);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, box, c.getName() + "Value", "()"
+          + Type.getDescriptor(c));
+    }
+
+    private static void box(MethodVisitor mv, Class<?> c) {
+      if (c == void.class) {
+        mv.visitInsn(Opcodes.ACONST_NULL);
+      } else if (c.isPrimitive()) {
+        Class<?> box = getBoxClass(c);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(box), "valueOf", "("
+            + Type.getDescriptor(c) + ")" + Type.getDescriptor(box));
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.Serializable;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+/**
+ * The lookups of a hashtable, all the map join needs once a table is loaded.
+ * HashMapWrapper adds the updates; MappedHashMapWrapper probes a file in
+ * place and has none.
+ */
+public abstract class AbstractHashMapWrapper<K, V> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public abstract V get(K key);
+
+  public abstract int size();
+
+  public abstract Set<K> keySet();
+
+  /**
+   * Release the memory, or the file, of the table.
+   */
+  public abstract void close() throws HiveException;
+}
@@ -17,6 +17,8 @@
 
 package org.apache.hadoop.hive.ql.exec.persistence;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -38,9 +40,25 @@ public abstract class AbstractMapJoinKey implements Externalizable {
   @Override
   public abstract int hashCode();
 
-  public abstract void readExternal(ObjectInput in) throws IOException, ClassNotFoundException;
+  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    readFields(in);
+  }
+
+  public void writeExternal(ObjectOutput out) throws IOException {
+    write(out);
+  }
+
+  /**
+   * Read the key back from its serialized form. The serialized form is the
+   * key serde's output, so it does not depend on java serialization and can be
+   * used by MapJoinHashTableFile as well.
+   */
+  public abstract void readFields(DataInput in) throws IOException;
 
-  public abstract void writeExternal(ObjectOutput out) throws IOException;
+  /**
+   * Write the key using the key serde registered in MapJoinMetaData.
+   */
+  public abstract void write(DataOutput out) throws IOException;
 
   public abstract boolean hasAnyNulls();
 
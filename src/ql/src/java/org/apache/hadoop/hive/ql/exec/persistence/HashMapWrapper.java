@@ -23,11 +23,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.text.NumberFormat;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -35,6 +35,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Utilities;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.session.SessionState.LogHelper;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
 
 
 /**
@@ -44,7 +45,7 @@ import org.apache.hadoop.hive.ql.session.SessionState.LogHelper;
  * hash table.
  */
 
-public class HashMapWrapper<K, V> implements Serializable {
+public class HashMapWrapper<K, V> extends AbstractHashMapWrapper<K, V> {
 
   private static final long serialVersionUID = 1L;
   protected Log LOG = LogFactory.getLog(this.getClass().getName());
@@ -52,8 +53,8 @@ public class HashMapWrapper<K, V> implements Serializable {
   // default threshold for using main memory based HashMap
 
   private static final int THRESHOLD = 1000000;
-  private static final float LOADFACTOR = 0.75f;
-  private static final float MEMORYUSAGE = 1;
+  protected static final float LOADFACTOR = 0.75f;
+  protected static final float MEMORYUSAGE = 1;
 
   private float maxMemoryUsage;
   private HashMap<K, V> mHash; // main memory HashMap
@@ -64,6 +65,7 @@ public class HashMapWrapper<K, V> implements Serializable {
   private long maxMemory;
   private long currentMemory;
   private NumberFormat num;
+  private transient HashTableMemoryMonitor memoryMonitor;
 
   /**
    * Constructor.
@@ -132,6 +134,13 @@ public class HashMapWrapper<K, V> implements Serializable {
     return mHash.size();
   }
 
+  /**
+   * A read-only view of the entries, used to dump the hash table.
+   */
+  public Map<K, V> asMap() {
+    return mHash;
+  }
+
   public Set<K> keySet() {
     return mHash.keySet();
   }
@@ -154,11 +163,21 @@ public class HashMapWrapper<K, V> implements Serializable {
     return mHash.size();
   }
 
+  /**
+   * Check whether the hashtables use too much memory. With a memory monitor,
+   * this is decided by its accounting; otherwise from the heap usage after the
+   * last garbage collection.
+   */
   public boolean isAbort(long numRows,LogHelper console) {
-    System.gc();
-    System.gc();
-    int size = mHash.size();
-    long usedMemory = memoryMXBean.getHeapMemoryUsage().getUsed();
+    int size = size();
+    if (memoryMonitor != null) {
+      console.printInfo(Utilities.now() + "\tProcessing rows:\t" + numRows
+          + "\tHashtable size:\t" + size + "\tEstimated memory:\t"
+          + memoryMonitor.getEstimatedMemory() + "\trate:\t"
+          + num.format(memoryMonitor.getEstimatedUsage()));
+      return memoryMonitor.isAbort();
+    }
+    long usedMemory = HashTableMemoryMonitor.getCollectionUsage();
     double rate = (double) usedMemory / (double) maxMemory;
     console.printInfo(Utilities.now() + "\tProcessing rows:\t" + numRows + "\tHashtable size:\t"
         + size + "\tMemory usage:\t" + usedMemory + "\trate:\t" + num.format(rate));
@@ -168,6 +187,18 @@ public class HashMapWrapper<K, V> implements Serializable {
     return false;
   }
 
+  public void setMemoryMonitor(HashTableMemoryMonitor memoryMonitor) {
+    this.memoryMonitor = memoryMonitor;
+  }
+
+  /**
+   * Returns the estimated heap retained by one entry of the table, besides
+   * the value, given the estimated size of its key.
+   */
+  public long getEntrySize(long keySize) {
+    return ObjectSizeEstimator.HASHMAP_ENTRY + keySize;
+  }
+
   public void setLOG(Log log) {
     LOG = log;
   }
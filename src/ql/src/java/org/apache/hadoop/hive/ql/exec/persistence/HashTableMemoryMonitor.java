@@ -0,0 +1,184 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Memory accounting of the hashtables built by the local task.
+ *
+ * The hashtable builder adds the estimated size of every key and value it
+ * inserts (see ObjectSizeEstimator), which is compared against the maximum
+ * memory usage. Independently, a collection usage threshold is set on the
+ * tenured heap pool, where the hashtables end up, so that the JVM notifies us
+ * when the memory still in use after a garbage collection goes above the
+ * maximum usage. Both are fractions of the tenured pool's maximum size, and
+ * neither needs a forced collection.
+ */
+public class HashTableMemoryMonitor implements NotificationListener {
+
+  private static final Log LOG = LogFactory.getLog(HashTableMemoryMonitor.class.getName());
+
+  private final float maxMemoryUsage;
+  private final long maxMemory;
+  private final MemoryPoolMXBean tenuredPool;
+
+  private long estimatedMemory;
+  private long peakEstimatedMemory;
+  private volatile boolean thresholdExceeded;
+  private volatile long numNotifications;
+  private long numChecks;
+
+  /**
+   * @param maxMemoryUsage
+   *          the fraction of the heap the hashtables may use
+   */
+  public HashTableMemoryMonitor(float maxMemoryUsage) {
+    this.maxMemoryUsage = maxMemoryUsage;
+    MemoryPoolMXBean pool = findTenuredPool();
+    if (pool != null && pool.isCollectionUsageThresholdSupported()
+        && pool.getUsage().getMax() > 0) {
+      tenuredPool = pool;
+      maxMemory = pool.getUsage().getMax();
+      pool.setCollectionUsageThreshold((long) (maxMemory * Math.min(maxMemoryUsage, 1.0f)));
+      LOG.info("Collection usage threshold of " + pool.getName() + " set to "
+          + pool.getCollectionUsageThreshold());
+    } else {
+      tenuredPool = null;
+      maxMemory = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+      LOG.info("No tenured heap pool with a collection usage threshold, only the"
+          + " estimated memory is checked");
+    }
+    ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this,
+        null, null);
+  }
+
+  public void handleNotification(Notification notification, Object handback) {
+    if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification
+        .getType()) && tenuredPool != null && tenuredPool.getName().equals(
+        MemoryNotificationInfo.from((CompositeData) notification.getUserData()).getPoolName())) {
+      thresholdExceeded = true;
+      numNotifications++;
+    }
+  }
+
+  /**
+   * Account for memory retained (or released, if bytes is negative) by the
+   * hashtables.
+   */
+  public void add(long bytes) {
+    estimatedMemory += bytes;
+    if (estimatedMemory > peakEstimatedMemory) {
+      peakEstimatedMemory = estimatedMemory;
+    }
+  }
+
+  /**
+   * Forget about a low memory notification, after memory was released.
+   */
+  public void reset() {
+    thresholdExceeded = false;
+  }
+
+  public boolean isAbort() {
+    numChecks++;
+    return thresholdExceeded || getEstimatedUsage() > maxMemoryUsage;
+  }
+
+  /**
+   * Returns the estimated size of the hashtables as a fraction of the heap.
+   */
+  public double getEstimatedUsage() {
+    return (double) estimatedMemory / (double) maxMemory;
+  }
+
+  public long getEstimatedMemory() {
+    return estimatedMemory;
+  }
+
+  public long getPeakEstimatedMemory() {
+    return peakEstimatedMemory;
+  }
+
+  public long getNumNotifications() {
+    return numNotifications;
+  }
+
+  public long getNumChecks() {
+    return numChecks;
+  }
+
+  public long getMaxMemory() {
+    return maxMemory;
+  }
+
+  /**
+   * Returns the heap pool that holds long lived objects: the one that
+   * supports a usage threshold and is neither the eden nor a survivor space.
+   */
+  private static MemoryPoolMXBean findTenuredPool() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      String name = pool.getName().toLowerCase();
+      if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+          && !name.contains("eden") && !name.contains("survivor")) {
+        return pool;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the heap in use after the last garbage collection, which is a
+   * cheap approximation of the live heap.
+   */
+  public static long getCollectionUsage() {
+    long used = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        MemoryUsage usage = pool.getCollectionUsage();
+        used += usage == null ? pool.getUsage().getUsed() : usage.getUsed();
+      }
+    }
+    return used;
+  }
+
+  public void close() {
+    try {
+      ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+    } catch (ListenerNotFoundException e) {
+      LOG.warn("Memory notification listener was already removed");
+    }
+    if (tenuredPool != null) {
+      // a threshold of zero disables the notifications
+      tenuredPool.setCollectionUsageThreshold(0);
+    }
+  }
+}
@@ -0,0 +1,370 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * HashMapWrapper for map joins on a single integral key column.
+ *
+ * The keys are kept as primitive longs in an open addressing table with
+ * linear probing, so no key object is retained per entry, and the big table
+ * side can probe with {@link #get(long)} without building a MapJoinSingleKey.
+ * Keys passed as AbstractMapJoinKey must be MapJoinSingleKeys holding a
+ * writable of the key category. The (at most one) entry with a null key is
+ * kept aside; it never matches a probe but is dumped with the table.
+ */
+public class LongHashMapWrapper extends HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private final PrimitiveCategory keyCategory;
+  private final transient PrimitiveObjectInspector keyOI;
+  private final float loadFactor;
+
+  private transient long[] keys;
+  private transient MapJoinObjectValue[] values;
+  private transient int size;
+  private transient int resizeThreshold;
+  private transient MapJoinObjectValue nullValue;
+
+  public LongHashMapWrapper(PrimitiveCategory keyCategory, int threshold, float loadFactor,
+      float memoryUsage) {
+    super(1, loadFactor, memoryUsage);
+    this.keyCategory = keyCategory;
+    this.loadFactor = loadFactor;
+    keyOI = PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(keyCategory);
+    allocate((int) Math.min(1 << 30, threshold / loadFactor + 1));
+  }
+
+  public LongHashMapWrapper(PrimitiveCategory keyCategory) {
+    this(keyCategory, MIN_CAPACITY, LOADFACTOR, MEMORYUSAGE);
+  }
+
+  /**
+   * Returns the primitive category of the join key if the key is a single
+   * byte, short, int or bigint column, or null otherwise.
+   */
+  public static PrimitiveCategory getLongKeyCategory(List<ObjectInspector> keyOIs) {
+    if (keyOIs == null || keyOIs.size() != 1
+        || keyOIs.get(0).getCategory() != Category.PRIMITIVE) {
+      return null;
+    }
+    PrimitiveCategory category = ((PrimitiveObjectInspector) keyOIs.get(0))
+        .getPrimitiveCategory();
+    switch (category) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      return category;
+    default:
+      return null;
+    }
+  }
+
+  private void allocate(int minCapacity) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < minCapacity) {
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    values = new MapJoinObjectValue[capacity];
+    // keep at least one free slot so that the probe loops terminate
+    resizeThreshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+  }
+
+  private static int hash(long key) {
+    int h = (int) (key ^ (key >>> 32));
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  public MapJoinObjectValue get(long key) {
+    int mask = keys.length - 1;
+    for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+    return null;
+  }
+
+  public void put(long key, MapJoinObjectValue value) {
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    for (; values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return;
+      }
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size > resizeThreshold) {
+      rehash();
+    }
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    MapJoinObjectValue[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    int mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != null) {
+        int slot = hash(oldKeys[i]) & mask;
+        while (values[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  public void remove(long key) {
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (values[slot] != null && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    if (values[slot] == null) {
+      return;
+    }
+    values[slot] = null;
+    size--;
+    // shift back the following entries of the cluster which would otherwise
+    // become unreachable
+    int free = slot;
+    for (slot = (slot + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+      int home = hash(keys[slot]) & mask;
+      if ((slot > free && (home <= free || home > slot))
+          || (slot < free && (home <= free && home > slot))) {
+        keys[free] = keys[slot];
+        values[free] = values[slot];
+        values[slot] = null;
+        free = slot;
+      }
+    }
+  }
+
+  private Object getKeyObject(AbstractMapJoinKey key) {
+    return ((MapJoinSingleKey) key).getObj();
+  }
+
+  private Writable toWritable(long key) {
+    switch (keyCategory) {
+    case BYTE:
+      return new ByteWritable((byte) key);
+    case SHORT:
+      return new ShortWritable((short) key);
+    case INT:
+      return new IntWritable((int) key);
+    default:
+      return new LongWritable(key);
+    }
+  }
+
+  @Override
+  public MapJoinObjectValue get(AbstractMapJoinKey key) {
+    Object obj = getKeyObject(key);
+    if (obj == null) {
+      return nullValue;
+    }
+    return get(PrimitiveObjectInspectorUtils.getLong(obj, keyOI));
+  }
+
+  @Override
+  public boolean put(AbstractMapJoinKey key, MapJoinObjectValue value) throws HiveException {
+    Object obj = getKeyObject(key);
+    if (obj == null) {
+      nullValue = value;
+    } else {
+      put(PrimitiveObjectInspectorUtils.getLong(obj, keyOI), value);
+    }
+    return false;
+  }
+
+  @Override
+  public void remove(AbstractMapJoinKey key) {
+    Object obj = getKeyObject(key);
+    if (obj == null) {
+      nullValue = null;
+    } else {
+      remove(PrimitiveObjectInspectorUtils.getLong(obj, keyOI));
+    }
+  }
+
+  /**
+   * The key is kept in the long array; the slot of the value array and the
+   * free slots are accounted for.
+   */
+  @Override
+  public long getEntrySize(long keySize) {
+    return (long) ((8 + ObjectSizeEstimator.REFERENCE) / loadFactor);
+  }
+
+  @Override
+  public int size() {
+    return nullValue == null ? size : size + 1;
+  }
+
+  @Override
+  public int getKeySize() {
+    return size();
+  }
+
+  @Override
+  public Set<AbstractMapJoinKey> keySet() {
+    return asMap().keySet();
+  }
+
+  /**
+   * A view creating the MapJoinSingleKeys on the fly.
+   */
+  @Override
+  public Map<AbstractMapJoinKey, MapJoinObjectValue> asMap() {
+    return new AbstractMap<AbstractMapJoinKey, MapJoinObjectValue>() {
+      @Override
+      public Set<Map.Entry<AbstractMapJoinKey, MapJoinObjectValue>> entrySet() {
+        return new AbstractSet<Map.Entry<AbstractMapJoinKey, MapJoinObjectValue>>() {
+          @Override
+          public int size() {
+            return LongHashMapWrapper.this.size();
+          }
+
+          @Override
+          public Iterator<Map.Entry<AbstractMapJoinKey, MapJoinObjectValue>> iterator() {
+            return new EntryIterator();
+          }
+        };
+      }
+    };
+  }
+
+  private class EntryIterator implements Iterator<Map.Entry<AbstractMapJoinKey, MapJoinObjectValue>> {
+    // -1 stands for the null key
+    private int slot = nullValue == null ? 0 : -1;
+
+    public boolean hasNext() {
+      while (slot >= 0 && slot < values.length && values[slot] == null) {
+        slot++;
+      }
+      return slot < values.length;
+    }
+
+    public Map.Entry<AbstractMapJoinKey, MapJoinObjectValue> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<AbstractMapJoinKey, MapJoinObjectValue> entry;
+      if (slot < 0) {
+        entry = new AbstractMap.SimpleImmutableEntry<AbstractMapJoinKey, MapJoinObjectValue>(
+            new MapJoinSingleKey(null), nullValue);
+      } else {
+        entry = new AbstractMap.SimpleImmutableEntry<AbstractMapJoinKey, MapJoinObjectValue>(
+            new MapJoinSingleKey(toWritable(keys[slot])), values[slot]);
+      }
+      slot++;
+      return entry;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Override
+  public long flushMemoryCacheToPersistent(File file) throws IOException {
+    ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(file));
+    outputStream.writeObject(new HashMap<AbstractMapJoinKey, MapJoinObjectValue>(asMap()));
+    outputStream.flush();
+    outputStream.close();
+
+    return file.length();
+  }
+
+  @Override
+  public void initilizePersistentHash(String fileName) throws IOException, ClassNotFoundException {
+    super.initilizePersistentHash(fileName);
+    HashMap<AbstractMapJoinKey, MapJoinObjectValue> loaded = getMHash();
+    setMHash(new HashMap<AbstractMapJoinKey, MapJoinObjectValue>(1));
+    clearEntries();
+    try {
+      for (Map.Entry<AbstractMapJoinKey, MapJoinObjectValue> entry : loaded.entrySet()) {
+        put(entry.getKey(), entry.getValue());
+      }
+    } catch (HiveException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void clearEntries() {
+    if (size > 0) {
+      allocate(MIN_CAPACITY);
+    }
+    size = 0;
+    nullValue = null;
+  }
+
+  @Override
+  public void clear() throws HiveException {
+    clearEntries();
+  }
+
+  @Override
+  public void close() throws HiveException {
+    clearEntries();
+  }
+
+  public PrimitiveCategory getKeyCategory() {
+    return keyCategory;
+  }
+}
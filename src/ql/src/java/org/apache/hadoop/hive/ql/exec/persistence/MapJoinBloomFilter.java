@@ -0,0 +1,171 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Bloom filter of the join keys of a map join small table.
+ *
+ * HashTableSinkOperator dumps it next to the hashtable file, and the map join
+ * uses it to drop the big table rows which cannot match as soon as they are
+ * read (see MapJoinKeyFilter). Keys are hashed with their hashCode(), like
+ * for the hybrid join partitions, and the bit positions are derived from it
+ * by double hashing.
+ */
+public class MapJoinBloomFilter {
+
+  private static final String FILE_SUFFIX = ".bloom";
+  private static final int MAX_BITS = 1 << 30;
+
+  private int numBits;
+  private int numHashes;
+  private long[] bits;
+
+  public MapJoinBloomFilter() {
+  }
+
+  /**
+   * @param expectedEntries
+   *          the number of keys which will be added
+   * @param fpp
+   *          the false positive probability at expectedEntries keys
+   */
+  public MapJoinBloomFilter(long expectedEntries, double fpp) {
+    long n = Math.max(1, expectedEntries);
+    long optimalBits = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+    numBits = (int) Math.min(MAX_BITS, Math.max(64, optimalBits));
+    numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    bits = new long[(numBits + 63) >>> 6];
+  }
+
+  public void add(AbstractMapJoinKey key) {
+    add(key.hashCode());
+  }
+
+  public void add(int hashCode) {
+    long hash = mix(hashCode);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < numHashes; i++) {
+      int bit = getBit(h1 + i * h2);
+      bits[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  public boolean mightContain(AbstractMapJoinKey key) {
+    return mightContain(key.hashCode());
+  }
+
+  public boolean mightContain(int hashCode) {
+    long hash = mix(hashCode);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < numHashes; i++) {
+      int bit = getBit(h1 + i * h2);
+      if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int getBit(int combined) {
+    return (combined < 0 ? ~combined : combined) % numBits;
+  }
+
+  /**
+   * The murmur3 64 bit finalizer, giving the two hashes of double hashing.
+   */
+  private static long mix(int hashCode) {
+    long h = hashCode;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  public int getNumBits() {
+    return numBits;
+  }
+
+  public int getNumHashes() {
+    return numHashes;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(numBits);
+    out.writeInt(numHashes);
+    for (long word : bits) {
+      out.writeLong(word);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    numBits = in.readInt();
+    numHashes = in.readInt();
+    bits = new long[(numBits + 63) >>> 6];
+    for (int i = 0; i < bits.length; i++) {
+      bits[i] = in.readLong();
+    }
+  }
+
+  /**
+   * Dump the filter next to the hashtable dumped in tableFile.
+   */
+  public void write(File tableFile) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+        new File(tableFile.getPath() + FILE_SUFFIX))));
+    try {
+      write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Read the filter of the hashtable dumped in tableFile.
+   *
+   * @return null if there is no filter for the table
+   */
+  public static MapJoinBloomFilter read(File tableFile) throws IOException {
+    File file = new File(tableFile.getPath() + FILE_SUFFIX);
+    if (!file.exists()) {
+      return null;
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      MapJoinBloomFilter filter = new MapJoinBloomFilter();
+      filter.readFields(in);
+      return filter;
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -17,9 +17,9 @@
 
 package org.apache.hadoop.hive.ql.exec.persistence;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 import java.util.ArrayList;
 
 import org.apache.hadoop.hive.ql.exec.MapJoinMetaData;
@@ -89,7 +89,7 @@ public class MapJoinDoubleKeys extends AbstractMapJoinKey {
   }
 
   @Override
-  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+  public void readFields(DataInput in) throws IOException {
     try {
       // get the tableDesc from the map stored in the mapjoin operator
       HashTableSinkObjectCtx ctx = MapJoinMetaData.get(Integer.valueOf(metadataTag));
@@ -119,7 +119,7 @@ public class MapJoinDoubleKeys extends AbstractMapJoinKey {
   }
 
   @Override
-  public void writeExternal(ObjectOutput out) throws IOException {
+  public void write(DataOutput out) throws IOException {
     try {
       // out.writeInt(metadataTag);
       // get the tableDesc from the map stored in the mapjoin operator
@@ -0,0 +1,265 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.common.JavaUtils;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * On-disk format of a map-join small table, written by the local task
+ * (HashTableSinkOperator) and loaded by every mapper (MapJoinOperator).
+ *
+ * Unlike java serialization of the whole HashMap, the keys and values are
+ * written with their own serdes (see AbstractMapJoinKey.write and
+ * MapJoinObjectValue.write) and every entry is length-prefixed, so the file
+ * can be streamed back without the object handle table kept by
+ * ObjectInputStream, or probed in place through the bucket directory.
+ *
+ * Layout:
+ *
+ * <pre>
+ *   magic ("HTF" + version)
+ *   key class name (UTF), number of entries (int), number of buckets (int)
+ *   entries grouped by bucket: [vint key length][key][vint value length][value]
+ *   bucket directory: (number of buckets + 1) file offsets (long)
+ *   offset of the bucket directory (long)
+ * </pre>
+ *
+ * The bucket of an entry is computed from the serialized key bytes with
+ * {@link #hashBytes(byte[], int, int)}, so a reader can locate a key by
+ * serializing it the same way.
+ */
+public final class MapJoinHashTableFile {
+
+  private static final Log LOG = LogFactory.getLog(MapJoinHashTableFile.class.getName());
+
+  public static final byte VERSION = 1;
+  public static final byte[] MAGIC = new byte[] {'H', 'T', 'F', VERSION};
+
+  /**
+   * Size of the trailer holding the offset of the bucket directory.
+   */
+  public static final int TRAILER_LENGTH = 8;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private MapJoinHashTableFile() {
+  }
+
+  /**
+   * Returns the number of buckets used for a table with numEntries entries:
+   * the smallest power of two not less than numEntries.
+   */
+  public static int getBucketCount(int numEntries) {
+    int numBuckets = 1;
+    while (numBuckets < numEntries && numBuckets < (1 << 30)) {
+      numBuckets <<= 1;
+    }
+    return numBuckets;
+  }
+
+  /**
+   * Hash of a serialized key. The bytes hash is spread with the murmur3
+   * finalizer because the buckets are selected with a mask.
+   */
+  public static int hashBytes(byte[] bytes, int offset, int length) {
+    int h = 1;
+    for (int i = offset; i < offset + length; i++) {
+      h = 31 * h + bytes[i];
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  public static int getBucket(byte[] bytes, int offset, int length, int numBuckets) {
+    return hashBytes(bytes, offset, length) & (numBuckets - 1);
+  }
+
+  /**
+   * Check whether the file was written by {@link #write(Map, File)}; files
+   * written with java serialization start with the stream magic instead.
+   */
+  public static boolean isHashTableFile(File file) throws IOException {
+    if (file.length() < MAGIC.length) {
+      return false;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      for (int i = 0; i < MAGIC.length; i++) {
+        if (magic[i] != MAGIC[i]) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Dump the hash table into file.
+   *
+   * @return the length of the file
+   */
+  public static long write(Map<AbstractMapJoinKey, MapJoinObjectValue> table, File file)
+      throws IOException {
+    int numEntries = table.size();
+    int numBuckets = getBucketCount(numEntries);
+
+    // first pass: bucket every key, so that the entries can be written
+    // grouped by bucket without buffering them
+    DataOutputBuffer keyBuffer = new DataOutputBuffer();
+    int[] entryBucket = new int[numEntries];
+    int[] bucketStart = new int[numBuckets + 1];
+    String keyClass = "";
+    int pos = 0;
+    for (AbstractMapJoinKey key : table.keySet()) {
+      keyBuffer.reset();
+      key.write(keyBuffer);
+      int bucket = getBucket(keyBuffer.getData(), 0, keyBuffer.getLength(), numBuckets);
+      entryBucket[pos++] = bucket;
+      bucketStart[bucket + 1]++;
+      keyClass = key.getClass().getName();
+    }
+    for (int bucket = 0; bucket < numBuckets; bucket++) {
+      bucketStart[bucket + 1] += bucketStart[bucket];
+    }
+
+    @SuppressWarnings("unchecked")
+    Map.Entry<AbstractMapJoinKey, MapJoinObjectValue>[] entries = new Map.Entry[numEntries];
+    int[] next = bucketStart.clone();
+    pos = 0;
+    for (Map.Entry<AbstractMapJoinKey, MapJoinObjectValue> entry : table.entrySet()) {
+      entries[next[entryBucket[pos++]]++] = entry;
+    }
+    entryBucket = null;
+    next = null;
+
+    // second pass: write the entries and remember where every bucket starts
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file), BUFFER_SIZE));
+    try {
+      out.write(MAGIC);
+      out.writeUTF(keyClass);
+      out.writeInt(numEntries);
+      out.writeInt(numBuckets);
+      long position = out.size();
+
+      long[] directory = new long[numBuckets + 1];
+      DataOutputBuffer valueBuffer = new DataOutputBuffer();
+      int bucket = 0;
+      for (int i = 0; i < numEntries; i++) {
+        while (bucket <= numBuckets && bucketStart[bucket] == i) {
+          directory[bucket++] = position;
+        }
+        keyBuffer.reset();
+        entries[i].getKey().write(keyBuffer);
+        valueBuffer.reset();
+        entries[i].getValue().write(valueBuffer);
+        entries[i] = null;
+
+        position += writeBytes(out, keyBuffer);
+        position += writeBytes(out, valueBuffer);
+      }
+      while (bucket <= numBuckets) {
+        directory[bucket++] = position;
+      }
+
+      for (long offset : directory) {
+        out.writeLong(offset);
+      }
+      out.writeLong(position);
+    } finally {
+      out.close();
+    }
+    LOG.info("Wrote " + numEntries + " entries in " + numBuckets + " buckets to " + file);
+    return file.length();
+  }
+
+  private static int writeBytes(DataOutputStream out, DataOutputBuffer buffer) throws IOException {
+    int length = buffer.getLength();
+    WritableUtils.writeVInt(out, length);
+    out.write(buffer.getData(), 0, length);
+    return WritableUtils.getVIntSize(length) + length;
+  }
+
+  /**
+   * Stream the file back into the main memory hash table, replacing its
+   * content. The key and value metadata must have been registered in
+   * MapJoinMetaData already.
+   */
+  public static void load(File file, HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+        BUFFER_SIZE));
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (magic[MAGIC.length - 1] != VERSION) {
+        throw new IOException("Unsupported hashtable file version " + magic[MAGIC.length - 1]
+            + " in " + file);
+      }
+      String keyClassName = in.readUTF();
+      int numEntries = in.readInt();
+      // number of buckets, only needed when probing the file in place
+      in.readInt();
+
+      hashTable.clear();
+      if (numEntries > 0) {
+        Class<? extends AbstractMapJoinKey> keyClass = Class.forName(keyClassName, true,
+            JavaUtils.getClassLoader()).asSubclass(AbstractMapJoinKey.class);
+        for (int i = 0; i < numEntries; i++) {
+          WritableUtils.readVInt(in);
+          AbstractMapJoinKey key = ReflectionUtils.newInstance(keyClass, null);
+          key.readFields(in);
+          WritableUtils.readVInt(in);
+          MapJoinObjectValue value = new MapJoinObjectValue();
+          value.readFields(in);
+          hashTable.put(key, value);
+        }
+      }
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    } catch (HiveException e) {
+      throw new IOException(e);
+    } finally {
+      in.close();
+    }
+  }
+}
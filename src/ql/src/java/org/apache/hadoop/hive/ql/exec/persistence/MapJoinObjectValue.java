@@ -17,6 +17,8 @@
 
 package org.apache.hadoop.hive.ql.exec.persistence;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -78,6 +80,15 @@ public class MapJoinObjectValue implements Externalizable {
 
   @Override
   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    readFields(in);
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    write(out);
+  }
+
+  public void readFields(DataInput in) throws IOException {
     try {
 
       metadataTag = in.readInt();
@@ -116,8 +127,7 @@ public class MapJoinObjectValue implements Externalizable {
     }
   }
 
-  @Override
-  public void writeExternal(ObjectOutput out) throws IOException {
+  public void write(DataOutput out) throws IOException {
     try {
 
       out.writeInt(metadataTag);
@@ -0,0 +1,134 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Partitioning of the map join hashtables by join key hash, used by the
+ * hybrid map join.
+ *
+ * When the local task runs out of memory, HashTableSinkOperator moves whole
+ * partitions of all the small tables to disk, and dumps every spilled
+ * partition into its own hashtable file next to the table file, along with
+ * an index of the spilled partitions. MapJoinOperator probes the resident
+ * part of the tables, defers the big table rows falling into a spilled
+ * partition, and joins them one partition at a time when it closes.
+ *
+ * The partition of a key is derived from its hashCode(), which is the same in
+ * the local task and in the mappers for the writables used as join keys.
+ */
+public class MapJoinPartitions {
+
+  private static final String INDEX_SUFFIX = ".partitions";
+  private static final String PARTITION_SUFFIX = ".p";
+
+  private final int numPartitions;
+  private final boolean[] spilled;
+  private int numSpilled;
+
+  public MapJoinPartitions(int numPartitions) {
+    this.numPartitions = numPartitions < 1 ? 1 : numPartitions;
+    spilled = new boolean[this.numPartitions];
+  }
+
+  public int getNumPartitions() {
+    return numPartitions;
+  }
+
+  public int getPartition(AbstractMapJoinKey key) {
+    int h = key.hashCode();
+    // spread the hash code; small integral keys hash to themselves
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return (h & Integer.MAX_VALUE) % numPartitions;
+  }
+
+  public boolean isSpilled(int partition) {
+    return spilled[partition];
+  }
+
+  public void setSpilled(int partition) {
+    if (!spilled[partition]) {
+      spilled[partition] = true;
+      numSpilled++;
+    }
+  }
+
+  public int getNumSpilled() {
+    return numSpilled;
+  }
+
+  /**
+   * Returns the file holding a spilled partition of the table dumped in
+   * tableFile.
+   */
+  public static File getPartitionFile(File tableFile, int partition) {
+    return new File(tableFile.getPath() + PARTITION_SUFFIX + partition);
+  }
+
+  /**
+   * Record the spilled partitions next to the table dumped in tableFile.
+   */
+  public void write(File tableFile) throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(tableFile
+        .getPath() + INDEX_SUFFIX)));
+    try {
+      out.writeInt(numPartitions);
+      out.writeInt(numSpilled);
+      for (int i = 0; i < numPartitions; i++) {
+        if (spilled[i]) {
+          out.writeInt(i);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Read the spilled partitions of the table dumped in tableFile.
+   *
+   * @return null if no partition of the table was spilled
+   */
+  public static MapJoinPartitions read(File tableFile) throws IOException {
+    File index = new File(tableFile.getPath() + INDEX_SUFFIX);
+    if (!index.exists()) {
+      return null;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(index));
+    try {
+      MapJoinPartitions partitions = new MapJoinPartitions(in.readInt());
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        partitions.setSpilled(in.readInt());
+      }
+      return partitions;
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+/**
+ * Estimates the heap retained by the keys and values of a map join hashtable.
+ */
+public class MapJoinSizeEstimator extends ObjectSizeEstimator {
+
+  /**
+   * A MapJoinObjectValue holding a MapJoinRowContainer of one row.
+   */
+  public static final long VALUE = object(REFERENCE + 4) + object(REFERENCE + 4)
+      + ARRAY_LIST + array(1, REFERENCE);
+
+  /**
+   * @param keyOIs
+   *          the standard ObjectInspectors of the key columns
+   */
+  public MapJoinSizeEstimator(List<ObjectInspector> keyOIs) {
+    super(keyOIs);
+  }
+
+  /**
+   * Size of a map join key whose columns are described by this estimator.
+   */
+  public long estimate(AbstractMapJoinKey key) {
+    if (key instanceof MapJoinSingleKey) {
+      return object(REFERENCE + 4) + fixedSize
+          + (variableFields.length == 0 ? 0
+          : estimate(((MapJoinSingleKey) key).getObj(), variableFieldOIs[0]));
+    } else if (key instanceof MapJoinDoubleKeys) {
+      MapJoinDoubleKeys keys = (MapJoinDoubleKeys) key;
+      Object[] objs = new Object[] {keys.getObj1(), keys.getObj2()};
+      long size = object(2 * REFERENCE + 4) + fixedSize;
+      for (int i = 0; i < variableFields.length; i++) {
+        size += estimate(objs[variableFields[i]], variableFieldOIs[i]);
+      }
+      return size;
+    } else {
+      return object(REFERENCE + 4) + estimate(((MapJoinObjectKey) key).getObj());
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+/**
+ * Process wide cache of the map join hashtables loaded from the distributed
+ * cache, so that the tasks run by a reused JVM
+ * (mapred.job.reuse.jvm.num.tasks) do not load the same files again.
+ *
+ * Tables are keyed by the path, modification time and length of the file they
+ * were loaded from, and reference counted. A table nobody uses any more stays
+ * cached until a table which is not cached has to be loaded: at that point
+ * all the unused tables are dropped, so that at most one generation of tables
+ * is held in memory. The cached tables are shared and must not be modified.
+ */
+public final class MapJoinTableCache {
+
+  private static final Log LOG = LogFactory.getLog(MapJoinTableCache.class.getName());
+
+  /**
+   * Loads a table which is not cached.
+   */
+  public interface Loader {
+    AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> load(File file) throws Exception;
+  }
+
+  private static class Entry {
+    private final String key;
+    private final AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> table;
+    private int refCount;
+
+    Entry(String key, AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> table) {
+      this.key = key;
+      this.table = table;
+    }
+  }
+
+  private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+  private static final Map<AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>, Entry>
+      tables = new IdentityHashMap<AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>, Entry>();
+
+  private static long hits;
+  private static long misses;
+
+  private MapJoinTableCache() {
+  }
+
+  /**
+   * Returns the table loaded from file, loading it if it is not cached. The
+   * table must be released once it is not used any more.
+   *
+   * @param kind
+   *          distinguishes the tables loaded from the same file into different
+   *          implementations
+   */
+  public static synchronized AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> acquire(
+      File file, String kind, Loader loader) throws Exception {
+    String key = getKey(file, kind);
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses++;
+      evictUnused();
+      entry = new Entry(key, loader.load(file));
+      entries.put(key, entry);
+      tables.put(entry.table, entry);
+    } else {
+      hits++;
+      LOG.info("Reusing the hashtable loaded from " + file);
+    }
+    entry.refCount++;
+    return entry.table;
+  }
+
+  /**
+   * Releases a table returned by acquire.
+   *
+   * @return false if the table is not a cached table
+   */
+  public static synchronized boolean release(
+      AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> table) {
+    Entry entry = tables.get(table);
+    if (entry == null) {
+      return false;
+    }
+    entry.refCount--;
+    return true;
+  }
+
+  public static synchronized boolean isCached(
+      AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> table) {
+    return tables.containsKey(table);
+  }
+
+  /**
+   * Drops the tables nobody uses.
+   */
+  public static synchronized void evictUnused() throws HiveException {
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (entry.refCount <= 0) {
+        LOG.info("Dropping the cached hashtable " + entry.key);
+        it.remove();
+        tables.remove(entry.table);
+        entry.table.close();
+      }
+    }
+  }
+
+  public static synchronized int size() {
+    return entries.size();
+  }
+
+  public static synchronized long getHits() {
+    return hits;
+  }
+
+  public static synchronized long getMisses() {
+    return misses;
+  }
+
+  private static String getKey(File file, String kind) {
+    return file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length() + ":" + kind;
+  }
+}
@@ -0,0 +1,252 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.common.JavaUtils;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Read-only hashtable backed by a memory mapped MapJoinHashTableFile.
+ *
+ * Nothing is loaded on the java heap: a probe serializes the key, walks the
+ * entries of its bucket in the mapped file comparing the serialized bytes, and
+ * deserializes the value only when the key matches. Keys are therefore
+ * compared by their serialized form rather than by equals().
+ */
+public class MappedHashMapWrapper extends
+    AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Log LOG = LogFactory.getLog(MappedHashMapWrapper.class.getName());
+
+  private transient ByteBuffer buffer;
+  private transient String keyClassName;
+  private transient int numEntries;
+  private transient int numBuckets;
+  private transient int dataOffset;
+  private transient int directoryOffset;
+
+  private final transient DataOutputBuffer keyBuffer = new DataOutputBuffer();
+  private final transient DataInputBuffer valueInput = new DataInputBuffer();
+  private transient byte[] valueBytes = new byte[256];
+
+  // the last probe; consecutive rows of the big table often have the same key
+  private transient byte[] lastKey = new byte[64];
+  private transient int lastKeyLength;
+  private transient MapJoinObjectValue lastValue;
+
+  /**
+   * Map the file.
+   *
+   * @param file
+   *          a file written by MapJoinHashTableFile
+   */
+  public MappedHashMapWrapper(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buffer = mapped;
+    } finally {
+      // the mapping stays valid after the channel is closed
+      raf.close();
+    }
+
+    int pos = 0;
+    for (byte b : MapJoinHashTableFile.MAGIC) {
+      if (buffer.get(pos++) != b) {
+        throw new IOException(file + " is not a map join hashtable file");
+      }
+    }
+    int keyClassLength = buffer.getShort(pos) & 0xffff;
+    pos += 2;
+    byte[] keyClassBytes = new byte[keyClassLength];
+    for (int i = 0; i < keyClassLength; i++) {
+      keyClassBytes[i] = buffer.get(pos++);
+    }
+    keyClassName = new String(keyClassBytes, "UTF-8");
+    numEntries = buffer.getInt(pos);
+    numBuckets = buffer.getInt(pos + 4);
+    dataOffset = pos + 8;
+    directoryOffset = (int) buffer.getLong(buffer.capacity() - MapJoinHashTableFile.TRAILER_LENGTH);
+    LOG.info("Mapped " + numEntries + " entries in " + numBuckets + " buckets from " + file);
+  }
+
+  /**
+   * Check whether the file can be mapped: it has to be written by
+   * MapJoinHashTableFile and fit in a single mapped buffer.
+   */
+  public static boolean canMap(File file) throws IOException {
+    return file.length() <= Integer.MAX_VALUE && MapJoinHashTableFile.isHashTableFile(file);
+  }
+
+  @Override
+  public MapJoinObjectValue get(AbstractMapJoinKey key) {
+    if (numEntries == 0) {
+      return null;
+    }
+    try {
+      keyBuffer.reset();
+      key.write(keyBuffer);
+      byte[] probe = keyBuffer.getData();
+      int probeLength = keyBuffer.getLength();
+      if (lastValue != null && equalBytes(lastKey, lastKeyLength, probe, probeLength)) {
+        return lastValue;
+      }
+
+      int bucket = MapJoinHashTableFile.getBucket(probe, 0, probeLength, numBuckets);
+      int offset = (int) buffer.getLong(directoryOffset + 8 * bucket);
+      int end = (int) buffer.getLong(directoryOffset + 8 * (bucket + 1));
+      while (offset < end) {
+        int keyLength = readVInt(offset);
+        offset += WritableUtils.decodeVIntSize(buffer.get(offset));
+        boolean match = keyLength == probeLength && equalBytes(offset, probe, probeLength);
+        offset += keyLength;
+        int valueLength = readVInt(offset);
+        offset += WritableUtils.decodeVIntSize(buffer.get(offset));
+        if (match) {
+          lastValue = readValue(offset, valueLength);
+          if (lastKey.length < probeLength) {
+            lastKey = new byte[probeLength];
+          }
+          System.arraycopy(probe, 0, lastKey, 0, probeLength);
+          lastKeyLength = probeLength;
+          return lastValue;
+        }
+        offset += valueLength;
+      }
+      return null;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private MapJoinObjectValue readValue(int offset, int length) throws IOException {
+    if (valueBytes.length < length) {
+      valueBytes = new byte[Math.max(length, valueBytes.length * 2)];
+    }
+    ByteBuffer value = buffer.duplicate();
+    value.position(offset);
+    value.get(valueBytes, 0, length);
+    valueInput.reset(valueBytes, length);
+    MapJoinObjectValue result = new MapJoinObjectValue();
+    result.readFields(valueInput);
+    return result;
+  }
+
+  private int readVInt(int offset) {
+    byte first = buffer.get(offset);
+    int length = WritableUtils.decodeVIntSize(first);
+    if (length == 1) {
+      return first;
+    }
+    long i = 0;
+    for (int idx = 1; idx < length; idx++) {
+      i = (i << 8) | (buffer.get(offset + idx) & 0xFF);
+    }
+    return (int) (WritableUtils.isNegativeVInt(first) ? (i ^ -1L) : i);
+  }
+
+  private boolean equalBytes(int offset, byte[] bytes, int length) {
+    for (int i = 0; i < length; i++) {
+      if (buffer.get(offset + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean equalBytes(byte[] b1, int l1, byte[] b2, int l2) {
+    if (l1 != l2) {
+      return false;
+    }
+    for (int i = 0; i < l1; i++) {
+      if (b1[i] != b2[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return numEntries;
+  }
+
+  /**
+   * Deserialize all the keys of the file. This is not used when probing.
+   */
+  @Override
+  public Set<AbstractMapJoinKey> keySet() {
+    Set<AbstractMapJoinKey> keys = new HashSet<AbstractMapJoinKey>();
+    if (numEntries == 0) {
+      return keys;
+    }
+    try {
+      Class<? extends AbstractMapJoinKey> keyClass = Class.forName(keyClassName, true,
+          JavaUtils.getClassLoader()).asSubclass(AbstractMapJoinKey.class);
+      int offset = dataOffset;
+      while (offset < directoryOffset) {
+        int keyLength = readVInt(offset);
+        offset += WritableUtils.decodeVIntSize(buffer.get(offset));
+        byte[] keyBytes = new byte[keyLength];
+        for (int i = 0; i < keyLength; i++) {
+          keyBytes[i] = buffer.get(offset + i);
+        }
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(keyBytes, keyLength);
+        AbstractMapJoinKey key = ReflectionUtils.newInstance(keyClass, null);
+        key.readFields(in);
+        keys.add(key);
+        offset += keyLength;
+        int valueLength = readVInt(offset);
+        offset += WritableUtils.decodeVIntSize(buffer.get(offset)) + valueLength;
+      }
+      return keys;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Drop the reference to the mapped buffer; the mapping is released when the
+   * buffer is garbage collected.
+   */
+  @Override
+  public void close() throws HiveException {
+    buffer = null;
+    lastValue = null;
+    numEntries = 0;
+  }
+}
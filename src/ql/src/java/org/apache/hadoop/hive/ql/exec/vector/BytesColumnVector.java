@@ -0,0 +1,101 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Column of strings, held as their utf-8 bytes: the value of row i is
+ * vector[i][start[i] .. start[i] + length[i]).
+ *
+ * The values set from objects are copied into a buffer shared by the rows
+ * of the batch, which grows as needed: the rows copied before it grows keep
+ * pointing to the previous buffer.
+ */
+public class BytesColumnVector extends ColumnVector {
+
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+  public final byte[][] vector;
+  public final int[] start;
+  public final int[] length;
+
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int bufferUsed;
+  private Text text;
+
+  public BytesColumnVector(int size) {
+    super(PrimitiveCategory.STRING, size);
+    vector = new byte[size][];
+    start = new int[size];
+    length = new int[size];
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    bufferUsed = 0;
+  }
+
+  @Override
+  protected void set(int row, Object o, PrimitiveObjectInspector oi) {
+    Text value = ((StringObjectInspector) oi).getPrimitiveWritableObject(o);
+    setVal(row, value.getBytes(), 0, value.getLength());
+  }
+
+  /**
+   * Copy the value of the row.
+   */
+  public void setVal(int row, byte[] bytes, int off, int len) {
+    if (bufferUsed + len > buffer.length) {
+      buffer = new byte[Math.max(buffer.length * 2, len)];
+      bufferUsed = 0;
+    }
+    System.arraycopy(bytes, off, buffer, bufferUsed, len);
+    isNull[row] = false;
+    vector[row] = buffer;
+    start[row] = bufferUsed;
+    length[row] = len;
+    bufferUsed += len;
+  }
+
+  /**
+   * Point the value of the row to bytes, without copying them.
+   */
+  public void setRef(int row, byte[] bytes, int off, int len) {
+    isNull[row] = false;
+    vector[row] = bytes;
+    start[row] = off;
+    length[row] = len;
+  }
+
+  @Override
+  public Object getWritableObject(int row) {
+    if (isNull(row)) {
+      return null;
+    }
+    if (text == null) {
+      text = new Text();
+    }
+    text.set(vector[row], start[row], length[row]);
+    return text;
+  }
+}
@@ -0,0 +1,65 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * Converts an integral column to a double column, for the operations mixing
+ * integral and floating point numbers.
+ */
+public class CastLongToDouble extends VectorExpression {
+
+  private final int inputColumn;
+  private final int outputColumn;
+
+  public CastLongToDouble(VectorExpression child, int outputColumn) {
+    super(child);
+    inputColumn = child.getOutputColumn();
+    this.outputColumn = outputColumn;
+  }
+
+  @Override
+  public void evaluate(VectorizedRowBatch batch) {
+    evaluateChildren(batch);
+    LongColumnVector in = (LongColumnVector) batch.cols[inputColumn];
+    DoubleColumnVector out = (DoubleColumnVector) batch.cols[outputColumn];
+    long[] vector = in.vector;
+    double[] result = out.vector;
+    out.noNulls = in.noNulls;
+    if (batch.selectedInUse) {
+      for (int j = 0; j < batch.size; j++) {
+        int i = batch.selected[j];
+        result[i] = vector[i];
+        if (!in.noNulls) {
+          out.isNull[i] = in.isNull[i];
+        }
+      }
+    } else {
+      for (int i = 0; i < batch.size; i++) {
+        result[i] = vector[i];
+      }
+      if (!in.noNulls) {
+        System.arraycopy(in.isNull, 0, out.isNull, 0, batch.size);
+      }
+    }
+  }
+
+  @Override
+  public int getOutputColumn() {
+    return outputColumn;
+  }
+}
@@ -0,0 +1,79 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * The values of one column for the rows of a VectorizedRowBatch.
+ *
+ * isNull is only meaningful when noNulls is false: the expressions writing a
+ * column either set noNulls, or set isNull for every row they compute.
+ */
+public abstract class ColumnVector {
+
+  public final boolean[] isNull;
+  public boolean noNulls;
+
+  /**
+   * The type of the values, which decides the writable objects of the rows
+   * built from the column.
+   */
+  protected final PrimitiveCategory type;
+
+  protected ColumnVector(PrimitiveCategory type, int size) {
+    this.type = type;
+    isNull = new boolean[size];
+    noNulls = true;
+  }
+
+  public PrimitiveCategory getType() {
+    return type;
+  }
+
+  public void reset() {
+    noNulls = true;
+  }
+
+  public void setNull(int row) {
+    isNull[row] = true;
+    noNulls = false;
+  }
+
+  public boolean isNull(int row) {
+    return !noNulls && isNull[row];
+  }
+
+  /**
+   * Set the value of the row from a non null object inspected by oi, which
+   * has the type of the column.
+   */
+  public void setValue(int row, Object o, PrimitiveObjectInspector oi) {
+    isNull[row] = false;
+    set(row, o, oi);
+  }
+
+  protected abstract void set(int row, Object o, PrimitiveObjectInspector oi);
+
+  /**
+   * Returns the value of the row as the standard writable object of the type
+   * of the column, or null. The object is reused for the next call.
+   */
+  public abstract Object getWritableObject(int row);
+}
@@ -0,0 +1,92 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * Arithmetic on doubles, each operand being a column or a scalar.
+ */
+public class DoubleColumnArithmetic extends VectorExpression {
+
+  private final Arithmetic op;
+  private final int leftColumn;
+  private final double leftScalar;
+  private final int rightColumn;
+  private final double rightScalar;
+  private final int outputColumn;
+
+  /**
+   * @param left
+   *          the expression of the left operand, or null for a scalar
+   * @param right
+   *          the expression of the right operand, or null for a scalar
+   */
+  public DoubleColumnArithmetic(Arithmetic op, VectorExpression left, double leftScalar,
+      VectorExpression right, double rightScalar, int outputColumn) {
+    super(LongColumnArithmetic.children(left, right));
+    this.op = op;
+    leftColumn = left == null ? -1 : left.getOutputColumn();
+    this.leftScalar = leftScalar;
+    rightColumn = right == null ? -1 : right.getOutputColumn();
+    this.rightScalar = rightScalar;
+    this.outputColumn = outputColumn;
+  }
+
+  @Override
+  public void evaluate(VectorizedRowBatch batch) {
+    evaluateChildren(batch);
+    DoubleColumnVector left = leftColumn < 0 ? null : (DoubleColumnVector) batch.cols[leftColumn];
+    DoubleColumnVector right = rightColumn < 0 ? null
+        : (DoubleColumnVector) batch.cols[rightColumn];
+    DoubleColumnVector out = (DoubleColumnVector) batch.cols[outputColumn];
+    double[] result = out.vector;
+    boolean noNulls = (left == null || left.noNulls) && (right == null || right.noNulls);
+    out.noNulls = noNulls;
+    int n = batch.size;
+    for (int j = 0; j < n; j++) {
+      int i = batch.selectedInUse ? batch.selected[j] : j;
+      if (!noNulls) {
+        boolean isNull = left != null && left.isNull(i) || right != null && right.isNull(i);
+        out.isNull[i] = isNull;
+        if (isNull) {
+          continue;
+        }
+      }
+      double a = left == null ? leftScalar : left.vector[i];
+      double b = right == null ? rightScalar : right.vector[i];
+      switch (op) {
+      case ADD:
+        result[i] = a + b;
+        break;
+      case SUBTRACT:
+        result[i] = a - b;
+        break;
+      case MULTIPLY:
+        result[i] = a * b;
+        break;
+      default:
+        result[i] = a / b;
+        break;
+      }
+    }
+  }
+
+  @Override
+  public int getOutputColumn() {
+    return outputColumn;
+  }
+}
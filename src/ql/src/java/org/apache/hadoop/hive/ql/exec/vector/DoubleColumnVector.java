@@ -0,0 +1,69 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.io.FloatWritable;
+
+/**
+ * Column of floating point numbers, all held as doubles.
+ */
+public class DoubleColumnVector extends ColumnVector {
+
+  public final double[] vector;
+
+  private FloatWritable floatWritable;
+  private DoubleWritable doubleWritable;
+
+  public DoubleColumnVector(PrimitiveCategory type, int size) {
+    super(type, size);
+    vector = new double[size];
+  }
+
+  @Override
+  protected void set(int row, Object o, PrimitiveObjectInspector oi) {
+    if (type == PrimitiveCategory.FLOAT) {
+      vector[row] = ((FloatObjectInspector) oi).get(o);
+    } else {
+      vector[row] = ((DoubleObjectInspector) oi).get(o);
+    }
+  }
+
+  @Override
+  public Object getWritableObject(int row) {
+    if (isNull(row)) {
+      return null;
+    }
+    if (type == PrimitiveCategory.FLOAT) {
+      if (floatWritable == null) {
+        floatWritable = new FloatWritable();
+      }
+      floatWritable.set((float) vector[row]);
+      return floatWritable;
+    }
+    if (doubleWritable == null) {
+      doubleWritable = new DoubleWritable();
+    }
+    doubleWritable.set(vector[row]);
+    return doubleWritable;
+  }
+}
@@ -0,0 +1,64 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * Keeps the rows for which the comparison of a floating point column with
+ * another column or a scalar is true. Values are compared with
+ * Double.compare(), like ObjectInspectorUtils.compare() does.
+ */
+public class FilterDoubleCompare extends VectorExpression {
+
+  private final Comparison cmp;
+  private final int leftColumn;
+  private final int rightColumn;
+  private final double rightScalar;
+
+  private DoubleColumnVector left;
+  private DoubleColumnVector right;
+
+  /**
+   * @param right
+   *          the expression of the right operand, or null for a scalar
+   */
+  public FilterDoubleCompare(Comparison cmp, VectorExpression left, VectorExpression right,
+      double rightScalar) {
+    super(LongColumnArithmetic.children(left, right));
+    this.cmp = cmp;
+    leftColumn = left.getOutputColumn();
+    rightColumn = right == null ? -1 : right.getOutputColumn();
+    this.rightScalar = rightScalar;
+  }
+
+  @Override
+  public void evaluate(VectorizedRowBatch batch) {
+    evaluateChildren(batch);
+    left = (DoubleColumnVector) batch.cols[leftColumn];
+    right = rightColumn < 0 ? null : (DoubleColumnVector) batch.cols[rightColumn];
+    filter(batch);
+  }
+
+  @Override
+  protected boolean accept(VectorizedRowBatch batch, int row) {
+    if (left.isNull(row) || right != null && right.isNull(row)) {
+      return false;
+    }
+    double b = right == null ? rightScalar : right.vector[row];
+    return cmp.accept(Double.compare(left.vector[row], b));
+  }
+}
@@ -0,0 +1,67 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * Keeps the rows for which a column is null, or is not null.
+ */
+public class FilterIsNull extends VectorExpression {
+
+  private final int column;
+  private final boolean negate;
+
+  private ColumnVector vector;
+
+  /**
+   * @param child
+   *          the expression of the column, whose vector is null (always
+   *          null) when its type cannot be vectorized
+   * @param negate
+   *          keep the rows for which the column is not null
+   */
+  public FilterIsNull(VectorExpression child, boolean negate) {
+    super(child);
+    column = child.getOutputColumn();
+    this.negate = negate;
+  }
+
+  @Override
+  public void evaluate(VectorizedRowBatch batch) {
+    evaluateChildren(batch);
+    vector = batch.cols[column];
+    if (vector == null) {
+      // the column is always null
+      if (negate) {
+        batch.size = 0;
+      }
+      return;
+    }
+    if (vector.noNulls) {
+      if (!negate) {
+        batch.size = 0;
+      }
+      return;
+    }
+    filter(batch);
+  }
+
+  @Override
+  protected boolean accept(VectorizedRowBatch batch, int row) {
+    return vector.isNull[row] != negate;
+  }
+}
@@ -0,0 +1,64 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * Keeps the rows for which the comparison of an integral or boolean column
+ * with another column or a scalar is true.
+ */
+public class FilterLongCompare extends VectorExpression {
+
+  private final Comparison cmp;
+  private final int leftColumn;
+  private final int rightColumn;
+  private final long rightScalar;
+
+  private LongColumnVector left;
+  private LongColumnVector right;
+
+  /**
+   * @param right
+   *          the expression of the right operand, or null for a scalar
+   */
+  public FilterLongCompare(Comparison cmp, VectorExpression left, VectorExpression right,
+      long rightScalar) {
+    super(LongColumnArithmetic.children(left, right));
+    this.cmp = cmp;
+    leftColumn = left.getOutputColumn();
+    rightColumn = right == null ? -1 : right.getOutputColumn();
+    this.rightScalar = rightScalar;
+  }
+
+  @Override
+  public void evaluate(VectorizedRowBatch batch) {
+    evaluateChildren(batch);
+    left = (LongColumnVector) batch.cols[leftColumn];
+    right = rightColumn < 0 ? null : (LongColumnVector) batch.cols[rightColumn];
+    filter(batch);
+  }
+
+  @Override
+  protected boolean accept(VectorizedRowBatch batch, int row) {
+    if (left.isNull(row) || right != null && right.isNull(row)) {
+      return false;
+    }
+    long a = left.vector[row];
+    long b = right == null ? rightScalar : right.vector[row];
+    return cmp.accept(a < b ? -1 : (a == b ? 0 : 1));
+  }
+}
@@ -0,0 +1,86 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * Keeps the rows accepted by any of the filters: each filter looks at the
+ * rows the previous ones rejected.
+ */
+public class FilterOr extends VectorExpression {
+
+  // the rows of the batch when it is evaluated, the rows still to evaluate,
+  // and the rows accepted so far
+  private int[] initial = new int[0];
+  private int[] remaining = new int[0];
+  private boolean[] accepted = new boolean[0];
+
+  public FilterOr(VectorExpression... filters) {
+    super(filters);
+  }
+
+  @Override
+  public void evaluate(VectorizedRowBatch batch) {
+    int maxSize = batch.getMaxSize();
+    if (initial.length < maxSize) {
+      initial = new int[maxSize];
+      remaining = new int[maxSize];
+      accepted = new boolean[maxSize];
+    }
+    int n = batch.size;
+    if (batch.selectedInUse) {
+      System.arraycopy(batch.selected, 0, initial, 0, n);
+    } else {
+      for (int i = 0; i < n; i++) {
+        initial[i] = i;
+      }
+    }
+    for (int j = 0; j < n; j++) {
+      accepted[initial[j]] = false;
+    }
+    System.arraycopy(initial, 0, remaining, 0, n);
+    int numRemaining = n;
+    for (VectorExpression filter : childExpressions) {
+      if (numRemaining == 0) {
+        break;
+      }
+      System.arraycopy(remaining, 0, batch.selected, 0, numRemaining);
+      batch.size = numRemaining;
+      batch.selectedInUse = true;
+      filter.evaluate(batch);
+      for (int j = 0; j < batch.size; j++) {
+        accepted[batch.selected[j]] = true;
+      }
+      int m = 0;
+      for (int j = 0; j < numRemaining; j++) {
+        if (!accepted[remaining[j]]) {
+          remaining[m++] = remaining[j];
+        }
+      }
+      numRemaining = m;
+    }
+    // the accepted rows, in their original order
+    int size = 0;
+    for (int j = 0; j < n; j++) {
+      if (accepted[initial[j]]) {
+        batch.selected[size++] = initial[j];
+      }
+    }
+    batch.size = size;
+    batch.selectedInUse = true;
+  }
+}
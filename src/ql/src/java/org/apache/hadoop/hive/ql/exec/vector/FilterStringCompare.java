@@ -0,0 +1,75 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Keeps the rows for which the comparison of a string column with another
+ * column or a scalar is true. Strings are compared by their utf-8 bytes,
+ * like Text.compareTo() does.
+ */
+public class FilterStringCompare extends VectorExpression {
+
+  private final Comparison cmp;
+  private final int leftColumn;
+  private final int rightColumn;
+  private final byte[] rightScalar;
+
+  private BytesColumnVector left;
+  private BytesColumnVector right;
+
+  /**
+   * @param right
+   *          the expression of the right operand, or null for a scalar
+   */
+  public FilterStringCompare(Comparison cmp, VectorExpression left, VectorExpression right,
+      byte[] rightScalar) {
+    super(LongColumnArithmetic.children(left, right));
+    this.cmp = cmp;
+    leftColumn = left.getOutputColumn();
+    rightColumn = right == null ? -1 : right.getOutputColumn();
+    this.rightScalar = rightScalar;
+  }
+
+  @Override
+  public void evaluate(VectorizedRowBatch batch) {
+    evaluateChildren(batch);
+    left = (BytesColumnVector) batch.cols[leftColumn];
+    right = rightColumn < 0 ? null : (BytesColumnVector) batch.cols[rightColumn];
+    filter(batch);
+  }
+
+  @Override
+  protected boolean accept(VectorizedRowBatch batch, int row) {
+    if (left.isNull(row)) {
+      return false;
+    }
+    int result;
+    if (right == null) {
+      result = WritableComparator.compareBytes(left.vector[row], left.start[row],
+          left.length[row], rightScalar, 0, rightScalar.length);
+    } else if (right.isNull(row)) {
+      return false;
+    } else {
+      result = WritableComparator.compareBytes(left.vector[row], left.start[row],
+          left.length[row], right.vector[row], right.start[row], right.length[row]);
+    }
+    return cmp.accept(result);
+  }
+}
@@ -0,0 +1,118 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * Addition, subtraction or multiplication of integral numbers, each operand
+ * being a column or a scalar. The results are narrowed to the type of the
+ * output column, like the overloads of UDFOPPlus, UDFOPMinus and
+ * UDFOPMultiply do.
+ */
+public class LongColumnArithmetic extends VectorExpression {
+
+  private final Arithmetic op;
+  private final int leftColumn;
+  private final long leftScalar;
+  private final int rightColumn;
+  private final long rightScalar;
+  private final int outputColumn;
+  private final PrimitiveCategory outputType;
+
+  /**
+   * @param left
+   *          the expression of the left operand, or null for a scalar
+   * @param right
+   *          the expression of the right operand, or null for a scalar
+   */
+  public LongColumnArithmetic(Arithmetic op, VectorExpression left, long leftScalar,
+      VectorExpression right, long rightScalar, int outputColumn, PrimitiveCategory outputType) {
+    super(children(left, right));
+    assert op != Arithmetic.DIVIDE;
+    this.op = op;
+    leftColumn = left == null ? -1 : left.getOutputColumn();
+    this.leftScalar = leftScalar;
+    rightColumn = right == null ? -1 : right.getOutputColumn();
+    this.rightScalar = rightScalar;
+    this.outputColumn = outputColumn;
+    this.outputType = outputType;
+  }
+
+  static VectorExpression[] children(VectorExpression left, VectorExpression right) {
+    if (left == null) {
+      return right == null ? new VectorExpression[0] : new VectorExpression[] {right};
+    }
+    return right == null ? new VectorExpression[] {left} : new VectorExpression[] {left, right};
+  }
+
+  @Override
+  public void evaluate(VectorizedRowBatch batch) {
+    evaluateChildren(batch);
+    LongColumnVector left = leftColumn < 0 ? null : (LongColumnVector) batch.cols[leftColumn];
+    LongColumnVector right = rightColumn < 0 ? null : (LongColumnVector) batch.cols[rightColumn];
+    LongColumnVector out = (LongColumnVector) batch.cols[outputColumn];
+    long[] result = out.vector;
+    boolean noNulls = (left == null || left.noNulls) && (right == null || right.noNulls);
+    out.noNulls = noNulls;
+    int n = batch.size;
+    for (int j = 0; j < n; j++) {
+      int i = batch.selectedInUse ? batch.selected[j] : j;
+      if (!noNulls) {
+        boolean isNull = left != null && left.isNull(i) || right != null && right.isNull(i);
+        out.isNull[i] = isNull;
+        if (isNull) {
+          continue;
+        }
+      }
+      long a = left == null ? leftScalar : left.vector[i];
+      long b = right == null ? rightScalar : right.vector[i];
+      long r;
+      switch (op) {
+      case ADD:
+        r = a + b;
+        break;
+      case SUBTRACT:
+        r = a - b;
+        break;
+      default:
+        r = a * b;
+        break;
+      }
+      switch (outputType) {
+      case BYTE:
+        r = (byte) r;
+        break;
+      case SHORT:
+        r = (short) r;
+        break;
+      case INT:
+        r = (int) r;
+        break;
+      default:
+        break;
+      }
+      result[i] = r;
+    }
+  }
+
+  @Override
+  public int getOutputColumn() {
+    return outputColumn;
+  }
+}
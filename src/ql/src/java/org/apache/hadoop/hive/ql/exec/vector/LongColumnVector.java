@@ -0,0 +1,111 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Column of booleans and integral numbers, all held as longs.
+ */
+public class LongColumnVector extends ColumnVector {
+
+  public final long[] vector;
+
+  private BooleanWritable booleanWritable;
+  private ByteWritable byteWritable;
+  private ShortWritable shortWritable;
+  private IntWritable intWritable;
+  private LongWritable longWritable;
+
+  public LongColumnVector(PrimitiveCategory type, int size) {
+    super(type, size);
+    vector = new long[size];
+  }
+
+  @Override
+  protected void set(int row, Object o, PrimitiveObjectInspector oi) {
+    switch (type) {
+    case BOOLEAN:
+      vector[row] = ((BooleanObjectInspector) oi).get(o) ? 1 : 0;
+      break;
+    case BYTE:
+      vector[row] = ((ByteObjectInspector) oi).get(o);
+      break;
+    case SHORT:
+      vector[row] = ((ShortObjectInspector) oi).get(o);
+      break;
+    case INT:
+      vector[row] = ((IntObjectInspector) oi).get(o);
+      break;
+    default:
+      vector[row] = ((LongObjectInspector) oi).get(o);
+      break;
+    }
+  }
+
+  @Override
+  public Object getWritableObject(int row) {
+    if (isNull(row)) {
+      return null;
+    }
+    long value = vector[row];
+    switch (type) {
+    case BOOLEAN:
+      if (booleanWritable == null) {
+        booleanWritable = new BooleanWritable();
+      }
+      booleanWritable.set(value != 0);
+      return booleanWritable;
+    case BYTE:
+      if (byteWritable == null) {
+        byteWritable = new ByteWritable();
+      }
+      byteWritable.set((byte) value);
+      return byteWritable;
+    case SHORT:
+      if (shortWritable == null) {
+        shortWritable = new ShortWritable();
+      }
+      shortWritable.set((short) value);
+      return shortWritable;
+    case INT:
+      if (intWritable == null) {
+        intWritable = new IntWritable();
+      }
+      intWritable.set((int) value);
+      return intWritable;
+    default:
+      if (longWritable == null) {
+        longWritable = new LongWritable();
+      }
+      longWritable.set(value);
+      return longWritable;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * An expression evaluated on all the rows of a batch at once.
+ *
+ * An expression computing values writes them to its output column, after
+ * evaluating the expressions computing its operands. A filter expression
+ * has no output column: it narrows the selected rows of the batch.
+ */
+public abstract class VectorExpression {
+
+  /**
+   * The comparisons of the filters.
+   */
+  public static enum Comparison {
+    EQUAL, NOT_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL;
+
+    /**
+     * @param cmp
+     *          the sign of the comparison of the operands
+     */
+    public boolean accept(int cmp) {
+      switch (this) {
+      case EQUAL:
+        return cmp == 0;
+      case NOT_EQUAL:
+        return cmp != 0;
+      case LESS:
+        return cmp < 0;
+      case LESS_EQUAL:
+        return cmp <= 0;
+      case GREATER:
+        return cmp > 0;
+      default:
+        return cmp >= 0;
+      }
+    }
+
+    /**
+     * The comparison with the operands swapped.
+     */
+    public Comparison swap() {
+      switch (this) {
+      case LESS:
+        return GREATER;
+      case LESS_EQUAL:
+        return GREATER_EQUAL;
+      case GREATER:
+        return LESS;
+      case GREATER_EQUAL:
+        return LESS_EQUAL;
+      default:
+        return this;
+      }
+    }
+  }
+
+  /**
+   * The arithmetic operations.
+   */
+  public static enum Arithmetic {
+    ADD, SUBTRACT, MULTIPLY, DIVIDE
+  }
+
+  protected final VectorExpression[] childExpressions;
+
+  protected VectorExpression(VectorExpression... childExpressions) {
+    this.childExpressions = childExpressions;
+  }
+
+  public abstract void evaluate(VectorizedRowBatch batch);
+
+  /**
+   * @return the column holding the values of the expression, or -1 for a
+   *         filter
+   */
+  public int getOutputColumn() {
+    return -1;
+  }
+
+  protected void evaluateChildren(VectorizedRowBatch batch) {
+    for (VectorExpression child : childExpressions) {
+      child.evaluate(batch);
+    }
+  }
+
+  /**
+   * Keep the rows accepted by the filter in the selected rows of the batch.
+   */
+  protected void filter(VectorizedRowBatch batch) {
+    int[] selected = batch.selected;
+    int n = 0;
+    if (batch.selectedInUse) {
+      for (int j = 0; j < batch.size; j++) {
+        int i = selected[j];
+        if (accept(batch, i)) {
+          selected[n++] = i;
+        }
+      }
+    } else {
+      for (int i = 0; i < batch.size; i++) {
+        if (accept(batch, i)) {
+          selected[n++] = i;
+        }
+      }
+      batch.selectedInUse = true;
+    }
+    batch.size = n;
+  }
+
+  /**
+   * Whether a filter accepts a row, see filter().
+   */
+  protected boolean accept(VectorizedRowBatch batch, int row) {
+    throw new UnsupportedOperationException(getClass().getName() + " is not a filter");
+  }
+}
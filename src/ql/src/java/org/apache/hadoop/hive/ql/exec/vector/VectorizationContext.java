@@ -0,0 +1,484 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpression.Arithmetic;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpression.Comparison;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.udf.UDFOPDivide;
+import org.apache.hadoop.hive.ql.udf.UDFOPMinus;
+import org.apache.hadoop.hive.ql.udf.UDFOPMultiply;
+import org.apache.hadoop.hive.ql.udf.UDFOPPlus;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFBridge;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPAnd;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNotEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNotNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPOr;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Maps the fields of the rows an operator receives to the columns of the
+ * batches, and compiles the expressions of the operator into
+ * VectorExpressions.
+ *
+ * The columns are shared by all the operators of the map task: the columns
+ * of the rows read by the MapOperator come first, followed by the scratch
+ * columns the expressions of the operators allocate for their results. The
+ * batch is created once all the operators are initialized.
+ */
+public class VectorizationContext {
+
+  // the type of the vector of each column of the batch, null for a column
+  // which cannot be vectorized
+  private final List<PrimitiveCategory> columnTypes;
+  private final Map<String, Integer> columnMap;
+  private final int[] projection;
+
+  /**
+   * The context of the rows read by the MapOperator.
+   *
+   * @param needed
+   *          whether the field is used by the operators: the other fields are
+   *          always null
+   */
+  public VectorizationContext(List<String> fieldNames, List<? extends ObjectInspector> fieldOIs,
+      boolean[] needed) {
+    columnTypes = new ArrayList<PrimitiveCategory>();
+    columnMap = new HashMap<String, Integer>();
+    projection = new int[fieldNames.size()];
+    for (int i = 0; i < fieldNames.size(); i++) {
+      PrimitiveCategory type = needed[i] ? getVectorType(fieldOIs.get(i)) : null;
+      columnTypes.add(type);
+      columnMap.put(fieldNames.get(i).toLowerCase(), i);
+      projection[i] = i;
+    }
+  }
+
+  private VectorizationContext(VectorizationContext parent, List<String> fieldNames,
+      int[] columns) {
+    columnTypes = parent.columnTypes;
+    columnMap = new HashMap<String, Integer>();
+    for (int i = 0; i < fieldNames.size(); i++) {
+      columnMap.put(fieldNames.get(i).toLowerCase(), columns[i]);
+    }
+    projection = columns;
+  }
+
+  /**
+   * The context of the rows made of the given columns, output by an
+   * operator.
+   */
+  public VectorizationContext project(List<String> fieldNames, int[] columns) {
+    return new VectorizationContext(this, fieldNames, columns);
+  }
+
+  /**
+   * The columns of the fields of the rows.
+   */
+  public int[] getProjection() {
+    return projection;
+  }
+
+  /**
+   * @return the type of the vector of the column, or null if the column is
+   *         not vectorized
+   */
+  public PrimitiveCategory getColumnType(int column) {
+    return columnTypes.get(column);
+  }
+
+  /**
+   * The standard writable ObjectInspector of the objects the column returns
+   * for the rows.
+   */
+  public ObjectInspector getWritableObjectInspector(int column) {
+    return PrimitiveObjectInspectorFactory
+        .getPrimitiveWritableObjectInspector(columnTypes.get(column));
+  }
+
+  /**
+   * @return the column of a field, or -1 if there is no such field
+   */
+  public int getColumn(String name) {
+    Integer column = columnMap.get(name.toLowerCase());
+    return column == null ? -1 : column.intValue();
+  }
+
+  public int allocateColumn(PrimitiveCategory type) {
+    columnTypes.add(type);
+    return columnTypes.size() - 1;
+  }
+
+  public VectorizedRowBatch createBatch() {
+    return createBatch(VectorizedRowBatch.DEFAULT_SIZE);
+  }
+
+  public VectorizedRowBatch createBatch(int size) {
+    ColumnVector[] cols = new ColumnVector[columnTypes.size()];
+    for (int i = 0; i < cols.length; i++) {
+      PrimitiveCategory type = columnTypes.get(i);
+      if (type == null) {
+        continue;
+      }
+      switch (type) {
+      case FLOAT:
+      case DOUBLE:
+        cols[i] = new DoubleColumnVector(type, size);
+        break;
+      case STRING:
+        cols[i] = new BytesColumnVector(size);
+        break;
+      default:
+        cols[i] = new LongColumnVector(type, size);
+        break;
+      }
+    }
+    VectorizedRowBatch batch = new VectorizedRowBatch(cols, size);
+    batch.projectedColumns = projection;
+    return batch;
+  }
+
+  /**
+   * @return the type of the vector holding the values of oi, or null if they
+   *         cannot be vectorized
+   */
+  public static PrimitiveCategory getVectorType(ObjectInspector oi) {
+    if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
+    }
+    return getVectorType(((PrimitiveObjectInspector) oi).getPrimitiveCategory());
+  }
+
+  private static PrimitiveCategory getVectorType(PrimitiveCategory type) {
+    switch (type) {
+    case BOOLEAN:
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+    case FLOAT:
+    case DOUBLE:
+    case STRING:
+      return type;
+    default:
+      return null;
+    }
+  }
+
+  private static PrimitiveCategory getCategory(ExprNodeDesc desc) {
+    TypeInfo type = desc.getTypeInfo();
+    if (type.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
+    }
+    return getVectorType(((PrimitiveTypeInfo) type).getPrimitiveCategory());
+  }
+
+  private static boolean isIntegral(PrimitiveCategory type) {
+    return type == PrimitiveCategory.BYTE || type == PrimitiveCategory.SHORT
+        || type == PrimitiveCategory.INT || type == PrimitiveCategory.LONG;
+  }
+
+  private static boolean isNumeric(PrimitiveCategory type) {
+    return isIntegral(type) || type == PrimitiveCategory.FLOAT
+        || type == PrimitiveCategory.DOUBLE;
+  }
+
+  /**
+   * Compiles an expression computing a value.
+   *
+   * @return the expression, whose output column holds the values, or null if
+   *         the expression cannot be vectorized
+   */
+  public VectorExpression getVectorExpression(ExprNodeDesc desc) {
+    if (desc instanceof ExprNodeColumnDesc) {
+      String name = ((ExprNodeColumnDesc) desc).getColumn();
+      int column = getColumn(name);
+      if (column < 0 || columnTypes.get(column) == null) {
+        return null;
+      }
+      return new ColumnExpression(column);
+    }
+    if (desc instanceof ExprNodeGenericFuncDesc) {
+      GenericUDF udf = ((ExprNodeGenericFuncDesc) desc).getGenericUDF();
+      if (udf instanceof GenericUDFBridge) {
+        Arithmetic op = getArithmetic(((GenericUDFBridge) udf).getUdfClass());
+        if (op != null) {
+          return getArithmeticExpression(op, getCategory(desc), desc.getChildren());
+        }
+      }
+    }
+    return null;
+  }
+
+  private static Arithmetic getArithmetic(Class<?> udfClass) {
+    if (udfClass == UDFOPPlus.class) {
+      return Arithmetic.ADD;
+    } else if (udfClass == UDFOPMinus.class) {
+      return Arithmetic.SUBTRACT;
+    } else if (udfClass == UDFOPMultiply.class) {
+      return Arithmetic.MULTIPLY;
+    } else if (udfClass == UDFOPDivide.class) {
+      return Arithmetic.DIVIDE;
+    }
+    return null;
+  }
+
+  private VectorExpression getArithmeticExpression(Arithmetic op, PrimitiveCategory outputType,
+      List<ExprNodeDesc> children) {
+    if (children.size() != 2 || outputType == null) {
+      return null;
+    }
+    ExprNodeDesc left = children.get(0);
+    ExprNodeDesc right = children.get(1);
+    if (left instanceof ExprNodeConstantDesc && right instanceof ExprNodeConstantDesc) {
+      return null;
+    }
+    if (isIntegral(outputType) && op != Arithmetic.DIVIDE) {
+      if (!isIntegral(getCategory(left)) || !isIntegral(getCategory(right))) {
+        return null;
+      }
+      VectorExpression leftExpr = null;
+      VectorExpression rightExpr = null;
+      long leftScalar = 0;
+      long rightScalar = 0;
+      if (left instanceof ExprNodeConstantDesc) {
+        Number value = (Number) ((ExprNodeConstantDesc) left).getValue();
+        if (value == null) {
+          return null;
+        }
+        leftScalar = value.longValue();
+      } else if ((leftExpr = getVectorExpression(left)) == null) {
+        return null;
+      }
+      if (right instanceof ExprNodeConstantDesc) {
+        Number value = (Number) ((ExprNodeConstantDesc) right).getValue();
+        if (value == null) {
+          return null;
+        }
+        rightScalar = value.longValue();
+      } else if ((rightExpr = getVectorExpression(right)) == null) {
+        return null;
+      }
+      return new LongColumnArithmetic(op, leftExpr, leftScalar, rightExpr, rightScalar,
+          allocateColumn(outputType), outputType);
+    }
+    if (outputType == PrimitiveCategory.DOUBLE) {
+      if (!isNumeric(getCategory(left)) || !isNumeric(getCategory(right))) {
+        return null;
+      }
+      VectorExpression leftExpr = null;
+      VectorExpression rightExpr = null;
+      double leftScalar = 0;
+      double rightScalar = 0;
+      if (left instanceof ExprNodeConstantDesc) {
+        Number value = (Number) ((ExprNodeConstantDesc) left).getValue();
+        if (value == null) {
+          return null;
+        }
+        leftScalar = value.doubleValue();
+      } else if ((leftExpr = getDoubleExpression(left)) == null) {
+        return null;
+      }
+      if (right instanceof ExprNodeConstantDesc) {
+        Number value = (Number) ((ExprNodeConstantDesc) right).getValue();
+        if (value == null) {
+          return null;
+        }
+        rightScalar = value.doubleValue();
+      } else if ((rightExpr = getDoubleExpression(right)) == null) {
+        return null;
+      }
+      return new DoubleColumnArithmetic(op, leftExpr, leftScalar, rightExpr, rightScalar,
+          allocateColumn(outputType));
+    }
+    // float arithmetic is computed on floats, it cannot be computed on the
+    // doubles of the vectors
+    return null;
+  }
+
+  /**
+   * Compiles a numeric expression, converting its values to doubles.
+   */
+  private VectorExpression getDoubleExpression(ExprNodeDesc desc) {
+    VectorExpression expr = getVectorExpression(desc);
+    if (expr == null) {
+      return null;
+    }
+    PrimitiveCategory type = columnTypes.get(expr.getOutputColumn());
+    if (isIntegral(type)) {
+      return new CastLongToDouble(expr, allocateColumn(PrimitiveCategory.DOUBLE));
+    }
+    return expr;
+  }
+
+  /**
+   * Compiles a boolean expression into a filter, keeping the rows for which
+   * it is true.
+   *
+   * @return the filter, or null if the expression cannot be vectorized
+   */
+  public VectorExpression getFilterExpression(ExprNodeDesc desc) {
+    if (desc instanceof ExprNodeColumnDesc) {
+      if (getCategory(desc) != PrimitiveCategory.BOOLEAN) {
+        return null;
+      }
+      VectorExpression expr = getVectorExpression(desc);
+      return expr == null ? null : new FilterLongCompare(Comparison.NOT_EQUAL, expr, null, 0);
+    }
+    if (!(desc instanceof ExprNodeGenericFuncDesc)) {
+      return null;
+    }
+    GenericUDF udf = ((ExprNodeGenericFuncDesc) desc).getGenericUDF();
+    List<ExprNodeDesc> children = desc.getChildren();
+    if (udf instanceof GenericUDFOPAnd || udf instanceof GenericUDFOPOr) {
+      VectorExpression[] filters = new VectorExpression[children.size()];
+      for (int i = 0; i < filters.length; i++) {
+        if ((filters[i] = getFilterExpression(children.get(i))) == null) {
+          return null;
+        }
+      }
+      return udf instanceof GenericUDFOPAnd ? new FilterAnd(filters) : new FilterOr(filters);
+    }
+    if (udf instanceof GenericUDFOPNull || udf instanceof GenericUDFOPNotNull) {
+      ExprNodeDesc child = children.get(0);
+      VectorExpression expr;
+      if (child instanceof ExprNodeColumnDesc) {
+        // the column may not be vectorized, and always null
+        int column = getColumn(((ExprNodeColumnDesc) child).getColumn());
+        expr = column < 0 ? null : new ColumnExpression(column);
+      } else {
+        expr = getVectorExpression(child);
+      }
+      return expr == null ? null : new FilterIsNull(expr, udf instanceof GenericUDFOPNotNull);
+    }
+    Comparison cmp = getComparison(udf);
+    if (cmp != null && children.size() == 2) {
+      return getCompareExpression(cmp, children.get(0), children.get(1));
+    }
+    return null;
+  }
+
+  private static Comparison getComparison(GenericUDF udf) {
+    if (udf instanceof GenericUDFOPEqual) {
+      return Comparison.EQUAL;
+    } else if (udf instanceof GenericUDFOPNotEqual) {
+      return Comparison.NOT_EQUAL;
+    } else if (udf instanceof GenericUDFOPLessThan) {
+      return Comparison.LESS;
+    } else if (udf instanceof GenericUDFOPEqualOrLessThan) {
+      return Comparison.LESS_EQUAL;
+    } else if (udf instanceof GenericUDFOPGreaterThan) {
+      return Comparison.GREATER;
+    } else if (udf instanceof GenericUDFOPEqualOrGreaterThan) {
+      return Comparison.GREATER_EQUAL;
+    }
+    return null;
+  }
+
+  private VectorExpression getCompareExpression(Comparison cmp, ExprNodeDesc left,
+      ExprNodeDesc right) {
+    if (left instanceof ExprNodeConstantDesc) {
+      if (right instanceof ExprNodeConstantDesc) {
+        return null;
+      }
+      ExprNodeDesc swap = left;
+      left = right;
+      right = swap;
+      cmp = cmp.swap();
+    }
+    PrimitiveCategory leftType = getCategory(left);
+    PrimitiveCategory rightType = getCategory(right);
+    if (leftType == null || rightType == null) {
+      return null;
+    }
+    Object scalar = null;
+    if (right instanceof ExprNodeConstantDesc) {
+      scalar = ((ExprNodeConstantDesc) right).getValue();
+      if (scalar == null) {
+        // the comparison is null for all the rows
+        return null;
+      }
+    }
+    if (leftType == PrimitiveCategory.STRING && rightType == PrimitiveCategory.STRING) {
+      VectorExpression leftExpr = getVectorExpression(left);
+      if (leftExpr == null) {
+        return null;
+      }
+      if (scalar != null) {
+        Text text = new Text(scalar.toString());
+        byte[] bytes = new byte[text.getLength()];
+        System.arraycopy(text.getBytes(), 0, bytes, 0, bytes.length);
+        return new FilterStringCompare(cmp, leftExpr, null, bytes);
+      }
+      VectorExpression rightExpr = getVectorExpression(right);
+      return rightExpr == null ? null : new FilterStringCompare(cmp, leftExpr, rightExpr, null);
+    }
+    if (isIntegral(leftType) && isIntegral(rightType)
+        || leftType == PrimitiveCategory.BOOLEAN && rightType == PrimitiveCategory.BOOLEAN) {
+      VectorExpression leftExpr = getVectorExpression(left);
+      if (leftExpr == null) {
+        return null;
+      }
+      if (scalar != null) {
+        long value = scalar instanceof Boolean ? (((Boolean) scalar) ? 1 : 0)
+            : ((Number) scalar).longValue();
+        return new FilterLongCompare(cmp, leftExpr, null, value);
+      }
+      VectorExpression rightExpr = getVectorExpression(right);
+      return rightExpr == null ? null : new FilterLongCompare(cmp, leftExpr, rightExpr, 0);
+    }
+    if (isNumeric(leftType) && isNumeric(rightType)) {
+      if ((leftType == PrimitiveCategory.FLOAT) != (rightType == PrimitiveCategory.FLOAT)
+          && leftType != PrimitiveCategory.DOUBLE && rightType != PrimitiveCategory.DOUBLE) {
+        // integral numbers are compared to floats as floats
+        return null;
+      }
+      VectorExpression leftExpr = getDoubleExpression(left);
+      if (leftExpr == null) {
+        return null;
+      }
+      if (scalar != null) {
+        return new FilterDoubleCompare(cmp, leftExpr, null, ((Number) scalar).doubleValue());
+      }
+      VectorExpression rightExpr = getDoubleExpression(right);
+      return rightExpr == null ? null : new FilterDoubleCompare(cmp, leftExpr, rightExpr, 0);
+    }
+    return null;
+  }
+}
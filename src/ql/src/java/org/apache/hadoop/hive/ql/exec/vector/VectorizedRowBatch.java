@@ -0,0 +1,83 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * A batch of rows held by column, which the operators of a vectorized map
+ * task pass to each other instead of single rows.
+ *
+ * The rows of the batch are 0 .. size - 1, or selected[0 .. size - 1] when
+ * selectedInUse is set (after a filter). The fields of the rows are the
+ * columns projectedColumns[0 .. projectedColumns.length - 1]: the other
+ * columns hold the inputs of the operators upstream, or the intermediate
+ * results of the expressions. A column is null when its type cannot be
+ * vectorized: the rows have null for it.
+ */
+public class VectorizedRowBatch {
+
+  public static final int DEFAULT_SIZE = 1024;
+
+  public final ColumnVector[] cols;
+  public int size;
+  public final int[] selected;
+  public boolean selectedInUse;
+  public int[] projectedColumns;
+
+  public VectorizedRowBatch(ColumnVector[] cols, int maxSize) {
+    this.cols = cols;
+    selected = new int[maxSize];
+  }
+
+  public int getMaxSize() {
+    return selected.length;
+  }
+
+  public boolean isFull() {
+    return size == selected.length;
+  }
+
+  /**
+   * Empty the batch, before it is filled again.
+   */
+  public void reset() {
+    size = 0;
+    selectedInUse = false;
+    for (ColumnVector col : cols) {
+      if (col != null) {
+        col.reset();
+      }
+    }
+  }
+
+  /**
+   * Returns the fields of a row of the batch as writable objects, to process
+   * it the row at a time. The objects are reused for the next row.
+   *
+   * @param row
+   *          the index of the row in the columns, not in selected
+   * @param result
+   *          the array to fill, of length projectedColumns.length
+   */
+  public Object[] getRow(int row, Object[] result) {
+    for (int i = 0; i < projectedColumns.length; i++) {
+      ColumnVector col = cols[projectedColumns[i]];
+      result[i] = col == null ? null : col.getWritableObject(row);
+    }
+    return result;
+  }
+}
@@ -19,7 +19,9 @@ package org.apache.hadoop.hive.ql.index.compact;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -29,6 +31,8 @@ import org.apache.hadoop.hive.ql.exec.Utilities;
 import org.apache.hadoop.hive.ql.io.HiveFileFormatUtils;
 import org.apache.hadoop.hive.ql.io.HiveInputFormat;
 import org.apache.hadoop.hive.ql.io.IOPrepareCache;
+import org.apache.hadoop.hive.ql.io.RCFile;
+import org.apache.hadoop.hive.ql.io.RCFileInputFormat;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.PartitionDesc;
 import org.apache.hadoop.io.SequenceFile;
@@ -117,11 +121,32 @@ public class HiveCompactIndexInputFormat extends HiveInputFormat {
 
     ArrayList<HiveInputSplit> newSplits = new ArrayList<HiveInputSplit>(
         numSplits);
+    Map<Path, RCFile.RowGroupIndex> rowGroupIndexes = new HashMap<Path, RCFile.RowGroupIndex>();
     for (HiveInputSplit split : splits) {
       l4j.info("split start : " + split.getStart());
       l4j.info("split end : " + (split.getStart() + split.getLength()));
 
       try {
+        if (isRCFile(split.inputFormatClassName(), job)) {
+          Path path = split.getPath();
+          if (!rowGroupIndexes.containsKey(path)) {
+            rowGroupIndexes.put(path, RCFileInputFormat.getRowGroupIndex(path,
+                job));
+          }
+          RCFile.RowGroupIndex rowGroupIndex = rowGroupIndexes.get(path);
+          if (rowGroupIndex != null) {
+            // the row group index tells which row groups the split reads, so
+            // no sync can be missed
+            FileSplit aligned = RCFileInputFormat.alignToRowGroups(split,
+                rowGroupIndex);
+            if (aligned != null
+                && hiveIndexResult.contains(aligned, rowGroupIndex)) {
+              newSplits.add(new HiveInputSplit(aligned, split
+                  .inputFormatClassName()));
+            }
+            continue;
+          }
+        }
         if (hiveIndexResult.contains(split)) {
           // we may miss a sync here
           HiveInputSplit newSplit = split;
@@ -147,4 +172,15 @@ public class HiveCompactIndexInputFormat extends HiveInputFormat {
         + retA.length);
     return retA;
   }
+
+  private static boolean isRCFile(String inputFormatClassName, JobConf job)
+      throws IOException {
+    try {
+      return RCFileInputFormat.class.isAssignableFrom(job
+          .getClassByName(inputFormatClassName));
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Cannot find input format class "
+          + inputFormatClassName, e);
+    }
+  }
 }
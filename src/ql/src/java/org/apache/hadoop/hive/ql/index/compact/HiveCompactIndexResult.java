@@ -32,6 +32,7 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.io.RCFile;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
 import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
@@ -158,20 +159,49 @@ public class HiveCompactIndexResult {
     bucket.getOffsets().add(Long.parseLong(one_offset));
   }
 
-  public boolean contains(FileSplit split) throws HiveException {
-
+  private IBucket getBucket(FileSplit split) {
     if (buckets == null) {
-      return false;
+      return null;
     }
-    String bucketName = split.getPath().toString();
-    IBucket bucket = buckets.get(bucketName);
+    IBucket bucket = buckets.get(split.getPath().toString());
     if (bucket == null) {
-      bucketName = split.getPath().toUri().getPath();
-      bucket = buckets.get(bucketName);
-      if (bucket == null) {
-        return false;
+      bucket = buckets.get(split.getPath().toUri().getPath());
+    }
+    return bucket;
+  }
+
+  /**
+   * Whether the split, whose ends are at row group boundaries, reads a row
+   * group that holds one of the indexed offsets.
+   */
+  public boolean contains(FileSplit split, RCFile.RowGroupIndex rowGroupIndex)
+      throws HiveException {
+    IBucket bucket = getBucket(split);
+    if (bucket == null) {
+      return false;
+    }
+
+    for (Long offset : bucket.getOffsets()) {
+      int rowGroup = rowGroupIndex.findRowGroupContaining(offset);
+      if (rowGroup < 0) {
+        rowGroup = 0;
+      }
+      if (rowGroup < rowGroupIndex.getRowGroupCount()) {
+        long rowGroupStart = rowGroupIndex.getOffset(rowGroup);
+        if ((rowGroupStart >= split.getStart())
+            && (rowGroupStart < split.getStart() + split.getLength())) {
+          return true;
+        }
       }
     }
+    return false;
+  }
+
+  public boolean contains(FileSplit split) throws HiveException {
+    IBucket bucket = getBucket(split);
+    if (bucket == null) {
+      return false;
+    }
 
     for (Long offset : bucket.getOffsets()) {
       if ((offset >= split.getStart())
@@ -24,6 +24,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -32,6 +33,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.FilterOperator;
 import org.apache.hadoop.hive.ql.exec.Operator;
 import org.apache.hadoop.hive.ql.exec.TableScanOperator;
 import org.apache.hadoop.hive.ql.exec.Utilities;
@@ -333,6 +335,20 @@ public class HiveInputFormat<K extends WritableComparable, V extends Writable>
   }
 
   protected void pushFilters(JobConf jobConf, TableScanOperator tableScan) {
+    pushFilters(jobConf, tableScan, false);
+  }
+
+  /**
+   * Push the filter expression of a table scan down to its input format.
+   *
+   * @param useScanFilter
+   *          if the scan carries no filter expression for a storage handler,
+   *          push the predicate of the filter right above it instead. The
+   *          filter still runs, so input formats are free to ignore the
+   *          expression; RCFile uses it to skip row groups.
+   */
+  protected void pushFilters(JobConf jobConf, TableScanOperator tableScan,
+      boolean useScanFilter) {
 
     TableScanDesc scanDesc = tableScan.getConf();
     if (scanDesc == null) {
@@ -344,6 +360,9 @@ public class HiveInputFormat<K extends WritableComparable, V extends Writable>
 
     // push down filters
     ExprNodeDesc filterExpr = scanDesc.getFilterExpr();
+    if (filterExpr == null && useScanFilter) {
+      filterExpr = getScanFilter(tableScan);
+    }
     if (filterExpr == null) {
       return;
     }
@@ -362,6 +381,16 @@ public class HiveInputFormat<K extends WritableComparable, V extends Writable>
       filterExprSerialized);
   }
 
+  private static ExprNodeDesc getScanFilter(TableScanOperator tableScan) {
+    List<Operator<? extends Serializable>> children = tableScan
+        .getChildOperators();
+    if (children == null || children.size() != 1
+        || !(children.get(0) instanceof FilterOperator)) {
+      return null;
+    }
+    return ((FilterOperator) children.get(0)).getConf().getPredicate();
+  }
+
   protected void pushProjectionsAndFilters(JobConf jobConf, Class inputFormatClass,
       String splitPath, String splitPathWithNoSchema) {
     pushProjectionsAndFilters(jobConf, inputFormatClass, splitPath,
@@ -418,7 +447,9 @@ public class HiveInputFormat<K extends WritableComparable, V extends Writable>
           ColumnProjectionUtils.setFullyReadColumns(jobConf);
         }
 
-        pushFilters(jobConf, tableScan);
+        // several aliases over the same path would need the disjunction of
+        // their filters, so only a single alias' filter is pushed
+        pushFilters(jobConf, tableScan, !nonNative && aliases.size() == 1);
       }
     }
   }
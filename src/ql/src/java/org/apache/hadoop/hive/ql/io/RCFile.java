@@ -24,9 +24,20 @@ import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
 import java.rmi.server.UID;
 import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,15 +47,18 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde.Constants;
 import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
 import org.apache.hadoop.hive.serde2.columnar.LazyDecompressionCallback;
+import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.VersionMismatchException;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.io.SequenceFile.Metadata;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -99,7 +113,7 @@ import org.apache.hadoop.util.ReflectionUtils;
  * <h5 id="Header">RC Header</h5>
  * <ul>
  * <li>version - 3 bytes of magic header <b>SEQ</b>, followed by 1 byte of
- * actual version number (e.g. SEQ4 or SEQ6)</li>
+ * actual version number (e.g. SEQ4, SEQ6 or SEQ9)</li>
  * <li>keyClassName -KeyBuffer's class name</li>
  * <li>valueClassName - ValueBuffer's class name</li>
  * <li>compression - A boolean which specifies if compression is turned on for
@@ -129,6 +143,14 @@ import org.apache.hadoop.util.ReflectionUtils;
  * <li>Column_2_row_1_value_plain_length</li>
  * <li>Column_2_row_2_value_plain_length</li>
  * <li>...</li>
+ * <li>Column_1_statistics (version 7 and later, see {@link ColumnStats})</li>
+ * <li>Column_2_statistics</li>
+ * <li>...</li>
+ * <li>Column_1_encoding, followed by Column_1_encoded_length(vint) unless the
+ * encoding is plain (version 8 and later, see {@link RCFileColumnEncoding})
+ * </li>
+ * <li>Column_2_encoding</li>
+ * <li>...</li>
  * </ul>
  * </li>
  * </li>
@@ -140,6 +162,7 @@ import org.apache.hadoop.util.ReflectionUtils;
  * column_2_row_2_value,....]</li>
  * </ul>
  * </li>
+ * <li>Row group index (version 9 and later, see {@link RowGroupIndex})</li>
  * </ul>
  * 
  */
@@ -153,13 +176,63 @@ public class RCFile {
 
   public static final String COLUMN_NUMBER_CONF_STR = "hive.io.rcfile.column.number.conf";
 
+  /**
+   * Whether the writer records per column statistics of each row group. Off
+   * by default, since files written with statistics use version 7 of the
+   * format, which older readers refuse to open.
+   */
+  public static final String COLUMN_STATS_CONF_STR = "hive.io.rcfile.column.stats";
+
+  /**
+   * Whether the record reader skips row groups whose column statistics show
+   * that no row can pass the pushed down filter expression.
+   */
+  public static final String ROW_GROUP_SKIP_CONF_STR = "hive.io.rcfile.rowgroup.skip";
+
+  /**
+   * Whether the writer encodes each column of a row group with the most
+   * compact {@link RCFileColumnEncoding} before compressing it. Off by
+   * default; files written with encodings use version 8 of the format, which
+   * also records column statistics.
+   */
+  public static final String COLUMN_ENCODING_CONF_STR = "hive.io.rcfile.column.encoding";
+
+  /**
+   * Whether the writer starts every row group at a sync mark and lists the
+   * row groups in a {@link RowGroupIndex} footer. Off by default; the index is
+   * only written along with column encodings, in version 9 of the format.
+   */
+  public static final String ROW_GROUP_INDEX_CONF_STR = "hive.io.rcfile.rowgroup.index";
+
+  /**
+   * Whether {@link RCFileInputFormat} moves the ends of its splits to row
+   * group boundaries, using the row group index of each file.
+   */
+  public static final String ROW_GROUP_SPLIT_CONF_STR = "hive.io.rcfile.rowgroup.split";
+
+  /**
+   * How many row groups the reader reads and decompresses ahead on a
+   * background thread. The default 0 reads them on the calling thread.
+   */
+  public static final String READ_AHEAD_CONF_STR = "hive.io.rcfile.readahead.rowgroups";
+
+  /**
+   * How many threads the writer uses to encode and compress the columns of a
+   * row group. Each thread has its own compressor, and the file is the same
+   * whatever the number of threads.
+   */
+  public static final String COMPRESS_THREADS_CONF_STR = "hive.io.rcfile.compress.threads";
+
   /*
    * these header and Sync are kept from SequenceFile, for compatible of
    * SequenceFile's format.
    */
   private static final byte VERSION_WITH_METADATA = (byte) 6;
+  private static final byte VERSION_WITH_COLUMN_STATS = (byte) 7;
+  private static final byte VERSION_WITH_COLUMN_ENCODINGS = (byte) 8;
+  private static final byte VERSION_WITH_ROW_GROUP_INDEX = (byte) 9;
   private static final byte[] VERSION = new byte[] {
-      (byte) 'S', (byte) 'E', (byte) 'Q', VERSION_WITH_METADATA
+      (byte) 'S', (byte) 'E', (byte) 'Q', VERSION_WITH_ROW_GROUP_INDEX
       };
 
   private static final int SYNC_ESCAPE = -1; // "length" of sync entries
@@ -186,6 +259,11 @@ public class RCFile {
    * <li>column_2_row_1_value_plain_length,</li>
    * <li>column_2_row_2_value_plain_length,</li>
    * <li>.... .</li>
+   * <li>column_1_statistics, column_2_statistics, ... (only when
+   * <code>hasColumnStats</code>, i.e. version 7 and later)</li>
+   * <li>column_1_encoding(byte), column_1_encoded_length(vint) unless the
+   * encoding is plain, column_2_encoding, ... (only when
+   * <code>hasColumnEncodings</code>, i.e. version 8 and later)</li>
    * <li>{the end of the key part}</li>
    * </ul>
    */
@@ -199,6 +277,15 @@ public class RCFile {
     private int numberRows = 0;
     // how many columns
     private int columnNumber = 0;
+    // whether each column's statistics follow the cell lengths
+    boolean hasColumnStats = false;
+    // each column's statistics in this split
+    ColumnStats[] columnStats = null;
+    // whether each column's encoding follows the statistics
+    boolean hasColumnEncodings = false;
+    // each column's encoding in this split, and its length once decompressed
+    private byte[] eachColumnEncoding = null;
+    private int[] eachColumnEncodedValueLen = null;
 
     KeyBuffer(int columnNumber) {
       this(0, columnNumber);
@@ -228,6 +315,57 @@ public class RCFile {
       allCellValLenBuffer[columnIndex] = colValLenBuffer;
     }
 
+    void setColumnEncoding(byte encoding, int encodedValueLen, int columnIndex) {
+      if (eachColumnEncoding == null) {
+        eachColumnEncoding = new byte[columnNumber];
+        eachColumnEncodedValueLen = new int[columnNumber];
+      }
+      eachColumnEncoding[columnIndex] = encoding;
+      eachColumnEncodedValueLen[columnIndex] = encodedValueLen;
+    }
+
+    byte getColumnEncoding(int columnIndex) {
+      if (!hasColumnEncodings) {
+        return RCFileColumnEncoding.PLAIN;
+      }
+      return eachColumnEncoding[columnIndex];
+    }
+
+    /**
+     * get the length of a column's values once decompressed, which is the
+     * length of the plain values unless the column is encoded.
+     */
+    int getDecompressedValueLen(int columnIndex) {
+      if (getColumnEncoding(columnIndex) == RCFileColumnEncoding.PLAIN) {
+        return eachColumnUncompressedValueLen[columnIndex];
+      }
+      return eachColumnEncodedValueLen[columnIndex];
+    }
+
+    void setColumnStats(ColumnStats stats, int columnIndex) {
+      if (columnStats == null) {
+        columnStats = new ColumnStats[columnNumber];
+      }
+      columnStats[columnIndex] = stats;
+    }
+
+    int getNumberRows() {
+      return numberRows;
+    }
+
+    /**
+     * get the statistics of a column in this split.
+     * 
+     * @return the column's statistics, or null if the file does not record
+     *         any
+     */
+    ColumnStats getColumnStats(int columnIndex) {
+      if (!hasColumnStats || columnIndex < 0 || columnIndex >= columnNumber) {
+        return null;
+      }
+      return columnStats[columnIndex];
+    }
+
     @Override
     public void readFields(DataInput in) throws IOException {
       eachColumnValueLen = new int[columnNumber];
@@ -246,6 +384,29 @@ public class RCFile {
         }
         allCellValLenBuffer[i].write(in, bufLen);
       }
+      if (hasColumnStats) {
+        for (int i = 0; i < columnNumber; i++) {
+          if (columnStats == null) {
+            columnStats = new ColumnStats[columnNumber];
+          }
+          if (columnStats[i] == null) {
+            columnStats[i] = new ColumnStats();
+          }
+          columnStats[i].readFields(in);
+        }
+      }
+      if (hasColumnEncodings) {
+        if (eachColumnEncoding == null) {
+          eachColumnEncoding = new byte[columnNumber];
+          eachColumnEncodedValueLen = new int[columnNumber];
+        }
+        for (int i = 0; i < columnNumber; i++) {
+          eachColumnEncoding[i] = in.readByte();
+          if (eachColumnEncoding[i] != RCFileColumnEncoding.PLAIN) {
+            eachColumnEncodedValueLen[i] = WritableUtils.readVInt(in);
+          }
+        }
+      }
     }
 
     @Override
@@ -260,6 +421,19 @@ public class RCFile {
         WritableUtils.writeVLong(out, bufLen);
         out.write(colRowsLenBuf.getData(), 0, bufLen);
       }
+      if (hasColumnStats) {
+        for (int i = 0; i < eachColumnValueLen.length; i++) {
+          columnStats[i].write(out);
+        }
+      }
+      if (hasColumnEncodings) {
+        for (int i = 0; i < eachColumnValueLen.length; i++) {
+          out.writeByte(eachColumnEncoding[i]);
+          if (eachColumnEncoding[i] != RCFileColumnEncoding.PLAIN) {
+            WritableUtils.writeVInt(out, eachColumnEncodedValueLen[i]);
+          }
+        }
+      }
     }
 
     /**
@@ -277,9 +451,373 @@ public class RCFile {
         ret += WritableUtils.getVIntSize(allCellValLenBuffer[i].getLength());
         ret += allCellValLenBuffer[i].getLength();
       }
+      if (hasColumnStats) {
+        for (int i = 0; i < eachColumnValueLen.length; i++) {
+          ret += columnStats[i].getSize();
+        }
+      }
+      if (hasColumnEncodings) {
+        for (int i = 0; i < eachColumnValueLen.length; i++) {
+          ret += 1;
+          if (eachColumnEncoding[i] != RCFileColumnEncoding.PLAIN) {
+            ret += WritableUtils.getVIntSize(eachColumnEncodedValueLen[i]);
+          }
+        }
+      }
+
+      return ret;
+    }
+  }
+
+  /**
+   * ColumnStats summarizes the values of one column in a row split, so that
+   * readers can tell from the key part alone whether any row of the split can
+   * satisfy a predicate. Its on-disk layout is as below:
+   * <ul>
+   * <li>number of null values(vint)</li>
+   * <li>a flag byte, bit 0 set if the byte range follows, bit 1 set if the
+   * number range follows</li>
+   * <li>smallest and largest value in unsigned lexicographic byte order, each
+   * as length(vint) followed by the bytes</li>
+   * <li>smallest and largest value parsed as a number, each as a double</li>
+   * </ul>
+   * Null values are excluded from both ranges. The byte range is only kept if
+   * every value is at most {@link #MAX_VALUE_LENGTH} bytes long, and the number
+   * range only if every value parses as a number.
+   */
+  static class ColumnStats {
+
+    static final int MAX_VALUE_LENGTH = 256;
+
+    private static final byte HAS_BYTE_RANGE = 1;
+    private static final byte HAS_NUMBER_RANGE = 2;
+
+    private int nullCount = 0;
+    private int valueCount = 0;
+
+    private boolean byteRangeValid = true;
+    private byte[] minBytes = new byte[16];
+    private int minLength = 0;
+    private byte[] maxBytes = new byte[16];
+    private int maxLength = 0;
+
+    private boolean numberRangeValid = true;
+    private double minNumber = 0;
+    private double maxNumber = 0;
+
+    void reset() {
+      nullCount = 0;
+      valueCount = 0;
+      byteRangeValid = true;
+      minLength = 0;
+      maxLength = 0;
+      numberRangeValid = true;
+      minNumber = 0;
+      maxNumber = 0;
+    }
+
+    void addNull() {
+      nullCount++;
+    }
+
+    void addValue(byte[] data, int start, int length) {
+      if (byteRangeValid) {
+        if (length > MAX_VALUE_LENGTH) {
+          byteRangeValid = false;
+        } else {
+          if (valueCount == 0
+              || compareBytes(data, start, length, minBytes, 0, minLength) < 0) {
+            minBytes = copyBytes(data, start, length, minBytes);
+            minLength = length;
+          }
+          if (valueCount == 0
+              || compareBytes(data, start, length, maxBytes, 0, maxLength) > 0) {
+            maxBytes = copyBytes(data, start, length, maxBytes);
+            maxLength = length;
+          }
+        }
+      }
+      if (numberRangeValid) {
+        double number = parseNumber(data, start, length);
+        if (Double.isNaN(number)) {
+          numberRangeValid = false;
+        } else {
+          if (valueCount == 0 || number < minNumber) {
+            minNumber = number;
+          }
+          if (valueCount == 0 || number > maxNumber) {
+            maxNumber = number;
+          }
+        }
+      }
+      valueCount++;
+    }
+
+    int getNullCount() {
+      return nullCount;
+    }
+
+    boolean hasByteRange() {
+      return valueCount > 0 && byteRangeValid;
+    }
+
+    boolean hasNumberRange() {
+      return valueCount > 0 && numberRangeValid;
+    }
+
+    /**
+     * compare the given bytes with the smallest value of this column.
+     */
+    int compareToMin(byte[] data, int start, int length) {
+      return compareBytes(data, start, length, minBytes, 0, minLength);
+    }
+
+    /**
+     * compare the given bytes with the largest value of this column.
+     */
+    int compareToMax(byte[] data, int start, int length) {
+      return compareBytes(data, start, length, maxBytes, 0, maxLength);
+    }
+
+    double getMinNumber() {
+      return minNumber;
+    }
+
+    double getMaxNumber() {
+      return maxNumber;
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      nullCount = WritableUtils.readVInt(in);
+      byte flags = in.readByte();
+      byteRangeValid = (flags & HAS_BYTE_RANGE) != 0;
+      numberRangeValid = (flags & HAS_NUMBER_RANGE) != 0;
+      valueCount = (flags == 0) ? 0 : 1;
+      if (byteRangeValid) {
+        minLength = WritableUtils.readVInt(in);
+        if (minBytes.length < minLength) {
+          minBytes = new byte[minLength];
+        }
+        in.readFully(minBytes, 0, minLength);
+        maxLength = WritableUtils.readVInt(in);
+        if (maxBytes.length < maxLength) {
+          maxBytes = new byte[maxLength];
+        }
+        in.readFully(maxBytes, 0, maxLength);
+      }
+      if (numberRangeValid) {
+        minNumber = in.readDouble();
+        maxNumber = in.readDouble();
+      }
+    }
 
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, nullCount);
+      byte flags = 0;
+      if (hasByteRange()) {
+        flags |= HAS_BYTE_RANGE;
+      }
+      if (hasNumberRange()) {
+        flags |= HAS_NUMBER_RANGE;
+      }
+      out.writeByte(flags);
+      if (hasByteRange()) {
+        WritableUtils.writeVInt(out, minLength);
+        out.write(minBytes, 0, minLength);
+        WritableUtils.writeVInt(out, maxLength);
+        out.write(maxBytes, 0, maxLength);
+      }
+      if (hasNumberRange()) {
+        out.writeDouble(minNumber);
+        out.writeDouble(maxNumber);
+      }
+    }
+
+    /**
+     * get number of bytes to store the statistics.
+     */
+    public int getSize() {
+      int ret = WritableUtils.getVIntSize(nullCount) + 1;
+      if (hasByteRange()) {
+        ret += WritableUtils.getVIntSize(minLength) + minLength;
+        ret += WritableUtils.getVIntSize(maxLength) + maxLength;
+      }
+      if (hasNumberRange()) {
+        ret += 16;
+      }
       return ret;
     }
+
+    private static int compareBytes(byte[] b1, int s1, int l1, byte[] b2,
+        int s2, int l2) {
+      return WritableComparator.compareBytes(b1, s1, l1, b2, s2, l2);
+    }
+
+    private static byte[] copyBytes(byte[] data, int start, int length,
+        byte[] to) {
+      if (to.length < length) {
+        to = new byte[Math.max(length, to.length * 2)];
+      }
+      System.arraycopy(data, start, to, 0, length);
+      return to;
+    }
+
+    /**
+     * parse the text form of a number, returning NaN if it is not one. Plain
+     * integers are parsed in place, anything else goes through
+     * {@link Double#parseDouble(String)}.
+     */
+    private static double parseNumber(byte[] data, int start, int length) {
+      if (length == 0) {
+        return Double.NaN;
+      }
+      int i = start;
+      int end = start + length;
+      boolean negative = data[i] == '-';
+      if (negative || data[i] == '+') {
+        i++;
+      }
+      if (i < end && end - i <= 18) {
+        long value = 0;
+        for (; i < end; i++) {
+          int digit = data[i] - '0';
+          if (digit < 0 || digit > 9) {
+            break;
+          }
+          value = value * 10 + digit;
+        }
+        if (i == end) {
+          return negative ? -value : value;
+        }
+      }
+      try {
+        return Double.parseDouble(Text.decode(data, start, length));
+      } catch (NumberFormatException e) {
+        return Double.NaN;
+      } catch (CharacterCodingException e) {
+        return Double.NaN;
+      }
+    }
+  }
+
+  /**
+   * RowGroupIndex lists where each row split of a file starts, so that readers
+   * can seek to a row split directly and splits can be cut along row split
+   * boundaries. It is written as a footer after the last record:
+   * <ul>
+   * <li>index escape, an int of {@link #INDEX_ESCAPE} in place of a record
+   * length</li>
+   * <li>number of row splits(vint)</li>
+   * <li>for each row split, its offset minus the offset of the previous row
+   * split(vlong), followed by its number of rows(vint)</li>
+   * <li>position of the index escape, as a long in the last 8 bytes of the
+   * file</li>
+   * </ul>
+   * Each row split is preceded by a sync mark, and its offset is the position
+   * of that sync mark. The first row number of each row split is not stored
+   * but summed up from the row counts when the index is read.
+   */
+  public static class RowGroupIndex {
+
+    static final int INDEX_ESCAPE = -2;
+    // the index position at the end of the file
+    static final int TRAILER_SIZE = 8;
+
+    private int size = 0;
+    private long[] offsets = new long[16];
+    private int[] rowCounts = new int[16];
+    private long[] firstRows = new long[16];
+    // where the last row split ends, which is where the index starts
+    private long end;
+
+    void add(long offset, int rowCount) {
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+        rowCounts = Arrays.copyOf(rowCounts, size * 2);
+        firstRows = Arrays.copyOf(firstRows, size * 2);
+      }
+      offsets[size] = offset;
+      rowCounts[size] = rowCount;
+      firstRows[size] = size == 0 ? 0 : firstRows[size - 1]
+          + rowCounts[size - 1];
+      size++;
+    }
+
+    /** Returns the number of row splits in the file. */
+    public int getRowGroupCount() {
+      return size;
+    }
+
+    /** Returns the position of the sync mark before the given row split. */
+    public long getOffset(int rowGroup) {
+      return offsets[rowGroup];
+    }
+
+    public int getRowCount(int rowGroup) {
+      return rowCounts[rowGroup];
+    }
+
+    /** Returns the number of rows in the file before the given row split. */
+    public long getFirstRow(int rowGroup) {
+      return firstRows[rowGroup];
+    }
+
+    /** Returns the position right after the last row split. */
+    public long getEnd() {
+      return end;
+    }
+
+    /**
+     * Returns the first row split starting at or after the given position, or
+     * the number of row splits if there is none.
+     */
+    public int findRowGroup(long position) {
+      int index = Arrays.binarySearch(offsets, 0, size, position);
+      return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Returns the row split holding the given position, which is the last one
+     * starting at or before it, or -1 if the position is in the header.
+     */
+    public int findRowGroupContaining(long position) {
+      return findRowGroup(position + 1) - 1;
+    }
+
+    /**
+     * Returns the offset of the first row split starting at or after the
+     * given position, or {@link #getEnd()} if there is none.
+     */
+    public long getRowGroupStart(long position) {
+      int rowGroup = findRowGroup(position);
+      return rowGroup < size ? offsets[rowGroup] : end;
+    }
+
+    void write(DataOutput out, long indexPosition) throws IOException {
+      out.writeInt(INDEX_ESCAPE);
+      WritableUtils.writeVInt(out, size);
+      long previous = 0;
+      for (int i = 0; i < size; i++) {
+        WritableUtils.writeVLong(out, offsets[i] - previous);
+        WritableUtils.writeVInt(out, rowCounts[i]);
+        previous = offsets[i];
+      }
+      out.writeLong(indexPosition);
+    }
+
+    void readFields(DataInput in, long indexPosition) throws IOException {
+      if (in.readInt() != INDEX_ESCAPE) {
+        throw new IOException("Row group index not found at " + indexPosition);
+      }
+      size = 0;
+      int count = WritableUtils.readVInt(in);
+      long offset = 0;
+      for (int i = 0; i < count; i++) {
+        offset += WritableUtils.readVLong(in);
+        add(offset, WritableUtils.readVInt(in));
+      }
+      end = indexPosition;
+    }
   }
 
   /**
@@ -308,27 +846,48 @@ public class RCFile {
       @Override
       public byte[] decompress() throws IOException {
 
-        if (decompressedFlag[index] || codec == null) {
+        if (decompressedFlag[index]) {
           return loadedColumnsValueBuffer[index].getData();
         }
 
-        NonSyncDataOutputBuffer compressedData = loadedColumnsValueBuffer[index];
-        NonSyncDataOutputBuffer decompressedData = new NonSyncDataOutputBuffer();
-        decompressBuffer.reset();
-        DataInputStream valueIn = new DataInputStream(deflatFilter);
-        deflatFilter.resetState();
-        decompressBuffer.reset(compressedData.getData(),
-            keyBuffer.eachColumnValueLen[colIndex]);
-        decompressedData.write(valueIn,
-            keyBuffer.eachColumnUncompressedValueLen[colIndex]);
-        loadedColumnsValueBuffer[index] = decompressedData;
+        // the raw bytes and a spare buffer take turns holding the result of
+        // each step, so that no buffer is allocated per row split
+        NonSyncDataOutputBuffer loadedData = loadedColumnsValueBuffer[index];
+        NonSyncDataOutputBuffer spareData = spareColumnsValueBuffer[index];
+        int loadedLength = keyBuffer.getDecompressedValueLen(colIndex);
+        if (codec != null) {
+          spareData.reset();
+          decompressBuffer.reset();
+          DataInputStream valueIn = new DataInputStream(deflatFilter);
+          deflatFilter.resetState();
+          decompressBuffer.reset(loadedData.getData(),
+              keyBuffer.eachColumnValueLen[colIndex]);
+          spareData.write(valueIn, loadedLength);
+          NonSyncDataOutputBuffer decompressedData = spareData;
+          spareData = loadedData;
+          loadedData = decompressedData;
+        }
+
+        byte encoding = keyBuffer.getColumnEncoding(colIndex);
+        if (encoding != RCFileColumnEncoding.PLAIN) {
+          spareData.reset();
+          RCFileColumnEncoding.decode(encoding, loadedData.getData(),
+              loadedLength, keyBuffer.numberRows, spareData);
+          NonSyncDataOutputBuffer decodedData = spareData;
+          spareData = loadedData;
+          loadedData = decodedData;
+        }
+        loadedColumnsValueBuffer[index] = loadedData;
+        spareColumnsValueBuffer[index] = spareData;
         decompressedFlag[index] = true;
-        return decompressedData.getData();
+        return loadedData.getData();
       }
     }
 
     // used to load columns' value into memory
     private NonSyncDataOutputBuffer[] loadedColumnsValueBuffer = null;
+    // used by decompress() to hold the decompressed or decoded columns
+    private NonSyncDataOutputBuffer[] spareColumnsValueBuffer = null;
     private boolean[] decompressedFlag = null;
     private LazyDecompressionCallbackImpl[] lazyDecompressCallbackObjs = null;
 
@@ -381,6 +940,8 @@ public class RCFile {
       }
       loadedColumnsValueBuffer = new NonSyncDataOutputBuffer[columnNumber
           - skipped];
+      spareColumnsValueBuffer = new NonSyncDataOutputBuffer[columnNumber
+          - skipped];
       decompressedFlag = new boolean[columnNumber - skipped];
       lazyDecompressCallbackObjs = new LazyDecompressionCallbackImpl[columnNumber
           - skipped];
@@ -396,13 +957,11 @@ public class RCFile {
           continue;
         }
         loadedColumnsValueBuffer[readIndex] = new NonSyncDataOutputBuffer();
-        if (codec != null) {
-          decompressedFlag[readIndex] = false;
-          lazyDecompressCallbackObjs[readIndex] = new LazyDecompressionCallbackImpl(
-              readIndex, k);
-        } else {
-          decompressedFlag[readIndex] = true;
-        }
+        spareColumnsValueBuffer[readIndex] = new NonSyncDataOutputBuffer();
+        // encoded columns need decoding even if the file is not compressed
+        decompressedFlag[readIndex] = codec == null;
+        lazyDecompressCallbackObjs[readIndex] = new LazyDecompressionCallbackImpl(
+            readIndex, k);
         readIndex++;
       }
     }
@@ -432,9 +991,8 @@ public class RCFile {
         NonSyncDataOutputBuffer valBuf = loadedColumnsValueBuffer[addIndex];
         valBuf.reset();
         valBuf.write(in, vaRowsLen);
-        if (codec != null) {
-          decompressedFlag[addIndex] = false;
-        }
+        decompressedFlag[addIndex] = codec == null
+            && keyBuffer.getColumnEncoding(i) == RCFileColumnEncoding.PLAIN;
         addIndex++;
       }
 
@@ -454,10 +1012,22 @@ public class RCFile {
       decompressBuffer.reset();
     }
 
+    /** Decompress all loaded columns now rather than on first access. */
+    void decompressAll() throws IOException {
+      for (int i = 0; i < lazyDecompressCallbackObjs.length; i++) {
+        if (!decompressedFlag[i]) {
+          lazyDecompressCallbackObjs[i].decompress();
+        }
+      }
+    }
+
     public void close() {
       for (NonSyncDataOutputBuffer element : loadedColumnsValueBuffer) {
         IOUtils.closeStream(element);
       }
+      for (NonSyncDataOutputBuffer element : spareColumnsValueBuffer) {
+        IOUtils.closeStream(element);
+      }
       if (codec != null) {
         IOUtils.closeStream(decompressBuffer);
         CodecPool.returnDecompressor(valDecompressor);
@@ -519,6 +1089,31 @@ public class RCFile {
 
     private final int[] columnValuePlainLength;
 
+    // whether each row split records its columns' statistics
+    private final boolean writeColumnStats;
+    // the serialized form of a null value, which is left out of the statistics
+    private final byte[] nullSequence;
+    // whether the serialized values are escaped, in which case the statistics
+    // are taken on the unescaped values
+    private final boolean escaped;
+    private final byte escapeChar;
+    // whether each column of a row split is encoded before compression
+    private final boolean writeColumnEncodings;
+    private NonSyncDataOutputBuffer[] encodedColumnBuffer;
+    // where each row split starts, null if no index footer is written
+    private RowGroupIndex rowGroupIndex;
+
+    // column i is encoded and compressed by worker i % compressThreads, with
+    // the encoder and compressor of that worker
+    private final int compressThreads;
+    private RCFileColumnEncoding[] columnEncoders;
+    private Compressor[] compressors;
+    private ExecutorService compressPool = null;
+    // the result of encoding and compressing each column of a row split
+    private NonSyncDataOutputBuffer[] columnOutput;
+    private byte[] columnEncoding;
+    private int[] columnEncodedLength;
+
     KeyBuffer key = null;
     ValueBuffer value = null;
 
@@ -541,14 +1136,40 @@ public class RCFile {
       int runLength = 0;
       int prevValueLength = -1;
 
+      // statistics of the buffered values, null if not recorded
+      ColumnStats stats;
+      // the last value unescaped for the statistics
+      byte[] unescapedValue;
+      // each buffered value's length, null unless the column is encoded
+      int[] valueLengths;
+      int valueNumber = 0;
+
       ColumnBuffer() throws IOException {
         columnValBuffer = new NonSyncDataOutputBuffer();
         valLenBuffer = new NonSyncDataOutputBuffer();
+        if (writeColumnStats) {
+          stats = new ColumnStats();
+        }
+        if (writeColumnEncodings) {
+          valueLengths = new int[1024];
+        }
       }
 
       public void append(BytesRefWritable data) throws IOException {
+        int currentStart = columnValBuffer.getLength();
         data.writeDataTo(columnValBuffer);
         int currentLen = data.getLength();
+        if (stats != null) {
+          updateStats(columnValBuffer.getData(), currentStart, currentLen);
+        }
+        if (valueLengths != null) {
+          if (valueNumber == valueLengths.length) {
+            int[] newValueLengths = new int[valueLengths.length * 2];
+            System.arraycopy(valueLengths, 0, newValueLengths, 0, valueNumber);
+            valueLengths = newValueLengths;
+          }
+          valueLengths[valueNumber++] = currentLen;
+        }
 
         if (prevValueLength < 0) {
           startNewGroup(currentLen);
@@ -563,6 +1184,36 @@ public class RCFile {
         }
       }
 
+      private void updateStats(byte[] buffer, int start, int length) {
+        if (length == nullSequence.length
+            && WritableComparator.compareBytes(buffer, start, length,
+            nullSequence, 0, nullSequence.length) == 0) {
+          stats.addNull();
+        } else if (escaped) {
+          addUnescapedValue(buffer, start, length);
+        } else {
+          stats.addValue(buffer, start, length);
+        }
+      }
+
+      /**
+       * add a value to the statistics the way LazyString reads it: an escape
+       * char stands for the byte after it, unless it is the last byte.
+       */
+      private void addUnescapedValue(byte[] buffer, int start, int length) {
+        if (unescapedValue == null || unescapedValue.length < length) {
+          unescapedValue = new byte[Math.max(length, 16)];
+        }
+        int unescapedLength = 0;
+        for (int i = start; i < start + length; i++) {
+          if (buffer[i] == escapeChar && i < start + length - 1) {
+            i++;
+          }
+          unescapedValue[unescapedLength++] = buffer[i];
+        }
+        stats.addValue(unescapedValue, 0, unescapedLength);
+      }
+
       private void startNewGroup(int currentLen) {
         prevValueLength = currentLen;
         runLength = 0;
@@ -574,6 +1225,10 @@ public class RCFile {
         columnValBuffer.reset();
         prevValueLength = -1;
         runLength = 0;
+        if (stats != null) {
+          stats.reset();
+        }
+        valueNumber = 0;
       }
 
       public void flushGroup() throws IOException {
@@ -667,10 +1322,38 @@ public class RCFile {
 
       columnValuePlainLength = new int[columnNumber];
 
+      writeColumnEncodings = conf.getBoolean(COLUMN_ENCODING_CONF_STR, false);
+      writeColumnStats = writeColumnEncodings
+          || conf.getBoolean(COLUMN_STATS_CONF_STR, false);
+      nullSequence = conf.get(Constants.SERIALIZATION_NULL_FORMAT, "\\N")
+          .getBytes("UTF-8");
+      String escapeProperty = conf.get(Constants.ESCAPE_CHAR, "");
+      escaped = escapeProperty.length() > 0;
+      escapeChar = LazySimpleSerDe.getByte(escapeProperty, (byte) '\\');
+      if (writeColumnEncodings
+          && conf.getBoolean(ROW_GROUP_INDEX_CONF_STR, false)) {
+        rowGroupIndex = new RowGroupIndex();
+      }
+
       columnBuffers = new ColumnBuffer[columnNumber];
       for (int i = 0; i < columnNumber; i++) {
         columnBuffers[i] = new ColumnBuffer();
       }
+      compressThreads = Math.max(1, Math.min(columnNumber, conf.getInt(
+          COMPRESS_THREADS_CONF_STR, 1)));
+      if (writeColumnEncodings) {
+        columnEncoders = new RCFileColumnEncoding[compressThreads];
+        for (int i = 0; i < compressThreads; i++) {
+          columnEncoders[i] = new RCFileColumnEncoding();
+        }
+        encodedColumnBuffer = new NonSyncDataOutputBuffer[columnNumber];
+        for (int i = 0; i < columnNumber; i++) {
+          encodedColumnBuffer[i] = new NonSyncDataOutputBuffer();
+        }
+      }
+      columnOutput = new NonSyncDataOutputBuffer[columnNumber];
+      columnEncoding = new byte[columnNumber];
+      columnEncodedLength = new int[columnNumber];
 
       init(name, conf, fs.create(name, true, bufferSize, replication,
           blockSize, progress), codec, metadata);
@@ -678,12 +1361,23 @@ public class RCFile {
       writeFileHeader();
       finalizeFileHeader();
       key = new KeyBuffer(columnNumber);
+      key.hasColumnStats = writeColumnStats;
+      key.hasColumnEncodings = writeColumnEncodings;
       value = new ValueBuffer(key);
     }
 
     /** Write the initial part of file header. */
     void initializeFileHeader() throws IOException {
-      out.write(VERSION);
+      out.write(VERSION, 0, VERSION.length - 1);
+      if (rowGroupIndex != null) {
+        out.write(VERSION_WITH_ROW_GROUP_INDEX);
+      } else if (writeColumnEncodings) {
+        out.write(VERSION_WITH_COLUMN_ENCODINGS);
+      } else if (writeColumnStats) {
+        out.write(VERSION_WITH_COLUMN_STATS);
+      } else {
+        out.write(VERSION_WITH_METADATA);
+      }
     }
 
     /** Write the final part of file header. */
@@ -718,7 +1412,11 @@ public class RCFile {
       this.metadata = metadata;
       if (this.codec != null) {
         ReflectionUtils.setConf(codec, this.conf);
-        compressor = CodecPool.getCompressor(codec);
+        compressors = new Compressor[compressThreads];
+        for (int i = 0; i < compressThreads; i++) {
+          compressors[i] = CodecPool.getCompressor(codec);
+        }
+        compressor = compressors[0];
 
         compressionBuffer = new NonSyncDataOutputBuffer[columnNumber];
         deflateFilter = new CompressionOutputStream[columnNumber];
@@ -726,7 +1424,7 @@ public class RCFile {
         for (int i = 0; i < columnNumber; i++) {
           compressionBuffer[i] = new NonSyncDataOutputBuffer();
           deflateFilter[i] = codec.createOutputStream(compressionBuffer[i],
-              compressor);
+              compressors[i % compressThreads]);
           deflateOut[i] = new DataOutputStream(new BufferedOutputStream(
               deflateFilter[i]));
         }
@@ -811,33 +1509,30 @@ public class RCFile {
       key.numberRows = bufferedRecords;
       value.keyBuffer = key;
 
+      if (compressThreads > 1) {
+        compressColumnsInParallel();
+      } else {
+        compressColumns(0);
+      }
+
       int valueLength = 0;
       for (int columnIndex = 0; columnIndex < columnNumber; columnIndex++) {
         ColumnBuffer currentBuf = columnBuffers[columnIndex];
         currentBuf.flushGroup();
-
-        NonSyncDataOutputBuffer columnValue = currentBuf.columnValBuffer;
-
-        if (isCompressed()) {
-          compressionBuffer[columnIndex].reset();
-          deflateFilter[columnIndex].resetState();
-          deflateOut[columnIndex].write(columnValue.getData(), 0, columnValue
-              .getLength());
-          deflateOut[columnIndex].flush();
-          deflateFilter[columnIndex].finish();
-          int colLen = compressionBuffer[columnIndex].getLength();
-          key.setColumnLenInfo(colLen, currentBuf.valLenBuffer,
-              columnValuePlainLength[columnIndex], columnIndex);
-          value.setColumnValueBuffer(compressionBuffer[columnIndex],
-              columnIndex);
-          valueLength += colLen;
-        } else {
-          int colLen = columnValuePlainLength[columnIndex];
-          key.setColumnLenInfo(colLen, currentBuf.valLenBuffer, colLen,
-              columnIndex);
-          value.setColumnValueBuffer(columnValue, columnIndex);
-          valueLength += colLen;
+        if (writeColumnStats) {
+          key.setColumnStats(currentBuf.stats, columnIndex);
+        }
+        if (writeColumnEncodings) {
+          key.setColumnEncoding(columnEncoding[columnIndex],
+              columnEncodedLength[columnIndex], columnIndex);
         }
+
+        NonSyncDataOutputBuffer columnValue = columnOutput[columnIndex];
+        int colLen = columnValue.getLength();
+        key.setColumnLenInfo(colLen, currentBuf.valLenBuffer,
+            columnValuePlainLength[columnIndex], columnIndex);
+        value.setColumnValueBuffer(columnValue, columnIndex);
+        valueLength += colLen;
         columnValuePlainLength[columnIndex] = 0;
       }
 
@@ -847,7 +1542,13 @@ public class RCFile {
       }
 
       // Write the record out
-      checkAndWriteSync(); // sync
+      if (rowGroupIndex != null) {
+        // every row split starts at a sync mark, which the index points at
+        sync();
+        rowGroupIndex.add(lastSyncPos - SYNC_SIZE, key.numberRows);
+      } else {
+        checkAndWriteSync(); // sync
+      }
       out.writeInt(keyLength + valueLength); // total record length
       out.writeInt(keyLength); // key portion length
       if (!isCompressed()) {
@@ -872,6 +1573,89 @@ public class RCFile {
       columnBufferSize = 0;
     }
 
+    /**
+     * Encode and compress the columns of the given worker, which are every
+     * compressThreads-th column starting at the worker's number.
+     */
+    private void compressColumns(int worker) throws IOException {
+      for (int columnIndex = worker; columnIndex < columnNumber;
+          columnIndex += compressThreads) {
+        ColumnBuffer currentBuf = columnBuffers[columnIndex];
+        NonSyncDataOutputBuffer columnValue = currentBuf.columnValBuffer;
+        if (writeColumnEncodings) {
+          NonSyncDataOutputBuffer encodedValue = encodedColumnBuffer[columnIndex];
+          encodedValue.reset();
+          byte encoding = columnEncoders[worker].encode(columnValue.getData(),
+              currentBuf.valueLengths, currentBuf.valueNumber, encodedValue);
+          columnEncoding[columnIndex] = encoding;
+          columnEncodedLength[columnIndex] = encodedValue.getLength();
+          if (encoding != RCFileColumnEncoding.PLAIN) {
+            columnValue = encodedValue;
+          }
+        }
+
+        if (isCompressed()) {
+          compressionBuffer[columnIndex].reset();
+          deflateFilter[columnIndex].resetState();
+          deflateOut[columnIndex].write(columnValue.getData(), 0, columnValue
+              .getLength());
+          deflateOut[columnIndex].flush();
+          deflateFilter[columnIndex].finish();
+          columnValue = compressionBuffer[columnIndex];
+        }
+        columnOutput[columnIndex] = columnValue;
+      }
+    }
+
+    private void compressColumnsInParallel() throws IOException {
+      if (compressPool == null) {
+        compressPool = Executors.newFixedThreadPool(compressThreads - 1,
+            new ThreadFactory() {
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RCFile compressor");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+      }
+
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      for (int i = 1; i < compressThreads; i++) {
+        final int worker = i;
+        results.add(compressPool.submit(new Callable<Object>() {
+          public Object call() throws IOException {
+            compressColumns(worker);
+            return null;
+          }
+        }));
+      }
+      // the calling thread is the first worker
+      IOException error = null;
+      try {
+        compressColumns(0);
+      } catch (IOException e) {
+        error = e;
+      }
+      for (Future<Object> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          if (error == null) {
+            error = e.getCause() instanceof IOException ? (IOException) e
+                .getCause() : new IOException("Failed to compress a column", e
+                .getCause());
+          }
+        } catch (InterruptedException e) {
+          if (error == null) {
+            error = new IOException("Interrupted while compressing columns");
+          }
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+
     private void clearColumnBuffers() throws IOException {
       for (int i = 0; i < columnNumber; i++) {
         columnBuffers[i].clear();
@@ -879,30 +1663,43 @@ public class RCFile {
     }
 
     public synchronized void close() throws IOException {
-      if (bufferedRecords > 0) {
-        flushRecords();
-      }
-      clearColumnBuffers();
+      try {
+        if (bufferedRecords > 0) {
+          flushRecords();
+        }
+        clearColumnBuffers();
 
-      if (isCompressed()) {
-        for (int i = 0; i < columnNumber; i++) {
-          deflateFilter[i].close();
-          IOUtils.closeStream(deflateOut[i]);
+        if (isCompressed()) {
+          for (int i = 0; i < columnNumber; i++) {
+            deflateFilter[i].close();
+            IOUtils.closeStream(deflateOut[i]);
+          }
+          keyDeflateFilter.close();
+          IOUtils.closeStream(keyDeflateOut);
+          CodecPool.returnCompressor(keyCompressor);
+          keyCompressor = null;
+          for (Compressor columnCompressor : compressors) {
+            CodecPool.returnCompressor(columnCompressor);
+          }
+          compressor = null;
         }
-        keyDeflateFilter.close();
-        IOUtils.closeStream(keyDeflateOut);
-        CodecPool.returnCompressor(keyCompressor);
-        keyCompressor = null;
-        CodecPool.returnCompressor(compressor);
-        compressor = null;
-      }
 
-      if (out != null) {
+        if (out != null) {
+          if (rowGroupIndex != null) {
+            rowGroupIndex.write(out, out.getPos());
+          }
 
-        // Close the underlying stream if we own it...
-        out.flush();
-        out.close();
-        out = null;
+          // Close the underlying stream if we own it...
+          out.flush();
+          out.close();
+          out = null;
+        }
+      } finally {
+        // the threads would outlive a writer that fails to flush
+        if (compressPool != null) {
+          compressPool.shutdown();
+          compressPool = null;
+        }
       }
     }
   }
@@ -913,6 +1710,7 @@ public class RCFile {
    */
   public static class Reader {
 
+    private final FileSystem fs;
     private final Path file;
     private final FSDataInputStream in;
 
@@ -933,7 +1731,7 @@ public class RCFile {
 
     private final Configuration conf;
 
-    private final ValueBuffer currentValue;
+    private ValueBuffer currentValue;
 
     private boolean[] skippedColIDs = null;
 
@@ -945,7 +1743,7 @@ public class RCFile {
 
     private int loadColumnNum;
 
-    private int passedRowsNum = 0;
+    private long passedRowsNum = 0;
 
     private int[] columnRowReadIndex = null;
     private final NonSyncDataInputBuffer[] colValLenBufferReadIn;
@@ -958,6 +1756,32 @@ public class RCFile {
 
     int[] prjColIDs = null; // selected column IDs
 
+    // decides from the column statistics which row splits can be skipped
+    private RCFileRowGroupFilter rowGroupFilter = null;
+    // row splits are not skipped once a sync mark at or past this is seen
+    private long rowGroupFilterEnd = Long.MAX_VALUE;
+
+    // read from the end of the file on first use
+    private RowGroupIndex rowGroupIndex = null;
+
+    // how many row splits are read ahead on a background thread
+    private final int readAheadDepth;
+    // the running read ahead, null while reading on the calling thread
+    private ReadAhead readAhead = null;
+    // the row split being read which came from the read ahead
+    private PrefetchedRowGroup currentRowGroup = null;
+    // set once the read ahead stopped at the end of the file or split, until
+    // the next seek
+    private boolean readAheadDone = false;
+    // the key and value used while reading on the calling thread
+    private final KeyBuffer syncKey;
+    private final ValueBuffer syncValue;
+    // the row splits handed between the read ahead and the caller
+    private BlockingQueue<PrefetchedRowGroup> freeRowGroups = null;
+    private PrefetchedRowGroup[] prefetchedRowGroups = null;
+    // the read ahead does not start reading a row split at or past this
+    private long readAheadEnd = Long.MAX_VALUE;
+
     /** Create a new RCFile reader. */
     public Reader(FileSystem fs, Path file, Configuration conf) throws IOException {
       this(fs, file, conf.getInt("io.file.buffer.size", 4096), conf, 0, fs
@@ -968,6 +1792,7 @@ public class RCFile {
     public Reader(FileSystem fs, Path file, int bufferSize, Configuration conf,
         long start, long length) throws IOException {
       conf.setInt("io.file.buffer.size", bufferSize);
+      this.fs = fs;
       this.file = file;
       in = openFile(fs, file, bufferSize, length);
       this.conf = conf;
@@ -1052,6 +1877,9 @@ public class RCFile {
 
       currentKey = createKeyBuffer();
       currentValue = new ValueBuffer(null, columnNumber, skippedColIDs, codec);
+      syncKey = currentKey;
+      syncValue = currentValue;
+      readAheadDepth = conf.getInt(READ_AHEAD_CONF_STR, 0);
     }
     
     /**
@@ -1127,8 +1955,15 @@ public class RCFile {
       }
     }
 
-    /** Return the current byte position in the input file. */
+    /**
+     * Return the current byte position in the input file. While reading
+     * ahead, this is the end of the row split being read.
+     */
     public synchronized long getPosition() throws IOException {
+      if (readAhead != null) {
+        return currentRowGroup != null ? currentRowGroup.endPosition
+            : readAhead.startPosition;
+      }
       return in.getPos();
     }
 
@@ -1143,11 +1978,13 @@ public class RCFile {
      * positions, use {@link RCFile.Reader#sync(long)}.
      */
     public synchronized void seek(long position) throws IOException {
+      stopReadAhead();
       in.seek(position);
     }
 
     /** Seek to the next sync mark past a given position. */
     public synchronized void sync(long position) throws IOException {
+      stopReadAhead();
       if (position + SYNC_SIZE >= end) {
         seek(end);
         return;
@@ -1195,7 +2032,298 @@ public class RCFile {
     }
 
     private KeyBuffer createKeyBuffer() {
-      return new KeyBuffer(columnNumber);
+      KeyBuffer keyBuffer = new KeyBuffer(columnNumber);
+      keyBuffer.hasColumnStats = version >= VERSION_WITH_COLUMN_STATS;
+      keyBuffer.hasColumnEncodings = version >= VERSION_WITH_COLUMN_ENCODINGS;
+      return keyBuffer;
+    }
+
+    /**
+     * Skip the row splits in which no row can pass the given filter, without
+     * reading their values. Only files which record column statistics can be
+     * filtered.
+     * 
+     * @param filter
+     *          the filter consulted for each row split
+     * @param end
+     *          no row split is skipped after a sync mark at or past this
+     *          position, so that a reader stops at the end of its split
+     */
+    public void setRowGroupFilter(RCFileRowGroupFilter filter, long end) {
+      rowGroupFilter = filter;
+      rowGroupFilterEnd = end;
+    }
+
+    /**
+     * Returns the row group index of this file, or null if the file was
+     * written without one. The index is read from the end of the file on
+     * first use.
+     */
+    public synchronized RowGroupIndex getRowGroupIndex() throws IOException {
+      if (rowGroupIndex == null && version >= VERSION_WITH_ROW_GROUP_INDEX) {
+        // the read ahead may be using the stream of the reader
+        long fileLength = fs.getFileStatus(file).getLen();
+        FSDataInputStream indexIn = fs.open(file);
+        try {
+          indexIn.seek(fileLength - RowGroupIndex.TRAILER_SIZE);
+          long indexPosition = indexIn.readLong();
+          indexIn.seek(indexPosition);
+          RowGroupIndex index = new RowGroupIndex();
+          index.readFields(indexIn, indexPosition);
+          rowGroupIndex = index;
+        } finally {
+          indexIn.close();
+        }
+      }
+      return rowGroupIndex;
+    }
+
+    /**
+     * Position the reader at the start of the given row split of the
+     * {@link #getRowGroupIndex()}, or after the last one if the given row
+     * split does not exist. The row numbers returned by
+     * {@link #next(LongWritable)} then count from the start of the file.
+     */
+    public synchronized void seekToRowGroup(int rowGroup) throws IOException {
+      RowGroupIndex index = getRowGroupIndex();
+      if (index == null) {
+        throw new IOException(file + " has no row group index");
+      }
+      if (rowGroup < index.getRowGroupCount()) {
+        seek(index.getOffset(rowGroup));
+        passedRowsNum = index.getFirstRow(rowGroup);
+      } else {
+        seek(index.getEnd());
+        int last = index.getRowGroupCount() - 1;
+        passedRowsNum = last < 0 ? 0 : index.getFirstRow(last)
+            + index.getRowCount(last);
+      }
+      keyInit = false;
+      currentValue.inited = false;
+      readRowsIndexInBuffer = 0;
+      recordsNumInValBuffer = 0;
+    }
+
+    private boolean skipCurrentRowGroup() {
+      if (currentRowGroup != null) {
+        return !currentRowGroup.mayMatch;
+      }
+      return !mayMatch(currentKey, lastSeenSyncPos);
+    }
+
+    private boolean mayMatch(KeyBuffer key, long syncPos) {
+      if (rowGroupFilter == null || !key.hasColumnStats
+          || syncPos >= rowGroupFilterEnd) {
+        return true;
+      }
+      return rowGroupFilter.mayMatch(key);
+    }
+
+    /**
+     * Stop reading ahead once the next row split starts at or past the given
+     * position, usually the end of a split. Later row splits are still read,
+     * but on the calling thread.
+     */
+    public void setReadAheadEnd(long end) {
+      readAheadEnd = end;
+    }
+
+    /**
+     * A row split read, and for the projected columns decompressed, by the
+     * read ahead.
+     */
+    private static class PrefetchedRowGroup {
+      final KeyBuffer key;
+      final ValueBuffer value;
+      int recordLength;
+      int keyLength;
+      long lastSeenSyncPos;
+      boolean syncSeen;
+      // false if the row filter rejects every row of the row split
+      boolean mayMatch;
+      // the stream position right after the row split
+      long endPosition;
+
+      PrefetchedRowGroup(KeyBuffer key, ValueBuffer value) {
+        this.key = key;
+        this.value = value;
+      }
+    }
+
+    // marks the end of the row splits read ahead
+    private static final PrefetchedRowGroup END_OF_READ_AHEAD = new PrefetchedRowGroup(
+        null, null);
+
+    /**
+     * ReadAhead reads the row splits after the current one on a background
+     * thread, and hands them over through a queue. It is the only user of the
+     * input stream while it runs. The row splits are recycled through
+     * {@link Reader#freeRowGroups}, so there are never more than
+     * {@link Reader#readAheadDepth} of them read ahead.
+     */
+    private class ReadAhead implements Runnable {
+
+      final long startPosition;
+      final BlockingQueue<PrefetchedRowGroup> readRowGroups;
+      final Thread thread;
+      volatile boolean stopped = false;
+      volatile Throwable error = null;
+
+      ReadAhead(long startPosition) {
+        this.startPosition = startPosition;
+        // room for every row split and the end mark, so that put never blocks
+        readRowGroups = new ArrayBlockingQueue<PrefetchedRowGroup>(
+            prefetchedRowGroups.length + 1);
+        thread = new Thread(this, "RCFile read ahead " + file);
+        thread.setDaemon(true);
+      }
+
+      @Override
+      public void run() {
+        try {
+          while (!stopped && in.getPos() < readAheadEnd) {
+            PrefetchedRowGroup rowGroup = freeRowGroups.take();
+            if (stopped || !readRowGroup(rowGroup)) {
+              freeRowGroups.put(rowGroup);
+              break;
+            }
+            readRowGroups.put(rowGroup);
+          }
+        } catch (Throwable e) {
+          error = e;
+        } finally {
+          readRowGroups.add(END_OF_READ_AHEAD);
+        }
+      }
+
+      private boolean readRowGroup(PrefetchedRowGroup rowGroup)
+          throws IOException {
+        int recordLength = readRecordLength();
+        if (recordLength == -1) {
+          return false;
+        }
+        rowGroup.recordLength = recordLength;
+        rowGroup.keyLength = in.readInt();
+        rowGroup.lastSeenSyncPos = lastSeenSyncPos;
+        rowGroup.syncSeen = syncSeen;
+        readKeyBuffer(rowGroup.key, rowGroup.keyLength);
+        rowGroup.mayMatch = mayMatch(rowGroup.key, lastSeenSyncPos);
+
+        ValueBuffer value = rowGroup.value;
+        value.keyBuffer = rowGroup.key;
+        value.clearColumnBuffer();
+        value.readFields(in);
+        value.inited = true;
+        if (rowGroup.mayMatch) {
+          value.decompressAll();
+        }
+        rowGroup.endPosition = in.getPos();
+        return true;
+      }
+
+      /** Wait for the read ahead to end, recycling what it has read. */
+      void stop() throws IOException {
+        stopped = true;
+        while (thread.isAlive()) {
+          PrefetchedRowGroup rowGroup;
+          while ((rowGroup = readRowGroups.poll()) != null) {
+            if (rowGroup != END_OF_READ_AHEAD) {
+              freeRowGroups.add(rowGroup);
+            }
+          }
+          try {
+            thread.join(10);
+          } catch (InterruptedException e) {
+            throw new IOException("Interrupted while stopping read ahead of "
+                + file);
+          }
+        }
+        readRowGroups.clear();
+      }
+    }
+
+    private void startReadAhead() throws IOException {
+      if (prefetchedRowGroups == null) {
+        prefetchedRowGroups = new PrefetchedRowGroup[readAheadDepth + 1];
+        freeRowGroups = new ArrayBlockingQueue<PrefetchedRowGroup>(
+            prefetchedRowGroups.length);
+        for (int i = 0; i < prefetchedRowGroups.length; i++) {
+          prefetchedRowGroups[i] = new PrefetchedRowGroup(createKeyBuffer(),
+              new ValueBuffer(null, columnNumber, skippedColIDs, codec));
+          freeRowGroups.add(prefetchedRowGroups[i]);
+        }
+      }
+      // the read ahead starts with the row split after the current one
+      seekToNextKeyBuffer();
+      keyInit = false;
+      readAhead = new ReadAhead(in.getPos());
+      readAhead.thread.start();
+    }
+
+    /**
+     * Stop the read ahead, leaving the input stream right after the row split
+     * being read, and drop that row split.
+     */
+    private void stopReadAhead() throws IOException {
+      readAheadDone = false;
+      if (readAhead == null) {
+        return;
+      }
+      long position = getPosition();
+      readAhead.stop();
+      readAhead = null;
+      if (currentRowGroup != null) {
+        lastSeenSyncPos = currentRowGroup.lastSeenSyncPos;
+        syncSeen = currentRowGroup.syncSeen;
+        freeRowGroups.add(currentRowGroup);
+        currentRowGroup = null;
+      }
+      in.seek(position);
+      currentKey = syncKey;
+      currentValue = syncValue;
+      currentValue.inited = false;
+      keyInit = false;
+      readRowsIndexInBuffer = 0;
+      recordsNumInValBuffer = 0;
+    }
+
+    /** Take the next row split from the read ahead. */
+    private int nextPrefetchedKeyBuffer() throws IOException {
+      if (currentRowGroup != null) {
+        freeRowGroups.add(currentRowGroup);
+        currentRowGroup = null;
+      }
+      PrefetchedRowGroup rowGroup;
+      try {
+        rowGroup = readAhead.readRowGroups.take();
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while reading ahead " + file);
+      }
+
+      if (rowGroup == END_OF_READ_AHEAD) {
+        // the read ahead left the stream at the next row split, if any
+        Throwable error = readAhead.error;
+        readAhead.stop();
+        readAhead = null;
+        readAheadDone = true;
+        currentKey = syncKey;
+        currentValue = syncValue;
+        keyInit = false;
+        if (error instanceof IOException) {
+          throw (IOException) error;
+        } else if (error != null) {
+          throw new IOException("Read ahead of " + file + " failed", error);
+        }
+        return nextKeyBuffer();
+      }
+
+      currentRowGroup = rowGroup;
+      currentKey = rowGroup.key;
+      currentValue = rowGroup.value;
+      currentRecordLength = rowGroup.recordLength;
+      currentKeyLength = rowGroup.keyLength;
+      keyInit = true;
+      return startKeyBuffer();
     }
 
     @SuppressWarnings("unused")
@@ -1210,7 +2338,7 @@ public class RCFile {
      * @return the length of the next record or -1 if there is no next record
      * @throws IOException
      */
-    private synchronized int readRecordLength() throws IOException {
+    private int readRecordLength() throws IOException {
       if (in.getPos() >= end) {
         return -1;
       }
@@ -1231,6 +2359,12 @@ public class RCFile {
       } else {
         syncSeen = false;
       }
+      if (length == RowGroupIndex.INDEX_ESCAPE
+          && version >= VERSION_WITH_ROW_GROUP_INDEX) {
+        // the records end at the index footer, stay in front of it
+        in.seek(in.getPos() - 4);
+        return -1;
+      }
       return length;
     }
 
@@ -1252,6 +2386,13 @@ public class RCFile {
     boolean keyInit = false;
 
     protected int nextKeyBuffer() throws IOException {
+      if (readAhead == null && readAheadDepth > 0 && !readAheadDone) {
+        startReadAhead();
+      }
+      if (readAhead != null) {
+        return nextPrefetchedKeyBuffer();
+      }
+
       seekToNextKeyBuffer();
       currentRecordLength = readRecordLength();
       if (currentRecordLength == -1) {
@@ -1259,6 +2400,14 @@ public class RCFile {
         return -1;
       }
       currentKeyLength = in.readInt();
+      readKeyBuffer(currentKey, currentKeyLength);
+
+      keyInit = true;
+      currentValue.inited = false;
+      return startKeyBuffer();
+    }
+
+    private void readKeyBuffer(KeyBuffer key, int keyLength) throws IOException {
       compressedKeyLen = in.readInt();
       if (decompress) {
         keyTempBuffer.reset();
@@ -1269,16 +2418,15 @@ public class RCFile {
         DataInputStream compressedIn = new DataInputStream(deflatFilter);
         deflatFilter.resetState();
         keyDecompressedData.reset();
-        keyDecompressedData.write(compressedIn, currentKeyLength);
-        keyDataIn.reset(keyDecompressedData.getData(), currentKeyLength);
-        currentKey.readFields(keyDataIn);
+        keyDecompressedData.write(compressedIn, keyLength);
+        keyDataIn.reset(keyDecompressedData.getData(), keyLength);
+        key.readFields(keyDataIn);
       } else {
-        currentKey.readFields(in);
+        key.readFields(in);
       }
+    }
 
-      keyInit = true;
-      currentValue.inited = false;
-
+    private int startKeyBuffer() {
       readRowsIndexInBuffer = 0;
       recordsNumInValBuffer = currentKey.numberRows;
 
@@ -1395,6 +2543,12 @@ public class RCFile {
       int ret = -1;
       try {
         ret = nextKeyBuffer();
+        while (ret > 0 && skipCurrentRowGroup()) {
+          // the values are skipped by the next nextKeyBuffer() as they have
+          // not been read
+          passedRowsNum += recordsNumInValBuffer;
+          ret = nextKeyBuffer();
+        }
       } catch (EOFException eof) {
         eof.printStackTrace();
       }
@@ -1425,6 +2579,9 @@ public class RCFile {
         // do this only when not initialized, but we may need to find a way to
         // tell the caller how to initialize the valid size
         ret.resetValid(columnNumber);
+      } else if (currentRowGroup != null && readRowsIndexInBuffer == 1) {
+        // a row split read ahead is loaded before its first row is fetched
+        ret.resetValid(columnNumber);
       }
 
       // we do not use BytesWritable here to avoid the byte-copy from
@@ -1472,11 +2629,17 @@ public class RCFile {
 
     /** Returns true iff the previous call to next passed a sync mark. */
     public boolean syncSeen() {
+      if (currentRowGroup != null) {
+        return currentRowGroup.syncSeen;
+      }
       return syncSeen;
     }
 
     /** Returns the last seen sync position. */
     public long lastSeenSyncPos() {
+      if (currentRowGroup != null) {
+        return currentRowGroup.lastSeenSyncPos;
+      }
       return lastSeenSyncPos;
     }
 
@@ -1492,8 +2655,21 @@ public class RCFile {
 
     /** Close the reader. */
     public void close() {
+      if (readAhead != null) {
+        try {
+          readAhead.stop();
+        } catch (IOException e) {
+          LOG.warn("Failed to stop read ahead of " + file, e);
+        }
+        readAhead = null;
+      }
       IOUtils.closeStream(in);
-      currentValue.close();
+      syncValue.close();
+      if (prefetchedRowGroups != null) {
+        for (PrefetchedRowGroup rowGroup : prefetchedRowGroups) {
+          rowGroup.value.close();
+        }
+      }
       if (decompress) {
         IOUtils.closeStream(keyDecompressedData);
         CodecPool.returnDecompressor(keyDecompressor);
@@ -0,0 +1,384 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.hadoop.hive.serde2.lazy.LazyLong;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * RCFileColumnEncoding encodes the values of one column in a row split more
+ * compactly than their plain concatenation, before the column is compressed.
+ * Every encoding decodes back to exactly the plain bytes, so readers only see
+ * the encoding when the column is first loaded. The encodings are:
+ * 
+ * <ul>
+ * <li>{@link #PLAIN} - the values as they are.</li>
+ * <li>{@link #DICTIONARY} - number of distinct values(vint), each distinct
+ * value as length(vint) followed by its bytes, then the index of each row's
+ * value in the dictionary(vint).</li>
+ * <li>{@link #INTEGER_RUNS} - for columns holding the text form of integers:
+ * runs of values with a constant difference, each as run length(vint), first
+ * value(vlong) and difference(vlong). A run of equal values has difference 0.
+ * </li>
+ * <li>{@link #INTEGER_DELTA} - for columns holding the text form of integers:
+ * the first value(vlong), then each value's difference from the previous one
+ * (vlong).</li>
+ * </ul>
+ * 
+ * The integer encodings are only used if every value is exactly the text that
+ * {@link LazyLong#writeUTF8} produces for it, so that nulls, padded or
+ * out of range values always fall back to the dictionary or plain encoding.
+ */
+public class RCFileColumnEncoding {
+
+  public static final byte PLAIN = 0;
+  public static final byte DICTIONARY = 1;
+  public static final byte INTEGER_RUNS = 2;
+  public static final byte INTEGER_DELTA = 3;
+
+  /** The largest number of distinct values a dictionary may hold. */
+  static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+  /**
+   * A range of bytes in the column buffer, used as a dictionary key.
+   */
+  private static class ByteRange {
+    byte[] data;
+    int start;
+    int length;
+    int hash;
+
+    void set(byte[] data, int start, int length) {
+      this.data = data;
+      this.start = start;
+      this.length = length;
+      hash = 1;
+      for (int i = start; i < start + length; i++) {
+        hash = (31 * hash) + data[i];
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      ByteRange range = (ByteRange) other;
+      return WritableComparator.compareBytes(data, start, length, range.data,
+          range.start, range.length) == 0;
+    }
+  }
+
+  private final HashMap<ByteRange, Integer> dictionary = new HashMap<ByteRange, Integer>();
+  private final ByteRange probe = new ByteRange();
+  private int[] dictionaryIds = new int[1024];
+  private int[] dictionaryStarts = new int[1024];
+  private int[] dictionaryLengths = new int[1024];
+  private long[] integers = new long[1024];
+
+  /**
+   * Encode a column of a row split.
+   * 
+   * @param data
+   *          the plain values of the column
+   * @param lengths
+   *          each value's length
+   * @param numberRows
+   *          number of values in the column
+   * @param out
+   *          receives the encoded column, unless the plain encoding is chosen
+   * @return the chosen encoding, the one with the fewest bytes
+   */
+  public byte encode(byte[] data, int[] lengths, int numberRows,
+      NonSyncDataOutputBuffer out) throws IOException {
+    int plainSize = 0;
+    for (int i = 0; i < numberRows; i++) {
+      plainSize += lengths[i];
+    }
+    if (numberRows == 0) {
+      return PLAIN;
+    }
+
+    long integersSize = Long.MAX_VALUE;
+    long runsSize = Long.MAX_VALUE;
+    if (parseIntegers(data, lengths, numberRows)) {
+      integersSize = deltaSize(numberRows);
+      runsSize = runsSize(numberRows);
+    }
+    long dictionarySize = buildDictionary(data, lengths, numberRows, Math.min(
+        plainSize, Math.min(integersSize, runsSize)));
+
+    long bestSize = plainSize;
+    byte best = PLAIN;
+    if (runsSize < bestSize) {
+      bestSize = runsSize;
+      best = INTEGER_RUNS;
+    }
+    if (integersSize < bestSize) {
+      bestSize = integersSize;
+      best = INTEGER_DELTA;
+    }
+    if (dictionarySize < bestSize) {
+      bestSize = dictionarySize;
+      best = DICTIONARY;
+    }
+
+    switch (best) {
+    case DICTIONARY:
+      writeDictionary(data, numberRows, out);
+      break;
+    case INTEGER_RUNS:
+      writeRuns(numberRows, out);
+      break;
+    case INTEGER_DELTA:
+      writeDelta(numberRows, out);
+      break;
+    default:
+      break;
+    }
+    dictionary.clear();
+    return best;
+  }
+
+  /**
+   * Decode a column of a row split back into its plain values.
+   * 
+   * @param encoding
+   *          the column's encoding, which must not be {@link #PLAIN}
+   * @param encoded
+   *          the encoded column
+   * @param encodedLength
+   *          number of bytes of the encoded column
+   * @param numberRows
+   *          number of values in the column
+   * @param out
+   *          receives the plain values
+   */
+  public static void decode(byte encoding, byte[] encoded, int encodedLength,
+      int numberRows, NonSyncDataOutputBuffer out) throws IOException {
+    NonSyncDataInputBuffer in = new NonSyncDataInputBuffer();
+    in.reset(encoded, encodedLength);
+    switch (encoding) {
+    case DICTIONARY: {
+      int size = WritableUtils.readVInt(in);
+      int[] starts = new int[size];
+      int[] lengths = new int[size];
+      for (int i = 0; i < size; i++) {
+        lengths[i] = WritableUtils.readVInt(in);
+        starts[i] = in.getPosition();
+        in.skipBytes(lengths[i]);
+      }
+      for (int i = 0; i < numberRows; i++) {
+        int id = WritableUtils.readVInt(in);
+        out.write(encoded, starts[id], lengths[id]);
+      }
+      break;
+    }
+    case INTEGER_RUNS:
+      for (int i = 0; i < numberRows;) {
+        int runLength = WritableUtils.readVInt(in);
+        long value = WritableUtils.readVLong(in);
+        long delta = WritableUtils.readVLong(in);
+        for (int j = 0; j < runLength; j++, i++) {
+          LazyLong.writeUTF8(out, value);
+          value += delta;
+        }
+      }
+      break;
+    case INTEGER_DELTA: {
+      long value = 0;
+      for (int i = 0; i < numberRows; i++) {
+        value += WritableUtils.readVLong(in);
+        LazyLong.writeUTF8(out, value);
+      }
+      break;
+    }
+    default:
+      throw new IOException("Unknown RCFile column encoding " + encoding);
+    }
+  }
+
+  /**
+   * parse every value as an integer, failing unless each is in the form
+   * {@link LazyLong#writeUTF8} writes.
+   */
+  private boolean parseIntegers(byte[] data, int[] lengths, int numberRows) {
+    if (integers.length < numberRows) {
+      integers = new long[Math.max(numberRows, integers.length * 2)];
+    }
+    int start = 0;
+    for (int i = 0; i < numberRows; i++) {
+      int length = lengths[i];
+      if (length == 0 || length > 20) {
+        return false;
+      }
+      int end = start + length;
+      int pos = start;
+      boolean negative = data[pos] == '-';
+      if (negative) {
+        pos++;
+      }
+      if (pos == end || (data[pos] == '0' && (negative || end - pos > 1))) {
+        return false;
+      }
+      // accumulate negatively, like Long.parseLong, to reach Long.MIN_VALUE
+      long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+      long multmin = limit / 10;
+      long result = 0;
+      for (; pos < end; pos++) {
+        int digit = data[pos] - '0';
+        if (digit < 0 || digit > 9 || result < multmin) {
+          return false;
+        }
+        result *= 10;
+        if (result < limit + digit) {
+          return false;
+        }
+        result -= digit;
+      }
+      integers[i] = negative ? result : -result;
+      start = end;
+    }
+    return true;
+  }
+
+  private long deltaSize(int numberRows) {
+    long size = 0;
+    long previous = 0;
+    for (int i = 0; i < numberRows; i++) {
+      size += WritableUtils.getVIntSize(integers[i] - previous);
+      previous = integers[i];
+    }
+    return size;
+  }
+
+  private long runsSize(int numberRows) {
+    long size = 0;
+    for (int i = 0; i < numberRows;) {
+      int runLength = runLength(i, numberRows);
+      long delta = runLength > 1 ? integers[i + 1] - integers[i] : 0;
+      size += WritableUtils.getVIntSize(runLength)
+          + WritableUtils.getVIntSize(integers[i])
+          + WritableUtils.getVIntSize(delta);
+      i += runLength;
+    }
+    return size;
+  }
+
+  private int runLength(int start, int numberRows) {
+    if (start + 1 == numberRows) {
+      return 1;
+    }
+    long delta = integers[start + 1] - integers[start];
+    int end = start + 2;
+    while (end < numberRows && integers[end] - integers[end - 1] == delta) {
+      end++;
+    }
+    return end - start;
+  }
+
+  private void writeRuns(int numberRows, NonSyncDataOutputBuffer out)
+      throws IOException {
+    for (int i = 0; i < numberRows;) {
+      int runLength = runLength(i, numberRows);
+      long delta = runLength > 1 ? integers[i + 1] - integers[i] : 0;
+      WritableUtils.writeVInt(out, runLength);
+      WritableUtils.writeVLong(out, integers[i]);
+      WritableUtils.writeVLong(out, delta);
+      i += runLength;
+    }
+  }
+
+  private void writeDelta(int numberRows, NonSyncDataOutputBuffer out)
+      throws IOException {
+    long previous = 0;
+    for (int i = 0; i < numberRows; i++) {
+      WritableUtils.writeVLong(out, integers[i] - previous);
+      previous = integers[i];
+    }
+  }
+
+  /**
+   * assign each value its index in the dictionary.
+   * 
+   * @return the size of the dictionary encoding, or Long.MAX_VALUE once it
+   *         would not be smaller than sizeLimit
+   */
+  private long buildDictionary(byte[] data, int[] lengths, int numberRows,
+      long sizeLimit) {
+    if (dictionaryIds.length < numberRows) {
+      dictionaryIds = new int[Math.max(numberRows, dictionaryIds.length * 2)];
+    }
+    long size = 0;
+    int start = 0;
+    for (int i = 0; i < numberRows; i++) {
+      probe.set(data, start, lengths[i]);
+      Integer id = dictionary.get(probe);
+      if (id == null) {
+        int newId = dictionary.size();
+        // mostly distinct values do not pay for the dictionary lookups
+        if (newId == MAX_DICTIONARY_SIZE || newId > numberRows / 2) {
+          return Long.MAX_VALUE;
+        }
+        if (dictionaryStarts.length == newId) {
+          dictionaryStarts = grow(dictionaryStarts);
+          dictionaryLengths = grow(dictionaryLengths);
+        }
+        dictionaryStarts[newId] = start;
+        dictionaryLengths[newId] = lengths[i];
+        ByteRange range = new ByteRange();
+        range.set(data, start, lengths[i]);
+        dictionary.put(range, newId);
+        id = newId;
+        size += WritableUtils.getVIntSize(lengths[i]) + lengths[i];
+      }
+      dictionaryIds[i] = id;
+      size += WritableUtils.getVIntSize(id);
+      if (size >= sizeLimit) {
+        return Long.MAX_VALUE;
+      }
+      start += lengths[i];
+    }
+    return size + WritableUtils.getVIntSize(dictionary.size());
+  }
+
+  private void writeDictionary(byte[] data, int numberRows,
+      NonSyncDataOutputBuffer out) throws IOException {
+    int size = dictionary.size();
+    WritableUtils.writeVInt(out, size);
+    for (int i = 0; i < size; i++) {
+      WritableUtils.writeVInt(out, dictionaryLengths[i]);
+      out.write(data, dictionaryStarts[i], dictionaryLengths[i]);
+    }
+    for (int i = 0; i < numberRows; i++) {
+      WritableUtils.writeVInt(out, dictionaryIds[i]);
+    }
+  }
+
+  private static int[] grow(int[] array) {
+    int[] newArray = new int[array.length * 2];
+    System.arraycopy(array, 0, newArray, 0, array.length);
+    return newArray;
+  }
+}
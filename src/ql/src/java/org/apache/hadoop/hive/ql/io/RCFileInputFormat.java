@@ -20,8 +20,10 @@ package org.apache.hadoop.hive.ql.io;
 import java.io.IOException;
 import java.util.ArrayList;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
 import org.apache.hadoop.io.LongWritable;
@@ -56,6 +58,69 @@ public class RCFileInputFormat<K extends LongWritable, V extends BytesRefArrayWr
     return new RCFileRecordReader(job, (FileSplit) split);
   }
 
+  @Override
+  public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+    InputSplit[] splits = super.getSplits(job, numSplits);
+    if (!job.getBoolean(RCFile.ROW_GROUP_SPLIT_CONF_STR, false)) {
+      return splits;
+    }
+
+    ArrayList<InputSplit> result = new ArrayList<InputSplit>(splits.length);
+    Path currentFile = null;
+    RCFile.RowGroupIndex rowGroupIndex = null;
+    for (InputSplit split : splits) {
+      FileSplit fileSplit = (FileSplit) split;
+      // the splits of a file come one after another
+      if (!fileSplit.getPath().equals(currentFile)) {
+        currentFile = fileSplit.getPath();
+        rowGroupIndex = getRowGroupIndex(currentFile, job);
+      }
+      if (rowGroupIndex == null) {
+        result.add(fileSplit);
+      } else {
+        FileSplit aligned = alignToRowGroups(fileSplit, rowGroupIndex);
+        if (aligned != null) {
+          result.add(aligned);
+        }
+      }
+    }
+    return result.toArray(new InputSplit[result.size()]);
+  }
+
+  /**
+   * Returns the row group index of the given RCFile, or null if it was
+   * written without one.
+   */
+  public static RCFile.RowGroupIndex getRowGroupIndex(Path file,
+      Configuration conf) throws IOException {
+    FileSystem fs = file.getFileSystem(conf);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    try {
+      return reader.getRowGroupIndex();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Moves both ends of the split to the first row group starting at or after
+   * them, so that the split covers exactly the row groups its record reader
+   * reads.
+   *
+   * @return the aligned split, or null if it contains no row group
+   */
+  public static FileSplit alignToRowGroups(FileSplit split,
+      RCFile.RowGroupIndex rowGroupIndex) throws IOException {
+    long start = rowGroupIndex.getRowGroupStart(split.getStart());
+    long end = rowGroupIndex.getRowGroupStart(split.getStart()
+        + split.getLength());
+    if (start >= end) {
+      return null;
+    }
+    return new FileSplit(split.getPath(), start, end - start, split
+        .getLocations());
+  }
+
   @Override
   public boolean validateInput(FileSystem fs, HiveConf conf,
       ArrayList<FileStatus> files) throws IOException {
@@ -25,6 +25,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.serde.Constants;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
@@ -133,6 +134,12 @@ public class RCFileOutputFormat extends
     }
 
     RCFileOutputFormat.setColumnNumber(jc, cols.length);
+    // the writer leaves null values out of its column statistics, and takes
+    // them on unescaped values
+    jc.set(Constants.SERIALIZATION_NULL_FORMAT, tableProperties.getProperty(
+        Constants.SERIALIZATION_NULL_FORMAT, "\\N"));
+    jc.set(Constants.ESCAPE_CHAR, tableProperties.getProperty(
+        Constants.ESCAPE_CHAR, ""));
     final RCFile.Writer outWriter = Utilities.createRCFileWriter
       (jc, finalOutPath.getFileSystem(jc),
        finalOutPath, isCompressed);
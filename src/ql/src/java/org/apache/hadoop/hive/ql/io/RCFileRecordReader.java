@@ -18,11 +18,16 @@
 package org.apache.hadoop.hive.ql.io;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.Utilities;
 import org.apache.hadoop.hive.ql.io.RCFile.Reader;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.serde.Constants;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapred.FileSplit;
@@ -53,11 +58,29 @@ public class RCFileRecordReader<K extends LongWritable, V extends BytesRefArrayW
     this.conf = conf;
 
     if (split.getStart() > in.getPosition()) {
-      in.sync(split.getStart()); // sync to start
+      RCFile.RowGroupIndex rowGroupIndex = in.getRowGroupIndex();
+      if (rowGroupIndex != null) {
+        // seek straight to the first row group of the split
+        in.seekToRowGroup(rowGroupIndex.findRowGroup(split.getStart()));
+      } else {
+        in.sync(split.getStart()); // sync to start
+      }
     }
 
     this.start = in.getPosition();
     more = start < end;
+    // the row groups after the split are not worth reading ahead
+    in.setReadAheadEnd(end);
+
+    String filterExprSerialized = conf.get(TableScanDesc.FILTER_EXPR_CONF_STR);
+    String columnNames = conf.get(Constants.LIST_COLUMNS);
+    if (filterExprSerialized != null && columnNames != null
+        && conf.getBoolean(RCFile.ROW_GROUP_SKIP_CONF_STR, true)) {
+      ExprNodeDesc filterExpr = Utilities.deserializeExpression(
+          filterExprSerialized, conf);
+      in.setRowGroupFilter(new RCFileRowGroupFilter(filterExpr, Arrays
+          .asList(columnNames.split(","))), end);
+    }
   }
 
   public Class<?> getKeyClass() {
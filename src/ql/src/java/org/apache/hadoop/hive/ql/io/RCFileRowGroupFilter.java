@@ -0,0 +1,280 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.io.RCFile.ColumnStats;
+import org.apache.hadoop.hive.ql.io.RCFile.KeyBuffer;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPAnd;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNotNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPOr;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.Text;
+
+/**
+ * RCFileRowGroupFilter decides from the column statistics in the key part of
+ * a row split whether any row of the split can pass a predicate. The answer is
+ * conservative: only conjunctions and disjunctions of null checks and of
+ * comparisons between a column and a constant are understood, and anything
+ * else is assumed to match.
+ */
+public class RCFileRowGroupFilter {
+
+  private static final int EQUAL = 0;
+  private static final int LESS = 1;
+  private static final int LESS_OR_EQUAL = 2;
+  private static final int GREATER = 3;
+  private static final int GREATER_OR_EQUAL = 4;
+
+  private final ExprNodeDesc predicate;
+  private final Map<String, Integer> columnIndexes;
+
+  /**
+   * @param predicate
+   *          the filter expression of the table scan
+   * @param columnNames
+   *          the scan's column names; the i-th one is stored in the i-th
+   *          column of the file
+   */
+  public RCFileRowGroupFilter(ExprNodeDesc predicate, List<String> columnNames) {
+    this.predicate = predicate;
+    columnIndexes = new HashMap<String, Integer>();
+    for (int i = 0; i < columnNames.size(); i++) {
+      columnIndexes.put(columnNames.get(i), i);
+    }
+  }
+
+  /**
+   * Returns false if no row of the row split can pass the predicate.
+   */
+  boolean mayMatch(KeyBuffer key) {
+    return mayMatch(predicate, key);
+  }
+
+  private boolean mayMatch(ExprNodeDesc expr, KeyBuffer key) {
+    if (!(expr instanceof ExprNodeGenericFuncDesc)) {
+      return true;
+    }
+    GenericUDF udf = ((ExprNodeGenericFuncDesc) expr).getGenericUDF();
+    List<ExprNodeDesc> children = expr.getChildren();
+
+    if (udf instanceof GenericUDFOPAnd) {
+      for (ExprNodeDesc child : children) {
+        if (!mayMatch(child, key)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (udf instanceof GenericUDFOPOr) {
+      for (ExprNodeDesc child : children) {
+        if (mayMatch(child, key)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    if (udf instanceof GenericUDFOPNull) {
+      // only the null sequence reads as a null string, but the lazy numeric
+      // objects also read empty or unparsable text as null, which the null
+      // count of the statistics does not cover
+      ExprNodeDesc column = children.get(0);
+      if (getPrimitiveCategory(column.getTypeInfo()) != PrimitiveCategory.STRING) {
+        return true;
+      }
+      ColumnStats stats = getColumnStats(column, key);
+      return stats == null || stats.getNullCount() > 0;
+    }
+    if (udf instanceof GenericUDFOPNotNull) {
+      ColumnStats stats = getColumnStats(children.get(0), key);
+      return stats == null || stats.getNullCount() < key.getNumberRows();
+    }
+
+    int op;
+    if (udf instanceof GenericUDFOPEqual) {
+      op = EQUAL;
+    } else if (udf instanceof GenericUDFOPLessThan) {
+      op = LESS;
+    } else if (udf instanceof GenericUDFOPEqualOrLessThan) {
+      op = LESS_OR_EQUAL;
+    } else if (udf instanceof GenericUDFOPGreaterThan) {
+      op = GREATER;
+    } else if (udf instanceof GenericUDFOPEqualOrGreaterThan) {
+      op = GREATER_OR_EQUAL;
+    } else {
+      return true;
+    }
+    if (children.size() != 2) {
+      return true;
+    }
+    ExprNodeDesc column = children.get(0);
+    ExprNodeDesc constant = children.get(1);
+    if (column instanceof ExprNodeConstantDesc
+        && constant instanceof ExprNodeColumnDesc) {
+      // CONSTANT <op> COL is COL <flipped op> CONSTANT
+      column = children.get(1);
+      constant = children.get(0);
+      op = flip(op);
+    }
+    if (!(constant instanceof ExprNodeConstantDesc)) {
+      return true;
+    }
+    ColumnStats stats = getColumnStats(column, key);
+    if (stats == null) {
+      return true;
+    }
+    if (stats.getNullCount() == key.getNumberRows()) {
+      // a comparison with null is never true
+      return false;
+    }
+    Object value = ((ExprNodeConstantDesc) constant).getValue();
+    if (value == null) {
+      return false;
+    }
+
+    PrimitiveCategory category = getPrimitiveCategory(column.getTypeInfo());
+    if (category == null) {
+      return true;
+    }
+    switch (category) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+    case FLOAT:
+    case DOUBLE:
+      if (!(value instanceof Number) || !stats.hasNumberRange()) {
+        return true;
+      }
+      double min = stats.getMinNumber();
+      double max = stats.getMaxNumber();
+      if (category == PrimitiveCategory.FLOAT) {
+        // floats are written in their shortest decimal form, which may lie
+        // on either side of the float value itself
+        min -= Math.ulp((float) min);
+        max += Math.ulp((float) max);
+      }
+      return mayMatch(op, ((Number) value).doubleValue(), min, max);
+    case STRING:
+      if (!(value instanceof String) || !stats.hasByteRange()) {
+        return true;
+      }
+      Text text = new Text((String) value);
+      int compareToMin = stats.compareToMin(text.getBytes(), 0, text.getLength());
+      int compareToMax = stats.compareToMax(text.getBytes(), 0, text.getLength());
+      return mayMatch(op, compareToMin, compareToMax);
+    default:
+      return true;
+    }
+  }
+
+  /**
+   * Whether COL op value can hold for some number in [min, max]. Both bounds
+   * are compared inclusively, since values may have been rounded on their way
+   * to a double.
+   */
+  private static boolean mayMatch(int op, double value, double min, double max) {
+    switch (op) {
+    case EQUAL:
+      return min <= value && value <= max;
+    case LESS:
+    case LESS_OR_EQUAL:
+      return min <= value;
+    case GREATER:
+    case GREATER_OR_EQUAL:
+      return max >= value;
+    default:
+      return true;
+    }
+  }
+
+  /**
+   * Whether COL op value can hold given how value compares with the column's
+   * smallest and largest value.
+   */
+  private static boolean mayMatch(int op, int compareToMin, int compareToMax) {
+    switch (op) {
+    case EQUAL:
+      return compareToMin >= 0 && compareToMax <= 0;
+    case LESS:
+      return compareToMin > 0;
+    case LESS_OR_EQUAL:
+      return compareToMin >= 0;
+    case GREATER:
+      return compareToMax < 0;
+    case GREATER_OR_EQUAL:
+      return compareToMax <= 0;
+    default:
+      return true;
+    }
+  }
+
+  private static int flip(int op) {
+    switch (op) {
+    case LESS:
+      return GREATER;
+    case LESS_OR_EQUAL:
+      return GREATER_OR_EQUAL;
+    case GREATER:
+      return LESS;
+    case GREATER_OR_EQUAL:
+      return LESS_OR_EQUAL;
+    default:
+      return op;
+    }
+  }
+
+  private ColumnStats getColumnStats(ExprNodeDesc expr, KeyBuffer key) {
+    if (!(expr instanceof ExprNodeColumnDesc)) {
+      return null;
+    }
+    ExprNodeColumnDesc column = (ExprNodeColumnDesc) expr;
+    if (column.getIsPartitionColOrVirtualCol()) {
+      return null;
+    }
+    Integer index = columnIndexes.get(column.getColumn());
+    if (index == null) {
+      return null;
+    }
+    return key.getColumnStats(index.intValue());
+  }
+
+  private static PrimitiveCategory getPrimitiveCategory(TypeInfo typeInfo) {
+    if (typeInfo == null || typeInfo.getCategory() != Category.PRIMITIVE) {
+      return null;
+    }
+    return ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory();
+  }
+}
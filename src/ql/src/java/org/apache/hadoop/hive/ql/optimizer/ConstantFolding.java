@@ -0,0 +1,187 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.optimizer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.ExprNodeEvaluator;
+import org.apache.hadoop.hive.ql.exec.ExprNodeEvaluatorFactory;
+import org.apache.hadoop.hive.ql.exec.FilterOperator;
+import org.apache.hadoop.hive.ql.exec.FunctionRegistry;
+import org.apache.hadoop.hive.ql.exec.GroupByOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.ReduceSinkOperator;
+import org.apache.hadoop.hive.ql.exec.SelectOperator;
+import org.apache.hadoop.hive.ql.lib.DefaultGraphWalker;
+import org.apache.hadoop.hive.ql.lib.DefaultRuleDispatcher;
+import org.apache.hadoop.hive.ql.lib.Dispatcher;
+import org.apache.hadoop.hive.ql.lib.GraphWalker;
+import org.apache.hadoop.hive.ql.lib.Node;
+import org.apache.hadoop.hive.ql.lib.NodeProcessor;
+import org.apache.hadoop.hive.ql.lib.NodeProcessorCtx;
+import org.apache.hadoop.hive.ql.lib.Rule;
+import org.apache.hadoop.hive.ql.parse.ParseContext;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.plan.FilterDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.plan.ReduceSinkDesc;
+import org.apache.hadoop.hive.ql.plan.SelectDesc;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+
+/**
+ * Folds the deterministic functions whose arguments are all constants, like
+ * concat('a', 'b') or cast('1' as int), into constants: they are evaluated
+ * once at compile time instead of for every row.
+ *
+ * The expressions of the select, filter, group by and reduce sink operators
+ * are folded. The columnExprMaps of the operators are updated with the
+ * folded expressions.
+ */
+public class ConstantFolding implements Transform {
+
+  private static final Log LOG = LogFactory.getLog(ConstantFolding.class.getName());
+
+  @Override
+  public ParseContext transform(ParseContext pctx) throws SemanticException {
+    // a single processor for all the operators
+    Dispatcher disp = new DefaultRuleDispatcher(new ConstantFoldingProc(),
+        new LinkedHashMap<Rule, NodeProcessor>(), null);
+    GraphWalker ogw = new DefaultGraphWalker(disp);
+
+    ArrayList<Node> topNodes = new ArrayList<Node>();
+    topNodes.addAll(pctx.getTopOps().values());
+    ogw.startWalking(topNodes, null);
+    return pctx;
+  }
+
+  /**
+   * Folds the expressions of an operator.
+   */
+  static class ConstantFoldingProc implements NodeProcessor {
+
+    @Override
+    public Object process(Node nd, Stack<Node> stack, NodeProcessorCtx procCtx,
+        Object... nodeOutputs) throws SemanticException {
+      Operator<? extends Serializable> op = (Operator<? extends Serializable>) nd;
+      if (op instanceof SelectOperator) {
+        SelectDesc desc = ((SelectOperator) op).getConf();
+        if (!desc.isSelStarNoCompute()) {
+          foldList(op, desc.getColList());
+        }
+      } else if (op instanceof FilterOperator) {
+        FilterDesc desc = ((FilterOperator) op).getConf();
+        desc.setPredicate(fold(op, desc.getPredicate()));
+      } else if (op instanceof GroupByOperator) {
+        GroupByDesc desc = ((GroupByOperator) op).getConf();
+        foldList(op, desc.getKeys());
+        for (AggregationDesc aggregation : desc.getAggregators()) {
+          foldList(op, aggregation.getParameters());
+        }
+      } else if (op instanceof ReduceSinkOperator) {
+        ReduceSinkDesc desc = ((ReduceSinkOperator) op).getConf();
+        foldList(op, desc.getKeyCols());
+        foldList(op, desc.getValueCols());
+        foldList(op, desc.getPartitionCols());
+      }
+      return null;
+    }
+
+    private void foldList(Operator<? extends Serializable> op, List<ExprNodeDesc> exprs) {
+      if (exprs == null) {
+        return;
+      }
+      for (int i = 0; i < exprs.size(); i++) {
+        exprs.set(i, fold(op, exprs.get(i)));
+      }
+    }
+
+    /**
+     * Folds an expression of the operator, and replaces it in its
+     * columnExprMap.
+     */
+    private ExprNodeDesc fold(Operator<? extends Serializable> op, ExprNodeDesc expr) {
+      ExprNodeDesc folded = foldExpr(expr);
+      Map<String, ExprNodeDesc> columnExprMap = op.getColumnExprMap();
+      if (folded != expr && columnExprMap != null) {
+        for (Map.Entry<String, ExprNodeDesc> entry : columnExprMap.entrySet()) {
+          if (entry.getValue() == expr) {
+            entry.setValue(folded);
+          }
+        }
+      }
+      return folded;
+    }
+  }
+
+  /**
+   * Folds the constant subtrees of an expression.
+   *
+   * @return the folded expression: a constant, the expression itself with its
+   *         arguments folded, or the expression itself
+   */
+  public static ExprNodeDesc foldExpr(ExprNodeDesc expr) {
+    if (!(expr instanceof ExprNodeGenericFuncDesc)) {
+      return expr;
+    }
+    ExprNodeGenericFuncDesc func = (ExprNodeGenericFuncDesc) expr;
+    List<ExprNodeDesc> children = func.getChildExprs();
+    boolean constant = true;
+    for (int i = 0; i < children.size(); i++) {
+      ExprNodeDesc child = foldExpr(children.get(i));
+      if (child != children.get(i)) {
+        children.set(i, child);
+      }
+      constant &= child instanceof ExprNodeConstantDesc;
+    }
+    if (!constant || !FunctionRegistry.isDeterministic(func.getGenericUDF())
+        || expr.getTypeInfo().getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return expr;
+    }
+    try {
+      ExprNodeEvaluator evaluator = ExprNodeEvaluatorFactory.get(expr);
+      ObjectInspector oi = evaluator.initialize(null);
+      Object value = ObjectInspectorUtils.copyToStandardObject(evaluator.evaluate(null), oi,
+          ObjectInspectorCopyOption.JAVA);
+      if (value == null) {
+        // null constants are not comparable by isSame
+        return expr;
+      }
+      ExprNodeConstantDesc folded = new ExprNodeConstantDesc(expr.getTypeInfo(), value);
+      LOG.debug("Folded " + expr.getExprString() + " into " + folded.getExprString());
+      return folded;
+    } catch (Exception e) {
+      // the function fails on its arguments: it is left for the execution
+      // to report the error
+      LOG.debug("Cannot fold " + expr.getExprString(), e);
+      return expr;
+    }
+  }
+}
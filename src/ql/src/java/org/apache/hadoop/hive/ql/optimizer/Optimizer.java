@@ -45,6 +45,9 @@ public class Optimizer {
     transformations = new ArrayList<Transform>();
     // Add the transformation that computes the lineage information.
     transformations.add(new Generator());
+    if (HiveConf.getBoolVar(hiveConf, HiveConf.ConfVars.HIVEOPTCONSTANTFOLDING)) {
+      transformations.add(new ConstantFolding());
+    }
     if (HiveConf.getBoolVar(hiveConf, HiveConf.ConfVars.HIVEOPTCP)) {
       transformations.add(new ColumnPruner());
     }
@@ -68,9 +71,15 @@ public class Optimizer {
     }
     transformations.add(new UnionProcessor());
     transformations.add(new JoinReorder());
+    if (HiveConf.getBoolVar(hiveConf, HiveConf.ConfVars.HIVEREDUCESINKKEYHASH)) {
+      transformations.add(new ReduceSinkKeyHash());
+    }
     if(HiveConf.getBoolVar(hiveConf, HiveConf.ConfVars.HIVEOPTREDUCEDEDUPLICATION)) {
       transformations.add(new ReduceSinkDeDuplication());
     }
+    if (HiveConf.getBoolVar(hiveConf, HiveConf.ConfVars.HIVEREDUCESINKDEDUP)) {
+      transformations.add(new ReduceSinkDuplicateRemoval());
+    }
   }
 
   /**
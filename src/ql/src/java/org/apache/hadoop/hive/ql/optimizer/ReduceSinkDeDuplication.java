@@ -307,6 +307,10 @@ public class ReduceSinkDeDuplication implements Transform{
         if(moveChildReducerNumToParent) {
           parentRS.getConf().setNumReducers(childNumReducers);
         }
+
+        // the parent now partitions the rows for the child as well
+        parentRS.getConf().setHashSerializedKey(parentRS.getConf().isHashSerializedKey()
+            && childReduceSink.getConf().isHashSerializedKey());
         
         return true;
       }
@@ -0,0 +1,116 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.optimizer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.GroupByOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.ReduceSinkOperator;
+import org.apache.hadoop.hive.ql.lib.DefaultGraphWalker;
+import org.apache.hadoop.hive.ql.lib.DefaultRuleDispatcher;
+import org.apache.hadoop.hive.ql.lib.Dispatcher;
+import org.apache.hadoop.hive.ql.lib.GraphWalker;
+import org.apache.hadoop.hive.ql.lib.Node;
+import org.apache.hadoop.hive.ql.lib.NodeProcessor;
+import org.apache.hadoop.hive.ql.lib.NodeProcessorCtx;
+import org.apache.hadoop.hive.ql.lib.Rule;
+import org.apache.hadoop.hive.ql.lib.RuleRegExp;
+import org.apache.hadoop.hive.ql.parse.ParseContext;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+
+/**
+ * Marks the reduce sinks whose duplicate rows can be removed before the
+ * shuffle: the ones feeding a group by that has no aggregations, like SELECT
+ * DISTINCT, or that only has distinct aggregations computed from the raw rows,
+ * like count(DISTINCT) without map side aggregation. The result of such a
+ * group by does not depend on how many times a row appears.
+ */
+public class ReduceSinkDuplicateRemoval implements Transform {
+
+  private static final Log LOG = LogFactory.getLog(ReduceSinkDuplicateRemoval.class
+      .getName());
+
+  @Override
+  public ParseContext transform(ParseContext pctx) throws SemanticException {
+    Map<Rule, NodeProcessor> opRules = new LinkedHashMap<Rule, NodeProcessor>();
+    opRules.put(new RuleRegExp("R1", "RS%"), new DuplicateRemovalProc());
+
+    Dispatcher disp = new DefaultRuleDispatcher(null, opRules, null);
+    GraphWalker ogw = new DefaultGraphWalker(disp);
+
+    ArrayList<Node> topNodes = new ArrayList<Node>();
+    topNodes.addAll(pctx.getTopOps().values());
+    ogw.startWalking(topNodes, null);
+    return pctx;
+  }
+
+  /**
+   * Marks a reduce sink if its group by ignores duplicate rows.
+   */
+  static class DuplicateRemovalProc implements NodeProcessor {
+
+    @Override
+    public Object process(Node nd, Stack<Node> stack, NodeProcessorCtx procCtx,
+        Object... nodeOutputs) throws SemanticException {
+      ReduceSinkOperator rs = (ReduceSinkOperator) nd;
+      List<Operator<? extends Serializable>> children = rs.getChildOperators();
+      if (children == null || children.size() != 1
+          || !(children.get(0) instanceof GroupByOperator)) {
+        return null;
+      }
+      if (ignoresDuplicates(((GroupByOperator) children.get(0)).getConf())) {
+        LOG.info("Removing duplicate rows of " + rs.getIdentifier());
+        rs.getConf().setRemoveDuplicates(true);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Whether the result of a reduce side group by is the same when its input
+   * rows are deduplicated.
+   */
+  public static boolean ignoresDuplicates(GroupByDesc desc) {
+    List<AggregationDesc> aggregations = desc.getAggregators();
+    if (aggregations == null || aggregations.isEmpty()) {
+      return true;
+    }
+    // the distinct aggregations of the other modes merge partial results
+    // computed on the map side
+    if (desc.getMode() != GroupByDesc.Mode.COMPLETE
+        && desc.getMode() != GroupByDesc.Mode.PARTIAL1) {
+      return false;
+    }
+    for (AggregationDesc aggregation : aggregations) {
+      if (!aggregation.getDistinct()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
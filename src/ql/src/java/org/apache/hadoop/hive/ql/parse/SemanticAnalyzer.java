@@ -2746,6 +2746,18 @@ public class SemanticAnalyzer extends BaseSemanticAnalyzer {
     return rsOp;
   }
 
+  /**
+   * Whether the first ReduceSinkOperator of a Group By Plan over skewed data
+   * partitions the rows by the grouping key, and only distributes the rows of
+   * the heavy keys randomly instead of all the rows. The rows of a DISTINCT
+   * must stay partitioned by the grouping key and the distinct key.
+   */
+  private boolean saltHeavyKeys(QBParseInfo parseInfo, String dest) {
+    return conf.getBoolVar(HiveConf.ConfVars.HIVEGROUPBYSKEWADAPTIVE)
+        && parseInfo.getDistinctFuncExprsForClause(dest).isEmpty()
+        && !getGroupByForClause(parseInfo, dest).isEmpty();
+  }
+
   /**
    * Generate the second ReduceSinkOperator for the Group By Plan
    * (parseInfo.getXXX(dest)). The new ReduceSinkOperator will be a child of
@@ -3079,9 +3091,16 @@ public class SemanticAnalyzer extends BaseSemanticAnalyzer {
     // DISTINCT
     // operator. We set the numPartitionColumns to -1 for this purpose. This is
     // captured by WritableComparableHiveObject.hashCode() function.
+    // With hive.groupby.skewindata.adaptive, the rows are partitioned by the
+    // grouping key and only the rows of the heavy keys are distributed
+    // randomly.
+    boolean saltHeavyKeys = saltHeavyKeys(parseInfo, dest);
     Operator reduceSinkOperatorInfo = genGroupByPlanReduceSinkOperator(qb,
         dest, input, (parseInfo.getDistinctFuncExprsForClause(dest).isEmpty() ?
-        -1 : Integer.MAX_VALUE), -1, false);
+        (saltHeavyKeys ? getGroupByForClause(parseInfo, dest).size() : -1)
+        : Integer.MAX_VALUE), -1, false);
+    ((ReduceSinkOperator) reduceSinkOperatorInfo).getConf().setSaltHeavyKeys(
+        saltHeavyKeys);
 
     // ////// 2. Generate GroupbyOperator
     Map<String, GenericUDAFEvaluator> genericUDAFEvaluators =
@@ -3231,10 +3250,14 @@ public class SemanticAnalyzer extends BaseSemanticAnalyzer {
     if (!optimizeMapAggrGroupBy(dest, qb)) {
 
       // ////// Generate ReduceSink Operator
+      boolean saltHeavyKeys = saltHeavyKeys(parseInfo, dest);
       Operator reduceSinkOperatorInfo = genGroupByPlanReduceSinkOperator(qb,
           dest, groupByOperatorInfo, (parseInfo
-          .getDistinctFuncExprsForClause(dest).isEmpty() ? -1
+          .getDistinctFuncExprsForClause(dest).isEmpty() ? (saltHeavyKeys ?
+          getGroupByForClause(parseInfo, dest).size() : -1)
           : Integer.MAX_VALUE), -1, true);
+      ((ReduceSinkOperator) reduceSinkOperatorInfo).getConf().setSaltHeavyKeys(
+          saltHeavyKeys);
 
       // ////// Generate GroupbyOperator for a partial aggregation
       Operator groupByOperatorInfo2 = genGroupByPlanGroupByOperator1(parseInfo,
@@ -66,6 +66,24 @@ public class ReduceSinkDesc implements Serializable {
 
   private int numReducers;
 
+  /**
+   * Whether the duplicate rows can be removed before the shuffle, because the
+   * reducer does not depend on how many times a row appears.
+   */
+  private boolean removeDuplicates;
+
+  /**
+   * Whether the rows are partitioned by a hash of their serialized partition
+   * keys, because nothing depends on Hive's hash of the partition columns.
+   */
+  private boolean hashSerializedKey;
+
+  /**
+   * Whether the rows of the heavy keys are spread over the reducers, because
+   * the reducers compute partial aggregations.
+   */
+  private boolean saltHeavyKeys;
+
   public ReduceSinkDesc() {
   }
 
@@ -210,4 +228,28 @@ public class ReduceSinkDesc implements Serializable {
       List<List<Integer>> distinctColumnIndices) {
     this.distinctColumnIndices = distinctColumnIndices;
   }
+
+  public boolean isRemoveDuplicates() {
+    return removeDuplicates;
+  }
+
+  public void setRemoveDuplicates(boolean removeDuplicates) {
+    this.removeDuplicates = removeDuplicates;
+  }
+
+  public boolean isHashSerializedKey() {
+    return hashSerializedKey;
+  }
+
+  public void setHashSerializedKey(boolean hashSerializedKey) {
+    this.hashSerializedKey = hashSerializedKey;
+  }
+
+  public boolean isSaltHeavyKeys() {
+    return saltHeavyKeys;
+  }
+
+  public void setSaltHeavyKeys(boolean saltHeavyKeys) {
+    this.saltHeavyKeys = saltHeavyKeys;
+  }
 }
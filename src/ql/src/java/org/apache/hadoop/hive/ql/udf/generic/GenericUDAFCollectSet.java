@@ -27,6 +27,7 @@ import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
@@ -99,8 +100,14 @@ public class GenericUDAFCollectSet extends AbstractGenericUDAFResolver {
       }
     }
     
-    static class MkArrayAggregationBuffer implements AggregationBuffer {
+    static class MkArrayAggregationBuffer implements EstimableAggregationBuffer {
       Set<Object> container;
+
+      @Override
+      public long estimate() {
+        return ObjectSizeEstimator.object(ObjectSizeEstimator.REFERENCE)
+            + ObjectSizeEstimator.estimate(container);
+      }
     }
     
     @Override
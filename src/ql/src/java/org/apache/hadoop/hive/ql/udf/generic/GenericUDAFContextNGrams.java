@@ -30,6 +30,7 @@ import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
@@ -398,9 +399,15 @@ public class GenericUDAFContextNGrams implements GenericUDAFResolver {
 
 
     // Aggregation buffer methods. 
-    static class NGramAggBuf implements AggregationBuffer {
+    static class NGramAggBuf implements EstimableAggregationBuffer {
       ArrayList<String> context;
       NGramEstimator nge;
+
+      @Override
+      public long estimate() {
+        return ObjectSizeEstimator.object(2 * ObjectSizeEstimator.REFERENCE)
+            + ObjectSizeEstimator.estimate(context) + nge.estimate();
+      }
     };
 
     @Override
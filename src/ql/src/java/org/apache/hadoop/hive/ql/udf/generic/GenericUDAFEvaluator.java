@@ -113,6 +113,19 @@ public abstract class GenericUDAFEvaluator {
   public static interface AggregationBuffer {
   };
 
+  /**
+   * An AggregationBuffer whose size depends on the values aggregated into it,
+   * like a set or a histogram. Hash-based aggregation asks it for its size
+   * instead of guessing one from the declared fields of its class.
+   */
+  public static interface EstimableAggregationBuffer extends AggregationBuffer {
+    /**
+     * @return the approximate number of bytes of heap retained by the buffer,
+     *         the buffer object included
+     */
+    long estimate();
+  }
+
   /**
    * Get a new aggregation object.
    */
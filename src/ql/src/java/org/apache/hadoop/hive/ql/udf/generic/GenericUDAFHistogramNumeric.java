@@ -27,6 +27,7 @@ import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
@@ -233,8 +234,13 @@ public class GenericUDAFHistogramNumeric extends AbstractGenericUDAFResolver {
 
 
     // Aggregation buffer definition and manipulation methods 
-    static class StdAgg implements AggregationBuffer {
+    static class StdAgg implements EstimableAggregationBuffer {
       NumericHistogram histogram; // the histogram object
+
+      @Override
+      public long estimate() {
+        return ObjectSizeEstimator.object(ObjectSizeEstimator.REFERENCE) + histogram.estimate();
+      }
     };
 
     @Override
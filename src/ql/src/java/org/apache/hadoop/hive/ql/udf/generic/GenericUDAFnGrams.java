@@ -26,6 +26,7 @@ import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
@@ -335,9 +336,14 @@ public class GenericUDAFnGrams implements GenericUDAFResolver {
     }
 
     // Aggregation buffer methods. 
-    static class NGramAggBuf implements AggregationBuffer {
+    static class NGramAggBuf implements EstimableAggregationBuffer {
       NGramEstimator nge;
       int n;
+
+      @Override
+      public long estimate() {
+        return ObjectSizeEstimator.object(ObjectSizeEstimator.REFERENCE + 4) + nge.estimate();
+      }
     };
 
     @Override
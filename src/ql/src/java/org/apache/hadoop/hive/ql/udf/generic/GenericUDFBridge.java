@@ -21,9 +21,9 @@ import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 
-import org.apache.hadoop.hive.ql.exec.FunctionRegistry;
 import org.apache.hadoop.hive.ql.exec.UDF;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFMethodInvoker;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFUtils.ConversionHelper;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -106,6 +106,11 @@ public class GenericUDFBridge extends GenericUDF implements Serializable {
    */
   transient Method udfMethod;
 
+  /**
+   * Calls udfMethod without reflection.
+   */
+  transient UDFMethodInvoker udfInvoker;
+
   /**
    * Helper to convert the parameters before passing to udfMethod.
    */
@@ -133,6 +138,7 @@ public class GenericUDFBridge extends GenericUDF implements Serializable {
     }
     udfMethod = udf.getResolver().getEvalMethod(argumentTypeInfos);
     udfMethod.setAccessible(true);
+    udfInvoker = UDFMethodInvoker.get(udfMethod);
 
     // Create parameter converters
     conversionHelper = new ConversionHelper(udfMethod, arguments);
@@ -158,7 +164,7 @@ public class GenericUDFBridge extends GenericUDF implements Serializable {
     }
 
     // Call the function
-    Object result = FunctionRegistry.invoke(udfMethod, udf, conversionHelper
+    Object result = udfInvoker.invoke(udf, conversionHelper
         .convertIfNecessary(realArguments));
 
     return result;
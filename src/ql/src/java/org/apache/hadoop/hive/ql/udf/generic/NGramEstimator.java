@@ -26,6 +26,7 @@ import java.util.Iterator;
 import java.util.Comparator;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -89,6 +90,14 @@ public class NGramEstimator {
     n = pf = k = 0;
   }
 
+  /**
+   * Returns the approximate number of bytes of heap retained by the estimator.
+   */
+  public long estimate() {
+    return ObjectSizeEstimator.object(12 + ObjectSizeEstimator.REFERENCE)
+        + ObjectSizeEstimator.estimate(ngrams);
+  }
+
   /**
    * Returns the final top-k n-grams in a format suitable for returning to Hive.
    */
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
 import java.util.Random;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 
 
@@ -89,6 +90,21 @@ public class NumericHistogram {
     return nusedbins;
   }
 
+  /**
+   * Returns the approximate number of bytes of heap retained by the histogram.
+   */
+  public long estimate() {
+    long size = ObjectSizeEstimator.object(8 + 2 * ObjectSizeEstimator.REFERENCE)
+        // the Random and its seed
+        + ObjectSizeEstimator.object(ObjectSizeEstimator.REFERENCE + 9)
+        + ObjectSizeEstimator.object(8);
+    if (bins != null) {
+      size += ObjectSizeEstimator.array(bins.length, ObjectSizeEstimator.REFERENCE)
+          + bins.length * ObjectSizeEstimator.object(16);
+    }
+    return size;
+  }
+
   /**
    * Returns true if this histogram object has been initialized by calling merge()
    * or allocate(). 
@@ -0,0 +1,272 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.UnionObjectInspector;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Estimates the heap retained by the rows of a map join hashtable, by the
+ * keys of a map side aggregation or by aggregation buffers, from the
+ * ObjectInspectors of their columns.
+ *
+ * The size of the fixed width columns (numbers and booleans) is computed once
+ * from the ObjectInspectors; only strings and complex columns are inspected
+ * for every row. The object layout assumes a HotSpot JVM, with compressed
+ * references on 64 bit JVMs with less than 32GB of heap.
+ */
+public class ObjectSizeEstimator {
+
+  private static final boolean JVM_64 = !"32".equals(System.getProperty("sun.arch.data.model"));
+  private static final boolean COMPRESSED_REFERENCES = JVM_64
+      && Runtime.getRuntime().maxMemory() < (32L << 30);
+
+  public static final int REFERENCE = JVM_64 && !COMPRESSED_REFERENCES ? 8 : 4;
+  public static final int OBJECT_HEADER = !JVM_64 ? 8 : (COMPRESSED_REFERENCES ? 12 : 16);
+  public static final int ARRAY_HEADER = OBJECT_HEADER + 4;
+
+  /**
+   * An ArrayList with its element array.
+   */
+  protected static final long ARRAY_LIST = object(REFERENCE + 8);
+  /**
+   * A HashMap entry, with the share of the bucket array at the default load
+   * factor.
+   */
+  public static final long HASHMAP_ENTRY = object(3 * REFERENCE + 4) + 2 * REFERENCE;
+
+  protected final long fixedSize;
+  protected final int[] variableFields;
+  protected final ObjectInspector[] variableFieldOIs;
+
+  /**
+   * @param fieldOIs
+   *          the standard ObjectInspectors of the columns
+   */
+  public ObjectSizeEstimator(List<ObjectInspector> fieldOIs) {
+    long size = 0;
+    List<Integer> variable = new ArrayList<Integer>();
+    for (int i = 0; i < fieldOIs.size(); i++) {
+      long fieldSize = getFixedSize(fieldOIs.get(i));
+      if (fieldSize < 0) {
+        variable.add(i);
+      } else {
+        size += fieldSize;
+      }
+    }
+    fixedSize = size;
+    variableFields = new int[variable.size()];
+    variableFieldOIs = new ObjectInspector[variable.size()];
+    for (int i = 0; i < variableFields.length; i++) {
+      variableFields[i] = variable.get(i);
+      variableFieldOIs[i] = fieldOIs.get(variableFields[i]);
+    }
+  }
+
+  public static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  public static long object(int fieldBytes) {
+    return align(OBJECT_HEADER + fieldBytes);
+  }
+
+  public static long array(int length, int elementSize) {
+    return align(ARRAY_HEADER + (long) length * elementSize);
+  }
+
+  /**
+   * Size of a row held as an array of columns, null columns excepted.
+   */
+  public long estimate(Object[] row) {
+    long size = array(row.length, REFERENCE) + fixedSize;
+    for (int i = 0; i < variableFields.length; i++) {
+      size += estimate(row[variableFields[i]], variableFieldOIs[i]);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the size of a value of the primitive types which does not depend
+   * on the value, or -1.
+   */
+  private static long getFixedSize(ObjectInspector oi) {
+    if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return -1;
+    }
+    switch (((PrimitiveObjectInspector) oi).getPrimitiveCategory()) {
+    case VOID:
+      return 0;
+    case BOOLEAN:
+    case BYTE:
+      return object(1);
+    case SHORT:
+      return object(2);
+    case INT:
+    case FLOAT:
+      return object(4);
+    case LONG:
+    case DOUBLE:
+      return object(8);
+    default:
+      return -1;
+    }
+  }
+
+  /**
+   * Size of a standard object inspected by oi.
+   */
+  public static long estimate(Object o, ObjectInspector oi) {
+    if (o == null) {
+      return 0;
+    }
+    switch (oi.getCategory()) {
+    case PRIMITIVE: {
+      long size = getFixedSize(oi);
+      if (size >= 0) {
+        return size;
+      }
+      if (o instanceof Text) {
+        return object(REFERENCE + 4) + array(((Text) o).getBytes().length, 1);
+      }
+      if (o instanceof String) {
+        return object(REFERENCE + 12) + array(((String) o).length(), 2);
+      }
+      return object(REFERENCE);
+    }
+    case LIST: {
+      ListObjectInspector loi = (ListObjectInspector) oi;
+      List<?> list = loi.getList(o);
+      long size = ARRAY_LIST + array(list.size(), REFERENCE);
+      for (Object element : list) {
+        size += estimate(element, loi.getListElementObjectInspector());
+      }
+      return size;
+    }
+    case MAP: {
+      MapObjectInspector moi = (MapObjectInspector) oi;
+      Map<?, ?> map = moi.getMap(o);
+      long size = object(4 * REFERENCE + 16) + map.size() * HASHMAP_ENTRY;
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        size += estimate(entry.getKey(), moi.getMapKeyObjectInspector());
+        size += estimate(entry.getValue(), moi.getMapValueObjectInspector());
+      }
+      return size;
+    }
+    case STRUCT: {
+      StructObjectInspector soi = (StructObjectInspector) oi;
+      List<? extends StructField> fields = soi.getAllStructFieldRefs();
+      long size = ARRAY_LIST + array(fields.size(), REFERENCE);
+      for (StructField field : fields) {
+        size += estimate(soi.getStructFieldData(o, field), field.getFieldObjectInspector());
+      }
+      return size;
+    }
+    case UNION: {
+      UnionObjectInspector uoi = (UnionObjectInspector) oi;
+      byte tag = uoi.getTag(o);
+      return object(REFERENCE + 1)
+          + estimate(uoi.getField(o), uoi.getObjectInspectors().get(tag));
+    }
+    default:
+      return object(REFERENCE);
+    }
+  }
+
+  /**
+   * Size of a java or writable object of a standard type, when there is no
+   * ObjectInspector at hand (in the aggregation buffers of the UDAFs).
+   */
+  public static long estimate(Object o) {
+    if (o == null) {
+      return 0;
+    }
+    if (o instanceof Boolean || o instanceof Byte || o instanceof BooleanWritable
+        || o instanceof ByteWritable) {
+      return object(1);
+    }
+    if (o instanceof Short || o instanceof ShortWritable) {
+      return object(2);
+    }
+    if (o instanceof Integer || o instanceof Float || o instanceof IntWritable
+        || o instanceof FloatWritable) {
+      return object(4);
+    }
+    if (o instanceof Number || o instanceof LongWritable || o instanceof DoubleWritable) {
+      return object(8);
+    }
+    if (o instanceof Text) {
+      return object(REFERENCE + 4) + array(((Text) o).getBytes().length, 1);
+    }
+    if (o instanceof String) {
+      return object(REFERENCE + 12) + array(((String) o).length(), 2);
+    }
+    if (o instanceof List) {
+      List<?> list = (List<?>) o;
+      long size = ARRAY_LIST + array(list.size(), REFERENCE);
+      for (Object element : list) {
+        size += estimate(element);
+      }
+      return size;
+    }
+    if (o instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) o;
+      long size = object(4 * REFERENCE + 16) + map.size() * HASHMAP_ENTRY;
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        size += estimate(entry.getKey()) + estimate(entry.getValue());
+      }
+      return size;
+    }
+    if (o instanceof Set) {
+      // a HashSet is a HashMap of its elements
+      Set<?> set = (Set<?>) o;
+      long size = object(REFERENCE) + object(4 * REFERENCE + 16) + set.size() * HASHMAP_ENTRY;
+      for (Object element : set) {
+        size += estimate(element);
+      }
+      return size;
+    }
+    if (o instanceof Object[]) {
+      Object[] array = (Object[]) o;
+      long size = array(array.length, REFERENCE);
+      for (Object element : array) {
+        size += estimate(element);
+      }
+      return size;
+    }
+    return object(REFERENCE);
+  }
+}
@@ -0,0 +1,175 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * PerformTestGroupByHashTable compares the map side hash aggregation of
+ * GroupByOperator with the HashMap of aggregation buffers and with the flat
+ * GroupByHashTable, for select k, count(1), sum(v), max(v) group by k.
+ *
+ * Usage: PerformTestGroupByHashTable [-count rows] [-keys n]
+ */
+public class PerformTestGroupByHashTable {
+
+  /**
+   * Counts the rows forwarded by the group by.
+   */
+  private static class CountOperator extends Operator<CollectDesc> {
+    private static final long serialVersionUID = 1L;
+    private long numRows;
+
+    @Override
+    public void processOp(Object row, int tag) {
+      numRows++;
+    }
+
+    @Override
+    public OperatorType getType() {
+      return null;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int count = 5000000;
+    int keys = 500000;
+
+    for (int i = 0; i < args.length; ++i) { // parse command line
+      if (args[i] == null) {
+        continue;
+      } else if (args[i].equals("-count")) {
+        count = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-keys")) {
+        keys = Integer.parseInt(args[++i]);
+      }
+    }
+
+    PerformTestGroupByHashTable test = new PerformTestGroupByHashTable();
+    // once to warm up the JIT
+    test.run(false, count / 10, keys / 10, false);
+    test.run(true, count / 10, keys / 10, false);
+    test.run(false, count, keys, true);
+    test.run(true, count, keys, true);
+  }
+
+  private void run(boolean flat, int rowCount, int keyCount, boolean print) throws Exception {
+    HiveConf conf = new HiveConf(PerformTestGroupByHashTable.class);
+    conf.setBoolVar(HiveConf.ConfVars.HIVEMAPAGGRHASHFLAT, flat);
+    conf.setBoolVar(HiveConf.ConfVars.HIVEMAPAGGRHASHSPILL, false);
+    // never give up on the hash aggregation
+    conf.setFloatVar(HiveConf.ConfVars.HIVEMAPAGGRHASHMINREDUCTION, 1.0f);
+
+    GroupByOperator op = createOperator();
+    CountOperator sink = new CountOperator();
+    sink.setConf(new CollectDesc(1));
+    List<Operator<? extends Serializable>> children =
+        new ArrayList<Operator<? extends Serializable>>();
+    children.add(sink);
+    op.setChildOperators(children);
+    List<Operator<? extends Serializable>> parents =
+        new ArrayList<Operator<? extends Serializable>>();
+    parents.add(op);
+    sink.setParentOperators(parents);
+
+    // the keys are built beforehand, not to measure their allocation, and
+    // used after the measure, not to be collected by it
+    Text[] keys = new Text[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keys[i] = new Text("key_" + i);
+    }
+    IntWritable value = new IntWritable();
+    List<Object> row = new ArrayList<Object>(Arrays.<Object>asList(null, value));
+    Random random = new Random(11);
+
+    StructObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays
+        .asList("k", "v"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    long base = usedMemory();
+    op.initialize(conf, new ObjectInspector[] {rowOI});
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < rowCount; i++) {
+      row.set(0, keys[random.nextInt(keyCount)]);
+      value.set(i);
+      op.process(row, 0);
+    }
+    long cost = System.currentTimeMillis() - start;
+    long retained = usedMemory() - base;
+    op.close(false);
+
+    if (print) {
+      System.out.println((flat ? "GroupByHashTable" : "HashMap") + ": aggregate " + rowCount
+          + " rows cost " + cost + " milliseconds (" + rowCount * 1000L / Math.max(1, cost)
+          + " rows/sec). Retained heap is " + retained + " for " + sink.numRows + " groups of "
+          + keys.length + " keys (" + retained / Math.max(1, sink.numRows)
+          + " bytes per group)");
+    }
+  }
+
+  private GroupByOperator createOperator() throws Exception {
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "k", "", false));
+    ArrayList<AggregationDesc> aggregations = new ArrayList<AggregationDesc>();
+    aggregations.add(new AggregationDesc("count", FunctionRegistry.getGenericUDAFEvaluator(
+        "count", new ArrayList<TypeInfo>(), false, true), new ArrayList<ExprNodeDesc>(), false,
+        GenericUDAFEvaluator.Mode.PARTIAL1));
+    for (String name : new String[] {"sum", "max"}) {
+      ArrayList<ExprNodeDesc> parameters = new ArrayList<ExprNodeDesc>();
+      parameters.add(new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "v", "", false));
+      aggregations.add(new AggregationDesc(name, FunctionRegistry.getGenericUDAFEvaluator(name,
+          Arrays.<TypeInfo>asList(TypeInfoFactory.intTypeInfo), false, false), parameters,
+          false, GenericUDAFEvaluator.Mode.PARTIAL1));
+    }
+    ArrayList<String> outputColumns = new ArrayList<String>(Arrays.asList("_col0", "_col1",
+        "_col2", "_col3"));
+    // let the table take most of the heap, not to flush while measuring
+    GroupByDesc desc = new GroupByDesc(GroupByDesc.Mode.HASH, outputColumns, keys,
+        aggregations, false, 0.5f, 0.9f);
+    return (GroupByOperator) OperatorFactory.get(desc);
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,205 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.exec.persistence.AbstractHashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.AbstractMapJoinKey;
+import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.LongHashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinHashTableFile;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinSingleKey;
+import org.apache.hadoop.hive.ql.exec.persistence.MappedHashMapWrapper;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * PerformTestMapJoinHashTable compares dumping and loading a map join
+ * hashtable in the java serialization format and in MapJoinHashTableFile,
+ * and probing it on the heap, with primitive long keys and memory mapped.
+ *
+ * Usage: PerformTestMapJoinHashTable [-count rows] [-columns n] [file]
+ */
+public class PerformTestMapJoinHashTable {
+
+  private final File javaFile;
+  private final File compactFile;
+
+  public PerformTestMapJoinHashTable(String file) {
+    if (file == null) {
+      File dir = new File(System.getProperty("test.data.dir", "."));
+      javaFile = new File(dir, "test_hashtable_java");
+      compactFile = new File(dir, "test_hashtable_compact");
+    } else {
+      javaFile = new File(file + "-java");
+      compactFile = new File(file + "-compact");
+    }
+    javaFile.deleteOnExit();
+    compactFile.deleteOnExit();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int count = 1000000;
+    int columnNum = 5;
+    String file = null;
+
+    for (int i = 0; i < args.length; ++i) { // parse command line
+      if (args[i] == null) {
+        continue;
+      } else if (args[i].equals("-count")) {
+        count = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-columns")) {
+        columnNum = Integer.parseInt(args[++i]);
+      } else {
+        file = args[i];
+      }
+    }
+
+    new PerformTestMapJoinHashTable(file).run(count, columnNum);
+  }
+
+  private void run(int rowCount, int columnNum) throws Exception {
+    StringBuilder columns = new StringBuilder();
+    StringBuilder types = new StringBuilder();
+    for (int i = 0; i < columnNum; i++) {
+      columns.append(i == 0 ? "" : ",").append("value" + i);
+      types.append(i == 0 ? "" : ",").append("string");
+    }
+    TestMapJoinHashTableFile.setUpMetaData("key", "bigint", columns.toString(), types.toString());
+
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = generate(rowCount,
+        columnNum);
+
+    long start = System.currentTimeMillis();
+    hashTable.flushMemoryCacheToPersistent(javaFile);
+    long cost = System.currentTimeMillis() - start;
+    System.out.println("Dump " + rowCount + " rows with java serialization cost " + cost
+        + " milliseconds. File size is " + javaFile.length());
+
+    start = System.currentTimeMillis();
+    MapJoinHashTableFile.write(hashTable.getMHash(), compactFile);
+    cost = System.currentTimeMillis() - start;
+    System.out.println("Dump " + rowCount + " rows with MapJoinHashTableFile cost " + cost
+        + " milliseconds. File size is " + compactFile.length());
+
+    hashTable.clear();
+    hashTable = null;
+
+    long base = usedMemory();
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> loaded =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    start = System.currentTimeMillis();
+    loaded.initilizePersistentHash(javaFile.getPath());
+    cost = System.currentTimeMillis() - start;
+    System.out.println("Load java serialization file cost " + cost
+        + " milliseconds. Retained heap is " + (usedMemory() - base));
+    loaded.clear();
+
+    base = usedMemory();
+    loaded = new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    start = System.currentTimeMillis();
+    MapJoinHashTableFile.load(compactFile, loaded);
+    cost = System.currentTimeMillis() - start;
+    System.out.println("Load MapJoinHashTableFile cost " + cost
+        + " milliseconds. Retained heap is " + (usedMemory() - base));
+    probe(loaded, rowCount);
+    loaded.clear();
+
+    base = usedMemory();
+    LongHashMapWrapper longKeyed = new LongHashMapWrapper(PrimitiveCategory.LONG);
+    start = System.currentTimeMillis();
+    MapJoinHashTableFile.load(compactFile, longKeyed);
+    cost = System.currentTimeMillis() - start;
+    System.out.println("Load MapJoinHashTableFile with long keys cost " + cost
+        + " milliseconds. Retained heap is " + (usedMemory() - base));
+    probe(longKeyed, rowCount);
+    longKeyed.clear();
+
+    base = usedMemory();
+    start = System.currentTimeMillis();
+    MappedHashMapWrapper mapped = new MappedHashMapWrapper(compactFile);
+    cost = System.currentTimeMillis() - start;
+    System.out.println("Map MapJoinHashTableFile cost " + cost
+        + " milliseconds. Retained heap is " + (usedMemory() - base));
+    probe(mapped, rowCount);
+    mapped.close();
+  }
+
+  private void probe(AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable,
+      int rowCount) {
+    Random random = new Random(11);
+    long start = System.currentTimeMillis();
+    int found = 0;
+    for (int i = 0; i < rowCount; i++) {
+      // half of the probes miss
+      long key = random.nextInt(rowCount * 2);
+      if (hashTable.get(new MapJoinSingleKey(new LongWritable(key))) != null) {
+        found++;
+      }
+    }
+    long cost = System.currentTimeMillis() - start;
+    System.out.println("Probe " + rowCount + " keys (" + found + " found) in "
+        + hashTable.getClass().getSimpleName() + " cost " + cost + " milliseconds");
+  }
+
+  /**
+   * Probe the way MapJoinOperator does for a single integral key, without a
+   * key object.
+   */
+  private void probe(LongHashMapWrapper hashTable, int rowCount) {
+    Random random = new Random(11);
+    long start = System.currentTimeMillis();
+    int found = 0;
+    for (int i = 0; i < rowCount; i++) {
+      long key = random.nextInt(rowCount * 2);
+      if (hashTable.get(key) != null) {
+        found++;
+      }
+    }
+    long cost = System.currentTimeMillis() - start;
+    System.out.println("Probe " + rowCount + " long keys (" + found + " found) in "
+        + hashTable.getClass().getSimpleName() + " cost " + cost + " milliseconds");
+  }
+
+  private HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> generate(int rowCount,
+      int columnNum) throws Exception {
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    for (int i = 0; i < rowCount; i++) {
+      Object[] row = new Object[columnNum];
+      for (int j = 0; j < columnNum; j++) {
+        row[j] = new Text("value_" + j + "_" + i);
+      }
+      hashTable.put(new MapJoinSingleKey(new LongWritable(i)), TestMapJoinHashTableFile
+          .getValue(row));
+    }
+    return hashTable;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,137 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.io.HiveKey;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.PlanUtils;
+import org.apache.hadoop.hive.ql.plan.ReduceSinkDesc;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.OutputCollector;
+
+/**
+ * PerformTestReduceSinkOperator measures the throughput of ReduceSinkOperator
+ * for a join like reduce sink of (k1 string, k2 int) keys and a string value,
+ * partitioned by the hash of the partition columns or by the hash of the
+ * serialized keys.
+ *
+ * Usage: PerformTestReduceSinkOperator [-count rows] [-keys n]
+ */
+public class PerformTestReduceSinkOperator {
+
+  /**
+   * Counts the emitted records and their bytes.
+   */
+  private static class CountCollector implements OutputCollector<HiveKey, Writable> {
+    private long numRecords;
+    private long numKeyBytes;
+    private long hashCodes;
+
+    public void collect(HiveKey key, Writable value) throws IOException {
+      numRecords++;
+      numKeyBytes += key.getLength();
+      hashCodes += key.hashCode();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int count = 5000000;
+    int keys = 500000;
+
+    for (int i = 0; i < args.length; ++i) { // parse command line
+      if (args[i] == null) {
+        continue;
+      } else if (args[i].equals("-count")) {
+        count = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-keys")) {
+        keys = Integer.parseInt(args[++i]);
+      }
+    }
+
+    PerformTestReduceSinkOperator test = new PerformTestReduceSinkOperator();
+    // once to warm up the JIT
+    test.run(false, count / 10, keys / 10, false);
+    test.run(true, count / 10, keys / 10, false);
+    test.run(false, count, keys, true);
+    test.run(true, count, keys, true);
+  }
+
+  private void run(boolean hashSerializedKey, int rowCount, int keyCount, boolean print)
+      throws Exception {
+    ArrayList<ExprNodeDesc> keyCols = new ArrayList<ExprNodeDesc>();
+    keyCols.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "k1", "", false));
+    keyCols.add(new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "k2", "", false));
+    ArrayList<ExprNodeDesc> valueCols = new ArrayList<ExprNodeDesc>();
+    valueCols.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "v", "", false));
+    ReduceSinkDesc desc = PlanUtils.getReduceSinkDesc(keyCols, valueCols,
+        Arrays.asList("_col0"), false, 0, keyCols.size(), -1);
+    desc.setHashSerializedKey(hashSerializedKey);
+    ReduceSinkOperator op = (ReduceSinkOperator) OperatorFactory.get(desc);
+
+    // the keys are built beforehand, not to measure their allocation
+    Text[] keys = new Text[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keys[i] = new Text("key_" + i);
+    }
+    IntWritable k2 = new IntWritable();
+    Text value = new Text("a value of a few dozen bytes, like a name or a url");
+    List<Object> row = new ArrayList<Object>(Arrays.<Object>asList(null, k2, value));
+    Random random = new Random(11);
+
+    StructObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays
+        .asList("k1", "k2", "v"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+    op.initialize(new HiveConf(PerformTestReduceSinkOperator.class),
+        new ObjectInspector[] {rowOI});
+    CountCollector collector = new CountCollector();
+    op.setOutputCollector(collector);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < rowCount; i++) {
+      int key = random.nextInt(keyCount);
+      row.set(0, keys[key]);
+      k2.set(key % 100);
+      op.process(row, 0);
+    }
+    long cost = System.currentTimeMillis() - start;
+    op.close(false);
+
+    if (print) {
+      System.out.println((hashSerializedKey ? "serialized key hash" : "partition column hash")
+          + ": sink " + collector.numRecords + " rows cost " + cost + " milliseconds ("
+          + rowCount * 1000L / Math.max(1, cost) + " rows/sec), " + collector.numKeyBytes
+          + " key bytes (hash sum " + collector.hashCodes + ")");
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.lang.reflect.Method;
+
+import org.apache.hadoop.hive.ql.udf.UDFOPPlus;
+import org.apache.hadoop.hive.ql.udf.UDFSubstr;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * PerformTestUDFMethodInvoker compares the calls of UDF methods through
+ * Method.invoke and through the generated UDFMethodInvokers, for + on ints
+ * and substr.
+ *
+ * Usage: PerformTestUDFMethodInvoker [-count calls]
+ */
+public class PerformTestUDFMethodInvoker {
+
+  public static void main(String[] args) throws Exception {
+    int count = 50000000;
+
+    for (int i = 0; i < args.length; ++i) { // parse command line
+      if (args[i] == null) {
+        continue;
+      } else if (args[i].equals("-count")) {
+        count = Integer.parseInt(args[++i]);
+      }
+    }
+
+    Method plus = UDFOPPlus.class.getMethod("evaluate", IntWritable.class, IntWritable.class);
+    Object[] plusArgs = {new IntWritable(1), new IntWritable(2)};
+    Method substr = UDFSubstr.class.getMethod("evaluate", Text.class, IntWritable.class,
+        IntWritable.class);
+    Object[] substrArgs = {new Text("performance"), new IntWritable(3), new IntWritable(4)};
+
+    // once to warm up the JIT
+    for (boolean print : new boolean[] {false, true}) {
+      int n = print ? count : count / 10;
+      run("+", plus, new UDFOPPlus(), plusArgs, n, print);
+      run("substr", substr, new UDFSubstr(), substrArgs, n, print);
+    }
+  }
+
+  private static void run(String name, Method method, UDF udf, Object[] args, int count,
+      boolean print) throws Exception {
+    method.setAccessible(true);
+    UDFMethodInvoker[] invokers = {UDFMethodInvoker.getReflectionInvoker(method),
+        UDFMethodInvoker.get(method)};
+    for (UDFMethodInvoker invoker : invokers) {
+      // the results are used, not to let the JIT remove the calls
+      int hash = 0;
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < count; i++) {
+        hash += invoker.invoke(udf, args).hashCode();
+      }
+      long cost = System.currentTimeMillis() - start;
+      if (print) {
+        System.out.println(name + " through "
+            + (invoker == invokers[0] ? "Method.invoke" : "the generated invoker") + ": "
+            + count + " calls cost " + cost + " milliseconds (" + count * 1000L
+            / Math.max(1, cost) + " calls/sec, hash " + hash + ")");
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Checks that the compiled expressions return the same results as the
+ * evaluators.
+ */
+public class TestExprNodeCompiler extends TestCase {
+
+  private ObjectInspector rowOI;
+  private List<List<Object>> rows;
+
+  private ExprNodeDesc i;
+  private ExprNodeDesc l;
+  private ExprNodeDesc d;
+  private ExprNodeDesc s;
+
+  @Override
+  protected void setUp() {
+    List<String> names = Arrays.asList("i", "l", "d", "s");
+    List<TypeInfo> types = Arrays.asList(TypeInfoFactory.intTypeInfo,
+        TypeInfoFactory.longTypeInfo, TypeInfoFactory.doubleTypeInfo,
+        TypeInfoFactory.stringTypeInfo);
+    rowOI = TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(
+        TypeInfoFactory.getStructTypeInfo(names, types));
+    i = new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "i", "", false);
+    l = new ExprNodeColumnDesc(TypeInfoFactory.longTypeInfo, "l", "", false);
+    d = new ExprNodeColumnDesc(TypeInfoFactory.doubleTypeInfo, "d", "", false);
+    s = new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "s", "", false);
+
+    rows = new ArrayList<List<Object>>();
+    for (int k = 0; k < 40; k++) {
+      List<Object> row = new ArrayList<Object>();
+      row.add(k % 7 == 0 ? null : new IntWritable(k % 5 - 2));
+      row.add(k % 5 == 3 ? null : new LongWritable(k % 3));
+      row.add(k % 6 == 1 ? null : new DoubleWritable(k * 0.25 - 3));
+      row.add(k % 4 == 2 ? null : new Text(String.valueOf((char) ('a' + k % 3))));
+      rows.add(row);
+    }
+  }
+
+  private static ExprNodeDesc func(String name, ExprNodeDesc... children) throws Exception {
+    return TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(name, children);
+  }
+
+  private static ExprNodeDesc constant(Object value) {
+    return new ExprNodeConstantDesc(value);
+  }
+
+  private void check(ExprNodeDesc expr) throws Exception {
+    ExprNodeEvaluator expected = ExprNodeEvaluatorFactory.get(expr);
+    ObjectInspector expectedOI = expected.initialize(rowOI);
+    ExprNodeCompiler.CompiledExpression compiled = ExprNodeCompiler.compile(expr, rowOI);
+    assertNotNull(expr.getExprString(), compiled);
+    ObjectInspector compiledOI = compiled.getOutputObjectInspector();
+    assertEquals(expectedOI.getTypeName(), compiledOI.getTypeName());
+    for (List<Object> row : rows) {
+      Object e = ObjectInspectorUtils.copyToStandardObject(expected.evaluate(row), expectedOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      Object c = ObjectInspectorUtils.copyToStandardObject(compiled.evaluate(row), compiledOI,
+          ObjectInspectorCopyOption.WRITABLE);
+      // compared as strings, NaN is not equal to itself
+      assertEquals(expr.getExprString() + " on " + row, String.valueOf(e), String.valueOf(c));
+    }
+  }
+
+  public void testArithmetic() throws Exception {
+    check(func("+", i, constant(1)));
+    check(func("*", i, l));
+    check(func("-", d, i));
+    check(func("/", i, l));
+  }
+
+  public void testComparisons() throws Exception {
+    check(func(">", func("+", i, constant(1)), l));
+    check(func("<=", func("/", d, i), constant(2.5)));
+    check(func("<", i, d));
+    check(func("=", i, l));
+    check(func("<>", l, constant(1L)));
+    check(func(">=", d, constant(0.0)));
+    check(func("=", s, constant("b")));
+    check(func("<", s, constant("b")));
+  }
+
+  public void testLogic() throws Exception {
+    check(func("OR", func("AND", func(">", i, constant(0)), func("isnotnull", l)),
+        func("NOT", func("=", d, constant(0.0)))));
+    check(func("AND", func("<", i, constant(1)), func(">", d, constant(-1.0))));
+    check(func("OR", func("<", i, constant(1)), func(">", d, constant(-1.0))));
+    check(func("isnull", s));
+  }
+
+  public void testEvaluatorArguments() throws Exception {
+    // concat is not compiled, the comparison calls its evaluator
+    check(func("=", func("concat", s, constant("x")), constant("bx")));
+    check(func("AND", func("isnotnull", func("concat", s, s)), func(">", i, constant(0))));
+  }
+
+  public void testClassCache() throws Exception {
+    assertNotNull(ExprNodeCompiler.compile(func(">", i, constant(1)), rowOI));
+    int classes = ExprNodeCompiler.getNumClasses();
+    // only the constant differs
+    ExprNodeCompiler.CompiledExpression compiled = ExprNodeCompiler.compile(
+        func(">", i, constant(-1)), rowOI);
+    assertEquals(classes, ExprNodeCompiler.getNumClasses());
+    assertTrue(((BooleanWritable) compiled.evaluate(rows.get(4))).get());
+    // the type of the constant differs
+    ExprNodeCompiler.compile(func(">", i, constant(1L)), rowOI);
+    assertEquals(classes + 1, ExprNodeCompiler.getNumClasses());
+  }
+
+  public void testNotCompiled() throws Exception {
+    assertNull(ExprNodeCompiler.compile(i, rowOI));
+    assertNull(ExprNodeCompiler.compile(func("concat", s, s), rowOI));
+  }
+
+  public void testAsmJar() throws Exception {
+    // asm is a jar of its own, shipped to the tasks along with hive-exec
+    String asmJar = ExprNodeCompiler.getAsmJar();
+    assertNotNull(asmJar);
+    assertTrue(asmJar, asmJar.matches(".*asm[^/]*\\.jar"));
+  }
+}
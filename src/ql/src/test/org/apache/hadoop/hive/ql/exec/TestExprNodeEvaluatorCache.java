@@ -0,0 +1,109 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFBridge;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * TestExprNodeEvaluatorCache.
+ *
+ */
+public class TestExprNodeEvaluatorCache extends TestCase {
+
+  /**
+   * Counts its calls.
+   */
+  public static class UDFCountCalls extends UDF {
+    static int calls;
+    private final IntWritable result = new IntWritable();
+
+    public IntWritable evaluate(IntWritable x) {
+      calls++;
+      if (x == null) {
+        return null;
+      }
+      result.set(x.get() * 10);
+      return result;
+    }
+  }
+
+  private ExprNodeDesc x;
+  private ObjectInspector rowOI;
+
+  @Override
+  protected void setUp() {
+    UDFCountCalls.calls = 0;
+    x = new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "x", "", false);
+    rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays.asList("x"), Arrays
+        .<ObjectInspector>asList(PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+  }
+
+  private static ExprNodeDesc countCalls(ExprNodeDesc arg) throws Exception {
+    return ExprNodeGenericFuncDesc.newInstance(new GenericUDFBridge("count_calls", false,
+        UDFCountCalls.class), new ArrayList<ExprNodeDesc>(Arrays.asList(arg)));
+  }
+
+  private static ExprNodeDesc func(String name, ExprNodeDesc... children) throws Exception {
+    return TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(name, children);
+  }
+
+  public void testSharedSubexpression() throws Exception {
+    // select count_calls(x), count_calls(x) + 1, count_calls(x + 0)
+    List<ExprNodeDesc> exprs = Arrays.asList(countCalls(x), func("+", countCalls(x),
+        new ExprNodeConstantDesc(1)), countCalls(func("+", x, new ExprNodeConstantDesc(0))));
+    ExprNodeEvaluatorCache cache = new ExprNodeEvaluatorCache(exprs);
+    assertEquals(1, cache.getNumShared());
+    ExprNodeEvaluator[] evals = new ExprNodeEvaluator[exprs.size()];
+    for (int i = 0; i < evals.length; i++) {
+      evals[i] = cache.get(exprs.get(i));
+      evals[i].initialize(rowOI);
+    }
+    for (int row = 0; row < 3; row++) {
+      cache.newRow();
+      List<Object> r = Arrays.<Object>asList(new IntWritable(row));
+      assertEquals(new IntWritable(row * 10), evals[0].evaluate(r));
+      assertEquals(new IntWritable(row * 10 + 1), evals[1].evaluate(r));
+      assertEquals(new IntWritable(row * 10), evals[2].evaluate(r));
+      // count_calls(x) once, and count_calls(x + 0)
+      assertEquals((row + 1) * 2, UDFCountCalls.calls);
+    }
+  }
+
+  public void testNonDeterministic() throws Exception {
+    // rand() is evaluated for each of its occurrences
+    List<ExprNodeDesc> exprs = Arrays.asList(func("rand"), func("rand"),
+        func("+", func("rand"), new ExprNodeConstantDesc(1.0)));
+    assertEquals(0, new ExprNodeEvaluatorCache(exprs).getNumShared());
+  }
+}
@@ -0,0 +1,143 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.plan.FilterDesc;
+import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFBridge;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * TestFilterOperator: the conjuncts of the predicates are reordered by cost
+ * and pass rate.
+ *
+ */
+public class TestFilterOperator extends TestCase {
+
+  /**
+   * An expensive predicate, true for the even numbers, which counts its calls.
+   */
+  public static class UDFSlowEven extends UDF {
+    static int calls;
+    static long sink;
+    private final BooleanWritable result = new BooleanWritable();
+
+    public BooleanWritable evaluate(IntWritable x) {
+      calls++;
+      long h = x.get();
+      for (int i = 0; i < 2000; i++) {
+        h = h * 31 + i;
+      }
+      sink += h;
+      result.set(x.get() % 2 == 0);
+      return result;
+    }
+  }
+
+  /**
+   * Counts the rows.
+   */
+  private static class CountOperator extends Operator<CollectDesc> {
+    private static final long serialVersionUID = 1L;
+    private int numRows;
+
+    @Override
+    public void processOp(Object row, int tag) {
+      numRows++;
+    }
+
+    @Override
+    public OperatorType getType() {
+      return null;
+    }
+  }
+
+  private int run(boolean reorder, FilterOperator[] filterOut) throws Exception {
+    ExprNodeDesc a = new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "a", "", false);
+    ExprNodeDesc slow = ExprNodeGenericFuncDesc.newInstance(new GenericUDFBridge("slow_even",
+        false, UDFSlowEven.class), new ArrayList<ExprNodeDesc>(Arrays.asList(a)));
+    // slow_even(a) and a < 100 and a is not null
+    ExprNodeDesc predicate = TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(
+        "and", TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc("and", slow,
+        TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc("<", a,
+        new ExprNodeConstantDesc(100))), TypeCheckProcFactory.DefaultExprProcessor
+        .getFuncExprNodeDesc("isnotnull", a));
+    FilterOperator filter = (FilterOperator) OperatorFactory.get(new FilterDesc(predicate,
+        false));
+    CountOperator sink = new CountOperator();
+    sink.setConf(new CollectDesc(1));
+    filter.setChildOperators(new ArrayList<Operator<? extends java.io.Serializable>>(
+        Arrays.<Operator<? extends java.io.Serializable>>asList(sink)));
+    sink.setParentOperators(new ArrayList<Operator<? extends java.io.Serializable>>(
+        Arrays.<Operator<? extends java.io.Serializable>>asList(filter)));
+
+    HiveConf conf = new HiveConf(TestFilterOperator.class);
+    conf.setBoolVar(HiveConf.ConfVars.HIVEFILTERREORDER, reorder);
+    conf.setIntVar(HiveConf.ConfVars.HIVEFILTERREORDERINTERVAL, 1000);
+    ObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays
+        .asList("a"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    filter.initialize(conf, new ObjectInspector[] {rowOI});
+    IntWritable value = new IntWritable();
+    List<Object> row = Arrays.<Object>asList(value);
+    for (int i = 0; i < 20000; i++) {
+      value.set(i % 1000);
+      filter.process(row, 0);
+    }
+    filter.close(false);
+    filterOut[0] = filter;
+    return sink.numRows;
+  }
+
+  public void testReorder() throws Exception {
+    FilterOperator[] filter = new FilterOperator[1];
+    UDFSlowEven.calls = 0;
+    assertEquals(20 * 50, run(false, filter));
+    assertEquals(20000, UDFSlowEven.calls);
+
+    UDFSlowEven.calls = 0;
+    assertEquals(20 * 50, run(true, filter));
+    // a < 100 is evaluated first after the first reorder
+    assertTrue(String.valueOf(UDFSlowEven.calls), UDFSlowEven.calls < 20000 / 2);
+    // then slow_even(a), and isnotnull(a) which filters nothing out
+    int[] order = filter[0].getConjunctOrder();
+    assertEquals(3, order.length);
+    assertEquals(1, order[0]);
+    assertEquals(0, order[1]);
+    assertEquals(2, order[2]);
+    assertTrue(filter[0].getStats().get(FilterOperator.Counter.REORDERED) > 0);
+  }
+}
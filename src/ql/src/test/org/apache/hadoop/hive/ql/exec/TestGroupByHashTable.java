@@ -0,0 +1,149 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardStructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestGroupByHashTable.
+ *
+ */
+public class TestGroupByHashTable extends TestCase {
+
+  private static GroupByHashTable.Aggregator getAggregator(String name, TypeInfo type,
+      ObjectInspector oi) throws Exception {
+    List<TypeInfo> types = new ArrayList<TypeInfo>();
+    ObjectInspector[] ois = new ObjectInspector[0];
+    if (type != null) {
+      types.add(type);
+      ois = new ObjectInspector[] {oi};
+    }
+    GenericUDAFEvaluator evaluator = FunctionRegistry.getGenericUDAFEvaluator(name, types,
+        false, type == null);
+    evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, ois);
+    AggregationDesc aggr = new AggregationDesc(name, evaluator, new ArrayList<ExprNodeDesc>(),
+        false, GenericUDAFEvaluator.Mode.PARTIAL1);
+    return GroupByHashTable.getAggregator(aggr, evaluator, ois);
+  }
+
+  public void testAggregations() throws Exception {
+    StandardStructObjectInspector keyOI = ObjectInspectorFactory
+        .getStandardStructObjectInspector(Arrays.asList("k", "i"), Arrays
+        .<ObjectInspector>asList(PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    ObjectInspector intOI = PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+    ObjectInspector doubleOI = PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+    GroupByHashTable.Aggregator[] aggregators = new GroupByHashTable.Aggregator[] {
+        getAggregator("count", null, null),
+        getAggregator("sum", TypeInfoFactory.intTypeInfo, intOI),
+        getAggregator("sum", TypeInfoFactory.doubleTypeInfo, doubleOI),
+        getAggregator("max", TypeInfoFactory.intTypeInfo, intOI),
+        getAggregator("min", TypeInfoFactory.doubleTypeInfo, doubleOI)};
+    for (GroupByHashTable.Aggregator aggregator : aggregators) {
+      assertNotNull(aggregator);
+    }
+    assertNull(getAggregator("avg", TypeInfoFactory.intTypeInfo, intOI));
+    assertNull(getAggregator("max", TypeInfoFactory.stringTypeInfo,
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+
+    GroupByHashTable table = new GroupByHashTable(keyOI, aggregators);
+    Map<String, Integer> groups = new HashMap<String, Integer>();
+    // enough groups to grow the table
+    int numKeys = 5000;
+    for (int row = 0; row < 4 * numKeys; row++) {
+      int k = row % numKeys;
+      // a null key is a key of its own
+      Text key = k == 0 ? null : new Text("key" + k);
+      int group = table.getGroup(new Object[] {key, new IntWritable(k % 3)});
+      assertEquals(!groups.containsKey("key" + k), table.isNewGroup());
+      if (table.isNewGroup()) {
+        groups.put("key" + k, group);
+      } else {
+        assertEquals(groups.get("key" + k).intValue(), group);
+      }
+      IntWritable value = row % 4 == 3 ? null : new IntWritable(row);
+      table.aggregate(group, 0, new Object[0]);
+      table.aggregate(group, 1, new Object[] {value});
+      table.aggregate(group, 2, new Object[] {value == null ? null : new DoubleWritable(row)});
+      table.aggregate(group, 3, new Object[] {value});
+      table.aggregate(group, 4, new Object[] {value == null ? null
+          : new DoubleWritable(-row)});
+    }
+    assertEquals(numKeys, table.size());
+
+    for (int k = 0; k < numKeys; k++) {
+      Object[] row = table.getOutputRow(groups.get("key" + k));
+      assertEquals(k == 0 ? null : new Text("key" + k), row[0]);
+      assertEquals(new IntWritable(k % 3), row[1]);
+      // the rows of the key are k, k + numKeys, ..., the value of row r is
+      // null if r % 4 == 3, that is for all the rows of the keys k % 4 == 3
+      long sum = 0;
+      int max = Integer.MIN_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int v = k + i * numKeys;
+        if (v % 4 != 3) {
+          sum += v;
+          max = Math.max(max, v);
+        }
+      }
+      assertEquals(new LongWritable(4), row[2]);
+      if (k % 4 == 3) {
+        // no value
+        assertNull(row[3]);
+        assertNull(row[4]);
+        assertNull(row[5]);
+        assertNull(row[6]);
+        continue;
+      }
+      assertEquals(new LongWritable(sum), row[3]);
+      assertEquals(new DoubleWritable(sum), row[4]);
+      assertEquals(Integer.valueOf(max), row[5]);
+      assertEquals(Double.valueOf(-max), row[6]);
+    }
+
+    table.clear();
+    assertEquals(0, table.size());
+    int group = table.getGroup(new Object[] {new Text("key1"), new IntWritable(1)});
+    assertTrue(table.isNewGroup());
+    table.aggregate(group, 1, new Object[] {new IntWritable(7)});
+    Object[] row = table.getOutputRow(group);
+    assertEquals(new LongWritable(0), row[2]);
+    assertEquals(new LongWritable(7), row[3]);
+    assertNull(row[5]);
+  }
+}
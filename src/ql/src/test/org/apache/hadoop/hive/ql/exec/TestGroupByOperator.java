@@ -0,0 +1,270 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
+import org.apache.hadoop.hive.serde2.objectinspector.InspectableObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestGroupByOperator.
+ *
+ */
+public class TestGroupByOperator extends TestCase {
+
+  /**
+   * Counts the rows forwarded by the group by.
+   */
+  private static class CountOperator extends Operator<CollectDesc> {
+    private static final long serialVersionUID = 1L;
+    private long numRows;
+
+    @Override
+    public void processOp(Object row, int tag) {
+      numRows++;
+    }
+
+    @Override
+    public OperatorType getType() {
+      return null;
+    }
+  }
+
+  public void testHashTableMemory() throws Exception {
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "k", "", false));
+    ArrayList<ExprNodeDesc> parameters = new ArrayList<ExprNodeDesc>();
+    parameters.add(new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "v", "", false));
+    ArrayList<AggregationDesc> aggregations = new ArrayList<AggregationDesc>();
+    aggregations.add(new AggregationDesc("collect_set", FunctionRegistry
+        .getGenericUDAFEvaluator("collect_set", Arrays.<TypeInfo>asList(
+        TypeInfoFactory.intTypeInfo), false, false), parameters, false,
+        GenericUDAFEvaluator.Mode.PARTIAL1));
+    aggregations.add(new AggregationDesc("count", FunctionRegistry.getGenericUDAFEvaluator(
+        "count", new ArrayList<TypeInfo>(), false, true), new ArrayList<ExprNodeDesc>(), false,
+        GenericUDAFEvaluator.Mode.PARTIAL1));
+    GroupByDesc desc = new GroupByDesc(GroupByDesc.Mode.HASH, new ArrayList<String>(Arrays
+        .asList("_col0", "_col1", "_col2")), keys, aggregations, false, 0.5f, 0.9f);
+    GroupByOperator op = (GroupByOperator) OperatorFactory.get(desc);
+
+    CountOperator sink = new CountOperator();
+    sink.setConf(new CollectDesc(1));
+    List<Operator<? extends Serializable>> children =
+        new ArrayList<Operator<? extends Serializable>>();
+    children.add(sink);
+    op.setChildOperators(children);
+    List<Operator<? extends Serializable>> parents =
+        new ArrayList<Operator<? extends Serializable>>();
+    parents.add(op);
+    sink.setParentOperators(parents);
+
+    HiveConf conf = new HiveConf(TestGroupByOperator.class);
+    conf.setFloatVar(HiveConf.ConfVars.HIVEMAPAGGRHASHMINREDUCTION, 1.0f);
+    StructObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays
+        .asList("k", "v"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    op.initialize(conf, new ObjectInspector[] {rowOI});
+
+    int numKeys = 2000;
+    for (int i = 0; i < numKeys; i++) {
+      op.process(Arrays.asList(new Text("key_" + i), new IntWritable(i)), 0);
+    }
+    long memory = op.getHashTableMemory();
+    assertTrue(memory > numKeys * ObjectSizeEstimator.HASHMAP_ENTRY);
+
+    // longer keys are measured as they are inserted: 30 more characters
+    for (int i = 0; i < numKeys; i++) {
+      op.process(Arrays.asList(new Text("a much longer key than the first_" + i),
+          new IntWritable(i)), 0);
+    }
+    assertTrue(op.getHashTableMemory() - memory >= memory + numKeys * 24);
+    memory = op.getHashTableMemory();
+
+    // the sets grow without new entries, their estimate is sampled
+    for (int v = 0; v < 20; v++) {
+      for (int i = 0; i < numKeys; i++) {
+        op.process(Arrays.asList(new Text("key_" + i), new IntWritable(v * numKeys + i)), 0);
+      }
+    }
+    assertTrue(op.getHashTableMemory() - memory > 10 * numKeys
+        * ObjectSizeEstimator.HASHMAP_ENTRY);
+
+    op.close(false);
+    assertEquals(2 * numKeys, sink.numRows);
+    assertEquals(0, op.getHashTableMemory());
+  }
+
+  public void testSpill() throws Exception {
+    checkSpill(false, 1);
+    checkSpill(false, 4);
+  }
+
+  public void testSpillFlat() throws Exception {
+    checkSpill(true, 4);
+  }
+
+  /**
+   * Aggregate 5 values of each of 1000 keys in a hash table much smaller than
+   * the keys, spilled to the given number of partitions, and check that every
+   * key comes out once with all its values merged. collect_set keeps a set of
+   * values in its aggregation buffer, and is left out of the flat hash table,
+   * which does not support it.
+   */
+  private void checkSpill(boolean flat, int numPartitions) throws Exception {
+    List<String> udafs = flat ? Arrays.asList("count", "sum", "max") : Arrays.asList(
+        "count", "sum", "max", "collect_set");
+    HiveConf conf = new HiveConf(TestGroupByOperator.class);
+    conf.setFloatVar(HiveConf.ConfVars.HIVEMAPAGGRHASHMINREDUCTION, 1.0f);
+    conf.setBoolVar(HiveConf.ConfVars.HIVEMAPAGGRHASHSPILL, true);
+    conf.setIntVar(HiveConf.ConfVars.HIVEMAPAGGRHASHSPILLPARTITIONS, numPartitions);
+    conf.setBoolVar(HiveConf.ConfVars.HIVEMAPAGGRHASHFLAT, flat);
+    CollectOperator sink = new CollectOperator();
+    GroupByOperator op = newHashGroupBy(udafs, conf, sink);
+    assertTrue(op.spillHashAggr);
+
+    int numKeys = 1000;
+    int numValues = 5;
+    for (int v = 0; v < numValues; v++) {
+      for (int i = 0; i < numKeys; i++) {
+        op.process(Arrays.asList(new Text("key_" + i), new IntWritable(v * numKeys + i)), 0);
+      }
+    }
+    op.close(false);
+    // every key was spilled several times
+    assertTrue(op.numSpilledEntries > 2 * numKeys);
+    assertNull(op.spillFiles);
+
+    Set<String> seen = new HashSet<String>();
+    InspectableObject result = new InspectableObject();
+    for (sink.retrieve(result); result.o != null; sink.retrieve(result)) {
+      List<?> row = (List<?>) ObjectInspectorUtils.copyToStandardObject(result.o, result.oi,
+          ObjectInspectorCopyOption.JAVA);
+      String key = (String) row.get(0);
+      assertTrue("duplicate " + key, seen.add(key));
+      int i = Integer.parseInt(key.substring("key_".length()));
+      assertEquals(key, Long.valueOf(numValues), row.get(1));
+      assertEquals(key, Long.valueOf(numValues * i + numKeys * numValues * (numValues - 1) / 2),
+          row.get(2));
+      assertEquals(key, Integer.valueOf((numValues - 1) * numKeys + i), row.get(3));
+      if (!flat) {
+        assertEquals(key, numValues, ((List<?>) row.get(4)).size());
+      }
+    }
+    assertEquals(numKeys, seen.size());
+  }
+
+  public void testPartialFlushSample() throws Exception {
+    HiveConf conf = new HiveConf(TestGroupByOperator.class);
+    conf.setFloatVar(HiveConf.ConfVars.HIVEMAPAGGRHASHMINREDUCTION, 1.0f);
+    conf.setBoolVar(HiveConf.ConfVars.HIVEMAPAGGRHASHSPILL, false);
+    CollectOperator sink = new CollectOperator();
+    GroupByOperator op = newHashGroupBy(Arrays.asList("collect_set"), conf, sink);
+    for (int i = 0; i < 5000; i++) {
+      op.process(Arrays.asList(new Text("key_" + i), new IntWritable(i)), 0);
+    }
+    // the hash table was flushed in part, and the sample only holds entries
+    // still in it
+    int numSampled = 0;
+    for (AggregationBuffer[] aggs : op.sampledEntries) {
+      if (aggs == null) {
+        continue;
+      }
+      numSampled++;
+      boolean found = false;
+      for (AggregationBuffer[] entry : op.hashAggregations.values()) {
+        found |= entry == aggs;
+      }
+      assertTrue(found);
+    }
+    assertTrue(op.hashAggregations.size() < 5000);
+    assertEquals(Math.min(op.hashAggregations.size(), 100), numSampled);
+    op.close(false);
+  }
+
+  /**
+   * Returns a map side group by of string column k, which aggregates int
+   * column v with each of the given functions into a hash table of a few
+   * hundred entries, and forwards its rows to the sink.
+   */
+  private GroupByOperator newHashGroupBy(List<String> udafs, HiveConf conf,
+      CollectOperator sink) throws Exception {
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "k", "", false));
+    ArrayList<ExprNodeDesc> parameters = new ArrayList<ExprNodeDesc>();
+    parameters.add(new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "v", "", false));
+    ArrayList<AggregationDesc> aggregations = new ArrayList<AggregationDesc>();
+    ArrayList<String> outputColumnNames = new ArrayList<String>();
+    outputColumnNames.add("_col0");
+    for (String udaf : udafs) {
+      aggregations.add(new AggregationDesc(udaf, FunctionRegistry.getGenericUDAFEvaluator(udaf,
+          Arrays.<TypeInfo>asList(TypeInfoFactory.intTypeInfo), false, false), parameters, false,
+          GenericUDAFEvaluator.Mode.PARTIAL1));
+      outputColumnNames.add("_col" + outputColumnNames.size());
+    }
+    // room for a few hundred entries
+    float memoryUsage = 32 * 1024f / Runtime.getRuntime().maxMemory();
+    GroupByDesc desc = new GroupByDesc(GroupByDesc.Mode.HASH, outputColumnNames, keys,
+        aggregations, false, memoryUsage, 0.9f);
+    GroupByOperator op = (GroupByOperator) OperatorFactory.get(desc);
+
+    sink.setConf(new CollectDesc(Integer.MAX_VALUE));
+    List<Operator<? extends Serializable>> children =
+        new ArrayList<Operator<? extends Serializable>>();
+    children.add(sink);
+    op.setChildOperators(children);
+    List<Operator<? extends Serializable>> parents =
+        new ArrayList<Operator<? extends Serializable>>();
+    parents.add(op);
+    sink.setParentOperators(parents);
+
+    StructObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays
+        .asList("k", "v"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    op.initialize(conf, new ObjectInspector[] {rowOI});
+    return op;
+  }
+}
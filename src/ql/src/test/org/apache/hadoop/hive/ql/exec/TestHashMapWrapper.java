@@ -17,13 +17,30 @@
 
 package org.apache.hadoop.hive.ql.exec;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
 
 import junit.framework.TestCase;
 
 import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.HashTableMemoryMonitor;
+import org.apache.hadoop.hive.ql.exec.persistence.LongHashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinSingleKey;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinSizeEstimator;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.util.ObjectSizeEstimator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 
 /**
  * TestHashMapWrapper.
@@ -176,6 +193,48 @@ public class TestHashMapWrapper extends TestCase {
     System.out.println("TestHashMapWrapper successful");
   }
 
+  public void testLongHashMapWrapper() throws Exception {
+    LongHashMapWrapper wrapper = new LongHashMapWrapper(PrimitiveCategory.INT);
+    HashMap<Long, MapJoinObjectValue> mem_map = new HashMap<Long, MapJoinObjectValue>();
+
+    // random put/get/remove operations, with enough keys to force rehashing
+    // and colliding clusters
+    Random rand = new Random(12345678);
+    for (int i = 0; i < 100000; ++i) {
+      int k = rand.nextInt(20000) - 10000;
+      MapJoinSingleKey key = new MapJoinSingleKey(new IntWritable(k));
+      switch (rand.nextInt(3)) {
+      case 0:
+        wrapper.remove(key);
+        mem_map.remove(Long.valueOf(k));
+        break;
+      case 1:
+        assertSame(mem_map.get(Long.valueOf(k)), wrapper.get(key));
+        break;
+      case 2:
+        MapJoinObjectValue v = new MapJoinObjectValue();
+        wrapper.put(key, v);
+        mem_map.put(Long.valueOf(k), v);
+        break;
+      }
+    }
+    assertEquals(mem_map.size(), wrapper.size());
+    for (int k = -10000; k < 10000; k++) {
+      assertSame(mem_map.get(Long.valueOf(k)), wrapper.get(k));
+    }
+    assertEquals(mem_map.size(), wrapper.keySet().size());
+
+    // the null key is kept aside
+    MapJoinObjectValue v = new MapJoinObjectValue();
+    wrapper.put(new MapJoinSingleKey(null), v);
+    assertSame(v, wrapper.get(new MapJoinSingleKey(null)));
+    assertEquals(mem_map.size() + 1, wrapper.asMap().size());
+
+    wrapper.clear();
+    assertEquals(0, wrapper.size());
+    assertNull(wrapper.get(1));
+  }
+
   private void insertAll(HashMapWrapper<String, String> hashTable,
       HashMap<String, String> map) throws HiveException {
 
@@ -210,4 +269,57 @@ public class TestHashMapWrapper extends TestCase {
           + map_val + "; val = " + val, val.equals(map_val));
     }
   }
+
+  public void testMemoryAccounting() throws Exception {
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+    fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    ObjectSizeEstimator estimator = new ObjectSizeEstimator(fieldOIs);
+
+    List<IntWritable> list = new ArrayList<IntWritable>();
+    Object[] row = new Object[] {new LongWritable(1), new Text("a"), list};
+    long size = estimator.estimate(row);
+    assertTrue(size > 0);
+    assertEquals(size, estimator.estimate(new Object[] {new LongWritable(2), new Text("b"), list}));
+    // strings and lists are inspected for every row
+    assertTrue(estimator.estimate(new Object[] {new LongWritable(1),
+        new Text("a longer string than a"), list}) > size);
+    list.add(new IntWritable(1));
+    assertTrue(estimator.estimate(row) > size);
+
+    List<ObjectInspector> keyOIs = new ArrayList<ObjectInspector>();
+    keyOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+    MapJoinSizeEstimator keyEstimator = new MapJoinSizeEstimator(keyOIs);
+    long keySize = keyEstimator.estimate(new MapJoinSingleKey(new LongWritable(1)));
+    assertTrue(keySize > 0);
+    // primitive long keys are not retained as objects
+    assertTrue(new LongHashMapWrapper(PrimitiveCategory.LONG).getEntrySize(keySize)
+        < new HashMapWrapper<Object, Object>().getEntrySize(keySize));
+
+    HashTableMemoryMonitor monitor = new HashTableMemoryMonitor(0.5f);
+    try {
+      // only the tenured pool gets a threshold
+      assertTrue(monitor.getMaxMemory() <= Runtime.getRuntime().maxMemory());
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        String name = pool.getName().toLowerCase();
+        if (pool.isCollectionUsageThresholdSupported()
+            && (name.contains("eden") || name.contains("survivor"))) {
+          assertEquals(pool.getName(), 0, pool.getCollectionUsageThreshold());
+        }
+      }
+      assertFalse(monitor.isAbort());
+      monitor.add(monitor.getMaxMemory() / 4);
+      assertFalse(monitor.isAbort());
+      monitor.add(monitor.getMaxMemory() / 2);
+      assertTrue(monitor.isAbort());
+      monitor.add(-monitor.getMaxMemory() / 2);
+      assertFalse(monitor.isAbort());
+      assertEquals(3 * (monitor.getMaxMemory() / 4), monitor.getPeakEstimatedMemory());
+      assertEquals(4, monitor.getNumChecks());
+    } finally {
+      monitor.close();
+    }
+  }
 }
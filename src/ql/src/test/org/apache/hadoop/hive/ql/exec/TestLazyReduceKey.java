@@ -0,0 +1,159 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+
+/**
+ * TestLazyReduceKey: a reduce side group by on the reduction keys reads the
+ * key of each group once.
+ *
+ */
+public class TestLazyReduceKey extends TestCase {
+
+  /**
+   * Counts the deserialized keys.
+   */
+  private static class CountingSerDe extends BinarySortableSerDe {
+    private int deserialized;
+
+    @Override
+    public Object deserialize(Writable blob) throws SerDeException {
+      deserialized++;
+      return super.deserialize(blob);
+    }
+  }
+
+  /**
+   * Collects the rows as strings.
+   */
+  private static class StringCollector extends Operator<CollectDesc> {
+    private static final long serialVersionUID = 1L;
+    private final List<String> rows = new ArrayList<String>();
+
+    @Override
+    public void processOp(Object row, int tag) {
+      rows.add(SerDeUtils.getJSONString(row, inputObjInspectors[tag]));
+    }
+
+    @Override
+    public OperatorType getType() {
+      return null;
+    }
+  }
+
+  public void testGroupByOnReduceKey() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(Constants.LIST_COLUMNS, "reducesinkkey0");
+    properties.setProperty(Constants.LIST_COLUMN_TYPES, Constants.STRING_TYPE_NAME);
+    properties.setProperty(Constants.SERIALIZATION_SORT_ORDER, "+");
+    CountingSerDe serde = new CountingSerDe();
+    serde.initialize(null, properties);
+    TableDesc keyTableDesc = new TableDesc(BinarySortableSerDe.class,
+        SequenceFileInputFormat.class, SequenceFileOutputFormat.class, properties);
+
+    LazyReduceKey key = new LazyReduceKey(serde, keyTableDesc);
+    ObjectInspector keyOI = new LazyReduceKey.KeyObjectInspector(
+        (StructObjectInspector) serde.getObjectInspector());
+    ObjectInspector valueOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays
+        .asList("_col0"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    ObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays
+        .asList("KEY", "VALUE", "ALIAS"), Arrays.asList(keyOI, valueOI,
+        PrimitiveObjectInspectorFactory.writableByteObjectInspector));
+
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "KEY.reducesinkkey0", "",
+        false));
+    ArrayList<ExprNodeDesc> parameters = new ArrayList<ExprNodeDesc>();
+    parameters.add(new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "VALUE._col0", "",
+        false));
+    ArrayList<AggregationDesc> aggregations = new ArrayList<AggregationDesc>();
+    aggregations.add(new AggregationDesc("sum", FunctionRegistry.getGenericUDAFEvaluator("sum",
+        Arrays.<TypeInfo>asList(TypeInfoFactory.intTypeInfo), false, false), parameters,
+        false, GenericUDAFEvaluator.Mode.COMPLETE));
+    GroupByOperator groupBy = (GroupByOperator) OperatorFactory.get(new GroupByDesc(
+        GroupByDesc.Mode.COMPLETE, new ArrayList<String>(Arrays.asList("_col0", "_col1")),
+        keys, aggregations, false, 0.5f, 0.9f));
+    StringCollector sink = new StringCollector();
+    sink.setConf(new CollectDesc(1));
+    groupBy.setChildOperators(new ArrayList<Operator<? extends java.io.Serializable>>(
+        Arrays.<Operator<? extends java.io.Serializable>>asList(sink)));
+    sink.setParentOperators(new ArrayList<Operator<? extends java.io.Serializable>>(
+        Arrays.<Operator<? extends java.io.Serializable>>asList(groupBy)));
+    groupBy.initialize(new HiveConf(TestLazyReduceKey.class), new ObjectInspector[] {rowOI});
+    assertTrue(groupBy.groupKeyIsReduceKey);
+
+    ObjectInspector serializeOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("reducesinkkey0"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+    IntWritable value = new IntWritable();
+    List<Object> row = Arrays.<Object>asList(key, Arrays.<Object>asList(value),
+        new ByteWritable());
+    BytesWritable groupKey = new BytesWritable();
+    for (int g = 0; g < 10; g++) {
+      BytesWritable bytes = (BytesWritable) serde.serialize(Arrays.<Object>asList(new Text(
+          "key" + g)), serializeOI);
+      groupKey.set(bytes.get(), 0, bytes.getSize());
+      key.set(groupKey);
+      groupBy.startGroup();
+      for (int i = 0; i < 5; i++) {
+        value.set(g * 10 + i);
+        groupBy.process(row, 0);
+      }
+      groupBy.endGroup();
+    }
+    groupBy.close(false);
+
+    assertEquals(10, serde.deserialized);
+    assertEquals(10, sink.rows.size());
+    assertEquals("{\"_col0\":\"key3\",\"_col1\":160}", sink.rows.get(3));
+  }
+}
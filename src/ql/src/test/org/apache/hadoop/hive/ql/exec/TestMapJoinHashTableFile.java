@@ -0,0 +1,377 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.HashTableSinkOperator.HashTableSinkObjectCtx;
+import org.apache.hadoop.hive.ql.exec.persistence.AbstractHashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.AbstractMapJoinKey;
+import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.LongHashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinBloomFilter;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinDoubleKeys;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinHashTableFile;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinPartitions;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinRowContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinSingleKey;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinTableCache;
+import org.apache.hadoop.hive.ql.exec.persistence.MappedHashMapWrapper;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+
+/**
+ * TestMapJoinHashTableFile.
+ *
+ */
+public class TestMapJoinHashTableFile extends TestCase {
+
+  static final int VALUE_TAG = 1;
+
+  /**
+   * Register the key (tag -1) and value metadata the way the map join
+   * operators do, with LazyBinarySerDe for both.
+   */
+  static void setUpMetaData(String keyColumns, String keyTypes, String valueColumns,
+      String valueTypes) throws Exception {
+    MapJoinMetaData.clear();
+    MapJoinMetaData.put(Integer.valueOf(-1), getCtx(keyColumns, keyTypes));
+    MapJoinMetaData.put(Integer.valueOf(VALUE_TAG), getCtx(valueColumns, valueTypes));
+  }
+
+  private static HashTableSinkObjectCtx getCtx(String columns, String types) throws Exception {
+    Configuration conf = new Configuration();
+    TableDesc desc = new TableDesc(LazyBinarySerDe.class, SequenceFileInputFormat.class,
+        SequenceFileOutputFormat.class, Utilities.makeProperties("columns", columns,
+        "columns.types", types));
+    LazyBinarySerDe serde = new LazyBinarySerDe();
+    serde.initialize(conf, desc.getProperties());
+    return new HashTableSinkObjectCtx(ObjectInspectorUtils.getStandardObjectInspector(serde
+        .getObjectInspector(), ObjectInspectorCopyOption.WRITABLE), serde, desc, conf);
+  }
+
+  static MapJoinObjectValue getValue(Object[]... rows) throws Exception {
+    MapJoinRowContainer<Object[]> res = new MapJoinRowContainer<Object[]>();
+    for (Object[] row : rows) {
+      res.add(row);
+    }
+    return new MapJoinObjectValue(VALUE_TAG, res);
+  }
+
+  private File getFile(String name) {
+    File dir = new File(System.getProperty("test.data.dir", "."));
+    File file = new File(dir, name);
+    file.deleteOnExit();
+    return file;
+  }
+
+  private void checkLoad(HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> expected,
+      File file) throws Exception {
+    assertTrue(MapJoinHashTableFile.isHashTableFile(file));
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> loaded =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    MapJoinHashTableFile.load(file, loaded);
+    checkEquals(expected, loaded);
+
+    assertTrue(MappedHashMapWrapper.canMap(file));
+    MappedHashMapWrapper mapped = new MappedHashMapWrapper(file);
+    checkEquals(expected, mapped);
+    assertEquals(expected.keySet(), mapped.keySet());
+    mapped.close();
+  }
+
+  private void checkEquals(HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> expected,
+      AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> loaded) throws Exception {
+    assertEquals(expected.size(), loaded.size());
+    for (Map.Entry<AbstractMapJoinKey, MapJoinObjectValue> entry : expected.asMap().entrySet()) {
+      MapJoinObjectValue value = loaded.get(entry.getKey());
+      assertNotNull("missing key", value);
+      MapJoinRowContainer<Object[]> rows = entry.getValue().getObj();
+      MapJoinRowContainer<Object[]> loadedRows = value.getObj();
+      assertEquals(rows.size(), loadedRows.size());
+      for (int i = 0; i < rows.size(); i++) {
+        Object[] row = rows.getList().get(i);
+        Object[] loadedRow = loadedRows.getList().get(i);
+        assertEquals(row.length, loadedRow.length);
+        for (int j = 0; j < row.length; j++) {
+          assertEquals(row[j], loadedRow[j]);
+        }
+      }
+    }
+  }
+
+  public void testSingleKey() throws Exception {
+    setUpMetaData("key", "bigint", "value", "string");
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    for (int i = 0; i < 1000; i++) {
+      MapJoinObjectValue value;
+      if (i % 10 == 0) {
+        value = getValue(new Object[] {new Text("v" + i)}, new Object[] {new Text("w" + i)});
+      } else {
+        value = getValue(new Object[] {new Text("v" + i)});
+      }
+      hashTable.put(new MapJoinSingleKey(new LongWritable(i)), value);
+    }
+
+    File file = getFile("test_hashtable_single");
+    MapJoinHashTableFile.write(hashTable.getMHash(), file);
+    checkLoad(hashTable, file);
+
+    MappedHashMapWrapper mapped = new MappedHashMapWrapper(file);
+    assertNull(mapped.get(new MapJoinSingleKey(new LongWritable(1000))));
+    assertNull(mapped.get(new MapJoinSingleKey(new LongWritable(-1))));
+    // the same key probed twice in a row
+    assertNotNull(mapped.get(new MapJoinSingleKey(new LongWritable(10))));
+    assertEquals(2, mapped.get(new MapJoinSingleKey(new LongWritable(10))).getObj().size());
+    mapped.close();
+  }
+
+  public void testLongKeys() throws Exception {
+    setUpMetaData("key", "bigint", "value", "string");
+    LongHashMapWrapper hashTable = new LongHashMapWrapper(PrimitiveCategory.LONG);
+    for (int i = 0; i < 1000; i++) {
+      hashTable.put(new MapJoinSingleKey(new LongWritable(i * 7919L)),
+          getValue(new Object[] {new Text("v" + i)}));
+    }
+    hashTable.put(new MapJoinSingleKey(null), getValue(new Object[] {new Text("null")}));
+
+    File file = getFile("test_hashtable_long");
+    MapJoinHashTableFile.write(hashTable.asMap(), file);
+    checkLoad(hashTable, file);
+
+    LongHashMapWrapper loaded = new LongHashMapWrapper(PrimitiveCategory.LONG);
+    MapJoinHashTableFile.load(file, loaded);
+    checkEquals(hashTable, loaded);
+    assertNotNull(loaded.get(7919L));
+    assertNull(loaded.get(7918L));
+
+    // java serialization of a long keyed table
+    file = getFile("test_hashtable_long_java");
+    hashTable.flushMemoryCacheToPersistent(file);
+    loaded = new LongHashMapWrapper(PrimitiveCategory.LONG);
+    loaded.initilizePersistentHash(file.getPath());
+    checkEquals(hashTable, loaded);
+  }
+
+  public void testDoubleKeys() throws Exception {
+    setUpMetaData("key1,key2", "bigint,string", "value", "string");
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    for (int i = 0; i < 100; i++) {
+      hashTable.put(new MapJoinDoubleKeys(new LongWritable(i), new Text("k" + i)),
+          getValue(new Object[] {new Text("v" + i)}));
+    }
+
+    File file = getFile("test_hashtable_double");
+    MapJoinHashTableFile.write(hashTable.getMHash(), file);
+    checkLoad(hashTable, file);
+  }
+
+  public void testPartitions() throws Exception {
+    setUpMetaData("key1,key2", "bigint,string", "value", "string");
+    MapJoinPartitions partitions = new MapJoinPartitions(4);
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    List<HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>> spilled =
+        new ArrayList<HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>>();
+    for (int i = 0; i < 4; i++) {
+      spilled.add(new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>());
+    }
+    partitions.setSpilled(1);
+    partitions.setSpilled(3);
+    for (int i = 0; i < 1000; i++) {
+      AbstractMapJoinKey key = new MapJoinDoubleKeys(new LongWritable(i), new Text("k" + i));
+      int partition = partitions.getPartition(key);
+      assertEquals(partition, partitions.getPartition(new MapJoinDoubleKeys(new LongWritable(i),
+          new Text("k" + i))));
+      if (partitions.isSpilled(partition)) {
+        spilled.get(partition).put(key, getValue(new Object[] {new Text("v" + i)}));
+      } else {
+        hashTable.put(key, getValue(new Object[] {new Text("v" + i)}));
+      }
+    }
+
+    File file = getFile("test_hashtable_partitioned");
+    MapJoinHashTableFile.write(hashTable.getMHash(), file);
+    for (int i = 0; i < 4; i++) {
+      if (partitions.isSpilled(i)) {
+        assertTrue(spilled.get(i).size() > 0);
+        File partitionFile = MapJoinPartitions.getPartitionFile(file, i);
+        partitionFile.deleteOnExit();
+        MapJoinHashTableFile.write(spilled.get(i).getMHash(), partitionFile);
+        checkLoad(spilled.get(i), partitionFile);
+      }
+    }
+    partitions.write(file);
+    new File(file.getPath() + ".partitions").deleteOnExit();
+
+    MapJoinPartitions loaded = MapJoinPartitions.read(file);
+    assertEquals(4, loaded.getNumPartitions());
+    assertEquals(2, loaded.getNumSpilled());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(partitions.isSpilled(i), loaded.isSpilled(i));
+    }
+    // the keys read back fall into the same partitions
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> resident =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    MapJoinHashTableFile.load(file, resident);
+    for (AbstractMapJoinKey key : resident.keySet()) {
+      assertFalse(loaded.isSpilled(loaded.getPartition(key)));
+    }
+    assertNull(MapJoinPartitions.read(getFile("test_hashtable_not_partitioned")));
+  }
+
+  public void testBloomFilter() throws Exception {
+    MapJoinBloomFilter filter = new MapJoinBloomFilter(10000, 0.05);
+    for (long i = 0; i < 10000; i++) {
+      filter.add(new MapJoinSingleKey(new LongWritable(i * 7)));
+    }
+    File file = getFile("test_hashtable_bloom");
+    new File(file.getPath() + ".bloom").deleteOnExit();
+    filter.write(file);
+
+    MapJoinBloomFilter loaded = MapJoinBloomFilter.read(file);
+    assertEquals(filter.getNumBits(), loaded.getNumBits());
+    assertEquals(filter.getNumHashes(), loaded.getNumHashes());
+    // no false negatives, and about the requested false positives
+    int falsePositives = 0;
+    for (long i = 0; i < 70000; i++) {
+      boolean contains = loaded.mightContain(new MapJoinSingleKey(new LongWritable(i)));
+      if (i % 7 == 0) {
+        assertTrue(contains);
+      } else if (contains) {
+        falsePositives++;
+      }
+    }
+    assertTrue("false positives: " + falsePositives, falsePositives < 60000 * 0.08);
+    assertNull(MapJoinBloomFilter.read(getFile("test_hashtable_no_bloom")));
+  }
+
+  public void testTableCache() throws Exception {
+    setUpMetaData("key", "bigint", "value", "string");
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    hashTable.put(new MapJoinSingleKey(new LongWritable(1)), getValue(new Object[] {new Text("v")}));
+    File file1 = getFile("test_hashtable_cache1");
+    File file2 = getFile("test_hashtable_cache2");
+    MapJoinHashTableFile.write(hashTable.getMHash(), file1);
+    MapJoinHashTableFile.write(hashTable.getMHash(), file2);
+
+    final int[] loads = new int[1];
+    MapJoinTableCache.Loader loader = new MapJoinTableCache.Loader() {
+      public HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> load(File file)
+          throws Exception {
+        loads[0]++;
+        HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> loaded =
+            new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+        MapJoinHashTableFile.load(file, loaded);
+        return loaded;
+      }
+    };
+    MapJoinTableCache.evictUnused();
+
+    // a second task of the JVM gets the table of the first one
+    AbstractHashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> table =
+        MapJoinTableCache.acquire(file1, "hash", loader);
+    checkEquals(hashTable, table);
+    assertTrue(MapJoinTableCache.release(table));
+    assertSame(table, MapJoinTableCache.acquire(file1, "hash", loader));
+    assertEquals(1, loads[0]);
+    assertNotSame(table, MapJoinTableCache.acquire(file1, "long", loader));
+    assertEquals(2, loads[0]);
+
+    // tables in use are kept, unused ones are dropped by the next load
+    MapJoinTableCache.release(MapJoinTableCache.acquire(file2, "hash", loader));
+    assertEquals(3, MapJoinTableCache.size());
+    MapJoinTableCache.release(table);
+    hashTable.put(new MapJoinSingleKey(new LongWritable(2)), getValue(new Object[] {new Text("w")}));
+    MapJoinHashTableFile.write(hashTable.getMHash(), file1);
+    checkEquals(hashTable, MapJoinTableCache.acquire(file1, "hash", loader));
+    assertEquals(4, loads[0]);
+    assertEquals(2, MapJoinTableCache.size());
+    assertFalse(MapJoinTableCache.isCached(table));
+    assertFalse(MapJoinTableCache.release(hashTable));
+  }
+
+  public void testSpillFile() throws Exception {
+    setUpMetaData("key", "bigint", "value", "string");
+    File file = getFile("test_hashtable_spill");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+        file)));
+    out.writeUTF(MapJoinSingleKey.class.getName());
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> expected =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    for (int i = 0; i < 1000; i++) {
+      MapJoinSingleKey key = new MapJoinSingleKey(new LongWritable(i));
+      HashTableSinkOperator.writeSpilledEntry(out, key, getValue(new Object[] {new Text("v"
+          + i)}));
+      expected.put(key, getValue(new Object[] {new Text("v" + i)}));
+    }
+    // the rows of a key spilled twice are merged
+    MapJoinSingleKey key = new MapJoinSingleKey(new LongWritable(7));
+    HashTableSinkOperator.writeSpilledEntry(out, key, getValue(new Object[] {new Text("w7")}));
+    expected.put(key, getValue(new Object[] {new Text("v7")}, new Object[] {new Text("w7")}));
+    HashTableSinkOperator.endSpillFile(out);
+    // the entries end at the marker, not at the end of the file
+    FileOutputStream trailer = new FileOutputStream(file, true);
+    trailer.write(new byte[] {1, 2, 3});
+    trailer.close();
+
+    checkEquals(expected, HashTableSinkOperator.readSpillFile(file));
+  }
+
+  public void testEmptyTable() throws Exception {
+    setUpMetaData("key", "bigint", "value", "string");
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+
+    File file = getFile("test_hashtable_empty");
+    MapJoinHashTableFile.write(hashTable.getMHash(), file);
+    checkLoad(hashTable, file);
+  }
+
+  public void testJavaSerializedFile() throws Exception {
+    setUpMetaData("key", "bigint", "value", "string");
+    HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable =
+        new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+    hashTable.put(new MapJoinSingleKey(new LongWritable(1)), getValue(new Object[] {new Text("v")}));
+
+    File file = getFile("test_hashtable_java");
+    hashTable.flushMemoryCacheToPersistent(file);
+    assertFalse(MapJoinHashTableFile.isHashTableFile(file));
+    assertFalse(MappedHashMapWrapper.canMap(file));
+  }
+}
@@ -0,0 +1,95 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinBloomFilter;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinSingleKey;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestMapJoinOperator.
+ *
+ */
+public class TestMapJoinOperator extends TestCase {
+
+  public void testKeyFilterOfBigTableTag() throws Exception {
+    // the big table is the first input but has the tag 1: its keys are the
+    // ones of tag 1, the small table has another key column
+    Map<Byte, List<ExprNodeDesc>> keys = new HashMap<Byte, List<ExprNodeDesc>>();
+    keys.put(Byte.valueOf((byte) 0), Arrays.<ExprNodeDesc>asList(new ExprNodeColumnDesc(
+        TypeInfoFactory.stringTypeInfo, "name", "small", false)));
+    keys.put(Byte.valueOf((byte) 1), Arrays.<ExprNodeDesc>asList(new ExprNodeColumnDesc(
+        TypeInfoFactory.intTypeInfo, "key", "big", false)));
+    MapJoinDesc desc = new MapJoinDesc();
+    desc.setKeys(keys);
+    desc.setPosBigTable(0);
+
+    TableScanOperator tableScan = (TableScanOperator) OperatorFactory.get(new TableScanDesc());
+    MapJoinOperator mapJoin = new MapJoinOperator();
+    mapJoin.setConf(desc);
+    tableScan.setChildOperators(new ArrayList<Operator<? extends Serializable>>(
+        Arrays.<Operator<? extends Serializable>>asList(mapJoin)));
+    mapJoin.setParentOperators(new ArrayList<Operator<? extends Serializable>>(
+        Arrays.<Operator<? extends Serializable>>asList(tableScan)));
+    ObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(Arrays
+        .asList("key", "value"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+    // what initializeOp sets from the desc
+    mapJoin.order = new Byte[] {Byte.valueOf((byte) 1), Byte.valueOf((byte) 0)};
+    mapJoin.posBigTable = 0;
+    mapJoin.inputObjInspectors = new ObjectInspector[] {rowOI, null};
+
+    MapJoinBloomFilter bloomFilter = new MapJoinBloomFilter(100, 0.01);
+    for (int i = 0; i < 100; i += 2) {
+      bloomFilter.add(new MapJoinSingleKey(new IntWritable(i)));
+    }
+    mapJoin.setKeyFilter(new ArrayList<MapJoinBloomFilter>(Arrays.asList(bloomFilter)));
+    MapJoinKeyFilter keyFilter = mapJoin.getKeyFilter();
+    assertNotNull(keyFilter);
+    int accepted = 0;
+    for (int i = 0; i < 100; i++) {
+      List<Object> row = Arrays.<Object>asList(new IntWritable(i), new Text("v" + i));
+      if (keyFilter.accept(row)) {
+        accepted++;
+      } else {
+        // no false negatives
+        assertTrue(String.valueOf(i), i % 2 == 1);
+      }
+    }
+    assertTrue(String.valueOf(accepted), accepted >= 50 && accepted < 60);
+  }
+}
@@ -0,0 +1,139 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.io.HiveKey;
+import org.apache.hadoop.hive.ql.optimizer.ReduceSinkDuplicateRemoval;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.plan.PlanUtils;
+import org.apache.hadoop.hive.ql.plan.ReduceSinkDesc;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.OutputCollector;
+
+/**
+ * TestReduceSinkDuplicateRemoval: a reduce sink feeding a group by that
+ * ignores duplicates emits each distinct row once.
+ *
+ */
+public class TestReduceSinkDuplicateRemoval extends TestCase {
+
+  /**
+   * Collects the emitted records as strings.
+   */
+  private static class ListCollector implements OutputCollector<HiveKey, Writable> {
+    private final List<String> records = new ArrayList<String>();
+
+    public void collect(HiveKey key, Writable value) throws IOException {
+      BytesWritable v = (BytesWritable) value;
+      records.add(key.hashCode() + ":" + new BytesWritable(Arrays.copyOf(key.get(),
+          key.getLength())) + ":" + new BytesWritable(Arrays.copyOf(v.get(), v.getLength())));
+    }
+  }
+
+  private ExprNodeDesc getStringColumn(String name) {
+    return new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, name, "", false);
+  }
+
+  private List<String> sink(boolean removeDuplicates, int bufferSize, int numRows,
+      int numDistinct) throws Exception {
+    ArrayList<String> outputColumns = new ArrayList<String>();
+    outputColumns.add("_col0");
+    outputColumns.add("_col1");
+    ReduceSinkDesc desc = PlanUtils.getReduceSinkDesc(Utilities
+        .makeList(getStringColumn("key")), Utilities
+        .makeList(getStringColumn("value")), outputColumns, true, -1, 1, -1);
+    desc.setRemoveDuplicates(removeDuplicates);
+    ReduceSinkOperator rs = (ReduceSinkOperator) OperatorFactory.get(desc);
+
+    HiveConf conf = new HiveConf(TestReduceSinkDuplicateRemoval.class);
+    HiveConf.setIntVar(conf, HiveConf.ConfVars.HIVEREDUCESINKDEDUPBUFFER, bufferSize);
+    ObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("key", "value"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+    rs.initialize(conf, new ObjectInspector[] {rowOI});
+    ListCollector collector = new ListCollector();
+    rs.setOutputCollector(collector);
+    for (int i = 0; i < numRows; i++) {
+      int n = i % numDistinct;
+      rs.process(Arrays.asList(new Text("key" + n % 7), new Text("value" + n)), 0);
+    }
+    rs.close(false);
+    return collector.records;
+  }
+
+  public void testRemoveDuplicates() throws Exception {
+    List<String> all = sink(false, 1024, 1000, 50);
+    assertEquals(1000, all.size());
+    Set<String> distinct = new HashSet<String>(all);
+    assertEquals(50, distinct.size());
+
+    // all the rows fit in the buffer
+    List<String> removed = sink(true, 1 << 20, 1000, 50);
+    assertEquals(50, removed.size());
+    assertEquals(distinct, new HashSet<String>(removed));
+
+    // several flushes of the buffer
+    removed = sink(true, 4096, 1000, 50);
+    assertTrue(removed.size() < 1000 && removed.size() > 50);
+    assertEquals(distinct, new HashSet<String>(removed));
+
+    // the buffer is given up when the rows are all distinct
+    removed = sink(true, 1024, 1000, 1000);
+    assertEquals(1000, removed.size());
+    assertEquals(new HashSet<String>(sink(false, 1024, 1000, 1000)),
+        new HashSet<String>(removed));
+  }
+
+  public void testIgnoresDuplicates() throws Exception {
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(getStringColumn("KEY._col0"));
+    ArrayList<AggregationDesc> aggregations = new ArrayList<AggregationDesc>();
+    GroupByDesc desc = new GroupByDesc(GroupByDesc.Mode.MERGEPARTIAL,
+        new ArrayList<String>(Arrays.asList("_col0")), keys, aggregations, false, 0.5f, 0.9f);
+    assertTrue(ReduceSinkDuplicateRemoval.ignoresDuplicates(desc));
+
+    AggregationDesc count = new AggregationDesc("count", null,
+        new ArrayList<ExprNodeDesc>(), true, null);
+    aggregations.add(count);
+    assertFalse(ReduceSinkDuplicateRemoval.ignoresDuplicates(desc));
+    desc.setMode(GroupByDesc.Mode.COMPLETE);
+    assertTrue(ReduceSinkDuplicateRemoval.ignoresDuplicates(desc));
+    count.setDistinct(false);
+    assertFalse(ReduceSinkDuplicateRemoval.ignoresDuplicates(desc));
+  }
+}
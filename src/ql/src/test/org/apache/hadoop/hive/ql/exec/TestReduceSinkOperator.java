@@ -0,0 +1,175 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.io.HiveKey;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.PlanUtils;
+import org.apache.hadoop.hive.ql.plan.ReduceSinkDesc;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.binarysortable.OutputByteBuffer;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardUnionObjectInspector.StandardUnion;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.util.hash.MurmurHash;
+
+/**
+ * TestReduceSinkOperator: the keys serialized straight into the HiveKey are
+ * the ones of the key serializer followed by the tag, and are partitioned by
+ * the hash of the partition columns or of their serialized bytes. The rows of
+ * the heavy keys are spread when the group by after the reduce sink is
+ * partial.
+ *
+ */
+public class TestReduceSinkOperator extends TestCase {
+
+  /**
+   * Collects copies of the emitted keys.
+   */
+  private static class KeyCollector implements OutputCollector<HiveKey, Writable> {
+    private final List<BytesWritable> keys = new ArrayList<BytesWritable>();
+    private final List<Integer> hashCodes = new ArrayList<Integer>();
+
+    public void collect(HiveKey key, Writable value) throws IOException {
+      keys.add(new BytesWritable(Arrays.copyOf(key.get(), key.getLength())));
+      hashCodes.add(key.hashCode());
+    }
+  }
+
+  public void testKeySerialization() throws Exception {
+    sink(false);
+  }
+
+  public void testSerializedKeyHash() throws Exception {
+    sink(true);
+  }
+
+  /**
+   * Sinks rows keyed by k with a distinct d, and partitioned by k.
+   */
+  private void sink(boolean hashSerializedKey) throws Exception {
+    ArrayList<ExprNodeDesc> keyCols = new ArrayList<ExprNodeDesc>();
+    keyCols.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "k", "", false));
+    keyCols.add(new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "d", "", false));
+    List<List<Integer>> distinctColIndices = new ArrayList<List<Integer>>();
+    distinctColIndices.add(Arrays.asList(1));
+    ReduceSinkDesc desc = PlanUtils.getReduceSinkDesc(keyCols, 1, new ArrayList<ExprNodeDesc>(),
+        distinctColIndices, Arrays.asList("_col0", "_col1"), new ArrayList<String>(), true,
+        0, 1, -1);
+    desc.setHashSerializedKey(hashSerializedKey);
+    ReduceSinkOperator rs = (ReduceSinkOperator) OperatorFactory.get(desc);
+
+    ObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("k", "d"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    rs.initialize(new HiveConf(TestReduceSinkOperator.class), new ObjectInspector[] {rowOI});
+    KeyCollector collector = new KeyCollector();
+    rs.setOutputCollector(collector);
+    for (int i = 0; i < 100; i++) {
+      rs.process(Arrays.asList(new Text("key" + i % 10), new IntWritable(i)), 0);
+    }
+    rs.close(false);
+    assertEquals(hashSerializedKey ? 1 : 0, rs.numHashedKeys);
+
+    BinarySortableSerDe serde = new BinarySortableSerDe();
+    serde.initialize(null, desc.getKeySerializeInfo().getProperties());
+    assertEquals(100, collector.keys.size());
+    for (int i = 0; i < 100; i++) {
+      Text k = new Text("key" + i % 10);
+      BytesWritable expected = (BytesWritable) serde.serialize(Arrays.asList(k,
+          new StandardUnion((byte) 0, new Object[] {new IntWritable(i)})),
+          rs.keyObjectInspector);
+      expected.setSize(expected.getLength() + 1);
+      expected.get()[expected.getLength() - 1] = 0;
+      assertEquals(expected, collector.keys.get(i));
+
+      int expectedHashCode;
+      if (hashSerializedKey) {
+        OutputByteBuffer buffer = new OutputByteBuffer();
+        serde.serializeField(buffer, 0, k,
+            PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+        expectedHashCode = MurmurHash.getInstance().hash(buffer.getData(),
+            buffer.getLength(), 0);
+      } else {
+        expectedHashCode = ObjectInspectorUtils.hashCode(k,
+            PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+      }
+      assertEquals(expectedHashCode, collector.hashCodes.get(i).intValue());
+    }
+  }
+
+  public void testSaltHeavyKeys() throws Exception {
+    ArrayList<ExprNodeDesc> keyCols = new ArrayList<ExprNodeDesc>();
+    keyCols.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "k", "", false));
+    ReduceSinkDesc desc = PlanUtils.getReduceSinkDesc(keyCols, new ArrayList<ExprNodeDesc>(),
+        Arrays.asList("_col0"), true, -1, 1, -1);
+    desc.setSaltHeavyKeys(true);
+    ReduceSinkOperator rs = (ReduceSinkOperator) OperatorFactory.get(desc);
+
+    HiveConf conf = new HiveConf(TestReduceSinkOperator.class);
+    HiveConf.setLongVar(conf, HiveConf.ConfVars.HIVEGROUPBYSKEWSAMPLEROWS, 1000);
+    HiveConf.setFloatVar(conf, HiveConf.ConfVars.HIVEGROUPBYSKEWHEAVYFRACTION, 0.1f);
+    ObjectInspector rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("k"), Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+    rs.initialize(conf, new ObjectInspector[] {rowOI});
+    KeyCollector collector = new KeyCollector();
+    rs.setOutputCollector(collector);
+    // one key holds half of the rows
+    List<Text> keys = new ArrayList<Text>();
+    for (int i = 0; i < 4000; i++) {
+      keys.add(new Text(i % 2 == 0 ? "hot" : "key" + i % 500));
+      rs.process(Arrays.asList(keys.get(i)), 0);
+    }
+    rs.close(false);
+
+    Set<Integer> hotHashCodes = new HashSet<Integer>();
+    for (int i = 0; i < 4000; i++) {
+      int hashCode = ObjectInspectorUtils.hashCode(keys.get(i),
+          PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+      if (i < 1000 || !keys.get(i).toString().equals("hot")) {
+        // the sampled rows and the other keys keep their partition
+        assertEquals(hashCode, collector.hashCodes.get(i).intValue());
+      } else {
+        hotHashCodes.add(collector.hashCodes.get(i));
+      }
+    }
+    assertEquals(1500, rs.numSaltedRows);
+    assertTrue(hotHashCodes.size() > 1000);
+  }
+}
@@ -0,0 +1,177 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.UDFConcat;
+import org.apache.hadoop.hive.ql.udf.UDFSubstr;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.objectweb.asm.Type;
+
+/**
+ * TestUDFMethodInvoker.
+ *
+ */
+public class TestUDFMethodInvoker extends TestCase {
+
+  /**
+   * A UDF with primitive parameters, which fails on negative values.
+   */
+  public static class UDFPrimitives extends UDF {
+    public double evaluate(int a, long b) {
+      if (a < 0) {
+        throw new IllegalArgumentException("negative");
+      }
+      return a * 0.5 + b;
+    }
+  }
+
+  /**
+   * Loads the classes of a prefix again, instead of delegating them to its
+   * parent, and does not find the ones of another prefix.
+   */
+  private static class ChildFirstClassLoader extends ClassLoader {
+    private final String loadedPrefix;
+    private final String hiddenPrefix;
+
+    ChildFirstClassLoader(String loadedPrefix, String hiddenPrefix) {
+      super(TestUDFMethodInvoker.class.getClassLoader());
+      this.loadedPrefix = loadedPrefix;
+      this.hiddenPrefix = hiddenPrefix;
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve)
+        throws ClassNotFoundException {
+      if (hiddenPrefix != null && name.startsWith(hiddenPrefix)) {
+        throw new ClassNotFoundException(name);
+      }
+      if (!name.startsWith(loadedPrefix)) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> c = findLoadedClass(name);
+      if (c == null) {
+        try {
+          InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          byte[] buffer = new byte[4096];
+          for (int n; (n = in.read(buffer)) > 0;) {
+            bytes.write(buffer, 0, n);
+          }
+          in.close();
+          c = defineClass(name, bytes.toByteArray(), 0, bytes.size());
+        } catch (Exception e) {
+          throw new ClassNotFoundException(name, e);
+        }
+      }
+      return c;
+    }
+  }
+
+  public void testWritables() throws Exception {
+    UDFMethodInvoker invoker = UDFMethodInvoker.get(UDFSubstr.class.getMethod("evaluate",
+        Text.class, IntWritable.class, IntWritable.class));
+    assertFalse(invoker.getClass().getName(), invoker.getClass().getName().contains(
+        "Reflection"));
+    assertSame(invoker, UDFMethodInvoker.get(invoker.getMethod()));
+    Object[] args = {new Text("abcdef"), new IntWritable(2), new IntWritable(3)};
+    assertEquals(new Text("bcd"), invoker.invoke(new UDFSubstr(), args));
+
+    invoker = UDFMethodInvoker.get(UDFConcat.class.getMethod("evaluate", Text[].class));
+    args = new Object[] {new Text[] {new Text("a"), null, new Text("b")}};
+    assertNull(invoker.invoke(new UDFConcat(), args));
+    args = new Object[] {new Text[] {new Text("a"), new Text("b")}};
+    assertEquals(new Text("ab"), invoker.invoke(new UDFConcat(), args));
+  }
+
+  public void testPrimitives() throws Exception {
+    UDFMethodInvoker invoker = UDFMethodInvoker.get(UDFPrimitives.class.getMethod("evaluate",
+        int.class, long.class));
+    UDFMethodInvoker reflection = UDFMethodInvoker.getReflectionInvoker(invoker.getMethod());
+    Object[] args = {Integer.valueOf(3), Long.valueOf(4)};
+    assertEquals(Double.valueOf(5.5), invoker.invoke(new UDFPrimitives(), args));
+    assertEquals(Double.valueOf(5.5), reflection.invoke(new UDFPrimitives(), args));
+
+    // exceptions are wrapped like FunctionRegistry.invoke does
+    args[0] = Integer.valueOf(-1);
+    try {
+      invoker.invoke(new UDFPrimitives(), args);
+      fail();
+    } catch (HiveException e) {
+      assertTrue(e.getMessage().startsWith("Unable to execute method"));
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+  }
+
+  public void testUnloading() throws Exception {
+    ClassLoader udfLoader = new ChildFirstClassLoader(UDFPrimitives.class.getName(), null);
+    Class<?> udfClass = udfLoader.loadClass(UDFPrimitives.class.getName());
+    assertNotSame(UDFPrimitives.class, udfClass);
+    Method method = udfClass.getMethod("evaluate", int.class, long.class);
+    UDFMethodInvoker invoker = UDFMethodInvoker.get(method);
+    assertFalse(invoker.getClass().getName(), invoker.getClass().getName().contains(
+        "Reflection"));
+    assertSame(invoker, UDFMethodInvoker.get(method));
+    Object[] args = {Integer.valueOf(3), Long.valueOf(4)};
+    assertEquals(Double.valueOf(5.5), invoker.invoke(udfClass.newInstance(), args));
+
+    // nothing but the invoker references the loader of the UDF
+    WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>(udfLoader);
+    udfLoader = null;
+    udfClass = null;
+    method = null;
+    invoker = null;
+    for (int i = 0; i < 20 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertNull(ref.get());
+  }
+
+  public void testWithoutAsm() throws Exception {
+    ClassLoader loader = new ChildFirstClassLoader(UDFMethodInvoker.class.getName(),
+        "org.objectweb.asm.");
+    try {
+      loader.loadClass(Type.class.getName());
+      fail();
+    } catch (ClassNotFoundException e) {
+      // asm is not on the classpath of the loader
+    }
+    Class<?> invokerClass = loader.loadClass(UDFMethodInvoker.class.getName());
+    assertNotSame(UDFMethodInvoker.class, invokerClass);
+    Method get = invokerClass.getMethod("get", Method.class);
+    Method invoke = invokerClass.getMethod("invoke", Object.class, Object[].class);
+    Method method = UDFPrimitives.class.getMethod("evaluate", int.class, long.class);
+    for (int i = 0; i < 2; i++) {
+      // the invokers fall back on reflection
+      Object invoker = get.invoke(null, method);
+      assertTrue(invoker.getClass().getName(), invoker.getClass().getName().endsWith(
+          "$ReflectionInvoker"));
+      Object[] args = {Integer.valueOf(3), Long.valueOf(4)};
+      assertEquals(Double.valueOf(5.5), invoke.invoke(invoker, new UDFPrimitives(), args));
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.FilterDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.plan.SelectDesc;
+import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestVectorizedOperators: the operators give the same rows when they
+ * process batches as when they process rows.
+ *
+ */
+public class TestVectorizedOperators extends TestCase {
+
+  /**
+   * Collects the rows as strings.
+   */
+  private static class StringCollector extends Operator<CollectDesc> {
+    private static final long serialVersionUID = 1L;
+    private final List<String> rows = new ArrayList<String>();
+
+    @Override
+    public void processOp(Object row, int tag) {
+      rows.add(SerDeUtils.getJSONString(row, inputObjInspectors[tag]));
+    }
+
+    @Override
+    public OperatorType getType() {
+      return null;
+    }
+  }
+
+  private final List<String> names = Arrays.asList("k", "a", "b");
+  private final List<ObjectInspector> ois = Arrays.<ObjectInspector>asList(
+      PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+      PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+      PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+  private final StructObjectInspector rowOI = ObjectInspectorFactory
+      .getStandardStructObjectInspector(names, ois);
+
+  private List<Object[]> getRows() {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Random random = new Random(5);
+    for (int i = 0; i < 5000; i++) {
+      rows.add(new Object[] {
+          random.nextInt(20) == 0 ? null : new Text("key" + random.nextInt(50)),
+          random.nextInt(20) == 0 ? null : new IntWritable(random.nextInt(100)),
+          new LongWritable(random.nextInt(1000))});
+    }
+    return rows;
+  }
+
+  /**
+   * filter a > 10 and k <> 'key7', select k, a + b, group by k with sum and
+   * count.
+   */
+  private Operator<FilterDesc> getOperators(StringCollector sink) throws Exception {
+    ExprNodeDesc k = new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "k", "", false);
+    ExprNodeDesc a = new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "a", "", false);
+    ExprNodeDesc b = new ExprNodeColumnDesc(TypeInfoFactory.longTypeInfo, "b", "", false);
+    ExprNodeDesc predicate = TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(
+        "and", TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(">", a,
+        new ExprNodeConstantDesc(10)), TypeCheckProcFactory.DefaultExprProcessor
+        .getFuncExprNodeDesc("<>", k, new ExprNodeConstantDesc("key7")));
+    Operator<FilterDesc> filter = OperatorFactory.get(new FilterDesc(predicate, false));
+
+    ExprNodeDesc sum = TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc("+", a, b);
+    Operator<SelectDesc> select = OperatorFactory.getAndMakeChild(new SelectDesc(
+        new ArrayList<ExprNodeDesc>(Arrays.asList(k, sum)), new ArrayList<String>(Arrays.asList(
+        "_col0", "_col1"))), filter);
+
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "_col0", "", false));
+    ArrayList<ExprNodeDesc> parameters = new ArrayList<ExprNodeDesc>();
+    parameters.add(new ExprNodeColumnDesc(TypeInfoFactory.longTypeInfo, "_col1", "", false));
+    ArrayList<AggregationDesc> aggregations = new ArrayList<AggregationDesc>();
+    aggregations.add(new AggregationDesc("sum", FunctionRegistry.getGenericUDAFEvaluator("sum",
+        Arrays.<TypeInfo>asList(TypeInfoFactory.longTypeInfo), false, false), parameters,
+        false, GenericUDAFEvaluator.Mode.PARTIAL1));
+    aggregations.add(new AggregationDesc("count", FunctionRegistry.getGenericUDAFEvaluator(
+        "count", new ArrayList<TypeInfo>(), false, true), new ArrayList<ExprNodeDesc>(), false,
+        GenericUDAFEvaluator.Mode.PARTIAL1));
+    Operator<GroupByDesc> groupBy = OperatorFactory.getAndMakeChild(new GroupByDesc(
+        GroupByDesc.Mode.HASH, new ArrayList<String>(Arrays.asList("_col0", "_col1", "_col2")),
+        keys, aggregations, false, 0.5f, 0.9f), select);
+
+    sink.setConf(new CollectDesc(1));
+    groupBy.setChildOperators(new ArrayList<Operator<? extends java.io.Serializable>>(
+        Arrays.<Operator<? extends java.io.Serializable>>asList(sink)));
+    sink.setParentOperators(new ArrayList<Operator<? extends java.io.Serializable>>(
+        Arrays.<Operator<? extends java.io.Serializable>>asList(groupBy)));
+    return filter;
+  }
+
+  public void testFilterSelectGroupBy() throws Exception {
+    HiveConf conf = new HiveConf(TestVectorizedOperators.class);
+    List<Object[]> rows = getRows();
+
+    StringCollector rowSink = new StringCollector();
+    Operator<FilterDesc> rowOp = getOperators(rowSink);
+    rowOp.initialize(conf, new ObjectInspector[] {rowOI});
+    for (Object[] row : rows) {
+      rowOp.process(row, 0);
+    }
+    rowOp.close(false);
+
+    StringCollector batchSink = new StringCollector();
+    Operator<FilterDesc> batchOp = getOperators(batchSink);
+    VectorizationContext context = new VectorizationContext(names, ois, new boolean[] {true,
+        true, true});
+    batchOp.vectorizationContext = context;
+    batchOp.initialize(conf, new ObjectInspector[] {rowOI});
+    Operator<?> selectOp = batchOp.getChildOperators().get(0);
+    assertTrue(batchOp.isVectorized());
+    assertTrue(selectOp.isVectorized());
+    assertTrue(selectOp.getChildOperators().get(0).isVectorized());
+    assertFalse(batchSink.isVectorized());
+
+    VectorizedRowBatch batch = context.createBatch(1000);
+    for (Object[] row : rows) {
+      for (int c = 0; c < row.length; c++) {
+        ColumnVector col = batch.cols[c];
+        if (row[c] == null) {
+          col.setNull(batch.size);
+        } else {
+          col.setValue(batch.size, row[c], (PrimitiveObjectInspector) ois.get(c));
+        }
+      }
+      batch.size++;
+      if (batch.isFull()) {
+        batchOp.processBatch(batch, 0);
+        batch.reset();
+        batch.projectedColumns = context.getProjection();
+      }
+    }
+    batchOp.close(false);
+
+    Collections.sort(rowSink.rows);
+    Collections.sort(batchSink.rows);
+    assertTrue(rowSink.rows.size() > 10);
+    assertEquals(rowSink.rows, batchSink.rows);
+  }
+}
@@ -0,0 +1,223 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.exec.ExprNodeEvaluator;
+import org.apache.hadoop.hive.ql.exec.ExprNodeEvaluatorFactory;
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestVectorExpressions: the vectorized expressions keep the same rows and
+ * compute the same values as the row by row evaluators.
+ *
+ */
+public class TestVectorExpressions extends TestCase {
+
+  private static final int NUM_ROWS = 1000;
+
+  private final List<String> names = Arrays.asList("a", "b", "d", "s", "l");
+  private final List<ObjectInspector> ois = Arrays.<ObjectInspector>asList(
+      PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+      PrimitiveObjectInspectorFactory.writableLongObjectInspector,
+      PrimitiveObjectInspectorFactory.writableDoubleObjectInspector,
+      PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+      // not vectorized
+      ObjectInspectorFactory.getStandardListObjectInspector(
+      PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+  private final ExprNodeDesc a = new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "a", "",
+      false);
+  private final ExprNodeDesc b = new ExprNodeColumnDesc(TypeInfoFactory.longTypeInfo, "b", "",
+      false);
+  private final ExprNodeDesc d = new ExprNodeColumnDesc(TypeInfoFactory.doubleTypeInfo, "d", "",
+      false);
+  private final ExprNodeDesc s = new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "s", "",
+      false);
+  private final ExprNodeDesc l = new ExprNodeColumnDesc(TypeInfoFactory
+      .getListTypeInfo(TypeInfoFactory.intTypeInfo), "l", "", false);
+
+  private StructObjectInspector rowOI;
+  private List<Object[]> rows;
+
+  @Override
+  protected void setUp() {
+    rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(names, ois);
+    rows = new ArrayList<Object[]>();
+    Random random = new Random(17);
+    for (int i = 0; i < NUM_ROWS; i++) {
+      rows.add(new Object[] {
+          random.nextInt(10) == 0 ? null : new IntWritable(random.nextInt(40) - 10),
+          random.nextInt(10) == 0 ? null : new LongWritable(random.nextInt(40)),
+          random.nextInt(10) == 0 ? null : new DoubleWritable(random.nextDouble() * 20),
+          random.nextInt(10) == 0 ? null : new Text("x" + random.nextInt(10)),
+          null});
+    }
+  }
+
+  private static ExprNodeDesc func(String name, ExprNodeDesc... children) throws Exception {
+    return TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(name, children);
+  }
+
+  private VectorizationContext newContext() {
+    return new VectorizationContext(names, ois, new boolean[] {true, true, true, true, true});
+  }
+
+  private VectorizedRowBatch fill(VectorizationContext context) {
+    VectorizedRowBatch batch = context.createBatch(NUM_ROWS);
+    for (int i = 0; i < NUM_ROWS; i++) {
+      for (int c = 0; c < names.size(); c++) {
+        ColumnVector col = batch.cols[c];
+        Object o = rows.get(i)[c];
+        if (col == null) {
+          continue;
+        } else if (o == null) {
+          col.setNull(i);
+        } else {
+          col.setValue(i, o, (PrimitiveObjectInspector) ois.get(c));
+        }
+      }
+    }
+    batch.size = NUM_ROWS;
+    return batch;
+  }
+
+  private List<Integer> evaluateRows(ExprNodeDesc predicate, List<Integer> input)
+      throws Exception {
+    ExprNodeEvaluator eval = ExprNodeEvaluatorFactory.get(predicate);
+    PrimitiveObjectInspector oi = (PrimitiveObjectInspector) eval.initialize(rowOI);
+    List<Integer> result = new ArrayList<Integer>();
+    for (int i : input) {
+      if (Boolean.TRUE.equals(oi.getPrimitiveJavaObject(eval.evaluate(rows.get(i))))) {
+        result.add(i);
+      }
+    }
+    return result;
+  }
+
+  private static List<Integer> getSelected(VectorizedRowBatch batch) {
+    List<Integer> result = new ArrayList<Integer>();
+    for (int j = 0; j < batch.size; j++) {
+      result.add(batch.selectedInUse ? batch.selected[j] : j);
+    }
+    return result;
+  }
+
+  private void checkFilter(ExprNodeDesc predicate) throws Exception {
+    List<Integer> all = new ArrayList<Integer>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      all.add(i);
+    }
+    VectorizationContext context = newContext();
+    VectorExpression filter = context.getFilterExpression(predicate);
+    assertNotNull(predicate.getExprString(), filter);
+    VectorizedRowBatch batch = fill(context);
+    filter.evaluate(batch);
+    assertEquals(predicate.getExprString(), evaluateRows(predicate, all), getSelected(batch));
+
+    // on the rows kept by a previous filter
+    ExprNodeDesc previous = func("isnotnull", b);
+    context = newContext();
+    VectorExpression previousFilter = context.getFilterExpression(previous);
+    filter = context.getFilterExpression(predicate);
+    batch = fill(context);
+    previousFilter.evaluate(batch);
+    assertTrue(batch.selectedInUse);
+    filter.evaluate(batch);
+    assertEquals(predicate.getExprString(), evaluateRows(predicate, evaluateRows(previous,
+        all)), getSelected(batch));
+  }
+
+  private void checkValues(ExprNodeDesc expr) throws Exception {
+    VectorizationContext context = newContext();
+    VectorExpression vectorExpr = context.getVectorExpression(expr);
+    assertNotNull(expr.getExprString(), vectorExpr);
+    VectorizedRowBatch batch = fill(context);
+    vectorExpr.evaluate(batch);
+    ColumnVector col = batch.cols[vectorExpr.getOutputColumn()];
+    ExprNodeEvaluator eval = ExprNodeEvaluatorFactory.get(expr);
+    ObjectInspector oi = eval.initialize(rowOI);
+    assertSame(oi, context.getWritableObjectInspector(vectorExpr.getOutputColumn()));
+    for (int i = 0; i < NUM_ROWS; i++) {
+      Object expected = eval.evaluate(rows.get(i));
+      assertEquals(expr.getExprString() + " row " + i, String.valueOf(expected), String
+          .valueOf(col.getWritableObject(i)));
+    }
+  }
+
+  public void testFilters() throws Exception {
+    ExprNodeDesc ten = new ExprNodeConstantDesc(10);
+    checkFilter(func(">", a, ten));
+    checkFilter(func("<=", ten, a));
+    checkFilter(func("<", a, b));
+    checkFilter(func(">=", d, a));
+    checkFilter(func("=", d, new ExprNodeConstantDesc(3.5)));
+    checkFilter(func("<>", b, ten));
+    checkFilter(func("=", s, new ExprNodeConstantDesc("x3")));
+    checkFilter(func("<", s, new ExprNodeConstantDesc("x5")));
+    checkFilter(func(">", s, s));
+    checkFilter(func("isnull", a));
+    checkFilter(func("isnotnull", d));
+    checkFilter(func("isnull", l));
+    checkFilter(func("isnotnull", l));
+    checkFilter(func("or", func("and", func(">", a, ten), func("<>", s,
+        new ExprNodeConstantDesc("x1"))), func("<", d, new ExprNodeConstantDesc(5.0))));
+    checkFilter(func(">", func("+", a, b), new ExprNodeConstantDesc(20)));
+    checkFilter(func("=", func("*", a, new ExprNodeConstantDesc(2)), b));
+    checkFilter(func(">", func("/", d, a), new ExprNodeConstantDesc(1.0)));
+  }
+
+  public void testArithmetic() throws Exception {
+    checkValues(a);
+    checkValues(func("+", a, b));
+    checkValues(func("-", a, new ExprNodeConstantDesc(3)));
+    checkValues(func("*", new ExprNodeConstantDesc(3), a));
+    checkValues(func("+", a, a));
+    checkValues(func("-", d, a));
+    checkValues(func("/", a, b));
+    checkValues(func("*", func("+", a, new ExprNodeConstantDesc(1.5)), d));
+  }
+
+  public void testUnsupported() throws Exception {
+    VectorizationContext context = newContext();
+    assertNull(context.getVectorExpression(l));
+    assertNull(context.getVectorExpression(func("concat", s, new ExprNodeConstantDesc("y"))));
+    assertNull(context.getFilterExpression(func("=", s, a)));
+    assertNull(context.getFilterExpression(func("=", new ExprNodeConstantDesc(1),
+        new ExprNodeConstantDesc(1))));
+    assertNull(context.getFilterExpression(func("like", s, new ExprNodeConstantDesc("x%"))));
+  }
+}
@@ -0,0 +1,234 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+/**
+ * PerformTestRCFileColumnEncoding.
+ *
+ * Writes the same synthetic wide table to an RCFile with and without column
+ * encodings, and compares the on disk sizes and the scan times.
+ */
+public class PerformTestRCFileColumnEncoding {
+
+  private static final String[] COUNTRIES = {"United States", "Germany",
+      "France", "Japan", "Brazil", "India", "Canada", "Australia"};
+
+  private final Configuration conf = new Configuration();
+
+  private final FileSystem fs;
+
+  private final Path plainFile;
+  private final Path encodedFile;
+
+  public PerformTestRCFileColumnEncoding(String file) throws IOException {
+    fs = FileSystem.getLocal(conf);
+    if (file == null) {
+      Path dir = new Path(System.getProperty("test.data.dir", ".") + "/mapred");
+      plainFile = new Path(dir, "test_rcfile_plain");
+      encodedFile = new Path(dir, "test_rcfile_encoded");
+    } else {
+      plainFile = new Path(file + "-plain");
+      encodedFile = new Path(file + "-encoded");
+    }
+    fs.delete(plainFile, true);
+    fs.delete(encodedFile, true);
+  }
+
+  /**
+   * Every fourth column is of the same kind: a sequential id, a low
+   * cardinality string, a small integer repeated over long runs and a random
+   * string.
+   */
+  private static byte[] cell(int row, int column, Random random) {
+    String value;
+    switch (column % 4) {
+    case 0:
+      value = String.valueOf(1300000000L + row);
+      break;
+    case 1:
+      value = COUNTRIES[(row / 7 + column) % COUNTRIES.length];
+      break;
+    case 2:
+      value = String.valueOf((row / 250) % 10);
+      break;
+    default:
+      StringBuilder sb = new StringBuilder();
+      int length = 5 + random.nextInt(20);
+      for (int i = 0; i < length; i++) {
+        sb.append((char) ('a' + random.nextInt(26)));
+      }
+      value = sb.toString();
+      break;
+    }
+    return value.getBytes();
+  }
+
+  private long write(Path file, int rowCount, int columnNum,
+      CompressionCodec codec, boolean encode) throws IOException {
+    Configuration writeConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(writeConf, columnNum);
+    writeConf.setBoolean(RCFile.COLUMN_ENCODING_CONF_STR, encode);
+    RCFile.Writer writer = new RCFile.Writer(fs, writeConf, file, null, codec);
+
+    Random random = new Random(3);
+    BytesRefArrayWritable bytes = new BytesRefArrayWritable(columnNum);
+    for (int i = 0; i < rowCount; i++) {
+      for (int j = 0; j < columnNum; j++) {
+        byte[] cell = cell(i, j, random);
+        bytes.set(j, new BytesRefWritable(cell, 0, cell.length));
+      }
+      writer.append(bytes);
+    }
+    writer.close();
+    return fs.getFileStatus(file).getLen();
+  }
+
+  /**
+   * Reads the given columns, or all of them for a null projection, touching
+   * every value so that lazily decompressed and decoded columns are read.
+   */
+  private long read(Path file, int rowCount, int columnNum,
+      ArrayList<Integer> columns) throws IOException {
+    Configuration readConf = new Configuration(conf);
+    if (columns == null) {
+      ColumnProjectionUtils.setFullyReadColumns(readConf);
+    } else {
+      ColumnProjectionUtils.setReadColumnIDs(readConf, columns);
+    }
+    RCFile.Reader reader = new RCFile.Reader(fs, file, readConf);
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable cols = new BytesRefArrayWritable();
+    long checksum = 0;
+    int readRows = 0;
+    while (reader.next(rowID)) {
+      reader.getCurrentRow(cols);
+      for (int j = 0; j < columnNum; j++) {
+        if (columns == null || columns.contains(j)) {
+          BytesRefWritable cell = cols.get(j);
+          cell.getData();
+          checksum += cell.getLength();
+        }
+      }
+      readRows++;
+    }
+    reader.close();
+    if (readRows != rowCount) {
+      throw new IllegalStateException("Read " + readRows + " rows, expected "
+          + rowCount);
+    }
+    return checksum;
+  }
+
+  private void checkSame(int rowCount, int columnNum) throws IOException {
+    RCFile.Reader plain = new RCFile.Reader(fs, plainFile, conf);
+    RCFile.Reader encoded = new RCFile.Reader(fs, encodedFile, conf);
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable plainCols = new BytesRefArrayWritable();
+    BytesRefArrayWritable encodedCols = new BytesRefArrayWritable();
+    for (int i = 0; i < rowCount; i++) {
+      if (!plain.next(rowID) || !encoded.next(rowID)) {
+        throw new IllegalStateException("Missing row " + i);
+      }
+      plain.getCurrentRow(plainCols);
+      encoded.getCurrentRow(encodedCols);
+      for (int j = 0; j < columnNum; j++) {
+        if (plainCols.get(j).compareTo(encodedCols.get(j)) != 0) {
+          throw new IllegalStateException("Row " + i + " column " + j
+              + " differs");
+        }
+      }
+    }
+    plain.close();
+    encoded.close();
+  }
+
+  private void run(int rowCount, int columnNum, CompressionCodec codec)
+      throws IOException {
+    String codecName = codec == null ? "no codec" : codec.getClass()
+        .getSimpleName();
+    long start = System.currentTimeMillis();
+    long plainLen = write(plainFile, rowCount, columnNum, codec, false);
+    long plainWrite = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    long encodedLen = write(encodedFile, rowCount, columnNum, codec, true);
+    long encodedWrite = System.currentTimeMillis() - start;
+    System.out.println("Write " + rowCount + " rows of " + columnNum
+        + " columns with " + codecName + ": plain " + plainLen + " bytes in "
+        + plainWrite + " ms, encoded " + encodedLen + " bytes in "
+        + encodedWrite + " ms.");
+
+    checkSame(rowCount, columnNum);
+
+    ArrayList<Integer> oneOfEach = new ArrayList<Integer>();
+    for (int j = 0; j < 4 && j < columnNum; j++) {
+      oneOfEach.add(j);
+    }
+    compareReads(rowCount, columnNum, null);
+    compareReads(rowCount, columnNum, oneOfEach);
+  }
+
+  private void compareReads(int rowCount, int columnNum,
+      ArrayList<Integer> columns) throws IOException {
+    String what = columns == null ? "all columns" : "columns " + columns;
+    long start = System.currentTimeMillis();
+    read(plainFile, rowCount, columnNum, columns);
+    long plainRead = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    read(encodedFile, rowCount, columnNum, columns);
+    long encodedRead = System.currentTimeMillis() - start;
+    System.out.println("Read " + what + ": plain " + plainRead
+        + " ms, encoded " + encodedRead + " ms.");
+  }
+
+  public static void main(String[] args) throws Exception {
+    int count = 100000;
+    int columnNum = 40;
+    String file = null;
+
+    for (int i = 0; i < args.length; ++i) { // parse command line
+      if (args[i] == null) {
+        continue;
+      } else if (args[i].equals("-count")) {
+        count = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-columns")) {
+        columnNum = Integer.parseInt(args[++i]);
+      } else {
+        file = args[i];
+      }
+    }
+
+    PerformTestRCFileColumnEncoding test = new PerformTestRCFileColumnEncoding(
+        file);
+    test.run(count, columnNum, null);
+    test.run(count, columnNum, new DefaultCodec());
+  }
+}
@@ -0,0 +1,139 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+/**
+ * PerformTestRCFileParallelCompression.
+ *
+ * Measures the write throughput of RCFile with a growing number of
+ * compression threads.
+ */
+public class PerformTestRCFileParallelCompression {
+
+  private final Configuration conf = new Configuration();
+
+  private final FileSystem fs;
+
+  private final Path file;
+
+  private final byte[][][] rows;
+
+  private long plainBytes = 0;
+
+  public PerformTestRCFileParallelCompression(String file, int rowCount,
+      int columnNum) throws IOException {
+    fs = FileSystem.getLocal(conf);
+    if (file == null) {
+      Path dir = new Path(System.getProperty("test.data.dir", ".") + "/mapred");
+      this.file = new Path(dir, "test_rcfile_parallel_compression");
+    } else {
+      this.file = new Path(file);
+    }
+
+    // a few distinct rows, so that generating rows does not show in the
+    // timings
+    Random random = new Random(3);
+    rows = new byte[Math.min(rowCount, 1000)][columnNum][];
+    for (byte[][] row : rows) {
+      for (int j = 0; j < columnNum; j++) {
+        StringBuilder sb = new StringBuilder();
+        int length = 5 + random.nextInt(30);
+        for (int k = 0; k < length; k++) {
+          // a small alphabet keeps the values compressible
+          sb.append((char) ('a' + random.nextInt(8)));
+        }
+        row[j] = sb.toString().getBytes();
+      }
+    }
+  }
+
+  private long write(int rowCount, int threads, CompressionCodec codec)
+      throws IOException {
+    fs.delete(file, true);
+    Configuration writeConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(writeConf, rows[0].length);
+    writeConf.setInt(RCFile.COMPRESS_THREADS_CONF_STR, threads);
+    writeConf.setBoolean(RCFile.COLUMN_ENCODING_CONF_STR, true);
+
+    long start = System.currentTimeMillis();
+    RCFile.Writer writer = new RCFile.Writer(fs, writeConf, file, null, codec);
+    BytesRefArrayWritable bytes = new BytesRefArrayWritable(rows[0].length);
+    plainBytes = 0;
+    for (int i = 0; i < rowCount; i++) {
+      byte[][] row = rows[i % rows.length];
+      for (int j = 0; j < row.length; j++) {
+        bytes.set(j, new BytesRefWritable(row[j], 0, row[j].length));
+        plainBytes += row[j].length;
+      }
+      writer.append(bytes);
+    }
+    writer.close();
+    return System.currentTimeMillis() - start;
+  }
+
+  private void run(int rowCount, int maxThreads) throws IOException {
+    CompressionCodec codec = new DefaultCodec();
+    // warm up the JIT
+    write(Math.min(rowCount, 10000), maxThreads, codec);
+
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      long cost = Math.max(1, write(rowCount, threads, codec));
+      long fileLen = fs.getFileStatus(file).getLen();
+      System.out.println("Write " + rowCount + " rows of " + rows[0].length
+          + " columns with " + threads + " compression threads cost " + cost
+          + " milliseconds, " + (plainBytes / 1024 / cost) + " KB/ms of "
+          + "plain data. And the file's on disk size is " + fileLen);
+    }
+    fs.delete(file, true);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int count = 500000;
+    int columnNum = 40;
+    int threads = 8;
+    String file = null;
+
+    for (int i = 0; i < args.length; ++i) { // parse command line
+      if (args[i] == null) {
+        continue;
+      } else if (args[i].equals("-count")) {
+        count = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-columns")) {
+        columnNum = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-threads")) {
+        threads = Integer.parseInt(args[++i]);
+      } else {
+        file = args[i];
+      }
+    }
+
+    new PerformTestRCFileParallelCompression(file, count, columnNum).run(
+        count, threads);
+  }
+}
@@ -0,0 +1,171 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+/**
+ * TestRCFileColumnEncoding.
+ *
+ */
+public class TestRCFileColumnEncoding extends TestCase {
+
+  private final RCFileColumnEncoding encoder = new RCFileColumnEncoding();
+
+  public void testDictionary() throws IOException {
+    String[] values = new String[200];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (i % 3 == 0) ? "United States" : (i % 3 == 1) ? "Germany"
+          : "";
+    }
+    assertRoundTrip(RCFileColumnEncoding.DICTIONARY, values);
+  }
+
+  public void testIntegerRuns() throws IOException {
+    String[] values = new String[300];
+    for (int i = 0; i < values.length; i++) {
+      // a constant run, an ascending run and a descending run
+      values[i] = String.valueOf(i < 100 ? 7 : i < 200 ? 1000 + i : -3 * i);
+    }
+    assertRoundTrip(RCFileColumnEncoding.INTEGER_RUNS, values);
+  }
+
+  public void testIntegerDelta() throws IOException {
+    String[] values = new String[200];
+    long value = 1300000000000L;
+    for (int i = 0; i < values.length; i++) {
+      value += (i * 7919) % 1000;
+      values[i] = String.valueOf(value);
+    }
+    values[10] = String.valueOf(Long.MIN_VALUE);
+    values[11] = String.valueOf(Long.MAX_VALUE);
+    assertRoundTrip(RCFileColumnEncoding.INTEGER_DELTA, values);
+  }
+
+  public void testPlain() throws IOException {
+    String[] values = new String[100];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = "value_" + (i * 7919);
+    }
+    assertRoundTrip(RCFileColumnEncoding.PLAIN, values);
+    // integers that would not be written back the same way
+    for (String value : new String[] {"007", "-0", "+5", "12a",
+        "99999999999999999999", "\\N"}) {
+      values[0] = value;
+      for (int i = 1; i < values.length; i++) {
+        values[i] = String.valueOf(i * 1000003L);
+      }
+      byte encoding = encode(values, new NonSyncDataOutputBuffer());
+      assertTrue(value, encoding != RCFileColumnEncoding.INTEGER_RUNS
+          && encoding != RCFileColumnEncoding.INTEGER_DELTA);
+    }
+  }
+
+  public void testReadWrite() throws IOException {
+    readWrite(null);
+    readWrite(new DefaultCodec());
+  }
+
+  private void readWrite(CompressionCodec codec) throws IOException {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path file = new Path(System.getProperty("test.data.dir", ".")
+        + "/mapred/testcolumnencoding/test_rcfile");
+    fs.delete(file, true);
+
+    RCFileOutputFormat.setColumnNumber(conf, 4);
+    conf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, 500);
+    conf.setBoolean(RCFile.COLUMN_ENCODING_CONF_STR, true);
+    RCFile.Writer writer = new RCFile.Writer(fs, conf, file, null, codec);
+    BytesRefArrayWritable bytes = new BytesRefArrayWritable(4);
+    int rowCount = 1234;
+    for (int i = 0; i < rowCount; i++) {
+      String[] row = row(i);
+      for (int j = 0; j < row.length; j++) {
+        bytes.set(j, new BytesRefWritable(row[j].getBytes("UTF-8")));
+      }
+      writer.append(bytes);
+    }
+    writer.close();
+
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable cols = new BytesRefArrayWritable();
+    int readCount = 0;
+    while (reader.next(rowID)) {
+      reader.getCurrentRow(cols);
+      String[] row = row(readCount);
+      for (int j = 0; j < row.length; j++) {
+        BytesRefWritable cell = cols.get(j);
+        assertEquals(row[j], new String(cell.getData(), cell.getStart(), cell
+            .getLength(), "UTF-8"));
+      }
+      readCount++;
+    }
+    reader.close();
+    assertEquals(rowCount, readCount);
+  }
+
+  private static String[] row(int i) {
+    return new String[] {String.valueOf(i), "status_" + (i % 4),
+        String.valueOf((i / 100) * 5), "payload_" + (i * 7919)};
+  }
+
+  private byte encode(String[] values, NonSyncDataOutputBuffer encoded)
+      throws IOException {
+    NonSyncDataOutputBuffer plain = new NonSyncDataOutputBuffer();
+    int[] lengths = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      byte[] bytes = values[i].getBytes("UTF-8");
+      plain.write(bytes, 0, bytes.length);
+      lengths[i] = bytes.length;
+    }
+    return encoder.encode(plain.getData(), lengths, values.length, encoded);
+  }
+
+  private void assertRoundTrip(byte expectedEncoding, String[] values)
+      throws IOException {
+    NonSyncDataOutputBuffer encoded = new NonSyncDataOutputBuffer();
+    assertEquals(expectedEncoding, encode(values, encoded));
+    if (expectedEncoding == RCFileColumnEncoding.PLAIN) {
+      assertEquals(0, encoded.getLength());
+      return;
+    }
+
+    NonSyncDataOutputBuffer decoded = new NonSyncDataOutputBuffer();
+    RCFileColumnEncoding.decode(expectedEncoding, encoded.getData(), encoded
+        .getLength(), values.length, decoded);
+    StringBuilder expected = new StringBuilder();
+    for (String value : values) {
+      expected.append(value);
+    }
+    assertEquals(expected.toString(), new String(decoded.getData(), 0, decoded
+        .getLength(), "UTF-8"));
+  }
+}
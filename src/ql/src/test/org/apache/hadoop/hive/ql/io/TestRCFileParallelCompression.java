@@ -0,0 +1,136 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+/**
+ * TestRCFileParallelCompression.
+ *
+ */
+public class TestRCFileParallelCompression extends TestCase {
+
+  private static final int ROW_COUNT = 3000;
+  private static final int COLUMN_COUNT = 7;
+
+  private final Configuration conf = new Configuration();
+
+  private FileSystem fs;
+  private Path dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(System.getProperty("test.data.dir", ".")
+        + "/mapred/testparallelcompression");
+    fs.delete(dir, true);
+  }
+
+  public void testSameFile() throws IOException {
+    for (boolean encode : new boolean[] {false, true}) {
+      Path serial = write(1, encode, new DefaultCodec());
+      byte[] expected = readFile(serial);
+      for (int threads : new int[] {2, 3, 16}) {
+        Path parallel = write(threads, encode, new DefaultCodec());
+        byte[] actual = readFile(parallel);
+        assertEquals(expected.length, actual.length);
+        // only the random sync marks differ
+        int differences = 0;
+        for (int i = 0; i < expected.length; i++) {
+          if (expected[i] != actual[i]) {
+            differences++;
+          }
+        }
+        assertTrue(differences < 16 * (ROW_COUNT / 100 + 2));
+        assertEquals(ROW_COUNT, readRows(parallel));
+      }
+    }
+  }
+
+  public void testWithoutCodec() throws IOException {
+    assertEquals(ROW_COUNT, readRows(write(4, true, null)));
+  }
+
+  private Path write(int threads, boolean encode, CompressionCodec codec)
+      throws IOException {
+    Path file = new Path(dir, "test_rcfile_" + threads + "_" + encode);
+    fs.delete(file, true);
+    Configuration writeConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(writeConf, COLUMN_COUNT);
+    writeConf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, 100);
+    writeConf.setInt(RCFile.COMPRESS_THREADS_CONF_STR, threads);
+    writeConf.setBoolean(RCFile.COLUMN_ENCODING_CONF_STR, encode);
+    RCFile.Writer writer = new RCFile.Writer(fs, writeConf, file, null, codec);
+    BytesRefArrayWritable bytes = new BytesRefArrayWritable(COLUMN_COUNT);
+    for (int i = 0; i < ROW_COUNT; i++) {
+      for (int j = 0; j < COLUMN_COUNT; j++) {
+        byte[] data = cell(i, j).getBytes("UTF-8");
+        bytes.set(j, new BytesRefWritable(data, 0, data.length));
+      }
+      writer.append(bytes);
+    }
+    writer.close();
+    return file;
+  }
+
+  private static String cell(int row, int column) {
+    return column % 2 == 0 ? String.valueOf(row * column)
+        : "value_" + (row * 7919 + column);
+  }
+
+  private int readRows(Path file) throws IOException {
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable cols = new BytesRefArrayWritable();
+    int readCount = 0;
+    while (reader.next(rowID)) {
+      reader.getCurrentRow(cols);
+      for (int j = 0; j < COLUMN_COUNT; j++) {
+        BytesRefWritable cell = cols.get(j);
+        assertEquals(cell(readCount, j), new String(cell.getData(), cell
+            .getStart(), cell.getLength(), "UTF-8"));
+      }
+      readCount++;
+    }
+    reader.close();
+    return readCount;
+  }
+
+  private byte[] readFile(Path file) throws IOException {
+    byte[] data = new byte[(int) fs.getFileStatus(file).getLen()];
+    FSDataInputStream in = fs.open(file);
+    try {
+      in.readFully(data);
+    } finally {
+      in.close();
+    }
+    return data;
+  }
+}
@@ -0,0 +1,206 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * TestRCFileReadAhead.
+ *
+ */
+public class TestRCFileReadAhead extends TestCase {
+
+  private static final int ROW_COUNT = 2345;
+
+  private final Configuration conf = new Configuration();
+
+  private FileSystem fs;
+  private Path dir;
+  private Path file;
+
+  @Override
+  protected void setUp() throws IOException {
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(System.getProperty("test.data.dir", ".")
+        + "/mapred/testreadahead");
+    file = new Path(dir, "test_rcfile");
+    fs.delete(dir, true);
+  }
+
+  public void testReadAll() throws IOException {
+    for (CompressionCodec codec : new CompressionCodec[] {null,
+        new DefaultCodec()}) {
+      writeRows(codec);
+      for (int depth = 0; depth <= 3; depth++) {
+        RCFile.Reader reader = createReader(depth, null);
+        assertEquals(ROW_COUNT, readRows(reader, 0, ROW_COUNT));
+        reader.close();
+      }
+    }
+  }
+
+  public void testProjection() throws IOException {
+    writeRows(new DefaultCodec());
+    ArrayList<Integer> columns = new ArrayList<Integer>();
+    columns.add(2);
+    columns.add(0);
+    RCFile.Reader reader = createReader(2, columns);
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable cols = new BytesRefArrayWritable();
+    int readCount = 0;
+    while (reader.next(rowID)) {
+      reader.getCurrentRow(cols);
+      assertEquals(String.valueOf(readCount), cell(cols, 0));
+      assertEquals(String.valueOf(readCount % 7), cell(cols, 2));
+      readCount++;
+    }
+    reader.close();
+    assertEquals(ROW_COUNT, readCount);
+  }
+
+  public void testSeek() throws IOException {
+    writeRows(new DefaultCodec());
+    RCFile.Reader reader = createReader(2, null);
+    assertEquals(150, readRows(reader, 0, 150));
+    // leaves the read ahead in the middle of the file
+    reader.seekToRowGroup(10);
+    assertEquals(100, readRows(reader, 1000, 100));
+    reader.seekToRowGroup(3);
+    assertEquals(ROW_COUNT - 300, readRows(reader, 300, ROW_COUNT));
+    reader.close();
+  }
+
+  public void testColumnsBatch() throws IOException {
+    writeRows(new DefaultCodec());
+    RCFile.Reader reader = createReader(2, null);
+    BytesRefArrayWritable column = new BytesRefArrayWritable();
+    int readCount = 0;
+    while (reader.nextColumnsBatch()) {
+      column = reader.getColumn(1, column);
+      for (int i = 0; i < column.size(); i++) {
+        BytesRefWritable cell = column.get(i);
+        assertEquals("value_" + ((readCount + i) * 7919), new String(cell
+            .getData(), cell.getStart(), cell.getLength(), "UTF-8"));
+      }
+      readCount += column.size();
+    }
+    reader.close();
+    assertEquals(ROW_COUNT, readCount);
+  }
+
+  public void testSplits() throws IOException {
+    writeRows(new DefaultCodec());
+    JobConf job = new JobConf(conf);
+    job.set("mapred.input.dir", dir.toString());
+    job.setInt(RCFile.READ_AHEAD_CONF_STR, 2);
+    RCFileInputFormat<LongWritable, BytesRefArrayWritable> inputFormat =
+        new RCFileInputFormat<LongWritable, BytesRefArrayWritable>();
+    InputSplit[] splits = inputFormat.getSplits(job, 5);
+    assertTrue(splits.length > 1);
+
+    boolean[] seen = new boolean[ROW_COUNT];
+    for (InputSplit split : splits) {
+      RecordReader<LongWritable, BytesRefArrayWritable> rr = inputFormat
+          .getRecordReader((FileSplit) split, job, Reporter.NULL);
+      LongWritable key = rr.createKey();
+      BytesRefArrayWritable value = rr.createValue();
+      while (rr.next(key, value)) {
+        int row = Integer.parseInt(cell(value, 0));
+        assertFalse(seen[row]);
+        seen[row] = true;
+        assertEquals("value_" + (row * 7919), cell(value, 1));
+      }
+      rr.close();
+    }
+    for (int i = 0; i < ROW_COUNT; i++) {
+      assertTrue("row " + i, seen[i]);
+    }
+  }
+
+  private RCFile.Reader createReader(int readAheadDepth,
+      ArrayList<Integer> columns) throws IOException {
+    Configuration readConf = new Configuration(conf);
+    readConf.setInt(RCFile.READ_AHEAD_CONF_STR, readAheadDepth);
+    if (columns != null) {
+      ColumnProjectionUtils.setReadColumnIDs(readConf, columns);
+    }
+    return new RCFile.Reader(fs, file, readConf);
+  }
+
+  private void writeRows(CompressionCodec codec) throws IOException {
+    fs.delete(file, true);
+    Configuration writeConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(writeConf, 3);
+    writeConf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, 100);
+    writeConf.setBoolean(RCFile.COLUMN_ENCODING_CONF_STR, true);
+    writeConf.setBoolean(RCFile.ROW_GROUP_INDEX_CONF_STR, true);
+    RCFile.Writer writer = new RCFile.Writer(fs, writeConf, file, null, codec);
+    BytesRefArrayWritable bytes = new BytesRefArrayWritable(3);
+    for (int i = 0; i < ROW_COUNT; i++) {
+      String[] row = {String.valueOf(i), "value_" + (i * 7919),
+          String.valueOf(i % 7)};
+      for (int j = 0; j < row.length; j++) {
+        byte[] data = row[j].getBytes("UTF-8");
+        bytes.set(j, new BytesRefWritable(data, 0, data.length));
+      }
+      writer.append(bytes);
+    }
+    writer.close();
+  }
+
+  private int readRows(RCFile.Reader reader, int firstRow, int maxRows)
+      throws IOException {
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable cols = new BytesRefArrayWritable();
+    int readCount = 0;
+    while (readCount < maxRows && reader.next(rowID)) {
+      reader.getCurrentRow(cols);
+      int row = firstRow + readCount;
+      assertEquals(String.valueOf(row), cell(cols, 0));
+      assertEquals("value_" + (row * 7919), cell(cols, 1));
+      assertEquals(String.valueOf(row % 7), cell(cols, 2));
+      readCount++;
+    }
+    return readCount;
+  }
+
+  private static String cell(BytesRefArrayWritable cols, int column)
+      throws IOException {
+    BytesRefWritable cell = cols.get(column);
+    return new String(cell.getData(), cell.getStart(), cell.getLength(),
+        "UTF-8");
+  }
+}
@@ -0,0 +1,262 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPAnd;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNot;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNotNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPOr;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * TestRCFileRowGroupFilter.
+ *
+ */
+public class TestRCFileRowGroupFilter extends TestCase {
+
+  private final Configuration conf = new Configuration();
+
+  private final ExprNodeDesc key = new ExprNodeColumnDesc(
+      TypeInfoFactory.intTypeInfo, "key", "t", false);
+  private final ExprNodeDesc value = new ExprNodeColumnDesc(
+      TypeInfoFactory.stringTypeInfo, "value", "t", false);
+  private final ExprNodeDesc maybeNull = new ExprNodeColumnDesc(
+      TypeInfoFactory.doubleTypeInfo, "maybe_null", "t", false);
+
+  private FileSystem fs;
+  private Path file;
+
+  @Override
+  protected void setUp() throws IOException {
+    fs = FileSystem.getLocal(conf);
+    file = new Path(System.getProperty("test.data.dir", ".")
+        + "/mapred/testrowgroupfilter/test_rcfile");
+    fs.delete(file, true);
+  }
+
+  public void testSkipRowGroups() throws IOException {
+    writeRowGroups(true);
+
+    // the last row group only
+    assertEquals(100, readRowGroups(compare(
+        new GenericUDFOPEqualOrGreaterThan(), key, new ExprNodeConstantDesc(950)),
+        900));
+    assertEquals(100, readRowGroups(compare(new GenericUDFOPLessThan(),
+        new ExprNodeConstantDesc(900), key), 900));
+    // the second row group only
+    assertEquals(100, readRowGroups(compare(new GenericUDFOPEqual(), value,
+        new ExprNodeConstantDesc("val_0150")), 100));
+    // the fourth row group is all nulls, but the other ones may hold values
+    // that do not parse as doubles
+    assertEquals(1000, readRowGroups(compare(new GenericUDFOPNull(), maybeNull),
+        0));
+    assertEquals(900, readRowGroups(compare(new GenericUDFOPNotNull(),
+        maybeNull), 0));
+    assertEquals(900, readRowGroups(compare(new GenericUDFOPGreaterThan(),
+        maybeNull, new ExprNodeConstantDesc(-0.5)), 0));
+    // the first and the last row group
+    assertEquals(200, readRowGroups(compare(new GenericUDFOPOr(),
+        compare(new GenericUDFOPLessThan(), key, new ExprNodeConstantDesc(10)),
+        compare(new GenericUDFOPEqual(), key, new ExprNodeConstantDesc(999))),
+        0));
+    assertEquals(0, readRowGroups(compare(new GenericUDFOPAnd(),
+        compare(new GenericUDFOPLessThan(), key, new ExprNodeConstantDesc(10)),
+        compare(new GenericUDFOPEqual(), key, new ExprNodeConstantDesc(999))),
+        -1));
+  }
+
+  public void testUnknownPredicate() throws IOException {
+    writeRowGroups(true);
+    assertEquals(1000, readRowGroups(compare(new GenericUDFOPNot(),
+        compare(new GenericUDFOPEqual(), key, new ExprNodeConstantDesc(1))), 0));
+    // a string constant compared with an int column
+    assertEquals(1000, readRowGroups(compare(new GenericUDFOPEqual(), key,
+        new ExprNodeConstantDesc("5000")), 0));
+  }
+
+  public void testFileWithoutStats() throws IOException {
+    writeRowGroups(false);
+    assertEquals(1000, readRowGroups(compare(
+        new GenericUDFOPEqualOrGreaterThan(), key, new ExprNodeConstantDesc(950)),
+        0));
+  }
+
+  public void testNullsOfNumericColumn() throws IOException {
+    // row groups of value and key where key is empty in the second, not a
+    // number in the third and missing in the fourth, and value is null in the
+    // fifth
+    Configuration cloneConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(cloneConf, 2);
+    cloneConf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, 100);
+    cloneConf.setBoolean(RCFile.COLUMN_STATS_CONF_STR, true);
+    RCFile.Writer writer = new RCFile.Writer(fs, cloneConf, file, null,
+        new DefaultCodec());
+    for (int i = 0; i < 500; i++) {
+      String keyText = String.valueOf(i);
+      String valueText = String.format("val_%04d", i);
+      switch (i / 100) {
+      case 1:
+        keyText = "";
+        break;
+      case 2:
+        keyText = "abc";
+        break;
+      case 3:
+        keyText = null;
+        break;
+      case 4:
+        valueText = "\\N";
+        break;
+      default:
+        break;
+      }
+      BytesRefArrayWritable bytes = new BytesRefArrayWritable(2);
+      bytes.set(0, new BytesRefWritable(valueText.getBytes("UTF-8")));
+      if (keyText != null) {
+        bytes.set(1, new BytesRefWritable(keyText.getBytes("UTF-8")));
+      }
+      writer.append(bytes);
+    }
+    writer.close();
+
+    // empty, unparsable and missing numbers read as null
+    assertEquals(500, readRowGroups(compare(new GenericUDFOPNull(), key), 0,
+        "value,key"));
+    assertEquals(100, readRowGroups(compare(new GenericUDFOPNull(), value),
+        400, "value,key"));
+    assertEquals(400, readRowGroups(compare(new GenericUDFOPNotNull(), value),
+        0, "value,key"));
+  }
+
+  public void testEscapedValues() throws IOException {
+    // a row group of a\,b and one of c, escaped with a backslash
+    Configuration cloneConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(cloneConf, 2);
+    cloneConf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, 100);
+    cloneConf.setBoolean(RCFile.COLUMN_STATS_CONF_STR, true);
+    cloneConf.set(Constants.ESCAPE_CHAR, "\\");
+    RCFile.Writer writer = new RCFile.Writer(fs, cloneConf, file, null,
+        new DefaultCodec());
+    for (int i = 0; i < 200; i++) {
+      BytesRefArrayWritable bytes = new BytesRefArrayWritable(2);
+      String valueText = (i < 100) ? "a\\,b" : "c";
+      bytes.set(0, new BytesRefWritable(valueText.getBytes("UTF-8")));
+      bytes.set(1, new BytesRefWritable(String.valueOf(i).getBytes("UTF-8")));
+      writer.append(bytes);
+    }
+    writer.close();
+
+    assertEquals(100, readRowGroups(compare(new GenericUDFOPEqual(), value,
+        new ExprNodeConstantDesc("a,b")), 0, "value,key"));
+    assertEquals(100, readRowGroups(compare(new GenericUDFOPGreaterThan(),
+        value, new ExprNodeConstantDesc("a,c")), 100, "value,key"));
+  }
+
+  private static ExprNodeDesc compare(GenericUDF udf, ExprNodeDesc... children) {
+    return new ExprNodeGenericFuncDesc(TypeInfoFactory.booleanTypeInfo, udf,
+        new ArrayList<ExprNodeDesc>(Arrays.asList(children)));
+  }
+
+  /**
+   * write 10 row groups of 100 rows with columns key (0 to 999), value
+   * (val_0000 to val_0999) and maybe_null, which is null in the fourth row
+   * group and key / 1000 elsewhere.
+   */
+  private void writeRowGroups(boolean columnStats) throws IOException {
+    Configuration cloneConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(cloneConf, 3);
+    cloneConf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, 100);
+    cloneConf.setBoolean(RCFile.COLUMN_STATS_CONF_STR, columnStats);
+    cloneConf.setBoolean(RCFile.COLUMN_ENCODING_CONF_STR, columnStats);
+    RCFile.Writer writer = new RCFile.Writer(fs, cloneConf, file, null,
+        new DefaultCodec());
+    BytesRefArrayWritable bytes = new BytesRefArrayWritable(3);
+    for (int i = 0; i < 1000; i++) {
+      bytes.set(0, new BytesRefWritable(String.valueOf(i).getBytes("UTF-8")));
+      bytes.set(1, new BytesRefWritable(String.format("val_%04d", i)
+          .getBytes("UTF-8")));
+      String nullable = (i / 100 == 3) ? "\\N" : String.valueOf(i / 1000.0);
+      bytes.set(2, new BytesRefWritable(nullable.getBytes("UTF-8")));
+      writer.append(bytes);
+    }
+    writer.close();
+  }
+
+  /**
+   * read the file through a record reader with the given filter expression.
+   *
+   * @return the number of rows read
+   */
+  private int readRowGroups(ExprNodeDesc filterExpr, long firstRowNumber)
+      throws IOException {
+    return readRowGroups(filterExpr, firstRowNumber, "key,value,maybe_null");
+  }
+
+  private int readRowGroups(ExprNodeDesc filterExpr, long firstRowNumber,
+      String columns) throws IOException {
+    JobConf jobConf = new JobConf(conf);
+    jobConf.set(TableScanDesc.FILTER_EXPR_CONF_STR, Utilities
+        .serializeExpression(filterExpr));
+    jobConf.set(Constants.LIST_COLUMNS, columns);
+    FileSplit split = new FileSplit(file, 0, fs.getFileStatus(file).getLen(),
+        (String[]) null);
+    RCFileRecordReader<LongWritable, BytesRefArrayWritable> rr =
+        new RCFileRecordReader<LongWritable, BytesRefArrayWritable>(jobConf,
+        split);
+    LongWritable rowNumber = rr.createKey();
+    BytesRefArrayWritable row = rr.createValue();
+    int readCount = 0;
+    while (rr.next(rowNumber, row)) {
+      if (readCount == 0) {
+        assertEquals("row number of the first row read", firstRowNumber,
+            rowNumber.get());
+      }
+      readCount++;
+    }
+    rr.close();
+    return readCount;
+  }
+}
@@ -0,0 +1,201 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * TestRCFileRowGroupIndex.
+ *
+ */
+public class TestRCFileRowGroupIndex extends TestCase {
+
+  private static final int ROW_COUNT = 1050;
+  private static final int ROWS_PER_GROUP = 100;
+
+  private final Configuration conf = new Configuration();
+
+  private FileSystem fs;
+  private Path dir;
+  private Path file;
+
+  @Override
+  protected void setUp() throws IOException {
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(System.getProperty("test.data.dir", ".")
+        + "/mapred/testrowgroupindex");
+    file = new Path(dir, "test_rcfile");
+    fs.delete(dir, true);
+  }
+
+  public void testIndex() throws IOException {
+    writeRows(true);
+
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    RCFile.RowGroupIndex index = reader.getRowGroupIndex();
+    assertNotNull(index);
+    assertEquals(11, index.getRowGroupCount());
+    for (int i = 0; i < index.getRowGroupCount(); i++) {
+      assertEquals(i == 10 ? 50 : ROWS_PER_GROUP, index.getRowCount(i));
+      assertEquals(i * ROWS_PER_GROUP, index.getFirstRow(i));
+      if (i > 0) {
+        assertTrue(index.getOffset(i) > index.getOffset(i - 1));
+      }
+      assertEquals(i, index.findRowGroup(index.getOffset(i)));
+      assertEquals(i, index.findRowGroupContaining(index.getOffset(i) + 1));
+    }
+    assertTrue(index.getEnd() > index.getOffset(10));
+    assertEquals(-1, index.findRowGroupContaining(0));
+
+    // reading the index leaves the reader where it was
+    assertEquals(ROW_COUNT, readAll(reader, 0));
+    reader.close();
+
+    reader = new RCFile.Reader(fs, file, conf);
+    reader.seekToRowGroup(7);
+    assertEquals(ROW_COUNT - 700, readAll(reader, 700));
+    reader.seekToRowGroup(2);
+    assertEquals(ROW_COUNT - 200, readAll(reader, 200));
+    reader.seekToRowGroup(11);
+    assertEquals(0, readAll(reader, ROW_COUNT));
+    reader.close();
+  }
+
+  public void testFileWithoutIndex() throws IOException {
+    writeRows(false);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    assertNull(reader.getRowGroupIndex());
+    assertEquals(ROW_COUNT, readAll(reader, 0));
+    reader.close();
+  }
+
+  public void testSplitsAlongRowGroups() throws IOException {
+    writeRows(true);
+    RCFile.RowGroupIndex index = RCFileInputFormat.getRowGroupIndex(file, conf);
+
+    JobConf job = new JobConf(conf);
+    job.set("mapred.input.dir", dir.toString());
+    job.setBoolean(RCFile.ROW_GROUP_SPLIT_CONF_STR, true);
+    RCFileInputFormat<LongWritable, BytesRefArrayWritable> inputFormat =
+        new RCFileInputFormat<LongWritable, BytesRefArrayWritable>();
+    InputSplit[] splits = inputFormat.getSplits(job, 7);
+    assertTrue(splits.length > 1);
+
+    long expectedStart = index.getOffset(0);
+    int readCount = 0;
+    for (InputSplit split : splits) {
+      FileSplit fileSplit = (FileSplit) split;
+      // the splits cover the row groups one after another
+      assertEquals(expectedStart, fileSplit.getStart());
+      expectedStart = fileSplit.getStart() + fileSplit.getLength();
+      int rowGroup = index.findRowGroup(fileSplit.getStart());
+      assertEquals(fileSplit.getStart(), index.getOffset(rowGroup));
+
+      RecordReader<LongWritable, BytesRefArrayWritable> rr = inputFormat
+          .getRecordReader(split, job, Reporter.NULL);
+      LongWritable key = rr.createKey();
+      BytesRefArrayWritable value = rr.createValue();
+      while (rr.next(key, value)) {
+        assertEquals(readCount, key.get());
+        assertEquals(String.valueOf(readCount), cell(value, 0));
+        readCount++;
+      }
+      rr.close();
+    }
+    assertEquals(index.getEnd(), expectedStart);
+    assertEquals(ROW_COUNT, readCount);
+  }
+
+  public void testDefaultVersion() throws IOException {
+    // without opting in to any of the extensions older readers can open the
+    // file
+    Configuration writeConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(writeConf, 1);
+    RCFile.Writer writer = new RCFile.Writer(fs, writeConf, file, null,
+        new DefaultCodec());
+    BytesRefArrayWritable bytes = new BytesRefArrayWritable(1);
+    bytes.set(0, new BytesRefWritable("1".getBytes("UTF-8")));
+    writer.append(bytes);
+    writer.close();
+
+    FSDataInputStream in = fs.open(file);
+    byte[] header = new byte[4];
+    in.readFully(header);
+    in.close();
+    assertEquals(6, header[3]);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    assertNull(reader.getRowGroupIndex());
+    reader.close();
+  }
+
+  private void writeRows(boolean rowGroupIndex) throws IOException {
+    Configuration writeConf = new Configuration(conf);
+    RCFileOutputFormat.setColumnNumber(writeConf, 2);
+    writeConf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, ROWS_PER_GROUP);
+    writeConf.setBoolean(RCFile.COLUMN_ENCODING_CONF_STR, true);
+    writeConf.setBoolean(RCFile.ROW_GROUP_INDEX_CONF_STR, rowGroupIndex);
+    RCFile.Writer writer = new RCFile.Writer(fs, writeConf, file, null,
+        new DefaultCodec());
+    BytesRefArrayWritable bytes = new BytesRefArrayWritable(2);
+    for (int i = 0; i < ROW_COUNT; i++) {
+      byte[] key = String.valueOf(i).getBytes("UTF-8");
+      byte[] value = ("value_" + (i * 7919)).getBytes("UTF-8");
+      bytes.set(0, new BytesRefWritable(key, 0, key.length));
+      bytes.set(1, new BytesRefWritable(value, 0, value.length));
+      writer.append(bytes);
+    }
+    writer.close();
+  }
+
+  private int readAll(RCFile.Reader reader, int firstRow) throws IOException {
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable cols = new BytesRefArrayWritable();
+    int readCount = 0;
+    while (reader.next(rowID)) {
+      reader.getCurrentRow(cols);
+      int row = firstRow + readCount;
+      assertEquals(String.valueOf(row), cell(cols, 0));
+      assertEquals("value_" + (row * 7919), cell(cols, 1));
+      readCount++;
+    }
+    return readCount;
+  }
+
+  private static String cell(BytesRefArrayWritable cols, int column)
+      throws IOException {
+    BytesRefWritable cell = cols.get(column);
+    return new String(cell.getData(), cell.getStart(), cell.getLength(),
+        "UTF-8");
+  }
+}
@@ -0,0 +1,69 @@
+/*!
+* Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package org.apache.hadoop.hive.ql.optimizer;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+
+/**
+ * TestConstantFolding.
+ *
+ */
+public class TestConstantFolding extends TestCase {
+
+  private static ExprNodeDesc func(String name, ExprNodeDesc... children) throws Exception {
+    return TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(name, children);
+  }
+
+  private static ExprNodeDesc constant(Object value) {
+    return new ExprNodeConstantDesc(value);
+  }
+
+  public void testFold() throws Exception {
+    ExprNodeDesc folded = ConstantFolding.foldExpr(func("concat", constant("a"), constant("b")));
+    assertTrue(folded.isSame(constant("ab")));
+
+    folded = ConstantFolding.foldExpr(func(Constants.INT_TYPE_NAME, constant("12")));
+    assertTrue(folded.isSame(constant(12)));
+
+    // only the constant argument is folded
+    ExprNodeDesc x = new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "x", "", false);
+    ExprNodeDesc expr = func(">", x, func("+", constant(1), constant(2)));
+    folded = ConstantFolding.foldExpr(expr);
+    assertSame(expr, folded);
+    assertTrue(((ExprNodeGenericFuncDesc) folded).getChildExprs().get(1).isSame(constant(3)));
+  }
+
+  public void testNotFolded() throws Exception {
+    // not deterministic
+    ExprNodeDesc expr = func("unix_timestamp", constant("2011-01-01 00:00:00"));
+    assertSame(expr, ConstantFolding.foldExpr(expr));
+    expr = func("+", func("rand"), constant(1.0));
+    assertSame(expr, ConstantFolding.foldExpr(expr));
+    // null result
+    expr = func(Constants.INT_TYPE_NAME, constant("x"));
+    assertSame(expr, ConstantFolding.foldExpr(expr));
+  }
+}
@@ -428,6 +428,16 @@ public class BinarySortableSerDe implements SerDe {
     return serializeBytesWritable;
   }
 
+  /**
+   * Serializes the i-th column of a row at the end of the buffer, the same way
+   * serialize does. This lets the caller serialize the columns straight into
+   * its own buffer, and know where each column ends.
+   */
+  public void serializeField(OutputByteBuffer buffer, int i, Object o,
+      ObjectInspector oi) {
+    serialize(buffer, o, oi, columnSortOrderIsDesc[i]);
+  }
+
   static void serialize(OutputByteBuffer buffer, Object o, ObjectInspector oi,
       boolean invert) {
     // Is this field a null?
@@ -18,7 +18,6 @@
 package org.apache.hadoop.hive.serde2.lazybinary;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -85,17 +84,38 @@ public class LazyBinaryStruct extends
   public void init(ByteArrayRef bytes, int start, int length) {
     super.init(bytes, start, length);
     parsed = false;
+    parsedFields = 0;
   }
 
   RecordInfo recordInfo = new LazyBinaryUtils.RecordInfo();
   boolean missingFieldWarned = false;
   boolean extraFieldWarned = false;
 
+  /**
+   * The number of fields whose position is already known, and where the
+   * parsing of the next field resumes. Fields are located on first access so
+   * that reading the first few fields of a wide row does not walk the rest.
+   */
+  int parsedFields;
+  int presentFields;
+  int lastFieldByteEnd;
+  byte nullByte;
+
   /**
    * Parse the byte[] and fill fieldStart, fieldLength, fieldInited and
    * fieldIsNull.
    */
   private void parse() {
+    parse(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Parse the byte[] up to and including the given field.
+   *
+   * @param fieldID
+   *          The last field to locate
+   */
+  private void parse(int fieldID) {
 
     List<? extends StructField> fieldRefs = ((StructObjectInspector) oi)
         .getAllStructFieldRefs();
@@ -117,14 +137,18 @@ public class LazyBinaryStruct extends
      * null byte and fields.
      */
 
-    int fieldId = 0;
     int structByteEnd = start + length;
     byte[] bytes = this.bytes.getData();
 
-    byte nullByte = bytes[start];
-    int lastFieldByteEnd = start + 1;
-    // Go through all bytes in the byte[]
-    for (int i = 0; i < fields.length; i++) {
+    if (parsedFields == 0) {
+      nullByte = bytes[start];
+      lastFieldByteEnd = start + 1;
+      presentFields = 0;
+    }
+    int lastField = Math.min(fieldID, fields.length - 1);
+    // Go through the bytes of the fields not located yet
+    for (int i = parsedFields; i <= lastField; i++) {
+      fieldInited[i] = false;
       fieldIsNull[i] = true;
       if ((nullByte & (1 << (i % 8))) != 0) {
         fieldIsNull[i] = false;
@@ -137,7 +161,7 @@ public class LazyBinaryStruct extends
 
       // count how many fields are there
       if (lastFieldByteEnd <= structByteEnd) {
-        fieldId++;
+        presentFields++;
       }
       // next byte is a null byte if there are more bytes to go
       if (7 == (i % 8)) {
@@ -151,6 +175,10 @@ public class LazyBinaryStruct extends
         }
       }
     }
+    parsedFields = lastField + 1;
+    if (parsedFields < fields.length) {
+      return;
+    }
 
     // Extra bytes at the end?
     if (!extraFieldWarned && lastFieldByteEnd < structByteEnd) {
@@ -163,10 +191,9 @@ public class LazyBinaryStruct extends
     if (!missingFieldWarned && lastFieldByteEnd > structByteEnd) {
       missingFieldWarned = true;
       LOG.warn("Missing fields! Expected " + fields.length + " fields but "
-          + "only got " + fieldId + "! Ignoring similar problems.");
+          + "only got " + presentFields + "! Ignoring similar problems.");
     }
 
-    Arrays.fill(fieldInited, false);
     parsed = true;
   }
 
@@ -184,8 +211,8 @@ public class LazyBinaryStruct extends
    * @return The field as a LazyObject
    */
   public Object getField(int fieldID) {
-    if (!parsed) {
-      parse();
+    if (!parsed && fieldID >= parsedFields) {
+      parse(fieldID);
     }
     return uncheckedGetField(fieldID);
   }
@@ -129,6 +129,52 @@ public class TestLazyBinarySerDe extends TestCase {
     }
   }
 
+  /**
+   * Test that the fields of a deserialized row read back the same whatever the
+   * order in which they are accessed, since the fields are located on first
+   * access.
+   *
+   * @param rows
+   *          array of structs to be serialized
+   * @param rowOI
+   *          the struct object inspector
+   * @param serde
+   *          the serde
+   * @param r
+   *          random number generator
+   * @throws Throwable
+   */
+  private void testFieldAccessOrder(Object[] rows, StructObjectInspector rowOI,
+      SerDe serde, Random r) throws Throwable {
+
+    StructObjectInspector serdeOI = (StructObjectInspector) serde
+        .getObjectInspector();
+    List<? extends StructField> rowFields = rowOI.getAllStructFieldRefs();
+    List<? extends StructField> serdeFields = serdeOI.getAllStructFieldRefs();
+
+    for (int i = 0; i < rows.length; i++) {
+      BytesWritable bytes = new BytesWritable();
+      bytes.set((BytesWritable) serde.serialize(rows[i], rowOI));
+      Object deserialized = serde.deserialize(bytes);
+      // access a random field first, then all of them from the last one
+      int first = r.nextInt(serdeFields.size());
+      for (int j = -1; j < serdeFields.size(); j++) {
+        int field = j < 0 ? first : serdeFields.size() - 1 - j;
+        if (0 != ObjectInspectorUtils.compare(rowOI.getStructFieldData(
+            rows[i], rowFields.get(field)), rowFields.get(field)
+            .getFieldObjectInspector(), serdeOI.getStructFieldData(
+            deserialized, serdeFields.get(field)), serdeFields.get(field)
+            .getFieldObjectInspector())) {
+          System.out.println("structs[" + i + "] = "
+              + SerDeUtils.getJSONString(rows[i], rowOI));
+          System.out.println("deserialized[" + i + "] = "
+              + SerDeUtils.getJSONString(deserialized, serdeOI));
+          fail("Field " + field + " of row " + i + " differs");
+        }
+      }
+    }
+  }
+
   /**
    * Compare two structs that have different number of fields. We just compare
    * the first few common fields, ignoring the fields existing in one struct but
@@ -512,6 +558,8 @@ public class TestLazyBinarySerDe extends TestCase {
       testShorterSchemaDeserialization1(r);
       // 6/ test serialization and deserialization with different schemas
       testLongerSchemaDeserialization1(r);
+      // 7/ test the fields accessed in any order
+      testFieldAccessOrder(rows, rowOI, getSerDe(fieldNames, fieldTypes), r);
 
       System.out.println("Test TestLazyBinarySerDe passed!");
     } catch (Throwable e) {